@@ -6,15 +6,35 @@ import java.io.InputStreamReader;
 
 import javax.json.Json;
 import javax.json.JsonObject;
+import javax.json.JsonString;
 import javax.servlet.ServletContextEvent;
 import javax.servlet.ServletContextListener;
 import javax.servlet.annotation.WebListener;
 
+import org.adoxx.microservice.api.CallContext;
+import org.adoxx.microservice.api.MicroserviceBatchCall;
 import org.adoxx.microservice.api.MicroserviceController;
+import org.adoxx.microservice.api.connectors.AsyncResponseDispatcher;
+import org.adoxx.microservice.api.connectors.ConnectorInstancePool;
+import org.adoxx.microservice.api.connectors.ConnectorsController;
 import org.adoxx.microservice.api.connectors.impl.CommandLineConnector;
+import org.adoxx.microservice.api.log.LogI.LogLevel;
 import org.adoxx.microservice.api.log.LogManager;
 import org.adoxx.microservice.api.log.impl.FileBasedLogSaver;
+import org.adoxx.microservice.api.persistence.MicroserviceSummaryIndex;
+import org.adoxx.microservice.api.persistence.PersistenceManager;
+import org.adoxx.microservice.api.persistence.impl.CachedStore;
 import org.adoxx.microservice.api.persistence.impl.FileBasedStore;
+import org.adoxx.microservice.api.persistence.impl.H2Store;
+import org.adoxx.microservice.api.persistence.impl.SegmentStore;
+import org.adoxx.microservice.utils.ExecutorManager;
+import org.adoxx.microservice.utils.GraalJSEngineProvider;
+import org.adoxx.microservice.utils.JavascriptEngineManager;
+import org.adoxx.microservice.utils.JavascriptEnginePool;
+import org.adoxx.microservice.utils.JavascriptLibraryCache;
+import org.adoxx.microservice.utils.ScriptLimits;
+import org.adoxx.microservice.utils.ScriptWatchdog;
+import org.adoxx.microservice.utils.TrivialScriptEvaluator;
 import org.adoxx.microservice.utils.Utils;
 
 @WebListener
@@ -25,9 +45,26 @@ public class RESTContextListener implements ServletContextListener {
     public static String keycloakClient = "";
     public static String keycloakSecret = "";
 
+    private CachedStore cachedStore = null;
+    private H2Store h2Store = null;
+    private SegmentStore segmentStore = null;
+
     @Override
     public void contextDestroyed(ServletContextEvent arg0) {
-        
+        PersistenceManager.unique().getSummaryIndex().flush();
+        if(cachedStore != null)
+            cachedStore.close();
+        if(h2Store != null)
+            h2Store.close();
+        if(segmentStore != null)
+            segmentStore.close();
+        try {
+            ConnectorsController.unique().clearConnectorInstancePool();
+        } catch (Exception e) {
+            LogManager.unique().log(LogLevel.ERROR, "Impossible to clear the connector instance pool", e);
+        }
+        JavascriptEngineManager.unique().getProvider().clear();
+        ExecutorManager.unique().shutdown();
     }
 
     @Override
@@ -37,10 +74,53 @@ public class RESTContextListener implements ServletContextListener {
             String envConfig = System.getenv("MSC_CONFIG")==null?"":System.getenv("MSC_CONFIG");
             JsonObject config = Json.createReader(new InputStreamReader(!envConfig.isEmpty()?new FileInputStream(envConfig):RESTContextListener.class.getResourceAsStream("config.json"))).readObject();
             String microservicesDefinitionFolder = config.getString("microservicesDefinitionFolder", "");
-            if(!microservicesDefinitionFolder.isEmpty()) {
+            String persistenceStore = config.getString("persistenceStore", "file");
+            //the executors are configured first, because the stores can already use them
+            ExecutorManager.useVirtualThreads = config.getBoolean("useVirtualThreads", true);
+            ExecutorManager.asyncDispatcherWorkers = config.getInt("asyncDispatcherWorkers", ExecutorManager.asyncDispatcherWorkers);
+            ExecutorManager.asyncCallWorkers = config.getInt("asyncCallWorkers", ExecutorManager.asyncCallWorkers);
+            ExecutorManager.asyncCallMaxQueuedCalls = config.getInt("asyncCallMaxQueuedCalls", ExecutorManager.asyncCallMaxQueuedCalls);
+            ExecutorManager.scriptWorkers = config.getInt("jsWorkers", ExecutorManager.scriptWorkers);
+            ExecutorManager.maxAbandonedScriptWorkers = config.getInt("jsMaxAbandonedWorkers", ExecutorManager.maxAbandonedScriptWorkers);
+            MicroserviceSummaryIndex.saveDelayMs = config.getInt("summaryIndexSaveDelayMs", (int) MicroserviceSummaryIndex.saveDelayMs);
+            if(persistenceStore.equalsIgnoreCase("h2")) {
+                if(!microservicesDefinitionFolder.isEmpty() && !microservicesDefinitionFolder.startsWith("/")) 
+                    microservicesDefinitionFolder = workingFolder + microservicesDefinitionFolder;
+                h2Store = new H2Store(config.getString("h2DatabaseUrl", ""), config.getString("h2User", ""), config.getString("h2Password", ""), config.getInt("h2MaxConnections", 10));
+                //at the first start the configurations of the microservicesDefinitionFolder are migrated in the database
+                if(!microservicesDefinitionFolder.isEmpty() && new File(microservicesDefinitionFolder).isDirectory() && h2Store.countMicroserviceConfigurations() == 0)
+                    h2Store.importFolder(microservicesDefinitionFolder);
+                //the microservices are listed through the indexed columns of the database, so no summary index file is needed
+                MicroserviceController.unique().setPersistenceHandler(config.getBoolean("persistenceCacheEnabled", true) ? new CachedStore(h2Store) : h2Store);
+            } else if(persistenceStore.equalsIgnoreCase("segment")) {
+                if(!microservicesDefinitionFolder.isEmpty() && !microservicesDefinitionFolder.startsWith("/")) 
+                    microservicesDefinitionFolder = workingFolder + microservicesDefinitionFolder;
+                String segmentStoreFolder = config.getString("segmentStoreFolder", "");
+                if(!segmentStoreFolder.isEmpty() && !segmentStoreFolder.startsWith("/")) 
+                    segmentStoreFolder = workingFolder + segmentStoreFolder;
+                SegmentStore.syncMode = SegmentStore.SyncMode.valueOf(config.getString("segmentStoreSyncMode", SegmentStore.syncMode.name()).toUpperCase());
+                SegmentStore.syncIntervalMs = config.getInt("segmentStoreSyncIntervalMs", SegmentStore.syncIntervalMs);
+                SegmentStore.maxSegmentSizeInMB = config.getInt("segmentStoreMaxSegmentSizeInMB", SegmentStore.maxSegmentSizeInMB);
+                SegmentStore.maxHistoryVersions = config.getInt("segmentStoreMaxHistoryVersions", SegmentStore.maxHistoryVersions);
+                SegmentStore.compactionIntervalInSeconds = config.getInt("segmentStoreCompactionIntervalInSeconds", SegmentStore.compactionIntervalInSeconds);
+                segmentStore = new SegmentStore(segmentStoreFolder);
+                //at the first start the configurations of the microservicesDefinitionFolder are migrated in the segments
+                if(!microservicesDefinitionFolder.isEmpty() && new File(microservicesDefinitionFolder).isDirectory() && segmentStore.countMicroserviceConfigurations() == 0)
+                    segmentStore.importFolder(microservicesDefinitionFolder);
+                PersistenceManager.unique().setSummaryIndexFile(segmentStore.getFolder() + "index/summary-index.json");
+                MicroserviceController.unique().setPersistenceHandler(config.getBoolean("persistenceCacheEnabled", true) ? new CachedStore(segmentStore) : segmentStore);
+            } else if(!microservicesDefinitionFolder.isEmpty()) {
                 if(!microservicesDefinitionFolder.startsWith("/")) 
                     microservicesDefinitionFolder = workingFolder + microservicesDefinitionFolder;
-                MicroserviceController.unique().setPersistenceHandler(new FileBasedStore(microservicesDefinitionFolder));
+                FileBasedStore fileBasedStore = new FileBasedStore(microservicesDefinitionFolder);
+                PersistenceManager.unique().setSummaryIndexFile(fileBasedStore.getBaseFolder() + "index/summary-index.json");
+                if(config.getBoolean("persistenceCacheEnabled", true)) {
+                    //the configurations are kept parsed in memory, and the files changed in the folder are reloaded
+                    cachedStore = new CachedStore(fileBasedStore, fileBasedStore.getBaseFolder());
+                    MicroserviceController.unique().setPersistenceHandler(cachedStore);
+                } else {
+                    MicroserviceController.unique().setPersistenceHandler(fileBasedStore);
+                }
             }
             
             String uploadFolder = config.getString("uploadFolder", "");
@@ -57,10 +137,52 @@ public class RESTContextListener implements ServletContextListener {
                 LogManager.unique().setLogHandler(new FileBasedLogSaver(logFileName));
             }
             
-            if(config.getBoolean("autostartEnabled", false))
-                MicroserviceController.unique().initAutostart();
+            AsyncResponseDispatcher.maxQueueDepth = config.getInt("asyncDispatcherMaxQueueDepth", AsyncResponseDispatcher.maxQueueDepth);
+            AsyncResponseDispatcher.overflowPolicy = AsyncResponseDispatcher.OverflowPolicy.valueOf(config.getString("asyncDispatcherOverflowPolicy", AsyncResponseDispatcher.overflowPolicy.name()).toUpperCase());
+            String asyncDispatcherSpillFolder = config.getString("asyncDispatcherSpillFolder", "");
+            if(!asyncDispatcherSpillFolder.isEmpty()) {
+                if(!asyncDispatcherSpillFolder.startsWith("/")) 
+                    asyncDispatcherSpillFolder = workingFolder + asyncDispatcherSpillFolder;
+                AsyncResponseDispatcher.spillFolder = asyncDispatcherSpillFolder;
+            }
+            ConnectorInstancePool.enabled = config.getBoolean("connectorPoolEnabled", ConnectorInstancePool.enabled);
+            ConnectorInstancePool.minIdlePerKey = config.getInt("connectorPoolMinIdle", ConnectorInstancePool.minIdlePerKey);
+            ConnectorInstancePool.maxSizePerKey = config.getInt("connectorPoolMaxSize", ConnectorInstancePool.maxSizePerKey);
+            ConnectorInstancePool.idleTimeoutInSeconds = config.getInt("connectorPoolIdleTimeoutInSeconds", ConnectorInstancePool.idleTimeoutInSeconds);
+            ConnectorInstancePool.maxLifetimeInSeconds = config.getInt("connectorPoolMaxLifetimeInSeconds", ConnectorInstancePool.maxLifetimeInSeconds);
+            MicroserviceBatchCall.maxParallelism = config.getInt("batchMaxParallelism", MicroserviceBatchCall.maxParallelism);
+            MicroserviceBatchCall.maxScriptFanOut = config.getInt("scriptMaxFanOut", MicroserviceBatchCall.maxScriptFanOut);
+            if(config.containsKey("callDefaultTimeoutMs"))
+                CallContext.defaultCallTimeoutMs = config.getJsonNumber("callDefaultTimeoutMs").longValue();
             
             Utils.maxJSExecTimeInMinutes = config.getInt("maxJSExecTimeInMinutes", 5);
+            JavascriptEnginePool.maxIdleEnginesPerPolicy = config.getInt("jsEnginePoolMaxIdle", JavascriptEnginePool.maxIdleEnginesPerPolicy);
+            JavascriptEnginePool.maxCompiledScriptsPerEngine = config.getInt("jsCompiledScriptCacheSize", JavascriptEnginePool.maxCompiledScriptsPerEngine);
+            String jsEngine = config.getString("jsEngine", "nashorn");
+            try {
+                //the GraalJS classes are loaded only when required, because its libraries are optional
+                if(jsEngine.equalsIgnoreCase("graaljs"))
+                    GraalJSEngineProvider.maxIdleContextsPerPolicy = config.getInt("jsGraalContextPoolMaxIdle", GraalJSEngineProvider.maxIdleContextsPerPolicy);
+                JavascriptEngineManager.unique().setProvider(jsEngine);
+            } catch (Exception | NoClassDefFoundError e) {
+                LogManager.unique().log(LogLevel.ERROR, "Impossible to use the javascript engine " + jsEngine + ", Nashorn will be used", e);
+            }
+            ScriptWatchdog.forcedStopGracePeriodMs = config.getInt("jsForcedStopGracePeriodMs", (int) ScriptWatchdog.forcedStopGracePeriodMs);
+            ScriptWatchdog.resourceCheckIntervalMs = config.getInt("jsResourceCheckIntervalMs", (int) ScriptWatchdog.resourceCheckIntervalMs);
+            ScriptLimits.defaultMaxCpuTimeMs = config.getInt("jsDefaultMaxCpuTimeMs", (int) ScriptLimits.defaultMaxCpuTimeMs);
+            if(config.containsKey("jsDefaultMaxAllocatedBytes"))
+                ScriptLimits.defaultMaxAllocatedBytes = config.getJsonNumber("jsDefaultMaxAllocatedBytes").longValue();
+            TrivialScriptEvaluator.enabled = config.getBoolean("jsFastPathEnabled", TrivialScriptEvaluator.enabled);
+            JavascriptLibraryCache.enabled = config.getBoolean("jsLibraryCacheEnabled", JavascriptLibraryCache.enabled);
+            JavascriptLibraryCache.ttlInSeconds = config.getInt("jsLibraryCacheTTLInSeconds", JavascriptLibraryCache.ttlInSeconds);
+            JavascriptLibraryCache.offlineMode = config.getBoolean("jsLibraryOfflineMode", JavascriptLibraryCache.offlineMode);
+            if(config.containsKey("jsLibraryPreloadList"))
+                for(JsonString jsLibraryUrl : config.getJsonArray("jsLibraryPreloadList").getValuesAs(JsonString.class))
+                    JavascriptLibraryCache.preloadLibraryList.add(jsLibraryUrl.getString());
+            if(config.containsKey("jsLibraryAllowList"))
+                for(JsonString jsLibraryUrl : config.getJsonArray("jsLibraryAllowList").getValuesAs(JsonString.class))
+                    JavascriptLibraryCache.allowedLibraryList.add(jsLibraryUrl.getString());
+            JavascriptLibraryCache.unique().preload();
 
             String commandLineExecPath = config.getString("commandLineExecPath", "");
             if(!commandLineExecPath.isEmpty()) {
@@ -69,6 +191,10 @@ public class RESTContextListener implements ServletContextListener {
                 CommandLineConnector.commandLineExecPath = commandLineExecPath;
             }
             CommandLineConnector.commandLineMaxExecTimeInMinutes = config.getInt("commandLineMaxExecTimeInMinutes", 5);
+            
+            //the autostart microservices can require the preloaded javascript libraries
+            if(config.getBoolean("autostartEnabled", false))
+                MicroserviceController.unique().initAutostart();
 
             String keycloakUrlEnv = config.getString("keycloakUrlEnv", "OSC_KEYCLOAK_URL");
             String keycloakRealsEnv = config.getString("keycloakRealmEnv", "OSC_KEYCLOAK_REALM");
@@ -89,6 +215,7 @@ public class RESTContextListener implements ServletContextListener {
             System.out.println("MICROSERVICE CONFIGURATION DEFINITION FOLDER: " + microservicesDefinitionFolder);
             System.out.println("MICROSERVICE CONFIGURATION UPLOADS FOLDER: " + uploadFolder);
             System.out.println("MICROSERVICE CONFIGURATION LOG FILE: " + logFileName);
+            System.out.println("MICROSERVICE CONFIGURATION VIRTUAL THREADS: " + ExecutorManager.isVirtualThreadsUsed());
         } catch (Exception e) {
             throw new ExceptionInInitializerError(e);
         }
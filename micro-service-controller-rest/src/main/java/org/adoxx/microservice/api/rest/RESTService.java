@@ -1,27 +1,42 @@
 package org.adoxx.microservice.api.rest;
 
 import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import javax.json.Json;
+import javax.json.JsonArray;
 import javax.json.JsonObject;
 import javax.json.JsonObjectBuilder;
 import javax.servlet.ServletContext;
 import javax.ws.rs.Consumes;
+import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.MultivaluedMap;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 import javax.ws.rs.core.UriInfo;
 
+import org.adoxx.microservice.api.CallContext;
+import org.adoxx.microservice.api.MicroserviceBatchCall;
 import org.adoxx.microservice.api.MicroserviceController;
+import org.adoxx.microservice.api.OperationOverloadedException;
 import org.adoxx.microservice.api.log.LogManager;
 import org.adoxx.microservice.api.log.LogI.LogLevel;
 import org.adoxx.microservice.utils.Utils;
@@ -59,6 +74,90 @@ public class RESTService {
         }        
     }
     
+    @GET
+    @Path("/getAsyncResponsesStatus")
+    @Produces(MediaType.APPLICATION_JSON)
+    public String getAsyncResponsesStatus(){
+        try{
+            return "{\"status\":0, \"data\":" + MicroserviceController.unique().getAsyncResponsesStatus().toString() + "}";
+        }catch(Exception ex){
+            LogManager.unique().log(LogLevel.ERROR, "Exception calling the REST service getAsyncResponsesStatus", ex);
+            return "{\"status\":-1, \"error\":\""+Utils.escapeJson(ex.getMessage())+"\"}";
+        }        
+    }
+    
+    @GET
+    @Path("/getConnectorInstancePoolStatus")
+    @Produces(MediaType.APPLICATION_JSON)
+    public String getConnectorInstancePoolStatus(){
+        try{
+            return "{\"status\":0, \"data\":" + MicroserviceController.unique().getConnectorInstancePoolStatus().toString() + "}";
+        }catch(Exception ex){
+            LogManager.unique().log(LogLevel.ERROR, "Exception calling the REST service getConnectorInstancePoolStatus", ex);
+            return "{\"status\":-1, \"error\":\""+Utils.escapeJson(ex.getMessage())+"\"}";
+        }        
+    }
+    
+    @GET
+    @Path("/getExecutorStatus")
+    @Produces(MediaType.APPLICATION_JSON)
+    public String getExecutorStatus(){
+        try{
+            return "{\"status\":0, \"data\":" + MicroserviceController.unique().getExecutorStatus().toString() + "}";
+        }catch(Exception ex){
+            LogManager.unique().log(LogLevel.ERROR, "Exception calling the REST service getExecutorStatus", ex);
+            return "{\"status\":-1, \"error\":\""+Utils.escapeJson(ex.getMessage())+"\"}";
+        }
+    }
+    
+    @GET
+    @Path("/getJavascriptEngineStatus")
+    @Produces(MediaType.APPLICATION_JSON)
+    public String getJavascriptEngineStatus(){
+        try{
+            return "{\"status\":0, \"data\":" + MicroserviceController.unique().getJavascriptEngineStatus().toString() + "}";
+        }catch(Exception ex){
+            LogManager.unique().log(LogLevel.ERROR, "Exception calling the REST service getJavascriptEngineStatus", ex);
+            return "{\"status\":-1, \"error\":\""+Utils.escapeJson(ex.getMessage())+"\"}";
+        }        
+    }
+    
+    @GET
+    @Path("/getOperationBulkheadStatus")
+    @Produces(MediaType.APPLICATION_JSON)
+    public String getOperationBulkheadStatus(){
+        try{
+            return "{\"status\":0, \"data\":" + MicroserviceController.unique().getOperationBulkheadStatus().toString() + "}";
+        }catch(Exception ex){
+            LogManager.unique().log(LogLevel.ERROR, "Exception calling the REST service getOperationBulkheadStatus", ex);
+            return "{\"status\":-1, \"error\":\""+Utils.escapeJson(ex.getMessage())+"\"}";
+        }        
+    }
+    
+    @GET
+    @Path("/getPersistenceStatus")
+    @Produces(MediaType.APPLICATION_JSON)
+    public String getPersistenceStatus(){
+        try{
+            return "{\"status\":0, \"data\":" + MicroserviceController.unique().getPersistenceStatus().toString() + "}";
+        }catch(Exception ex){
+            LogManager.unique().log(LogLevel.ERROR, "Exception calling the REST service getPersistenceStatus", ex);
+            return "{\"status\":-1, \"error\":\""+Utils.escapeJson(ex.getMessage())+"\"}";
+        }        
+    }
+    
+    @GET
+    @Path("/getScriptUsageStatus")
+    @Produces(MediaType.APPLICATION_JSON)
+    public String getScriptUsageStatus(){
+        try{
+            return "{\"status\":0, \"data\":" + MicroserviceController.unique().getScriptUsageStatus().toString() + "}";
+        }catch(Exception ex){
+            LogManager.unique().log(LogLevel.ERROR, "Exception calling the REST service getScriptUsageStatus", ex);
+            return "{\"status\":-1, \"error\":\""+Utils.escapeJson(ex.getMessage())+"\"}";
+        }        
+    }
+    
     @POST
     @Path("/createMicroservice")
     @Consumes(MediaType.APPLICATION_JSON)
@@ -139,6 +238,25 @@ public class RESTService {
         }        
     }
     
+    @GET
+    @Path("/retrieveMicroservices")
+    @Produces(MediaType.APPLICATION_JSON)
+    public String retrieveMicroservices(@QueryParam("offset") @DefaultValue("0") int offset, @QueryParam("limit") @DefaultValue("0") int limit, @QueryParam("sortBy") @DefaultValue("id") String sortBy, @QueryParam("descending") @DefaultValue("false") boolean descending, @QueryParam("public") @DefaultValue("true") String publicFilter){
+        try{
+            //public: "true" (default) for the public microservices, "false" for the private ones, "all" for both
+            Boolean publicFilterValue = null;
+            if(publicFilter.equalsIgnoreCase("true") || publicFilter.equalsIgnoreCase("false"))
+                publicFilterValue = Boolean.valueOf(publicFilter);
+            else if(!publicFilter.equalsIgnoreCase("all"))
+                throw new Exception("Unsupported public filter " + publicFilter + ". Allowed values: true, false, all");
+            JsonObject microservices = MicroserviceController.unique().retrieveMicroservices(publicFilterValue, sortBy, descending, offset, limit);
+            return "{\"status\":0, \"data\":"+microservices.toString()+"}";
+        }catch(Exception ex){
+            LogManager.unique().log(LogLevel.ERROR, "Exception calling the REST service retrieveMicroservices", ex);
+            return "{\"status\":-1, \"error\":\""+Utils.escapeJson(ex.getMessage())+"\"}";
+        }        
+    }
+    
     @GET
     @Path("/retrieveMicroserviceDetails")
     @Produces(MediaType.APPLICATION_JSON)
@@ -165,6 +283,19 @@ public class RESTService {
         }        
     }
     
+    @GET
+    @Path("/retrieveMicroserviceConfigurationHistory")
+    @Produces(MediaType.APPLICATION_JSON)
+    public String retrieveMicroserviceConfigurationHistory(@QueryParam("microserviceId") String microserviceId){
+        try{
+            JsonArray microserviceConfigurationHistory = MicroserviceController.unique().retrieveMicroserviceConfigurationHistory(microserviceId);
+            return "{\"status\":0, \"data\":"+microserviceConfigurationHistory.toString()+"}";
+        }catch(Exception ex){
+            LogManager.unique().log(LogLevel.ERROR, "Exception calling the REST service retrieveMicroserviceConfigurationHistory", ex);
+            return "{\"status\":-1, \"error\":\""+Utils.escapeJson(ex.getMessage())+"\"}";
+        }        
+    }
+    
     @GET
     @Path("/getMicroserviceIOInfo")
     @Produces(MediaType.APPLICATION_JSON)
@@ -208,32 +339,32 @@ public class RESTService {
     @Path("/callMicroservice")
     @Produces(MediaType.APPLICATION_JSON)
     @Consumes(MediaType.APPLICATION_JSON)
-    public String callMicroservice(@QueryParam("microserviceId") String microserviceId, @QueryParam("operationId") String operationId, String microserviceInputs){
+    public void callMicroservice(@Suspended AsyncResponse asyncResponse, @QueryParam("microserviceId") String microserviceId, @QueryParam("operationId") String operationId, @QueryParam("timeoutMs") long timeoutMs, String microserviceInputs){
         try{
             if(microserviceInputs == null || microserviceInputs.isEmpty())
                 microserviceInputs = "{}";
             JsonObject microserviceInputsO = Json.createReader(new StringReader(microserviceInputs)).readObject();
-            JsonObject callRet = MicroserviceController.unique().callMicroservice(microserviceId, operationId, microserviceInputsO);
-            return "{\"status\":0, \"data\":"+callRet.toString()+"}";
+            CallContext callContext = newCallContext(timeoutMs);
+            resumeWithCallResult(asyncResponse, callContext, callContext.call(() -> MicroserviceController.unique().callMicroserviceAsync(microserviceId, operationId, microserviceInputsO)), "callMicroservice");
         }catch(Exception ex){
             LogManager.unique().log(LogLevel.ERROR, "Exception calling the REST service callMicroservice", ex);
-            return "{\"status\":-1, \"error\":\""+Utils.escapeJson(ex.getMessage())+"\"}";
+            asyncResponse.resume("{\"status\":-1, \"error\":\""+Utils.escapeJson(ex.getMessage())+"\"}");
         }
     }
     
     @GET
     @Path("/callMicroservice")
     @Produces(MediaType.APPLICATION_JSON)
-    public String callMicroserviceGET(@QueryParam("microserviceId") String microserviceId, @QueryParam("operationId") String operationId, @QueryParam("microserviceInputs") String microserviceInputs){
+    public void callMicroserviceGET(@Suspended AsyncResponse asyncResponse, @QueryParam("microserviceId") String microserviceId, @QueryParam("operationId") String operationId, @QueryParam("timeoutMs") long timeoutMs, @QueryParam("microserviceInputs") String microserviceInputs){
         try{
             if(microserviceInputs == null || microserviceInputs.isEmpty())
                 microserviceInputs = "{}";
             JsonObject microserviceInputsO = Json.createReader(new StringReader(microserviceInputs)).readObject();
-            JsonObject callRet = MicroserviceController.unique().callMicroservice(microserviceId, operationId, microserviceInputsO);
-            return "{\"status\":0, \"data\":"+callRet.toString()+"}";
+            CallContext callContext = newCallContext(timeoutMs);
+            resumeWithCallResult(asyncResponse, callContext, callContext.call(() -> MicroserviceController.unique().callMicroserviceAsync(microserviceId, operationId, microserviceInputsO)), "callMicroservice");
         }catch(Exception ex){
             LogManager.unique().log(LogLevel.ERROR, "Exception calling the REST service callMicroservice", ex);
-            return "{\"status\":-1, \"error\":\""+Utils.escapeJson(ex.getMessage())+"\"}";
+            asyncResponse.resume("{\"status\":-1, \"error\":\""+Utils.escapeJson(ex.getMessage())+"\"}");
         }
     }
     
@@ -267,32 +398,32 @@ public class RESTService {
     @Path("/callMicroserviceForced")
     @Produces(MediaType.APPLICATION_JSON)
     @Consumes(MediaType.APPLICATION_JSON)
-    public String callMicroserviceForced(@QueryParam("microserviceId") String microserviceId, @QueryParam("operationId") String operationId, String microserviceInputs){
+    public void callMicroserviceForced(@Suspended AsyncResponse asyncResponse, @QueryParam("microserviceId") String microserviceId, @QueryParam("operationId") String operationId, @QueryParam("timeoutMs") long timeoutMs, String microserviceInputs){
         try{
             if(microserviceInputs == null || microserviceInputs.isEmpty())
                 microserviceInputs = "{}";
             JsonObject microserviceInputsO = Json.createReader(new StringReader(microserviceInputs)).readObject();
-            JsonObject callRet = MicroserviceController.unique().callMicroserviceForced(microserviceId, operationId, microserviceInputsO);
-            return "{\"status\":0, \"data\":"+callRet.toString()+"}";
+            CallContext callContext = newCallContext(timeoutMs);
+            resumeWithCallResult(asyncResponse, callContext, callContext.call(() -> MicroserviceController.unique().callMicroserviceForcedAsync(microserviceId, operationId, microserviceInputsO)), "callMicroserviceForced");
         }catch(Exception ex){
             LogManager.unique().log(LogLevel.ERROR, "Exception calling the REST service callMicroserviceForced", ex);
-            return "{\"status\":-1, \"error\":\""+Utils.escapeJson(ex.getMessage())+"\"}";
+            asyncResponse.resume("{\"status\":-1, \"error\":\""+Utils.escapeJson(ex.getMessage())+"\"}");
         }
     }
     
     @GET
     @Path("/callMicroserviceForced")
     @Produces(MediaType.APPLICATION_JSON)
-    public String callMicroserviceForcedGET(@QueryParam("microserviceId") String microserviceId, @QueryParam("operationId") String operationId, @QueryParam("microserviceInputs") String microserviceInputs){
+    public void callMicroserviceForcedGET(@Suspended AsyncResponse asyncResponse, @QueryParam("microserviceId") String microserviceId, @QueryParam("operationId") String operationId, @QueryParam("timeoutMs") long timeoutMs, @QueryParam("microserviceInputs") String microserviceInputs){
         try{
             if(microserviceInputs == null || microserviceInputs.isEmpty())
                 microserviceInputs = "{}";
             JsonObject microserviceInputsO = Json.createReader(new StringReader(microserviceInputs)).readObject();
-            JsonObject callRet = MicroserviceController.unique().callMicroserviceForced(microserviceId, operationId, microserviceInputsO);
-            return "{\"status\":0, \"data\":"+callRet.toString()+"}";
+            CallContext callContext = newCallContext(timeoutMs);
+            resumeWithCallResult(asyncResponse, callContext, callContext.call(() -> MicroserviceController.unique().callMicroserviceForcedAsync(microserviceId, operationId, microserviceInputsO)), "callMicroserviceForced");
         }catch(Exception ex){
             LogManager.unique().log(LogLevel.ERROR, "Exception calling the REST service callMicroserviceForced", ex);
-            return "{\"status\":-1, \"error\":\""+Utils.escapeJson(ex.getMessage())+"\"}";
+            asyncResponse.resume("{\"status\":-1, \"error\":\""+Utils.escapeJson(ex.getMessage())+"\"}");
         }
     }
 /*
@@ -327,11 +458,40 @@ public class RESTService {
         }
     }
 */
+    @POST
+    @Path("/callMicroserviceBatch")
+    @Produces("application/x-ndjson")
+    @Consumes(MediaType.APPLICATION_JSON)
+    public Response callMicroserviceBatch(@QueryParam("microserviceId") String microserviceId, @QueryParam("operationId") String operationId, @QueryParam("maxParallelism") int maxParallelism, @QueryParam("timeoutMs") long timeoutMs, String microserviceInputsList){
+        try{
+            if(microserviceInputsList == null || microserviceInputsList.isEmpty())
+                microserviceInputsList = "[]";
+            JsonArray microserviceInputsListA = Json.createReader(new StringReader(microserviceInputsList)).readArray();
+            List<JsonObject> microserviceInputsListO = new ArrayList<JsonObject>(microserviceInputsListA.size());
+            for(int i = 0; i < microserviceInputsListA.size(); i++)
+                microserviceInputsListO.add(microserviceInputsListA.get(i) instanceof JsonObject ? microserviceInputsListA.getJsonObject(i) : null);
+            MicroserviceBatchCall batchCall = newCallContext(timeoutMs).call(() -> MicroserviceController.unique().callMicroserviceBatch(microserviceId, operationId, microserviceInputsListO, maxParallelism));
+            //every result is written and flushed as soon as completed, one JSON object per line
+            StreamingOutput batchOutput = output -> {
+                try(MicroserviceBatchCall batch = batchCall){
+                    while(batch.hasNext()) {
+                        output.write((batch.next().toString() + "\n").getBytes(StandardCharsets.UTF_8));
+                        output.flush();
+                    }
+                }
+            };
+            return Response.ok(batchOutput).build();
+        }catch(Exception ex){
+            LogManager.unique().log(LogLevel.ERROR, "Exception calling the REST service callMicroserviceBatch", ex);
+            return Response.ok("{\"status\":-1, \"error\":\""+Utils.escapeJson(ex.getMessage())+"\"}\n").build();
+        }
+    }
+    
     @POST
     @Path("/callMicroserviceCustomIO/{microserviceId}/{operationId}/{postInputId}")
     @Produces(MediaType.APPLICATION_JSON)
     @Consumes(MediaType.APPLICATION_JSON)
-    public Response callMicroserviceCustomIO(@PathParam("microserviceId") String microserviceId, @PathParam("operationId") String operationId, @PathParam("postInputId") String postInputId, @Context UriInfo uriInfo, String microserviceBodyInput){
+    public void callMicroserviceCustomIO(@Suspended AsyncResponse asyncResponse, @PathParam("microserviceId") String microserviceId, @PathParam("operationId") String operationId, @PathParam("postInputId") String postInputId, @Context UriInfo uriInfo, String microserviceBodyInput){
         //the query parameters are forwarded to microservice input defined
         //with the exception of the value postInputId input that instead is provided in the post body
         //the output is the JSON provided by the microservice
@@ -353,18 +513,18 @@ public class RESTService {
                 }
                 microserviceInputsO.add(inputKey, Json.createObjectBuilder().add("value", queryInput));
             }
-            JsonObject callRet = MicroserviceController.unique().callMicroserviceForced(microserviceId, operationId, microserviceInputsO.build());
-            return Response.status(Response.Status.OK).entity(callRet.toString()).build();
+            CallContext callContext = newCallContext(0);
+            resumeWithCustomCallResult(asyncResponse, callContext, callContext.call(() -> MicroserviceController.unique().callMicroserviceForcedAsync(microserviceId, operationId, microserviceInputsO.build())), "callMicroserviceCustom");
         }catch(Exception ex){
             LogManager.unique().log(LogLevel.ERROR, "Exception calling the REST service callMicroserviceCustom", ex);
-            return Response.status(Response.Status.INTERNAL_SERVER_ERROR).entity("{\"status\":-1, \"error\":\""+Utils.escapeJson(ex.getMessage())+"\"}").build();
+            asyncResponse.resume(Response.status(Response.Status.INTERNAL_SERVER_ERROR).entity("{\"status\":-1, \"error\":\""+Utils.escapeJson(ex.getMessage())+"\"}").build());
         }
     }
 
     @GET
     @Path("/callMicroserviceCustomIO/{microserviceId}/{operationId}")
     @Produces(MediaType.APPLICATION_JSON)
-    public Response callMicroserviceCustomIOGET(@PathParam("microserviceId") String microserviceId, @PathParam("operationId") String operationId, @Context UriInfo uriInfo){
+    public void callMicroserviceCustomIOGET(@Suspended AsyncResponse asyncResponse, @PathParam("microserviceId") String microserviceId, @PathParam("operationId") String operationId, @Context UriInfo uriInfo){
         //the query parameters are forwarded to microservice input defined
         //the output is the JSON provided by the microservice
         try{
@@ -377,11 +537,11 @@ public class RESTService {
                 String queryInput = queryParams.getFirst(inputKey) == null ? "" : queryParams.getFirst(inputKey);
                 microserviceInputsO.add(inputKey, Json.createObjectBuilder().add("value", queryInput));
             }
-            JsonObject callRet = MicroserviceController.unique().callMicroserviceForced(microserviceId, operationId, microserviceInputsO.build());
-            return Response.status(Response.Status.OK).entity(callRet.toString()).build();
+            CallContext callContext = newCallContext(0);
+            resumeWithCustomCallResult(asyncResponse, callContext, callContext.call(() -> MicroserviceController.unique().callMicroserviceForcedAsync(microserviceId, operationId, microserviceInputsO.build())), "callMicroserviceCustom");
         }catch(Exception ex){
             LogManager.unique().log(LogLevel.ERROR, "Exception calling the REST service callMicroserviceCustom", ex);
-            return Response.status(Response.Status.INTERNAL_SERVER_ERROR).entity("{\"status\":-1, \"error\":\""+Utils.escapeJson(ex.getMessage())+"\"}").build();
+            asyncResponse.resume(Response.status(Response.Status.INTERNAL_SERVER_ERROR).entity("{\"status\":-1, \"error\":\""+Utils.escapeJson(ex.getMessage())+"\"}").build());
             //return "{\"status\":-1, \"error\":\""+Utils.escapeJson(ex.getMessage())+"\"}";
         }
     }
@@ -429,16 +589,16 @@ public class RESTService {
     @Path("/callSyncConnectorForced")
     @Produces(MediaType.APPLICATION_JSON)
     @Consumes(MediaType.APPLICATION_JSON)
-    public String callSyncConnectorForced(String connectorFullConfiguration){
+    public void callSyncConnectorForced(@Suspended AsyncResponse asyncResponse, @QueryParam("timeoutMs") long timeoutMs, String connectorFullConfiguration){
         try{
             if(connectorFullConfiguration == null || connectorFullConfiguration.isEmpty())
                 connectorFullConfiguration = "{}";
             JsonObject connectorFullConfigurationO = Json.createReader(new StringReader(connectorFullConfiguration)).readObject();
-            JsonObject callRet = MicroserviceController.unique().callSyncConnectorForced(connectorFullConfigurationO);
-            return "{\"status\":0, \"data\":"+callRet.toString()+"}";
+            CallContext callContext = newCallContext(timeoutMs);
+            resumeWithCallResult(asyncResponse, callContext, callContext.call(() -> MicroserviceController.unique().callSyncConnectorForcedAsync(connectorFullConfigurationO)), "callSyncConnectorForced");
         }catch(Exception ex){
             LogManager.unique().log(LogLevel.ERROR, "Exception calling the REST service callSyncConnectorForced", ex);
-            return "{\"status\":-1, \"error\":\""+Utils.escapeJson(ex.getMessage())+"\"}";
+            asyncResponse.resume("{\"status\":-1, \"error\":\""+Utils.escapeJson(ex.getMessage())+"\"}");
         }
     }
     
@@ -494,4 +654,66 @@ public class RESTService {
             return "{\"status\":-1, \"error\":\""+Utils.escapeJson(ex.getMessage())+"\"}";
         }
     }
+    
+    private static CallContext newCallContext(long timeoutMs) {
+        return CallContext.withTimeout(timeoutMs > 0 ? timeoutMs : CallContext.defaultCallTimeoutMs);
+    }
+    
+    private static void resumeOnDeadline(AsyncResponse asyncResponse, CallContext callContext, Response.Status status) {
+        //the client receive the error at the deadline even if the call is blocked in a step that can not be cancelled
+        if(!callContext.hasDeadline())
+            return;
+        asyncResponse.setTimeoutHandler(timedOutResponse -> timedOutResponse.resume(Response.status(status).entity("{\"status\":-1, \"error\":\""+Utils.escapeJson(callContext.newDeadlineExceededException().getMessage())+"\"}").build()));
+        asyncResponse.setTimeout(Math.max(callContext.getRemainingMillis(), 1), TimeUnit.MILLISECONDS);
+    }
+    
+    private static void resumeWithCallResult(AsyncResponse asyncResponse, CallContext callContext, CompletableFuture<JsonObject> callFuture, String serviceName) {
+        resumeOnDeadline(asyncResponse, callContext, Response.Status.OK);
+        //the call run on the shared call executor, so the request thread is released in the meanwhile
+        callFuture.whenComplete((callRet, callEx) -> {
+            if(callEx == null) {
+                asyncResponse.resume("{\"status\":0, \"data\":"+callRet.toString()+"}");
+            } else {
+                Throwable ex = unwrapCompletionException(callEx);
+                if(isOverloadException(ex)) {
+                    resumeOverloaded(asyncResponse, ex, serviceName);
+                    return;
+                }
+                LogManager.unique().log(LogLevel.ERROR, "Exception calling the REST service " + serviceName, ex);
+                asyncResponse.resume("{\"status\":-1, \"error\":\""+Utils.escapeJson(ex.getMessage())+"\"}");
+            }
+        });
+    }
+    
+    private static void resumeWithCustomCallResult(AsyncResponse asyncResponse, CallContext callContext, CompletableFuture<JsonObject> callFuture, String serviceName) {
+        resumeOnDeadline(asyncResponse, callContext, Response.Status.INTERNAL_SERVER_ERROR);
+        callFuture.whenComplete((callRet, callEx) -> {
+            if(callEx == null) {
+                asyncResponse.resume(Response.status(Response.Status.OK).entity(callRet.toString()).build());
+            } else {
+                Throwable ex = unwrapCompletionException(callEx);
+                if(isOverloadException(ex)) {
+                    resumeOverloaded(asyncResponse, ex, serviceName);
+                    return;
+                }
+                LogManager.unique().log(LogLevel.ERROR, "Exception calling the REST service " + serviceName, ex);
+                asyncResponse.resume(Response.status(Response.Status.INTERNAL_SERVER_ERROR).entity("{\"status\":-1, \"error\":\""+Utils.escapeJson(ex.getMessage())+"\"}").build());
+            }
+        });
+    }
+    
+    private static boolean isOverloadException(Throwable ex) {
+        return ex instanceof RejectedExecutionException || ex instanceof OperationOverloadedException;
+    }
+    
+    private static void resumeOverloaded(AsyncResponse asyncResponse, Throwable ex, String serviceName) {
+        //the call has not been performed, so the client can retry it later: 429 when the operation limits are exceeded, 503 when the whole runtime is overloaded
+        LogManager.unique().log(LogLevel.WARN, "The REST service " + serviceName + " rejected a call: " + ex.getMessage(), null);
+        Response.Status status = ex instanceof OperationOverloadedException ? Response.Status.TOO_MANY_REQUESTS : Response.Status.SERVICE_UNAVAILABLE;
+        asyncResponse.resume(Response.status(status).entity("{\"status\":-2, \"error\":\""+Utils.escapeJson(ex.getMessage())+"\"}").build());
+    }
+    
+    private static Throwable unwrapCompletionException(Throwable ex) {
+        return (ex instanceof CompletionException && ex.getCause() != null) ? ex.getCause() : ex;
+    }
 }
@@ -1731,6 +1731,9 @@ olive.modules.newMicroserviceManagementInlineUI = (function (Utils, newTable, ne
       retrieveMicroserviceConfiguration: function (restEndpoint, microserviceId, successCallback, failureCallback) {
         Utils.callService(restEndpoint + 'msc/retrieveMicroserviceConfiguration', 'microserviceId=' + microserviceId, null, successCallback, failureCallback);
       },
+      retrieveMicroserviceConfigurationHistory: function (restEndpoint, microserviceId, successCallback, failureCallback) {
+        Utils.callService(restEndpoint + 'msc/retrieveMicroserviceConfigurationHistory', 'microserviceId=' + microserviceId, null, successCallback, failureCallback);
+      },
       createMicroservice: function (restEndpoint, microserviceConfiguration, successCallback, failureCallback) {
         Utils.callService(restEndpoint + 'msc/createMicroservice', null, JSON.stringify(microserviceConfiguration), successCallback, failureCallback);
       },
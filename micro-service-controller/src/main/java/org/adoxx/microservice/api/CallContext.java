@@ -0,0 +1,236 @@
+package org.adoxx.microservice.api;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.adoxx.microservice.api.log.LogI.LogLevel;
+import org.adoxx.microservice.api.log.LogManager;
+import org.adoxx.microservice.utils.ExecutorManager;
+
+/**
+ * <h1>CallContext</h1>
+ * Carry the deadline of a microservice call through all the work performed on its behalf: nested microservice calls, connector calls and javascript algorithms.<br>
+ * The context is bound to the current thread with {@link #call(Callable)} and moved to the threads that continue the work with {@link #propagate(Runnable)}.<br>
+ * The deadline is absolute, so the remaining time shrinks at every hop of the call chain and a nested context can only reduce it.<br>
+ * The work is cancelled checking the deadline with {@link #checkCurrentDeadline()} before every call and limiting the blocking operations (I/O, queues, scripts) with {@link #getCurrentTimeoutMillis(long)}.
+ * The steps that can block without a timeout register a hook with {@link #onCancel(Runnable)}, that is executed at the deadline in order to abort them (closing connections, cancelling statements, terminating scripts, interrupting the call workers).<br>
+ *
+ * @author Damiano Falcioni
+ */
+public class CallContext {
+
+    /**
+     * Timeout in milliseconds applied to the REST calls that do not specify one. 0 means no timeout
+     */
+    public static long defaultCallTimeoutMs = 0;
+
+    private static final ThreadLocal<CallContext> currentContext = new ThreadLocal<CallContext>();
+
+    private final long deadlineNanos;
+    private final long timeoutMs;
+    private final List<Runnable> cancelHookList = new ArrayList<Runnable>();
+    private ScheduledFuture<?> cancelTask = null;
+    private boolean cancelled = false;
+
+    private CallContext(long deadlineNanos, long timeoutMs) {
+        this.deadlineNanos = deadlineNanos;
+        this.timeoutMs = timeoutMs;
+    }
+
+    /**
+     * Return the context bound to the current thread<br>
+     * @return CallContext The current context or null if the current thread is not working for a call with a context
+     */
+    public static CallContext current() {
+        return currentContext.get();
+    }
+
+    /**
+     * Create a new context with the provided timeout, starting from now. If the current thread has already a context with an earlier deadline, this is kept.<br>
+     * @param timeoutMs The timeout in milliseconds. Values lower than 1 mean no timeout, so only the deadline of the current context, if present, is kept
+     * @return CallContext The new context, that must be bound with {@link #call(Callable)}
+     */
+    public static CallContext withTimeout(long timeoutMs) {
+        CallContext parentContext = current();
+        if(timeoutMs < 1)
+            return parentContext != null ? parentContext : new CallContext(0, 0);
+        long deadlineNanos = System.nanoTime() + timeoutMs * 1000000L;
+        if(parentContext != null && parentContext.hasDeadline() && parentContext.deadlineNanos - deadlineNanos < 0)
+            return parentContext;
+        return new CallContext(deadlineNanos, timeoutMs);
+    }
+
+    /**
+     * Check the deadline of the context bound to the current thread, if any<br>
+     * @throws CallDeadlineExceededException if the deadline is passed
+     */
+    public static void checkCurrentDeadline() throws CallDeadlineExceededException {
+        CallContext callContext = current();
+        if(callContext != null)
+            callContext.checkDeadline();
+    }
+
+    /**
+     * Return the timeout to use for a blocking operation performed by the current thread, limiting the provided one to the time remaining before the deadline of the current context.<br>
+     * @param timeoutMs The timeout of the operation in milliseconds. 0 means no timeout
+     * @return long The timeout to use in milliseconds, at least 1, or 0 if neither the operation nor the context have a timeout
+     * @throws CallDeadlineExceededException if the deadline is already passed
+     */
+    public static long getCurrentTimeoutMillis(long timeoutMs) throws CallDeadlineExceededException {
+        CallContext callContext = current();
+        if(callContext == null || !callContext.hasDeadline())
+            return timeoutMs;
+        long remainingMs = callContext.getRemainingMillis();
+        if(remainingMs <= 0)
+            throw callContext.newDeadlineExceededException();
+        return timeoutMs > 0 ? Math.min(timeoutMs, remainingMs) : remainingMs;
+    }
+
+    /**
+     * Register a cancellation hook on the context bound to the current thread, if any<br>
+     * @param cancelHook The hook to execute at the deadline, see {@link #onCancel(Runnable)}
+     * @return Runnable The deregistration of the hook, to execute when the step is completed
+     */
+    public static Runnable onCurrentCancel(Runnable cancelHook) {
+        CallContext callContext = current();
+        if(callContext == null)
+            return () -> {};
+        return callContext.onCancel(cancelHook);
+    }
+
+    /**
+     * Wrap the provided task in order to execute it, in whatever thread, bound to the context of the current thread.<br>
+     * @param task The task to wrap
+     * @return Runnable The wrapped task or the task itself if the current thread has no context
+     */
+    public static Runnable propagate(Runnable task) {
+        CallContext callContext = current();
+        if(callContext == null)
+            return task;
+        return () -> {
+            CallContext previousContext = currentContext.get();
+            currentContext.set(callContext);
+            try {
+                task.run();
+            } finally {
+                restore(previousContext);
+            }
+        };
+    }
+
+    /**
+     * Execute the provided call bound to this context, restoring the previous context at the end<br>
+     * @param call The call to execute
+     * @return T The value returned by the call
+     * @throws Exception in case of error of the call
+     */
+    public <T> T call(Callable<T> call) throws Exception {
+        CallContext previousContext = currentContext.get();
+        currentContext.set(this);
+        try {
+            return call.call();
+        } finally {
+            restore(previousContext);
+        }
+    }
+
+    public boolean hasDeadline() {
+        return timeoutMs > 0;
+    }
+
+    /**
+     * Return the milliseconds remaining before the deadline<br>
+     * @return long The remaining milliseconds, 0 or negative if the deadline is passed, or Long.MAX_VALUE if the context has no deadline
+     */
+    public long getRemainingMillis() {
+        if(!hasDeadline())
+            return Long.MAX_VALUE;
+        return (deadlineNanos - System.nanoTime()) / 1000000L;
+    }
+
+    public void checkDeadline() throws CallDeadlineExceededException {
+        if(hasDeadline() && (isCancelled() || deadlineNanos - System.nanoTime() <= 0))
+            throw newDeadlineExceededException();
+    }
+
+    public synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Register a hook executed when the context is cancelled, at its deadline or with {@link #cancel()}, in order to abort a step that is not able to check the deadline by itself.<br>
+     * The cancellation is scheduled on the shared scheduler only while at least one hook is registered. If the context is already cancelled the hook is executed immediately.<br>
+     * The hook must be short and must not block, because all the hooks of the context are executed in sequence.<br>
+     * @param cancelHook The hook to execute
+     * @return Runnable The deregistration of the hook, to execute when the step is completed. Does nothing for the contexts without deadline
+     */
+    public Runnable onCancel(Runnable cancelHook) {
+        if(!hasDeadline())
+            return () -> {};
+        synchronized (this) {
+            if(!cancelled) {
+                if(cancelTask == null)
+                    //the hooks can complete the futures of the callers, so they run on the call executor and not on the scheduler thread
+                    cancelTask = ExecutorManager.unique().getScheduledExecutor().schedule(() -> ExecutorManager.unique().getCallExecutor().execute(this::cancel), Math.max(deadlineNanos - System.nanoTime(), 0), TimeUnit.NANOSECONDS);
+                cancelHookList.add(cancelHook);
+                return () -> removeCancelHook(cancelHook);
+            }
+        }
+        runCancelHook(cancelHook);
+        return () -> {};
+    }
+
+    /**
+     * Cancel the context, executing all the registered hooks. The following deadline checks fail as if the deadline was passed.<br>
+     */
+    public void cancel() {
+        List<Runnable> hookList;
+        synchronized (this) {
+            if(cancelled)
+                return;
+            cancelled = true;
+            if(cancelTask != null)
+                cancelTask.cancel(false);
+            cancelTask = null;
+            hookList = new ArrayList<Runnable>(cancelHookList);
+            cancelHookList.clear();
+        }
+        for(Runnable cancelHook : hookList)
+            runCancelHook(cancelHook);
+    }
+
+    private synchronized void removeCancelHook(Runnable cancelHook) {
+        cancelHookList.remove(cancelHook);
+        //no timer is kept for the contexts whose steps are all completed
+        if(cancelHookList.isEmpty() && cancelTask != null) {
+            cancelTask.cancel(false);
+            cancelTask = null;
+        }
+    }
+
+    private static void runCancelHook(Runnable cancelHook) {
+        try {
+            cancelHook.run();
+        } catch(Exception e) {
+            LogManager.unique().log(LogLevel.WARN, "Error cancelling a step of an expired call", e);
+        }
+    }
+
+    /**
+     * Create the exception describing the expiration of this context<br>
+     * @return CallDeadlineExceededException The exception to raise
+     */
+    public CallDeadlineExceededException newDeadlineExceededException() {
+        return new CallDeadlineExceededException("The call deadline of " + timeoutMs + " ms has been exceeded");
+    }
+
+    private static void restore(CallContext previousContext) {
+        if(previousContext == null)
+            currentContext.remove();
+        else
+            currentContext.set(previousContext);
+    }
+}
@@ -0,0 +1,16 @@
+package org.adoxx.microservice.api;
+
+/**
+ * <h1>CallDeadlineExceededException</h1>
+ * Exception raised when a microservice call, or one of its nested calls, is not completed before the deadline of its {@link CallContext}.<br>
+ *
+ * @author Damiano Falcioni
+ */
+public class CallDeadlineExceededException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    public CallDeadlineExceededException(String message) {
+        super(message);
+    }
+}
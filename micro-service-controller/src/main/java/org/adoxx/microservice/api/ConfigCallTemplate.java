@@ -0,0 +1,391 @@
+package org.adoxx.microservice.api;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Map.Entry;
+
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonBuilderFactory;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import javax.json.JsonString;
+import javax.json.JsonValue;
+
+import org.adoxx.microservice.utils.Utils;
+
+/**
+ * <h1>ConfigCallTemplate</h1>
+ * Compiled version of the configCall of a microservice operation, where every occurrence of the inputs matchingName is located once, when the {@link OperationPlan} is created.<br>
+ * The template render the call configuration in a single pass directly into a JsonObject, reusing the parts of the configuration that do not contain inputs, instead of replacing every matchingName in the serialized configuration and parsing it again.<br>
+ * The result is the same of the text substitution: when the configuration or the provided values can not be handled by the compiled template (a matchingName not contained in a JSON string, overlapping matchingNames, values that generate other matchingNames) the text substitution is used.<br>
+ *
+ * @author Damiano Falcioni
+ */
+class ConfigCallTemplate {
+
+    private static final JsonBuilderFactory jsonBuilderFactory = Json.createBuilderFactory(null);
+
+    private final JsonObject configCall;
+    private final String configCallString;
+    private final String[] matchingNames;
+    private final boolean[] activeMatchingNames;
+    private final ObjectNode root;
+    private final ArrayList<StringTemplate> chainedTemplates = new ArrayList<StringTemplate>();
+
+    /**
+     * Compile the provided configCall for the provided matchingNames.<br>
+     * @param configCall The configCall of the operation
+     * @param matchingNames The matchingNames of the operation inputs, in the order they are substituted
+     */
+    ConfigCallTemplate(JsonObject configCall, String[] matchingNames) {
+        this.configCall = configCall;
+        this.configCallString = configCall.toString();
+        this.matchingNames = matchingNames;
+        this.activeMatchingNames = new boolean[matchingNames.length];
+        for(int i = 0; i < matchingNames.length; i++) {
+            activeMatchingNames[i] = true;
+            for(int j = 0; j < i; j++)
+                if(matchingNames[j].equals(matchingNames[i]))
+                    activeMatchingNames[i] = false; //already replaced by the previous input with the same matchingName
+        }
+        this.root = isCompilable() ? new ObjectNode(configCall) : null;
+    }
+
+    /**
+     * Return true if the configCall has been compiled and is rendered without the text substitution.<br>
+     * @return boolean true if the configCall is compiled
+     */
+    boolean isCompiled() {
+        return root != null;
+    }
+
+    /**
+     * Render the call configuration substituting every matchingName with the value at the same index.<br>
+     * @param values The raw (not escaped) values of the inputs, in the same order of the matchingNames
+     * @return JsonObject The call configuration
+     */
+    JsonObject render(String[] values) throws Exception {
+        if(root == null || !isRenderable(values))
+            return renderText(values);
+        return root.render(values);
+    }
+
+    private JsonObject renderText(String[] values) throws Exception {
+        String configCall = configCallString;
+        for(int i = 0; i < matchingNames.length; i++)
+            configCall = configCall.replace(matchingNames[i], Utils.escapeJson(values[i]));
+        return Json.createReader(new StringReader(configCall)).readObject();
+    }
+
+    private boolean isCompilable() {
+        for(int i = 0; i < matchingNames.length; i++) {
+            if(!activeMatchingNames[i]) continue;
+            String matchingName = matchingNames[i];
+            if(matchingName.isEmpty()) return false;
+            for(int c = 0; c < matchingName.length(); c++) {
+                char ch = matchingName.charAt(c);
+                if(ch == '"' || ch == '\\' || ch < ' ') return false;
+            }
+            for(int j = 0; j < matchingNames.length; j++) {
+                if(i == j || !activeMatchingNames[j]) continue;
+                if(matchingName.contains(matchingNames[j]) || isOverlapping(matchingName, matchingNames[j])) return false;
+            }
+        }
+
+        //every occurrence of the matchingNames in the serialized configuration must be inside a JSON string and must not touch an escape sequence
+        int length = configCallString.length();
+        boolean[] stringContent = new boolean[length];
+        boolean[] escapeSequence = new boolean[length];
+        for(int c = 0; c < length; c++) {
+            if(configCallString.charAt(c) != '"') continue;
+            for(c++; c < length && configCallString.charAt(c) != '"'; c++) {
+                stringContent[c] = true;
+                if(configCallString.charAt(c) == '\\') {
+                    int escapeEnd = Math.min(length, c + ((c + 1 < length && configCallString.charAt(c + 1) == 'u') ? 6 : 2));
+                    for(; c < escapeEnd; c++) {
+                        stringContent[c] = true;
+                        escapeSequence[c] = true;
+                    }
+                    c--;
+                }
+            }
+        }
+        for(int i = 0; i < matchingNames.length; i++) {
+            if(!activeMatchingNames[i]) continue;
+            String matchingName = matchingNames[i];
+            int occurrences = 0;
+            for(int index = configCallString.indexOf(matchingName); index != -1; index = configCallString.indexOf(matchingName, index + matchingName.length())) {
+                for(int c = index; c < index + matchingName.length(); c++)
+                    if(!stringContent[c] || escapeSequence[c]) return false;
+                occurrences++;
+            }
+            if(occurrences != countOccurrences(configCall, matchingName)) return false;
+        }
+        return true;
+    }
+
+    private boolean isRenderable(String[] values) {
+        for(String value : values)
+            if(value == null) return false;
+        if(chainedTemplates.isEmpty()) return true;
+        //a value must not generate the matchingName of a following input, as it would be replaced again by the text substitution
+        String[] escapedValues = new String[values.length];
+        for(int i = 0; i < values.length; i++)
+            escapedValues[i] = Utils.escapeJson(values[i]);
+        for(StringTemplate stringTemplate : chainedTemplates)
+            if(stringTemplate.isChaining(escapedValues))
+                return false;
+        return true;
+    }
+
+    private static boolean isOverlapping(String first, String second) {
+        //true if a suffix of first is a prefix of second
+        int max = Math.min(first.length(), second.length()) - 1;
+        for(int k = 1; k <= max; k++)
+            if(first.regionMatches(first.length() - k, second, 0, k))
+                return true;
+        return false;
+    }
+
+    private static int countOccurrences(JsonValue value, String matchingName) {
+        int count = 0;
+        switch(value.getValueType()) {
+            case OBJECT:
+                for(Entry<String, JsonValue> entry : ((JsonObject) value).entrySet())
+                    count += countOccurrences(entry.getKey(), matchingName) + countOccurrences(entry.getValue(), matchingName);
+                break;
+            case ARRAY:
+                for(JsonValue item : (JsonArray) value)
+                    count += countOccurrences(item, matchingName);
+                break;
+            case STRING:
+                count += countOccurrences(((JsonString) value).getString(), matchingName);
+                break;
+            default:
+                break;
+        }
+        return count;
+    }
+
+    private static int countOccurrences(String text, String matchingName) {
+        int count = 0;
+        for(int index = text.indexOf(matchingName); index != -1; index = text.indexOf(matchingName, index + matchingName.length()))
+            count++;
+        return count;
+    }
+
+    private Node compile(JsonValue value) {
+        switch(value.getValueType()) {
+            case OBJECT:
+                ObjectNode objectNode = new ObjectNode((JsonObject) value);
+                return objectNode.constant != null ? new ConstantNode(value) : objectNode;
+            case ARRAY:
+                ArrayNode arrayNode = new ArrayNode((JsonArray) value);
+                return arrayNode.constant ? new ConstantNode(value) : arrayNode;
+            case STRING:
+                StringTemplate stringTemplate = compileString(((JsonString) value).getString());
+                return stringTemplate == null ? new ConstantNode(value) : new StringNode(stringTemplate);
+            default:
+                return new ConstantNode(value);
+        }
+    }
+
+
+
+    private StringTemplate compileString(String text) {
+        ArrayList<String> literals = new ArrayList<String>();
+        ArrayList<Integer> slots = new ArrayList<Integer>();
+        int start = 0;
+        while(true) {
+            int slot = -1;
+            int slotIndex = -1;
+            for(int i = 0; i < matchingNames.length; i++) {
+                if(!activeMatchingNames[i]) continue;
+                int index = text.indexOf(matchingNames[i], start);
+                if(index != -1 && (slotIndex == -1 || index < slotIndex)) {
+                    slot = i;
+                    slotIndex = index;
+                }
+            }
+            if(slot == -1) break;
+            literals.add(text.substring(start, slotIndex));
+            slots.add(slot);
+            start = slotIndex + matchingNames[slot].length();
+        }
+        if(slots.isEmpty()) return null;
+        literals.add(text.substring(start));
+        int[] slotsArray = new int[slots.size()];
+        int firstSlot = matchingNames.length;
+        for(int i = 0; i < slotsArray.length; i++) {
+            slotsArray[i] = slots.get(i);
+            firstSlot = Math.min(firstSlot, slotsArray[i]);
+        }
+        StringTemplate stringTemplate = new StringTemplate(literals.toArray(new String[0]), slotsArray);
+        if(firstSlot < matchingNames.length - 1)
+            chainedTemplates.add(stringTemplate);
+        return stringTemplate;
+    }
+
+    private class StringTemplate {
+        private final String[] literals;
+        private final int[] slots;
+        private final int literalsLength;
+        private String[] escapedLiterals = null;
+
+        StringTemplate(String[] literals, int[] slots) {
+            this.literals = literals;
+            this.slots = slots;
+            int literalsLength = 0;
+            for(String literal : literals)
+                literalsLength += literal.length();
+            this.literalsLength = literalsLength;
+        }
+
+        String render(String[] values) {
+            int length = literalsLength;
+            for(int slot : slots)
+                length += values[slot].length();
+            StringBuilder sb = new StringBuilder(length);
+            for(int i = 0; i < slots.length; i++)
+                sb.append(literals[i]).append(values[slots[i]]);
+            return sb.append(literals[slots.length]).toString();
+        }
+
+        /**
+         * Return true if, in the serialized form used by the text substitution, the value of a slot alone or joined with the surrounding text contains the matchingName of a following input.<br>
+         */
+        boolean isChaining(String[] escapedValues) {
+            if(escapedLiterals == null) {
+                String[] escapedLiterals = new String[literals.length];
+                for(int i = 0; i < literals.length; i++) {
+                    String quoted = Json.createValue(literals[i]).toString();
+                    escapedLiterals[i] = quoted.substring(1, quoted.length() - 1);
+                }
+                this.escapedLiterals = escapedLiterals;
+            }
+            int[] valueStarts = new int[slots.length];
+            int[] valueEnds = new int[slots.length];
+            StringBuilder sb = new StringBuilder();
+            for(int i = 0; i < slots.length; i++) {
+                sb.append(escapedLiterals[i]);
+                valueStarts[i] = sb.length();
+                sb.append(escapedValues[slots[i]]);
+                valueEnds[i] = sb.length();
+            }
+            String text = sb.append(escapedLiterals[slots.length]).toString();
+            for(int i = 0; i < slots.length; i++) {
+                for(int j = slots[i] + 1; j < matchingNames.length; j++) {
+                    String matchingName = matchingNames[j];
+                    int index = text.indexOf(matchingName, Math.max(0, valueStarts[i] - matchingName.length() + 1));
+                    if(index == -1) continue;
+                    if(valueStarts[i] == valueEnds[i] ? index < valueStarts[i] : index < valueEnds[i])
+                        return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static abstract class Node {
+        abstract void addTo(JsonObjectBuilder builder, String key, String[] values);
+        abstract void addTo(JsonArrayBuilder builder, String[] values);
+    }
+
+    private static class ConstantNode extends Node {
+        private final JsonValue value;
+        ConstantNode(JsonValue value) {
+            this.value = value;
+        }
+        void addTo(JsonObjectBuilder builder, String key, String[] values) {
+            builder.add(key, value);
+        }
+        void addTo(JsonArrayBuilder builder, String[] values) {
+            builder.add(value);
+        }
+    }
+
+    private static class StringNode extends Node {
+        private final StringTemplate template;
+        StringNode(StringTemplate template) {
+            this.template = template;
+        }
+        void addTo(JsonObjectBuilder builder, String key, String[] values) {
+            builder.add(key, template.render(values));
+        }
+        void addTo(JsonArrayBuilder builder, String[] values) {
+            builder.add(template.render(values));
+        }
+    }
+
+    private class ObjectNode extends Node {
+        private final JsonObject constant;
+        private final String[] keys;
+        private final StringTemplate[] keyTemplates;
+        private final Node[] children;
+
+        ObjectNode(JsonObject object) {
+            int size = object.size();
+            this.keys = new String[size];
+            this.keyTemplates = new StringTemplate[size];
+            this.children = new Node[size];
+            boolean constant = true;
+            int i = 0;
+            for(Entry<String, JsonValue> entry : object.entrySet()) {
+                keys[i] = entry.getKey();
+                keyTemplates[i] = compileString(keys[i]);
+                children[i] = compile(entry.getValue());
+                if(keyTemplates[i] != null || !(children[i] instanceof ConstantNode))
+                    constant = false;
+                i++;
+            }
+            this.constant = constant ? object : null;
+        }
+
+        JsonObject render(String[] values) {
+            if(constant != null) return constant;
+            JsonObjectBuilder builder = jsonBuilderFactory.createObjectBuilder();
+            for(int i = 0; i < keys.length; i++)
+                children[i].addTo(builder, keyTemplates[i] == null ? keys[i] : keyTemplates[i].render(values), values);
+            return builder.build();
+        }
+
+        void addTo(JsonObjectBuilder builder, String key, String[] values) {
+            builder.add(key, render(values));
+        }
+        void addTo(JsonArrayBuilder builder, String[] values) {
+            builder.add(render(values));
+        }
+    }
+
+    private class ArrayNode extends Node {
+        private final boolean constant;
+        private final Node[] children;
+
+        ArrayNode(JsonArray array) {
+            this.children = new Node[array.size()];
+            boolean constant = true;
+            for(int i = 0; i < children.length; i++) {
+                children[i] = compile(array.get(i));
+                if(!(children[i] instanceof ConstantNode))
+                    constant = false;
+            }
+            this.constant = constant;
+        }
+
+        JsonArray render(String[] values) {
+            JsonArrayBuilder builder = jsonBuilderFactory.createArrayBuilder();
+            for(Node child : children)
+                child.addTo(builder, values);
+            return builder.build();
+        }
+
+        void addTo(JsonObjectBuilder builder, String key, String[] values) {
+            builder.add(key, render(values));
+        }
+        void addTo(JsonArrayBuilder builder, String[] values) {
+            builder.add(render(values));
+        }
+    }
+}
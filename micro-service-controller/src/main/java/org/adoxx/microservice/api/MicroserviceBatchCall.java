@@ -0,0 +1,157 @@
+package org.adoxx.microservice.api;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+
+import org.adoxx.microservice.api.log.LogManager;
+import org.adoxx.microservice.api.log.LogI.LogLevel;
+
+/**
+ * <h1>MicroserviceBatchCall</h1>
+ * Represent a batch of calls to the same microservice operation started by {@link MicroserviceController#callMicroserviceBatch(String, String, java.util.List)}.<br>
+ * The items are executed in parallel on the shared call executor, keeping at most a fixed number of them in execution at the same time.<br>
+ * The results are returned by the iterator in completion order, one for every item, in the following format:<br>
+ * <pre>
+ * {"index" : 0, "status" : 0, "data" : {...}}
+ * </pre>
+ * or in case of error for that item:
+ * <pre>
+ * {"index" : 0, "status" : -1, "error" : "..."}
+ * </pre>
+ * The status is -2 when the item has been rejected by the concurrency limits of the operation ({@link OperationOverloadedException}) and can be retried later.<br>
+ * Closing the batch before its end prevents the execution of the items not yet started, that are returned as failed.<br>
+ *
+ * @author Damiano Falcioni
+ */
+public class MicroserviceBatchCall implements Iterator<JsonObject>, AutoCloseable {
+
+    /**
+     * Default and maximum number of items of a batch executed in parallel
+     */
+    public static int maxParallelism = 8;
+    
+    /**
+     * Default and maximum number of calls executed in parallel by a single script with callMicroservicesParallel
+     */
+    public static int maxScriptFanOut = 8;
+
+    interface ItemCall {
+        JsonObject call(int index) throws Exception;
+    }
+
+    private final int size;
+    private final ItemCall itemCall;
+    private final Executor executor;
+    private final Runnable onCompletion;
+    private final LinkedBlockingQueue<JsonObject> resultQueue = new LinkedBlockingQueue<JsonObject>();
+    private final AtomicInteger nextIndex = new AtomicInteger(0);
+    private final AtomicInteger completedCount = new AtomicInteger(0);
+    private volatile boolean closed = false;
+    private int returnedCount = 0;
+
+    MicroserviceBatchCall(int size, ItemCall itemCall, Executor executor, Runnable onCompletion) {
+        this.size = size;
+        this.itemCall = itemCall;
+        this.executor = executor;
+        this.onCompletion = onCompletion;
+    }
+
+    void start(int parallelism) {
+        if(size == 0) {
+            complete();
+            return;
+        }
+        for(int i = 0; i < parallelism && i < size; i++)
+            submitNext();
+    }
+
+    /**
+     * Return the number of items of the batch<br>
+     * @return int The number of items
+     */
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return returnedCount < size;
+    }
+
+    /**
+     * Return the result of the next completed item, waiting for it if required.<br>
+     * @return JsonObject The result of the item, in the format described in the class documentation
+     */
+    @Override
+    public JsonObject next() {
+        if(!hasNext()) throw new NoSuchElementException("All the results of the batch have been returned");
+        try {
+            JsonObject result = resultQueue.take();
+            returnedCount++;
+            return result;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for the batch results", e);
+        }
+    }
+
+    /**
+     * Stop the execution of the items not yet started. The items in execution are completed anyway.<br>
+     */
+    @Override
+    public void close() {
+        closed = true;
+        submitNext();
+    }
+
+    private void submitNext() {
+        while(true) {
+            int index = nextIndex.getAndIncrement();
+            if(index >= size)
+                return;
+            if(closed) {
+                itemCompleted(index, null, new Exception("The item has not been executed because the batch has been closed"));
+                continue;
+            }
+            try {
+                executor.execute(CallContext.propagate(() -> execute(index)));
+                return;
+            } catch(RejectedExecutionException e) {
+                itemCompleted(index, null, new Exception("The call executor is not available", e));
+            }
+        }
+    }
+
+    private void execute(int index) {
+        try {
+            itemCompleted(index, itemCall.call(index), null);
+        } catch(Throwable t) {
+            itemCompleted(index, null, t);
+        }
+        submitNext();
+    }
+
+    private void itemCompleted(int index, JsonObject data, Throwable error) {
+        if(error == null)
+            resultQueue.add(Json.createObjectBuilder().add("index", index).add("status", 0).add("data", data).build());
+        else
+            resultQueue.add(Json.createObjectBuilder().add("index", index).add("status", error instanceof OperationOverloadedException ? -2 : -1).add("error", String.valueOf(error.getMessage())).build());
+        if(completedCount.incrementAndGet() == size)
+            complete();
+    }
+
+    private void complete() {
+        try {
+            onCompletion.run();
+        } catch(Exception e) {
+            LogManager.unique().log(LogLevel.ERROR, "Exception completing the microservice batch call", e);
+        }
+    }
+}
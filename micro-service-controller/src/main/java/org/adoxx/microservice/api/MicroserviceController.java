@@ -4,7 +4,15 @@ import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Set;
 import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.locks.ReentrantLock;
 
 import javax.json.Json;
 import javax.json.JsonArray;
@@ -13,14 +21,25 @@ import javax.json.JsonObject;
 import javax.json.JsonObjectBuilder;
 import javax.json.JsonValue;
 
+import org.adoxx.microservice.api.connectors.AsyncResponseDispatcher;
 import org.adoxx.microservice.api.connectors.AsyncResponseHandlerI;
 import org.adoxx.microservice.api.connectors.BasicConnectorA;
 import org.adoxx.microservice.api.connectors.ConnectorsController;
 import org.adoxx.microservice.api.log.LogI;
 import org.adoxx.microservice.api.log.LogI.LogLevel;
 import org.adoxx.microservice.api.log.LogManager;
+import org.adoxx.microservice.api.persistence.MicroserviceSummaryIndex;
 import org.adoxx.microservice.api.persistence.PersistenceI;
 import org.adoxx.microservice.api.persistence.PersistenceManager;
+import org.adoxx.microservice.api.persistence.impl.CachedStore;
+import org.adoxx.microservice.utils.ExecutorManager;
+import org.adoxx.microservice.utils.GraalJSEngineProvider;
+import org.adoxx.microservice.utils.JavascriptEngineManager;
+import org.adoxx.microservice.utils.JavascriptLibraryCache;
+import org.adoxx.microservice.utils.NashornEngineProvider;
+import org.adoxx.microservice.utils.ScriptLimits;
+import org.adoxx.microservice.utils.ScriptWatchdog;
+import org.adoxx.microservice.utils.TrivialScriptEvaluator;
 import org.adoxx.microservice.utils.Utils;
 /*
  * TODO:
@@ -79,7 +98,7 @@ public class MicroserviceController {
      * @return MicroserviceController The unique MicroserviceController instance
      * @throws Exception in case of error
      */
-    public static MicroserviceController unique() throws Exception {
+    public static synchronized MicroserviceController unique() throws Exception {
         if(microserviceController == null)
             microserviceController = new MicroserviceController();
         return microserviceController;
@@ -90,12 +109,18 @@ public class MicroserviceController {
      * @return MicroserviceController The new MicroserviceController instance
      * @throws Exception in case of error
      */
-    public static MicroserviceController newUnique() throws Exception {
+    public static synchronized MicroserviceController newUnique() throws Exception {
         microserviceController = new MicroserviceController();
         return microserviceController;
     }
     
-    private HashMap<String, HashMap<String, String>> service_operationStartedList = new HashMap<String, HashMap<String, String>>();
+    private ConcurrentHashMap<String, HashMap<String, String>> service_operationStartedList = new ConcurrentHashMap<String, HashMap<String, String>>();
+    private ConcurrentHashMap<String, ReentrantLock> service_operationLockList = new ConcurrentHashMap<String, ReentrantLock>();
+    private ConcurrentHashMap<String, Integer> service_operationForcedCallersList = new ConcurrentHashMap<String, Integer>();
+    private Set<String> service_operationForcedStartedList = ConcurrentHashMap.newKeySet();
+    private ConcurrentHashMap<String, OperationPlan.MicroservicePlan> microservicePlanCache = new ConcurrentHashMap<String, OperationPlan.MicroservicePlan>();
+    private ConcurrentHashMap<String, Long> microserviceConfigurationVersionList = new ConcurrentHashMap<String, Long>();
+    private ConcurrentHashMap<String, OperationBulkhead> service_operationBulkheadList = new ConcurrentHashMap<String, OperationBulkhead>();
     
     //private int autoRestartIntervalTimeMinutes=5;
     
@@ -138,7 +163,17 @@ public class MicroserviceController {
      * @see PersistenceI
      */
     public void setPersistenceHandler(PersistenceI handler) {
+        //the configurations changed outside of the controller must invalidate also the related plans
+        if(handler instanceof CachedStore)
+            ((CachedStore) handler).setChangeListener(microserviceId -> {
+                PersistenceManager.unique().notifyExternalChange(microserviceId);
+                if(microserviceId == null)
+                    invalidateAllMicroservicePlans();
+                else
+                    invalidateMicroservicePlan(microserviceId);
+            });
         PersistenceManager.unique().setProvider(handler);
+        invalidateAllMicroservicePlans();
     }
     
     /**
@@ -156,7 +191,7 @@ public class MicroserviceController {
     public void initAutostart() throws Exception {
         for(String microserviceId : PersistenceManager.unique().retrieveAllMicroservicesId()) {
             try {
-                JsonObject microserviceConfiguration = PersistenceManager.unique().retrieveMicroserviceConfiguration(microserviceId);
+                JsonObject microserviceConfiguration = getMicroservicePlan(microserviceId).serviceConfiguration;
                 checkAutostart(microserviceId, microserviceConfiguration);
             } catch (Exception e) {
                 LogManager.unique().log(LogLevel.ERROR, "Error on the Autostart of microservice '" + microserviceId + "", e);
@@ -197,6 +232,115 @@ public class MicroserviceController {
         return Json.createObjectBuilder().add("startedList", listBuilder).build();
     }
     
+    /**
+     * Return the metrics of the asynchronous responses dispatcher for all the started microservices operations based on asynchronous connectors<br>
+     * @return JsonObject A JSON object of this format: 
+     * <pre>
+     * {
+     *     "maxQueueDepth" : 10000,
+     *     "overflowPolicy" : "CALLER_RUNS/BLOCK/DROP/SPILL",
+     *     "startedList" : [{
+     *          "microserviceId" : "id of the started microservice",
+     *          "microserviceName" : "name of the started microservice",
+     *          "operationId" : "id of the started microservice operation",
+     *          "operationName" : "name of the started microservice operation",
+     *          "asyncResponses" : {... the lane metrics as described in {@link AsyncResponseDispatcher#getMetrics()} ...}
+     *     },
+     *     ...
+     *     ]
+     * }
+     * </pre>
+     */
+    public JsonObject getAsyncResponsesStatus() {
+        JsonArrayBuilder listBuilder = Json.createArrayBuilder();
+        for(HashMap<String, String> service_operationProperties : service_operationStartedList.values()) {
+            JsonObject laneMetrics = AsyncResponseDispatcher.unique().getLaneMetrics(service_operationProperties.get("connectorInstanceId"));
+            if(laneMetrics == null)
+                continue;
+            listBuilder.add(Json.createObjectBuilder()
+                .add("microserviceId", service_operationProperties.get("microserviceId"))
+                .add("microserviceName", service_operationProperties.get("microserviceName"))
+                .add("operationId", service_operationProperties.get("operationId"))
+                .add("operationName", service_operationProperties.get("operationName"))
+                .add("asyncResponses", laneMetrics)
+            );
+        }
+        return Json.createObjectBuilder()
+            .add("maxQueueDepth", AsyncResponseDispatcher.maxQueueDepth)
+            .add("overflowPolicy", AsyncResponseDispatcher.overflowPolicy.name())
+            .add("startedList", listBuilder)
+            .build();
+    }
+    
+    /**
+     * Return the status of the shared executors, with the start latency of the connector instances<br>
+     * @return JsonObject A JSON object as specified in {@link ExecutorManager#getStatus()}
+     */
+    public JsonObject getExecutorStatus() {
+        return ExecutorManager.unique().getStatus();
+    }
+    
+    /**
+     * Return the status of the pool of warm connector instances used by the forced calls<br>
+     * @return JsonObject A JSON object in the format described in {@link org.adoxx.microservice.api.connectors.ConnectorInstancePool#getStatus()}
+     * @throws Exception in case of error
+     */
+    public JsonObject getConnectorInstancePoolStatus() throws Exception {
+        return ConnectorsController.unique().getConnectorInstancePoolStatus();
+    }
+    
+    /**
+     * Return the status of the javascript engine in use and of its caches, together with the hit/miss counters of the remote libraries cache and of the trivial algorithms evaluated without the engine<br>
+     * @return JsonObject A JSON object in the format described in {@link NashornEngineProvider#getStatus()} or {@link GraalJSEngineProvider#getStatus()}, depending on the engine in use, with the additional keys "libraryCache" in the format described in {@link JavascriptLibraryCache#getStatus()} and "fastPath" in the format described in {@link TrivialScriptEvaluator#getStatus()}
+     */
+    public JsonObject getJavascriptEngineStatus() {
+        return Json.createObjectBuilder(JavascriptEngineManager.unique().getProvider().getStatus()).add("libraryCache", JavascriptLibraryCache.unique().getStatus()).add("fastPath", TrivialScriptEvaluator.unique().getStatus()).build();
+    }
+    
+    /**
+     * Return the live usage of the concurrency limits of all the microservice operations configured with maxConcurrentCalls<br>
+     * @return JsonObject A JSON object of this format: 
+     * <pre>
+     * {
+     *     "bulkheadList" : [{
+     *          "microserviceId" : "id of the microservice",
+     *          "operationId" : "id of the microservice operation",
+     *          "maxConcurrentCalls" : 4,
+     *          "maxQueuedCalls" : 10,
+     *          "queueTimeoutMs" : 30000,
+     *          "activeCalls" : number of calls in execution,
+     *          "queuedCalls" : number of calls waiting for a free slot,
+     *          "rejectedCalls" : number of calls rejected because the queue was full,
+     *          "timedOutCalls" : number of calls rejected because no slot was free in queueTimeoutMs
+     *     },
+     *     ...
+     *     ]
+     * }
+     * </pre>
+     */
+    public JsonObject getOperationBulkheadStatus() {
+        JsonArrayBuilder listBuilder = Json.createArrayBuilder();
+        for(OperationBulkhead operationBulkhead : service_operationBulkheadList.values())
+            listBuilder.add(operationBulkhead.getStatus());
+        return Json.createObjectBuilder().add("bulkheadList", listBuilder).build();
+    }
+    
+    /**
+     * Return the CPU time and the heap allocated by the javascript evaluations of every microservice operation<br>
+     * @return JsonObject A JSON object as specified in {@link ScriptWatchdog#getUsageStatus()}
+     */
+    public JsonObject getScriptUsageStatus() {
+        return ScriptWatchdog.unique().getUsageStatus();
+    }
+    
+    /**
+     * Return the number of validations of the microservice configurations, that in steady state should not increase with the calls<br>
+     * @return JsonObject A JSON object as specified in {@link PersistenceManager#getStatus()}
+     */
+    public JsonObject getPersistenceStatus() {
+        return PersistenceManager.unique().getStatus();
+    }
+    
     /**
      * Start all the microservice operations provided<br>
      * @param initConfiguration The JSON object specifying the microservice operations to start. The format accepted is the same as returned by {@link #getStartedMicroservices()} (name and description fields can be skipped. Only Id fields are required)
@@ -381,7 +525,12 @@ public class MicroserviceController {
      *                 },
      *                 "outputDescription" : "textual description of the microservice call output",
      *                 "outputAdaptationAlgorithm" : "javascript code used to personalize the output of the microservice. The algorithm have access to the microservice call output through the javascript variable 'serviceOutput' and its last instruction must be the desired output.",
-     *                 "statusCheckAlgorithm" : "javascript code that is executed during the {@link #checkMicroserviceStatus(String)}. The algorithm have access to the microservice call output through the javascript variable 'serviceOutput' and its last instruction must be a boolean expression that will indicate if the service is working correctly or not"
+     *                 "statusCheckAlgorithm" : "javascript code that is executed during the {@link #checkMicroserviceStatus(String)}. The algorithm have access to the microservice call output through the javascript variable 'serviceOutput' and its last instruction must be a boolean expression that will indicate if the service is working correctly or not",
+     *                 "maxConcurrentCalls" : optional maximum number of calls to this operation executed at the same time. If missing or 0 the calls are not limited,
+     *                 "maxQueuedCalls" : optional maximum number of calls waiting for a free slot when maxConcurrentCalls is reached. Further calls are rejected with an {@link OperationOverloadedException}. Default 0,
+     *                 "queueTimeoutMs" : optional maximum time in milliseconds a queued call wait for a free slot before being rejected with an {@link OperationOverloadedException}. 0 means that the queued calls wait up to the deadline of the call, or until a slot is free when the call has no deadline. Default 30000,
+     *                 "maxScriptCpuTimeMs" : optional maximum CPU time in milliseconds of every javascript evaluation of the operation. If missing or 0 {@link ScriptLimits#defaultMaxCpuTimeMs} is used,
+     *                 "maxScriptAllocatedBytes" : optional maximum number of bytes allocated in the heap by every javascript evaluation of the operation. If missing or 0 {@link ScriptLimits#defaultMaxAllocatedBytes} is used
      *             }
      *         }
      *     },
@@ -412,7 +561,11 @@ public class MicroserviceController {
     public void updateMicroservice(String microserviceId, JsonObject microserviceConfiguration) throws Exception {
         if(microserviceId == null || microserviceId.isEmpty()) throw new Exception("microserviceId can not be empty");
         stopAllMicroserviceOperations(microserviceId);
-        PersistenceManager.unique().updateMicroserviceConfiguration(microserviceId, microserviceConfiguration);
+        try {
+            PersistenceManager.unique().updateMicroserviceConfiguration(microserviceId, microserviceConfiguration);
+        } finally {
+            invalidateMicroservicePlan(microserviceId);
+        }
         checkAutostart(microserviceId, microserviceConfiguration);
     }
     
@@ -424,7 +577,13 @@ public class MicroserviceController {
     public void deleteMicroservice(String microserviceId) throws Exception {
         if(microserviceId == null || microserviceId.isEmpty()) throw new Exception("microserviceId can not be empty");
         stopAllMicroserviceOperations(microserviceId);
-        PersistenceManager.unique().deleteMicroserviceConfiguration(microserviceId);
+        try {
+            PersistenceManager.unique().deleteMicroserviceConfiguration(microserviceId);
+        } finally {
+            invalidateMicroservicePlan(microserviceId);
+            service_operationBulkheadList.values().removeIf(operationBulkhead -> operationBulkhead.microserviceId.equals(microserviceId));
+            ScriptWatchdog.unique().clearUsage(microserviceId);
+        }
     }
     
     /**
@@ -452,23 +611,31 @@ public class MicroserviceController {
      * @throws Exception in case of error
      */
     public JsonObject retrieveAllMicroservices(boolean allIncludingPrivates) throws Exception {
+        //the summaries are read from the store or from the index, without reading the configurations
         JsonObjectBuilder retBuilder = Json.createObjectBuilder();
-        for(String microserviceId : PersistenceManager.unique().retrieveAllMicroservicesId()) {
-            try {
-                JsonObject microserviceConfig = PersistenceManager.unique().retrieveMicroserviceConfiguration(microserviceId);
-            
-                if(allIncludingPrivates || microserviceConfig.getBoolean("public"))
-                    retBuilder.add(microserviceId, Json.createObjectBuilder()
-                        .add("name", microserviceConfig.getString("name"))
-                        .add("description", microserviceConfig.getString("description"))
-                    );
-            } catch (Exception e) {
-                LogManager.unique().log(LogLevel.ERROR, "Error retrieving the information for the microservice '" + microserviceId + "", e);
-            };
+        for(JsonObject microserviceSummary : PersistenceManager.unique().retrieveMicroserviceSummaryPage(allIncludingPrivates ? null : true, "id", false, 0, 0).getJsonArray("microserviceList").getValuesAs(JsonObject.class)) {
+            retBuilder.add(microserviceSummary.getString("id"), Json.createObjectBuilder()
+                .add("name", microserviceSummary.getString("name"))
+                .add("description", microserviceSummary.getString("description"))
+            );
         }
         return retBuilder.build();
     }
     
+    /**
+     * Return a page of the available microservices, filtered and sorted<br>
+     * @param publicFilter When not null return only the microservices with this value of "public"
+     * @param sortBy The key used to sort the microservices: "id", "name" or "description"
+     * @param descending True to invert the order
+     * @param offset The number of microservices to skip
+     * @param limit The maximum number of microservices to return. 0 or less for no limit
+     * @return JsonObject A JSON object as specified in {@link MicroserviceSummaryIndex#getSummaryPage(Boolean, String, boolean, int, int)}
+     * @throws Exception in case of error
+     */
+    public JsonObject retrieveMicroservices(Boolean publicFilter, String sortBy, boolean descending, int offset, int limit) throws Exception {
+        return PersistenceManager.unique().retrieveMicroserviceSummaryPage(publicFilter, sortBy, descending, offset, limit);
+    }
+    
     /**
      * Return a JSON containing informations about the available operations for the provided microservice<br>
      * @param microserviceId The id of the microservice to look for the operations
@@ -492,9 +659,7 @@ public class MicroserviceController {
      * @throws Exception in case of error
      */
     public JsonObject retrieveMicroserviceDetails(String microserviceId) throws Exception {
-        if(microserviceId == null || microserviceId.isEmpty()) throw new Exception("microserviceId can not be empty");
-        
-        JsonObject microserviceConfig = PersistenceManager.unique().retrieveMicroserviceConfiguration(microserviceId);
+        JsonObject microserviceConfig = getMicroservicePlan(microserviceId).serviceConfiguration;
         JsonObjectBuilder operationsBuilder = Json.createObjectBuilder();
         JsonObject operations = microserviceConfig.getJsonObject("operations");
         for(String operationId : operations.keySet()) {
@@ -521,8 +686,17 @@ public class MicroserviceController {
      * @throws Exception in case of error
      */
     public JsonObject retrieveMicroserviceConfiguration(String microserviceId) throws Exception {
-        if(microserviceId == null || microserviceId.isEmpty()) throw new Exception("microserviceId can not be empty");
-        return PersistenceManager.unique().retrieveMicroserviceConfiguration(microserviceId);
+        return getMicroservicePlan(microserviceId).serviceConfiguration;
+    }
+    
+    /**
+     * Return the previous versions of the JSON configuration for the required microservice, when kept by the persistence store<br>
+     * @param microserviceId The id of the microservice to look for the configuration history
+     * @return JsonArray The versions of the configuration, from the oldest, as specified in {@link PersistenceI#retrieveMicroserviceConfigurationHistory(String)}. Empty when the store does not keep the history
+     * @throws Exception in case of error
+     */
+    public JsonArray retrieveMicroserviceConfigurationHistory(String microserviceId) throws Exception {
+        return PersistenceManager.unique().retrieveMicroserviceConfigurationHistory(microserviceId);
     }
     
     /**
@@ -564,29 +738,12 @@ public class MicroserviceController {
      * @see org.adoxx.microservice.api.connectors.AsyncConnectorA
      */
     public JsonObject getMicroserviceIOInfo(String microserviceId, String operationId) throws Exception {
-        if(microserviceId == null || microserviceId.isEmpty()) throw new Exception("microserviceId can not be empty");
-        JsonObject serviceConfig = PersistenceManager.unique().retrieveMicroserviceConfiguration(microserviceId);
-        operationId = (operationId == null || operationId.isEmpty())?serviceConfig.getString("defaultOperationId"):operationId;
-        JsonObject operation = serviceConfig.getJsonObject("operations").getJsonObject(operationId);
-        if(operation == null) throw new Exception("Impossible to find the operation with key " + operationId);
-        JsonObject configuration = operation.getJsonObject("configuration");
-        JsonObject inputs = configuration.getJsonObject("inputs");
-        JsonObjectBuilder requiredInputTemplateBuilder = Json.createObjectBuilder();
-        for(String serviceInputKey : inputs.keySet()) {
-            requiredInputTemplateBuilder.add(serviceInputKey, Json.createObjectBuilder()
-                .add("description", inputs.getJsonObject(serviceInputKey).getString("description"))
-                .add("workingExample", inputs.getJsonObject(serviceInputKey).getString("workingExample"))
-                .add("value", "")
-            );
-        }
-        
-        String connectorId = configuration.getString("connectorId");
-        JsonObject connectorInfo = getAvailableConnectors().getJsonObject(connectorId);
+        OperationPlan operationPlan = getOperationPlan(microserviceId, operationId);
         
         return Json.createObjectBuilder()
-            .add("requiredInputTemplate", requiredInputTemplateBuilder)
-            .add("outputDescription", configuration.getString("outputDescription"))
-            .add("asyncConnectionRequired", connectorInfo.getBoolean("asyncConnectionRequired"))
+            .add("requiredInputTemplate", operationPlan.requiredInputTemplate)
+            .add("outputDescription", operationPlan.outputDescription)
+            .add("asyncConnectionRequired", operationPlan.asyncConnectionRequired)
         .build();
     }
     
@@ -597,10 +754,7 @@ public class MicroserviceController {
      * @throws Exception in case of error
      */
     public void startAllMicroserviceOperations(String microserviceId) throws Exception {
-        if(microserviceId == null || microserviceId.isEmpty()) throw new Exception("microserviceId can not be empty");
-        JsonObject serviceConfig = PersistenceManager.unique().retrieveMicroserviceConfiguration(microserviceId);
-        JsonObject operations = serviceConfig.getJsonObject("operations");
-        for(String operationKey : operations.keySet())
+        for(String operationKey : getMicroservicePlan(microserviceId).operationPlans.keySet())
             startMicroservice(microserviceId, operationKey);
     }
     
@@ -622,23 +776,39 @@ public class MicroserviceController {
      * @throws Exception in case of error
      */
     public void startMicroservice(String microserviceId, String operationId) throws Exception {
-        if(microserviceId == null || microserviceId.isEmpty()) throw new Exception("microserviceId can not be empty");
-        JsonObject serviceConfig = PersistenceManager.unique().retrieveMicroserviceConfiguration(microserviceId);
-        operationId = (operationId == null || operationId.isEmpty())?serviceConfig.getString("defaultOperationId"):operationId;
-        JsonObject operation = serviceConfig.getJsonObject("operations").getJsonObject(operationId);
-        if(operation == null) throw new Exception("Impossible to find the operation with key " + operationId);
+        OperationPlan operationPlan = getOperationPlan(microserviceId, operationId);
+        operationId = operationPlan.operationId;
         String serviceKey = microserviceId + "_" + operationId;
-        if(service_operationStartedList.containsKey(serviceKey))
+        if(service_operationStartedList.containsKey(serviceKey) && !service_operationForcedStartedList.contains(serviceKey))
             return;
         
-        JsonObject configuration = operation.getJsonObject("configuration");
-        String connectorId = configuration.getString("connectorId");
-        JsonObject configStart = configuration.getJsonObject("configStart");
-        JsonObject inputsAsync = configuration.getJsonObject("inputsAsync");
-        String outputAdaptationAlgorithm = configuration.getString("outputAdaptationAlgorithm", "");
+        ReentrantLock serviceLock = lockService(serviceKey);
+        try {
+            service_operationForcedStartedList.remove(serviceKey);
+            if(service_operationStartedList.containsKey(serviceKey))
+                return;
+            _startMicroservice(operationPlan, false);
+        } finally {
+            unlockService(serviceKey, serviceLock);
+        }
+    }
+    
+    private void _startMicroservice(OperationPlan operationPlan, boolean pooled) throws Exception {
+        String microserviceId = operationPlan.microserviceId;
+        String operationId = operationPlan.operationId;
+        String serviceKey = microserviceId + "_" + operationId;
+        JsonObject serviceConfig = operationPlan.serviceConfiguration;
+        JsonObject operation = operationPlan.operation;
+        String connectorId = operationPlan.connectorId;
+        JsonObject configStart = operationPlan.configStart;
+        JsonObject inputsAsync = operationPlan.inputsAsync;
+        String outputAdaptationAlgorithm = operationPlan.outputAdaptationAlgorithm;
         
         String connectorInstanceId = null;
-        if(inputsAsync == null) {
+        boolean connectorInstancePooled = pooled && inputsAsync == null && !operationPlan.asyncConnectionRequired;
+        if(connectorInstancePooled) {
+            connectorInstanceId = ConnectorsController.unique().borrowConnectorInstance(connectorId, configStart);
+        } else if(inputsAsync == null) {
             connectorInstanceId = ConnectorsController.unique().startConnectorInstance(connectorId, configStart);
         } else {
             String responseServiceId = inputsAsync.getString("responseServiceId", "").isEmpty()?microserviceId:inputsAsync.getString("responseServiceId", "");
@@ -650,38 +820,49 @@ public class MicroserviceController {
             connectorInstanceId = ConnectorsController.unique().startConnectorInstance(connectorId, configStart, new AsyncResponseHandlerI() {
                 @Override
                 public void handler(JsonObject asyncResponse) throws Exception {
-                    String asyncResponseString = asyncResponse.toString();
+                    operationPlan.scriptLimits.call(() -> {
+                        JsonObject asyncResponseObject = asyncResponse;
+                        String asyncResponseString = null;
                     
-                    if(!outputAdaptationAlgorithm.isEmpty()) {
-                        Object adaptationOutputString = Utils.outputAdaptation(asyncResponseString, "{}", outputAdaptationAlgorithm, true, microserviceId);
-                        if(!(adaptationOutputString instanceof String))
-                            throw new Exception("The returned object of an adaptation algorithm can be only a JSON string. Obtained: " + adaptationOutputString.toString());
-                        asyncResponseString = (String)adaptationOutputString;
-                    }
+                        if(!outputAdaptationAlgorithm.isEmpty()) {
+                            Object adaptationOutputString = Utils.outputAdaptation(asyncResponseObject, JsonValue.EMPTY_JSON_OBJECT, outputAdaptationAlgorithm, true, microserviceId);
+                            if(adaptationOutputString instanceof String) {
+                                asyncResponseObject = null;
+                                asyncResponseString = (String)adaptationOutputString;
+                            } else if(adaptationOutputString instanceof JsonObject)
+                                asyncResponseObject = (JsonObject)adaptationOutputString;
+                            else
+                                throw new Exception("The returned object of an adaptation algorithm can be only a JSON string or a JSON object. Obtained: " + adaptationOutputString.toString());
+                        }
                     
-                    if(!inputAdaptationAlgorithm.isEmpty()) {
-                        Object inputAdaptedOutputString = Utils.outputAdaptation(asyncResponseString, null, inputAdaptationAlgorithm, true, microserviceId);
-                        if(inputAdaptedOutputString == null)
-                            return;
-                        if(!(inputAdaptedOutputString instanceof String))
-                            throw new Exception("The returned object of an input adaptation algorithm can be only null or a string. Obtained: " + inputAdaptedOutputString.toString());
-                        asyncResponseString = (String)inputAdaptedOutputString;
-                    }
+                        if(!inputAdaptationAlgorithm.isEmpty()) {
+                            Object inputAdaptedOutputString = asyncResponseObject != null ? Utils.outputAdaptation(asyncResponseObject, null, inputAdaptationAlgorithm, true, microserviceId) : Utils.outputAdaptation(asyncResponseString, null, inputAdaptationAlgorithm, true, microserviceId);
+                            if(inputAdaptedOutputString == null)
+                                return null;
+                            if(!(inputAdaptedOutputString instanceof String) && !(inputAdaptedOutputString instanceof JsonObject))
+                                throw new Exception("The returned object of an input adaptation algorithm can be only null, a string or a JSON object. Obtained: " + inputAdaptedOutputString.toString());
+                            asyncResponseString = inputAdaptedOutputString.toString();
+                        }
+                        if(asyncResponseString == null)
+                            asyncResponseString = asyncResponseObject.toString();
                     
-                    if(!responseServiceInputId.isEmpty()){
-                        JsonObjectBuilder responseServiceInputsBuilder = Json.createObjectBuilder();
-                        responseServiceInputsBuilder.add(responseServiceInputId, Json.createObjectBuilder().add("value", asyncResponseString));
-                        for(String responseServiceOtherInputKey : responseServiceOtherInputs.keySet())
-                            responseServiceInputsBuilder.add(responseServiceOtherInputKey, Json.createObjectBuilder().add("value", responseServiceOtherInputs.getJsonObject(responseServiceOtherInputKey).getString("value")));
+                        if(!responseServiceInputId.isEmpty()){
+                            JsonObjectBuilder responseServiceInputsBuilder = Json.createObjectBuilder();
+                            responseServiceInputsBuilder.add(responseServiceInputId, Json.createObjectBuilder().add("value", asyncResponseString));
+                            for(String responseServiceOtherInputKey : responseServiceOtherInputs.keySet())
+                                responseServiceInputsBuilder.add(responseServiceOtherInputKey, Json.createObjectBuilder().add("value", responseServiceOtherInputs.getJsonObject(responseServiceOtherInputKey).getString("value")));
                         
-                        callMicroserviceForced(responseServiceId, responseServiceOperationId, responseServiceInputsBuilder.build());
-                    }
+                            callMicroserviceForced(responseServiceId, responseServiceOperationId, responseServiceInputsBuilder.build());
+                        }
+                        return null;
+                    });
                 }
             });
         }
         
         HashMap<String, String> serviceProperties = new HashMap<String, String>();
         serviceProperties.put("connectorInstanceId", connectorInstanceId);
+        serviceProperties.put("connectorInstancePooled", String.valueOf(connectorInstancePooled));
         serviceProperties.put("operationId", operationId);
         serviceProperties.put("operationName", operation.getString("name"));
         serviceProperties.put("operationDescription", operation.getString("description"));
@@ -777,24 +958,42 @@ public class MicroserviceController {
     
     /**
      * Stop the provided operation of the provided microservice<br>
-     * If the microservice operation is already stopped it will be ignored.<br>
+     * If the microservice operation is already stopped it will be ignored. If forced calls are using the operation it will be stopped when the last of them complete.<br>
      * @param microserviceId The id of the microservice to stop
      * @param operationId The id of the microservice operation to stop
      * @throws Exception in case of error
      */
     public void stopMicroservice(String microserviceId, String operationId) throws Exception {
-        if(microserviceId == null || microserviceId.isEmpty()) throw new Exception("microserviceId can not be empty");
-        JsonObject serviceConfig = PersistenceManager.unique().retrieveMicroserviceConfiguration(microserviceId);
-        operationId = (operationId == null || operationId.isEmpty())?serviceConfig.getString("defaultOperationId"):operationId;
-        JsonObject operation = serviceConfig.getJsonObject("operations").getJsonObject(operationId);
-        if(operation == null) throw new Exception("Impossible to find the operation with key " + operationId);
+        OperationPlan operationPlan = getOperationPlan(microserviceId, operationId);
+        operationId = operationPlan.operationId;
         
         String serviceKey = microserviceId + "_" + operationId;
+        if(!service_operationStartedList.containsKey(serviceKey)) 
+            return;
+        ReentrantLock serviceLock = lockService(serviceKey);
+        try {
+            //the instance is shared with forced calls in execution: the last of them will stop it
+            if(service_operationForcedCallersList.containsKey(serviceKey)) {
+                if(service_operationStartedList.containsKey(serviceKey))
+                    service_operationForcedStartedList.add(serviceKey);
+                return;
+            }
+            _stopMicroservice(serviceKey);
+        } finally {
+            unlockService(serviceKey, serviceLock);
+        }
+    }
+    
+    private void _stopMicroservice(String serviceKey) throws Exception {
         HashMap<String, String> serviceProperties = service_operationStartedList.get(serviceKey);
+        service_operationForcedStartedList.remove(serviceKey);
         if(serviceProperties == null) 
             return;
         String connectorInstanceId = serviceProperties.get("connectorInstanceId");
-        ConnectorsController.unique().stopConnectorInstance(connectorInstanceId);
+        if(Boolean.parseBoolean(serviceProperties.get("connectorInstancePooled")))
+            ConnectorsController.unique().releaseConnectorInstance(connectorInstanceId);
+        else
+            ConnectorsController.unique().stopConnectorInstance(connectorInstanceId);
         service_operationStartedList.remove(serviceKey);
     }
     
@@ -805,9 +1004,7 @@ public class MicroserviceController {
      */
     public void stopAllMicroserviceOperations(String microserviceId) throws Exception {
         if(microserviceId == null || microserviceId.isEmpty()) throw new Exception("microserviceId can not be empty");
-        HashMap<String, HashMap<String, String>> service_operationStartedListCopy = new HashMap<String, HashMap<String, String>>();
-        service_operationStartedListCopy.putAll(service_operationStartedList);
-        for(HashMap<String, String> startedProperties : service_operationStartedListCopy.values())
+        for(HashMap<String, String> startedProperties : new ArrayList<HashMap<String, String>>(service_operationStartedList.values()))
             if(microserviceId.equals(startedProperties.get("microserviceId")))
                 stopMicroservice(startedProperties.get("microserviceId"), startedProperties.get("operationId"));
     }
@@ -825,6 +1022,8 @@ public class MicroserviceController {
     
     /**
      * Call the provided operation of the provided microservice. If the microservice operation is stopped, will be started, called and then stopped.<br>
+     * Concurrent forced calls to the same stopped operation share a single started instance, that is stopped when the last of them complete. If the operation is explicitly started in the meanwhile it will remain started.<br>
+     * For operations based on synchronous connectors the instance is borrowed from the pool of warm instances of the {@link ConnectorsController} and returned to it in the end, so consecutive forced calls do not pay the connector starting cost.<br>
      * @param microserviceId The id of the microservice to call
      * @param operationId The id of the microservice operation to call
      * @param microserviceInputs The JSON of the inputs is described in {@link #callMicroservice(String, JsonObject)}
@@ -832,23 +1031,19 @@ public class MicroserviceController {
      * @throws Exception in case of error
      */
     public JsonObject callMicroserviceForced(String microserviceId, String operationId, JsonObject microserviceInputs) throws Exception {
-        if(microserviceId == null || microserviceId.isEmpty()) throw new Exception("microserviceId can not be empty");
         if(microserviceInputs == null) throw new Exception("microserviceInputs must be a valid JSON object");
-        JsonObject serviceConfig = PersistenceManager.unique().retrieveMicroserviceConfiguration(microserviceId);
-        operationId = (operationId == null || operationId.isEmpty())?serviceConfig.getString("defaultOperationId"):operationId;
-        JsonObject operation = serviceConfig.getJsonObject("operations").getJsonObject(operationId);
-        if(operation == null) throw new Exception("Impossible to find the operation with key " + operationId);
+        OperationPlan operationPlan = getOperationPlan(microserviceId, operationId);
+        operationId = operationPlan.operationId;
         
         String serviceKey = microserviceId + "_" + operationId;
-        if(service_operationStartedList.get(serviceKey) != null) {
+        if(service_operationStartedList.containsKey(serviceKey) && !service_operationForcedStartedList.contains(serviceKey))
             return callMicroservice(microserviceId, operationId, microserviceInputs);
-        } else {
-            startMicroservice(microserviceId, operationId);
-            try {
-                return callMicroservice(microserviceId, operationId, microserviceInputs);
-            } finally {
-                stopMicroservice(microserviceId, operationId);
-            }
+        
+        acquireForcedCaller(operationPlan);
+        try {
+            return callMicroservice(microserviceId, operationId, microserviceInputs);
+        } finally {
+            releaseForcedCaller(serviceKey);
         }
     }
     
@@ -900,11 +1095,8 @@ public class MicroserviceController {
      * @throws Exception in case of error
      */
     public JsonObject checkMicroserviceConnectorStatus(String microserviceId, String operationId) throws Exception {
-        if(microserviceId == null || microserviceId.isEmpty()) throw new Exception("microserviceId can not be empty");
-        JsonObject serviceConfig = PersistenceManager.unique().retrieveMicroserviceConfiguration(microserviceId);
-        operationId = (operationId == null || operationId.isEmpty())?serviceConfig.getString("defaultOperationId"):operationId;
-        JsonObject operation = serviceConfig.getJsonObject("operations").getJsonObject(operationId);
-        if(operation == null) throw new Exception("Impossible to find the operation with key " + operationId);
+        OperationPlan operationPlan = getOperationPlan(microserviceId, operationId);
+        operationId = operationPlan.operationId;
         
         String serviceKey = microserviceId + "_" + operationId;
         HashMap<String, String> serviceProperties = service_operationStartedList.get(serviceKey);
@@ -945,11 +1137,8 @@ public class MicroserviceController {
      * @throws Exception in case of error
      */
     public JsonObject checkMicroserviceStatus(String microserviceId, String operationId) throws Exception {
-        if(microserviceId == null || microserviceId.isEmpty()) throw new Exception("microserviceId can not be empty");
-        JsonObject serviceConfig = PersistenceManager.unique().retrieveMicroserviceConfiguration(microserviceId);
-        operationId = (operationId == null || operationId.isEmpty())?serviceConfig.getString("defaultOperationId"):operationId;
-        JsonObject operation = serviceConfig.getJsonObject("operations").getJsonObject(operationId);
-        if(operation == null) throw new Exception("Impossible to find the operation with key " + operationId);
+        OperationPlan operationPlan = getOperationPlan(microserviceId, operationId);
+        operationId = operationPlan.operationId;
         
         String serviceKey = microserviceId + "_" + operationId;
         HashMap<String, String> serviceProperties = service_operationStartedList.get(serviceKey);
@@ -963,24 +1152,14 @@ public class MicroserviceController {
             return Json.createObjectBuilder().add("connectorInstanceStatus", "STOPPED").add("serviceStatus", "UNKNOWN").add("error", "Connector Instance is stopped but the microservice is started. Consider executing the fixing service operation").build();
         
         //from here is sure that the module is STARTED
-        JsonObject configuration = operation.getJsonObject("configuration");
-        String configCall = configuration.getJsonObject("configCall").toString();
-        JsonObject inputs = configuration.getJsonObject("inputs");
-        for(String serviceInputKey : inputs.keySet()) {
-            JsonObject serviceInput = inputs.getJsonObject(serviceInputKey);
-            String serviceInputTestValue = serviceInput.getString("workingExample");
-            String matchingName = serviceInput.getString("matchingName");
-            serviceInputTestValue = Utils.escapeJson(serviceInputTestValue);
-            configCall = configCall.replace(matchingName, serviceInputTestValue);
-        }
-        String statusCheckAlgorithm = configuration.getString("statusCheckAlgorithm");
-        JsonObject configCallJson = Json.createReader(new StringReader(configCall)).readObject();
+        String statusCheckAlgorithm = operationPlan.statusCheckAlgorithm;
+        JsonObject configCallJson = operationPlan.configCallTemplate.render(operationPlan.inputWorkingExamples);
         try {
             JsonObject serviceOutput = ConnectorsController.unique().callConnectorInstance(connectorInstanceId, configCallJson);
             if(statusCheckAlgorithm.isEmpty())
                 return Json.createObjectBuilder().add("connectorInstanceStatus", "STARTED").add("serviceStatus", "UP").add("error", "").build();
             else {
-                Object statusCheckOutputBoolean = Utils.outputAdaptation(serviceOutput.toString(), null, statusCheckAlgorithm, false);
+                Object statusCheckOutputBoolean = operationPlan.scriptLimits.call(() -> Utils.outputAdaptation(serviceOutput, null, statusCheckAlgorithm, false));
                 if(!(statusCheckOutputBoolean instanceof Boolean)) throw new Exception("The last expression of the Javascript algorithm must be a boolean expression. Returned: " + statusCheckOutputBoolean);
                 boolean status = (boolean)statusCheckOutputBoolean;
                 return Json.createObjectBuilder().add("connectorInstanceStatus", "STARTED").add("serviceStatus", status?"UP":"DOWN").add("error", "").build();
@@ -1000,8 +1179,15 @@ public class MicroserviceController {
         for(Entry<String, HashMap<String, String>> entry : service_operationStartedList.entrySet())
             if(ConnectorsController.unique().checkConnectorInstanceStatus(entry.getValue().get("connectorInstanceId")).getString("connectorInstanceStatus").equals("STOPPED"))
                 toRemove.add(entry.getKey());
-        for(String key : toRemove)
-            service_operationStartedList.remove(key);
+        for(String key : toRemove) {
+            ReentrantLock serviceLock = lockService(key);
+            try {
+                service_operationStartedList.remove(key);
+                service_operationForcedStartedList.remove(key);
+            } finally {
+                unlockService(key, serviceLock);
+            }
+        }
     }
     
     /**
@@ -1028,6 +1214,273 @@ public class MicroserviceController {
     }
     
     
+    /**
+     * Asynchronously call the default operation of the provided microservice on the shared call executor.<br>
+     * @param microserviceId The id of the microservice to call
+     * @param microserviceInputs The JSON of the inputs is described in {@link #callMicroservice(String, JsonObject)}
+     * @return CompletableFuture&lt;JsonObject&gt; The future completed with the result of {@link #callMicroservice(String, JsonObject)} or with its exception
+     */
+    public CompletableFuture<JsonObject> callMicroserviceAsync(String microserviceId, JsonObject microserviceInputs) {
+        return callMicroserviceAsync(microserviceId, null, microserviceInputs);
+    }
+    
+    /**
+     * Asynchronously call the provided operation of the provided microservice on the bounded executor returned by {@link ExecutorManager#getAsyncCallExecutor()}.<br>
+     * The caller thread is not blocked and the returned futures can be composed in order to call more microservices in parallel.
+     * When the executor is full the future is completed with a {@link RejectedExecutionException} and the call is not performed.<br>
+     * @param microserviceId The id of the microservice to call
+     * @param operationId The id of the microservice operation to call
+     * @param microserviceInputs The JSON of the inputs is described in {@link #callMicroservice(String, JsonObject)}
+     * @return CompletableFuture&lt;JsonObject&gt; The future completed with the result of {@link #callMicroservice(String, String, JsonObject)} or with its exception
+     */
+    public CompletableFuture<JsonObject> callMicroserviceAsync(String microserviceId, String operationId, JsonObject microserviceInputs) {
+        return supplyAsync(() -> callMicroservice(microserviceId, operationId, microserviceInputs));
+    }
+    
+    /**
+     * Asynchronously call the default operation of the provided microservice, starting and stopping it if required, on the shared call executor.<br>
+     * @param microserviceId The id of the microservice to call
+     * @param microserviceInputs The JSON of the inputs is described in {@link #callMicroservice(String, JsonObject)}
+     * @return CompletableFuture&lt;JsonObject&gt; The future completed with the result of {@link #callMicroserviceForced(String, JsonObject)} or with its exception
+     */
+    public CompletableFuture<JsonObject> callMicroserviceForcedAsync(String microserviceId, JsonObject microserviceInputs) {
+        return callMicroserviceForcedAsync(microserviceId, null, microserviceInputs);
+    }
+    
+    /**
+     * Asynchronously call the provided operation of the provided microservice, starting and stopping it if required, on the bounded executor returned by {@link ExecutorManager#getAsyncCallExecutor()}.<br>
+     * @param microserviceId The id of the microservice to call
+     * @param operationId The id of the microservice operation to call
+     * @param microserviceInputs The JSON of the inputs is described in {@link #callMicroservice(String, JsonObject)}
+     * @return CompletableFuture&lt;JsonObject&gt; The future completed with the result of {@link #callMicroserviceForced(String, String, JsonObject)} or with its exception
+     */
+    public CompletableFuture<JsonObject> callMicroserviceForcedAsync(String microserviceId, String operationId, JsonObject microserviceInputs) {
+        return supplyAsync(() -> callMicroserviceForced(microserviceId, operationId, microserviceInputs));
+    }
+    
+    /**
+     * Asynchronously perform a direct call to a synchronous connector on the bounded executor returned by {@link ExecutorManager#getAsyncCallExecutor()}.<br>
+     * @param connectorConfiguration The JSON object specifying the connector configuration as described in {@link #callSyncConnectorForced(JsonObject)}
+     * @return CompletableFuture&lt;JsonObject&gt; The future completed with the result of {@link #callSyncConnectorForced(JsonObject)} or with its exception
+     */
+    public CompletableFuture<JsonObject> callSyncConnectorForcedAsync(JsonObject connectorConfiguration) {
+        return supplyAsync(() -> callSyncConnectorForced(connectorConfiguration));
+    }
+    
+    /**
+     * Call the provided operation of the provided microservice once for every provided input, executing the calls in parallel on the shared call executor.<br>
+     * At most {@link MicroserviceBatchCall#maxParallelism} calls are executed at the same time.<br>
+     * @param microserviceId The id of the microservice to call
+     * @param operationId The id of the microservice operation to call
+     * @param microserviceInputsList The list of inputs, each one with the JSON format described in {@link #callMicroservice(String, JsonObject)}
+     * @return MicroserviceBatchCall The batch providing the results of every call in completion order
+     * @throws Exception in case of error
+     * @see #callMicroserviceBatch(String, String, List, int)
+     */
+    public MicroserviceBatchCall callMicroserviceBatch(String microserviceId, String operationId, List<JsonObject> microserviceInputsList) throws Exception {
+        return callMicroserviceBatch(microserviceId, operationId, microserviceInputsList, MicroserviceBatchCall.maxParallelism);
+    }
+    
+    /**
+     * Call the provided operation of the provided microservice once for every provided input, executing the calls in parallel on the shared call executor.<br>
+     * The operation plan is resolved only once for the whole batch. If the microservice operation is stopped, will be started before the first call and stopped after the last one, as in {@link #callMicroserviceForced(String, String, JsonObject)}.<br>
+     * The returned batch must be iterated in order to obtain the results, returned in completion order with the index of the related input and the status of the call.<br>
+     * @param microserviceId The id of the microservice to call
+     * @param operationId The id of the microservice operation to call
+     * @param microserviceInputsList The list of inputs, each one with the JSON format described in {@link #callMicroservice(String, JsonObject)}
+     * @param maxParallelism The maximum number of calls executed at the same time. Values lower than 1 or greater than {@link MicroserviceBatchCall#maxParallelism} are limited to it
+     * @return MicroserviceBatchCall The batch providing the results of every call in completion order
+     * @throws Exception in case of error
+     */
+    public MicroserviceBatchCall callMicroserviceBatch(String microserviceId, String operationId, List<JsonObject> microserviceInputsList, int maxParallelism) throws Exception {
+        if(microserviceInputsList == null) throw new Exception("microserviceInputsList must be a valid list of JSON objects");
+        OperationPlan operationPlan = getOperationPlan(microserviceId, operationId);
+        String serviceKey = microserviceId + "_" + operationPlan.operationId;
+        ExecutorService callExecutor = ExecutorManager.unique().getCallExecutor();
+        
+        boolean forced = !service_operationStartedList.containsKey(serviceKey) || service_operationForcedStartedList.contains(serviceKey);
+        if(forced && !microserviceInputsList.isEmpty())
+            acquireForcedCaller(operationPlan);
+        
+        MicroserviceBatchCall batchCall = new MicroserviceBatchCall(microserviceInputsList.size(), index -> _callMicroservice(operationPlan, microserviceInputsList.get(index), false, true), callExecutor, () -> {
+            if(forced && !microserviceInputsList.isEmpty())
+                try {
+                    releaseForcedCaller(serviceKey);
+                } catch (Exception e) {
+                    LogManager.unique().log(LogLevel.ERROR, "Error stopping the microservice " + microserviceId + " operation " + operationPlan.operationId + " at the end of the batch call", e);
+                }
+        });
+        batchCall.start(maxParallelism < 1 || maxParallelism > MicroserviceBatchCall.maxParallelism ? MicroserviceBatchCall.maxParallelism : maxParallelism);
+        return batchCall;
+    }
+    
+    /**
+     * Execute the provided microservice calls in parallel on the shared call executor and return their results in the same order of the calls.<br>
+     * Every call is executed as in {@link #callMicroserviceForced(String, String, JsonObject)}. The first failed call makes the whole execution fail, and the calls not yet started are skipped.<br>
+     * When invoked from a script, the evaluations required by the calls run directly on the call executor threads, so the script executor can not be exhausted by scripts waiting for their own calls.<br>
+     * @param callList The list of calls, each one with the following format:
+     * <pre>
+     * {
+     *     "microserviceId" : "id of the microservice to call",
+     *     "operationId" : "id of the microservice operation to call. Optional: when missing the default operation is called",
+     *     "inputs" : {the JSON of the inputs as described in {@link #callMicroservice(String, JsonObject)}}
+     * }
+     * </pre>
+     * @param maxParallelism The maximum number of calls executed at the same time. Values lower than 1 or greater than {@link MicroserviceBatchCall#maxScriptFanOut} are limited to it
+     * @return JsonArray The results of the calls, in the order of callList
+     * @throws Exception in case of error of any call
+     */
+    public JsonArray callMicroservicesParallel(List<JsonObject> callList, int maxParallelism) throws Exception {
+        if(callList == null) throw new Exception("callList must be a valid list of JSON objects");
+        for(int i = 0; i < callList.size(); i++) {
+            if(callList.get(i).getString("microserviceId", "").isEmpty()) throw new Exception("The call " + i + " must contain a microserviceId");
+            if(!(callList.get(i).get("inputs") instanceof JsonObject)) throw new Exception("The call " + i + " must contain inputs as JSON object");
+        }
+        
+        boolean fromScript = ScriptWatchdog.isScriptThread();
+        JsonObject[] resultList = new JsonObject[callList.size()];
+        try(MicroserviceBatchCall batchCall = new MicroserviceBatchCall(callList.size(), index -> {
+            JsonObject call = callList.get(index);
+            Callable<JsonObject> itemCall = () -> callMicroserviceForced(call.getString("microserviceId"), call.getString("operationId", null), call.getJsonObject("inputs"));
+            return fromScript ? ScriptWatchdog.callAsScriptThread(itemCall) : itemCall.call();
+        }, ExecutorManager.unique().getCallExecutor(), () -> {})) {
+            batchCall.start(maxParallelism < 1 || maxParallelism > MicroserviceBatchCall.maxScriptFanOut ? MicroserviceBatchCall.maxScriptFanOut : maxParallelism);
+            while(batchCall.hasNext()) {
+                JsonObject result = batchCall.next();
+                int index = result.getInt("index");
+                if(result.getInt("status") != 0)
+                    throw new Exception("The parallel call " + index + " to the microservice " + callList.get(index).getString("microserviceId") + " failed: " + result.getString("error"));
+                resultList[index] = result.getJsonObject("data");
+            }
+        }
+        
+        JsonArrayBuilder resultArrayBuilder = Json.createArrayBuilder();
+        for(JsonObject result : resultList)
+            resultArrayBuilder.add(result);
+        return resultArrayBuilder.build();
+    }
+    
+    private CompletableFuture<JsonObject> supplyAsync(Callable<JsonObject> call) {
+        CompletableFuture<JsonObject> future = new CompletableFuture<JsonObject>();
+        try {
+            Future<?> task = ExecutorManager.unique().getAsyncCallExecutor().submit(CallContext.propagate(() -> {
+                try {
+                    future.complete(call.call());
+                } catch(Throwable t) {
+                    future.completeExceptionally(t);
+                }
+            }));
+            //at the deadline the caller is released and the worker interrupted, also when the call is blocked in a step that does not check the deadline
+            CallContext callContext = CallContext.current();
+            Runnable cancelRegistration = callContext == null ? () -> {} : callContext.onCancel(() -> {
+                if(future.completeExceptionally(callContext.newDeadlineExceededException()))
+                    task.cancel(true);
+            });
+            future.whenComplete((callRet, callEx) -> {
+                cancelRegistration.run();
+                if(future.isCancelled())
+                    task.cancel(true);
+            });
+        } catch(RejectedExecutionException e) {
+            //the runtime is overloaded or shutting down: the call has not been performed
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+    
+    private OperationPlan getOperationPlan(String microserviceId, String operationId) throws Exception {
+        return getMicroservicePlan(microserviceId).getOperationPlan(operationId);
+    }
+    
+    private OperationPlan.MicroservicePlan getMicroservicePlan(String microserviceId) throws Exception {
+        if(microserviceId == null || microserviceId.isEmpty()) throw new Exception("microserviceId can not be empty");
+        OperationPlan.MicroservicePlan microservicePlan = microservicePlanCache.get(microserviceId);
+        if(microservicePlan != null)
+            return microservicePlan;
+        long configurationVersion = microserviceConfigurationVersionList.getOrDefault(microserviceId, 0L);
+        JsonObject serviceConfig = PersistenceManager.unique().retrieveMicroserviceConfiguration(microserviceId);
+        OperationPlan.MicroservicePlan newMicroservicePlan = new OperationPlan.MicroservicePlan(microserviceId, serviceConfig, configurationVersion);
+        //the plan is cached only if the configuration has not been changed in the meanwhile
+        microserviceConfigurationVersionList.compute(microserviceId, (id, currentVersion) -> {
+            if((currentVersion == null ? 0L : currentVersion) == configurationVersion)
+                microservicePlanCache.putIfAbsent(id, newMicroservicePlan);
+            return currentVersion;
+        });
+        return newMicroservicePlan;
+    }
+    
+    private void invalidateMicroservicePlan(String microserviceId) {
+        microserviceConfigurationVersionList.compute(microserviceId, (id, currentVersion) -> {
+            microservicePlanCache.remove(id);
+            return currentVersion == null ? 1L : currentVersion + 1;
+        });
+    }
+    
+    private void invalidateAllMicroservicePlans() {
+        for(String microserviceId : microservicePlanCache.keySet())
+            invalidateMicroservicePlan(microserviceId);
+    }
+    
+    private OperationBulkhead getOperationBulkhead(OperationPlan operationPlan) {
+        String serviceKey = operationPlan.microserviceId + "_" + operationPlan.operationId;
+        if(operationPlan.maxConcurrentCalls <= 0) {
+            if(!service_operationBulkheadList.isEmpty())
+                service_operationBulkheadList.remove(serviceKey);
+            return null;
+        }
+        OperationBulkhead operationBulkhead = service_operationBulkheadList.get(serviceKey);
+        if(operationBulkhead != null && operationBulkhead.hasLimits(operationPlan.maxConcurrentCalls, operationPlan.maxQueuedCalls, operationPlan.queueTimeoutMs))
+            return operationBulkhead;
+        //the limits changed with the configuration, so the calls in execution return their permits to the previous bulkhead
+        return service_operationBulkheadList.compute(serviceKey, (key, currentBulkhead) -> (currentBulkhead != null && currentBulkhead.hasLimits(operationPlan.maxConcurrentCalls, operationPlan.maxQueuedCalls, operationPlan.queueTimeoutMs)) ? currentBulkhead : new OperationBulkhead(operationPlan.microserviceId, operationPlan.operationId, operationPlan.maxConcurrentCalls, operationPlan.maxQueuedCalls, operationPlan.queueTimeoutMs));
+    }
+    
+    private ReentrantLock lockService(String serviceKey) {
+        while(true) {
+            ReentrantLock serviceLock = service_operationLockList.computeIfAbsent(serviceKey, k -> new ReentrantLock());
+            serviceLock.lock();
+            //the lock could have been removed while waiting for it
+            if(service_operationLockList.get(serviceKey) == serviceLock)
+                return serviceLock;
+            serviceLock.unlock();
+        }
+    }
+    
+    private void unlockService(String serviceKey, ReentrantLock serviceLock) {
+        //the lock is kept only for the started or in use operations, so the deleted operations do not leave it behind
+        if(serviceLock.getHoldCount() == 1 && !service_operationStartedList.containsKey(serviceKey) && !service_operationForcedCallersList.containsKey(serviceKey))
+            service_operationLockList.remove(serviceKey, serviceLock);
+        serviceLock.unlock();
+    }
+    
+    private void acquireForcedCaller(OperationPlan operationPlan) throws Exception {
+        String serviceKey = operationPlan.microserviceId + "_" + operationPlan.operationId;
+        ReentrantLock serviceLock = lockService(serviceKey);
+        try {
+            if(!service_operationStartedList.containsKey(serviceKey)) {
+                _startMicroservice(operationPlan, true);
+                service_operationForcedStartedList.add(serviceKey);
+            }
+            service_operationForcedCallersList.merge(serviceKey, 1, Integer::sum);
+        } finally {
+            unlockService(serviceKey, serviceLock);
+        }
+    }
+    
+    private void releaseForcedCaller(String serviceKey) throws Exception {
+        ReentrantLock serviceLock = lockService(serviceKey);
+        try {
+            int forcedCallers = service_operationForcedCallersList.merge(serviceKey, -1, Integer::sum);
+            if(forcedCallers > 0)
+                return;
+            service_operationForcedCallersList.remove(serviceKey);
+            if(service_operationForcedStartedList.contains(serviceKey))
+                _stopMicroservice(serviceKey);
+        } finally {
+            unlockService(serviceKey, serviceLock);
+        }
+    }
+    
     private void checkAutostart(String microserviceId, JsonObject microserviceConfiguration) {
         JsonObject operations = microserviceConfiguration.getJsonObject("operations");
         for(String operationKey : operations.keySet())
@@ -1040,12 +1493,15 @@ public class MicroserviceController {
     }
     
     private JsonObject _callMicroservice(String microserviceId, String operationId, JsonObject microserviceInputs, boolean forceStart, boolean useThread) throws Exception {
-        if(microserviceId == null || microserviceId.isEmpty()) throw new Exception("microserviceId can not be empty");
         if(microserviceInputs == null) throw new Exception("microserviceInputs must be a valid JSON object");
-        JsonObject serviceConfig = PersistenceManager.unique().retrieveMicroserviceConfiguration(microserviceId);
-        operationId = (operationId == null || operationId.isEmpty())?serviceConfig.getString("defaultOperationId"):operationId;
-        JsonObject operation = serviceConfig.getJsonObject("operations").getJsonObject(operationId);
-        if(operation == null) throw new Exception("Impossible to find the operation with key " + operationId);
+        return _callMicroservice(getOperationPlan(microserviceId, operationId), microserviceInputs, forceStart, useThread);
+    }
+    
+    private JsonObject _callMicroservice(OperationPlan operationPlan, JsonObject microserviceInputs, boolean forceStart, boolean useThread) throws Exception {
+        if(microserviceInputs == null) throw new Exception("microserviceInputs must be a valid JSON object");
+        CallContext.checkCurrentDeadline();
+        String microserviceId = operationPlan.microserviceId;
+        String operationId = operationPlan.operationId;
         String connectorInstanceId = null;
         if(!forceStart) {
             String serviceKey = microserviceId + "_" + operationId;
@@ -1054,34 +1510,46 @@ public class MicroserviceController {
             connectorInstanceId = serviceProperties.get("connectorInstanceId");
         }
         
-        JsonObject configuration = operation.getJsonObject("configuration");
-        String connectorId = configuration.getString("connectorId");
-        JsonObject configStart = configuration.getJsonObject("configStart");
-        String configCall = configuration.getJsonObject("configCall").toString();
-        JsonObject inputs = configuration.getJsonObject("inputs");
+        //the scripts evaluated for the call are limited and accounted for this operation
+        final String callConnectorInstanceId = connectorInstanceId;
+        OperationBulkhead operationBulkhead = getOperationBulkhead(operationPlan);
+        if(operationBulkhead == null)
+            return operationPlan.scriptLimits.call(() -> _callConnector(operationPlan, callConnectorInstanceId, microserviceInputs, forceStart, useThread));
+        operationBulkhead.acquire();
+        try {
+            return operationPlan.scriptLimits.call(() -> _callConnector(operationPlan, callConnectorInstanceId, microserviceInputs, forceStart, useThread));
+        } finally {
+            operationBulkhead.release();
+        }
+    }
+    
+    private JsonObject _callConnector(OperationPlan operationPlan, String connectorInstanceId, JsonObject microserviceInputs, boolean forceStart, boolean useThread) throws Exception {
+        String microserviceId = operationPlan.microserviceId;
+        String connectorId = operationPlan.connectorId;
+        JsonObject configStart = operationPlan.configStart;
+        String[] serviceInputValues = new String[operationPlan.inputKeys.length];
         
-        for(String serviceInputKey : inputs.keySet()) {
-            JsonObject configuredServiceInputForTheProvidedKey = inputs.getJsonObject(serviceInputKey);
-            String matchingName = configuredServiceInputForTheProvidedKey.getString("matchingName");
+        for(int i = 0; i < operationPlan.inputKeys.length; i++) {
+            String serviceInputKey = operationPlan.inputKeys[i];
             JsonObject serviceInput = microserviceInputs.getJsonObject(serviceInputKey);
             if(serviceInput == null) throw new Exception("The input with key " + serviceInputKey + " is missing");
             if(!serviceInput.containsKey("value")) throw new Exception("The input object with key " + serviceInputKey + " must contain a \"value\" json string");
-            String serviceInputValue = serviceInput.getString("value");
-            serviceInputValue = Utils.escapeJson(serviceInputValue);
-            configCall = configCall.replace(matchingName, serviceInputValue);
+            serviceInputValues[i] = serviceInput.getString("value");
         }
         
-        JsonObject configCallJson = Json.createReader(new StringReader(configCall)).readObject();
+        JsonObject configCallJson = operationPlan.configCallTemplate.render(serviceInputValues);
         
         JsonObject connectorOutput = !forceStart ? ConnectorsController.unique().callConnectorInstance(connectorInstanceId, configCallJson) : (useThread ? ConnectorsController.unique().forceCallConnectorInstance(connectorId, configStart, configCallJson) : ConnectorsController.unique().forceCallConnectorDirect(connectorId, configStart, configCallJson));
         
-        String outputAdaptationAlgorithm = configuration.getString("outputAdaptationAlgorithm", "");
+        String outputAdaptationAlgorithm = operationPlan.outputAdaptationAlgorithm;
         if(outputAdaptationAlgorithm.isEmpty())
             return connectorOutput;
         else {
-            Object adaptationOutputString = Utils.outputAdaptation(connectorOutput.toString(), microserviceInputs.toString(), outputAdaptationAlgorithm, true, microserviceId);
+            Object adaptationOutputString = Utils.outputAdaptation(connectorOutput, microserviceInputs, outputAdaptationAlgorithm, true, microserviceId);
+            if(adaptationOutputString instanceof JsonObject)
+                return (JsonObject)adaptationOutputString;
             if(!(adaptationOutputString instanceof String))
-                throw new Exception("The returned object of an adaptation algorithm can be only a JSON string. Obtained: " + adaptationOutputString.toString());
+                throw new Exception("The returned object of an adaptation algorithm can be only a JSON string or a JSON object. Obtained: " + adaptationOutputString.toString());
             return Json.createReader(new StringReader((String)adaptationOutputString)).readObject();
         }
     }
@@ -0,0 +1,98 @@
+package org.adoxx.microservice.api;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+
+/**
+ * <h1>OperationBulkhead</h1>
+ * Limit the number of concurrent calls to a microservice operation, so that a slow operation can not use all the available threads.<br>
+ * At most maxConcurrentCalls calls are executed at the same time, while at most maxQueuedCalls further calls wait up to queueTimeoutMs for a free permit.
+ * A queueTimeoutMs of 0 means no queue timeout: the queued calls wait until the deadline of their {@link CallContext}, or until a permit is free when the call has no deadline.<br>
+ * The other calls are rejected immediately with an {@link OperationOverloadedException}.<br>
+ *
+ * @author Damiano Falcioni
+ */
+class OperationBulkhead {
+
+    static final int DEFAULT_QUEUE_TIMEOUT_MS = 30000;
+
+    final String microserviceId;
+    final String operationId;
+    final int maxConcurrentCalls;
+    final int maxQueuedCalls;
+    final int queueTimeoutMs;
+
+    private final Semaphore permits;
+    private final AtomicInteger queuedCalls = new AtomicInteger(0);
+    private final AtomicLong rejectedCalls = new AtomicLong(0);
+    private final AtomicLong timedOutCalls = new AtomicLong(0);
+
+    OperationBulkhead(String microserviceId, String operationId, int maxConcurrentCalls, int maxQueuedCalls, int queueTimeoutMs) {
+        this.microserviceId = microserviceId;
+        this.operationId = operationId;
+        this.maxConcurrentCalls = maxConcurrentCalls;
+        this.maxQueuedCalls = maxQueuedCalls;
+        this.queueTimeoutMs = queueTimeoutMs;
+        this.permits = new Semaphore(maxConcurrentCalls, true);
+    }
+
+    boolean hasLimits(int maxConcurrentCalls, int maxQueuedCalls, int queueTimeoutMs) {
+        return this.maxConcurrentCalls == maxConcurrentCalls && this.maxQueuedCalls == maxQueuedCalls && this.queueTimeoutMs == queueTimeoutMs;
+    }
+
+    /**
+     * Obtain a permit for a call, waiting in the queue if required. Every obtained permit must be returned calling {@link #release()}.<br>
+     * The wait in the queue is limited by queueTimeoutMs, when not 0, and by the deadline of the current {@link CallContext}.<br>
+     * @throws OperationOverloadedException when the queue is full or the permit is not obtained in time
+     * @throws CallDeadlineExceededException when the deadline of the current call is passed while waiting in the queue
+     * @throws InterruptedException when interrupted while waiting in the queue
+     */
+    void acquire() throws OperationOverloadedException, CallDeadlineExceededException, InterruptedException {
+        if(permits.tryAcquire())
+            return;
+        if(queuedCalls.incrementAndGet() > maxQueuedCalls) {
+            queuedCalls.decrementAndGet();
+            rejectedCalls.incrementAndGet();
+            throw new OperationOverloadedException("The microservice " + microserviceId + " operation " + operationId + " is overloaded: " + maxConcurrentCalls + " calls in execution and " + maxQueuedCalls + " in queue");
+        }
+        try {
+            //0 when neither the queue nor the call have a timeout
+            long waitMs = CallContext.getCurrentTimeoutMillis(queueTimeoutMs);
+            if(waitMs == 0)
+                permits.acquire();
+            else if(!permits.tryAcquire(waitMs, TimeUnit.MILLISECONDS)) {
+                timedOutCalls.incrementAndGet();
+                //the remaining time is rounded down, so the deadline can be still some nanoseconds away when the wait was limited by it
+                CallContext callContext = CallContext.current();
+                if(callContext != null && callContext.hasDeadline() && (queueTimeoutMs == 0 || waitMs < queueTimeoutMs))
+                    throw callContext.newDeadlineExceededException();
+                throw new OperationOverloadedException("The microservice " + microserviceId + " operation " + operationId + " is overloaded: no call slot available after " + waitMs + " ms");
+            }
+        } finally {
+            queuedCalls.decrementAndGet();
+        }
+    }
+
+    void release() {
+        permits.release();
+    }
+
+    JsonObject getStatus() {
+        return Json.createObjectBuilder()
+            .add("microserviceId", microserviceId)
+            .add("operationId", operationId)
+            .add("maxConcurrentCalls", maxConcurrentCalls)
+            .add("maxQueuedCalls", maxQueuedCalls)
+            .add("queueTimeoutMs", queueTimeoutMs)
+            .add("activeCalls", maxConcurrentCalls - permits.availablePermits())
+            .add("queuedCalls", queuedCalls.get())
+            .add("rejectedCalls", rejectedCalls.get())
+            .add("timedOutCalls", timedOutCalls.get())
+            .build();
+    }
+}
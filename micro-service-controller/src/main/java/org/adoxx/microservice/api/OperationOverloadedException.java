@@ -0,0 +1,17 @@
+package org.adoxx.microservice.api;
+
+/**
+ * <h1>OperationOverloadedException</h1>
+ * Exception raised when a microservice operation call is rejected because the concurrency limits configured for the operation are exceeded.<br>
+ * The call has not been performed, so it can be safely retried later.<br>
+ *
+ * @author Damiano Falcioni
+ */
+public class OperationOverloadedException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    public OperationOverloadedException(String message) {
+        super(message);
+    }
+}
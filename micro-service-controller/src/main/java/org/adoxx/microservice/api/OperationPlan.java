@@ -0,0 +1,130 @@
+package org.adoxx.microservice.api;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+
+import org.adoxx.microservice.api.connectors.ConnectorsController;
+import org.adoxx.microservice.utils.ScriptLimits;
+
+/**
+ * <h1>OperationPlan</h1>
+ * Immutable, pre-processed view of a microservice operation configuration, used by the {@link MicroserviceController} in order to avoid reading, parsing and validating the microservice configuration on every request.<br>
+ * The plan is created once for every version of the microservice configuration and contains the resolved connector, the pre-extracted inputs, the compiled call template and algorithms of the operation.<br>
+ *
+ * @author Damiano Falcioni
+ */
+class OperationPlan {
+
+    final String microserviceId;
+    final String operationId;
+    final long configurationVersion;
+    final JsonObject serviceConfiguration;
+    final JsonObject operation;
+    final JsonObject configuration;
+
+    final String connectorId;
+    final boolean asyncConnectionRequired;
+    final JsonObject configStart;
+    final JsonObject configCall;
+    final ConfigCallTemplate configCallTemplate;
+
+    final JsonObject inputs;
+    final String[] inputKeys;
+    final String[] inputMatchingNames;
+    final String[] inputWorkingExamples;
+    final JsonObject requiredInputTemplate;
+    final JsonObject inputsAsync;
+
+    final String outputDescription;
+    final String outputAdaptationAlgorithm;
+    final String statusCheckAlgorithm;
+
+    final int maxConcurrentCalls;
+    final int maxQueuedCalls;
+    final int queueTimeoutMs;
+    final ScriptLimits scriptLimits;
+
+    private OperationPlan(String microserviceId, String operationId, long configurationVersion, JsonObject serviceConfiguration, JsonObject connectors) throws Exception {
+        this.microserviceId = microserviceId;
+        this.operationId = operationId;
+        this.configurationVersion = configurationVersion;
+        this.serviceConfiguration = serviceConfiguration;
+        this.operation = serviceConfiguration.getJsonObject("operations").getJsonObject(operationId);
+        this.configuration = operation.getJsonObject("configuration");
+
+        this.connectorId = configuration.getString("connectorId");
+        JsonObject connectorInfo = connectors.getJsonObject(connectorId);
+        if(connectorInfo == null) throw new Exception("The connector " + connectorId + " is not present");
+        this.asyncConnectionRequired = connectorInfo.getBoolean("asyncConnectionRequired");
+        this.configStart = configuration.getJsonObject("configStart");
+        this.configCall = configuration.getJsonObject("configCall");
+
+        this.inputs = configuration.getJsonObject("inputs");
+        this.inputKeys = inputs.keySet().toArray(new String[0]);
+        this.inputMatchingNames = new String[inputKeys.length];
+        this.inputWorkingExamples = new String[inputKeys.length];
+        JsonObjectBuilder requiredInputTemplateBuilder = Json.createObjectBuilder();
+        for(int i = 0; i < inputKeys.length; i++) {
+            JsonObject input = inputs.getJsonObject(inputKeys[i]);
+            inputMatchingNames[i] = input.getString("matchingName");
+            inputWorkingExamples[i] = input.getString("workingExample");
+            requiredInputTemplateBuilder.add(inputKeys[i], Json.createObjectBuilder()
+                .add("description", input.getString("description"))
+                .add("workingExample", input.getString("workingExample"))
+                .add("value", "")
+            );
+        }
+        this.requiredInputTemplate = requiredInputTemplateBuilder.build();
+        this.configCallTemplate = new ConfigCallTemplate(configCall, inputMatchingNames);
+        this.inputsAsync = configuration.getJsonObject("inputsAsync");
+
+        this.outputDescription = configuration.getString("outputDescription");
+        this.outputAdaptationAlgorithm = configuration.getString("outputAdaptationAlgorithm", "");
+        this.statusCheckAlgorithm = configuration.getString("statusCheckAlgorithm", "");
+
+        this.maxConcurrentCalls = configuration.getInt("maxConcurrentCalls", 0);
+        this.maxQueuedCalls = configuration.getInt("maxQueuedCalls", 0);
+        this.queueTimeoutMs = configuration.getInt("queueTimeoutMs", OperationBulkhead.DEFAULT_QUEUE_TIMEOUT_MS);
+        this.scriptLimits = new ScriptLimits(microserviceId, operationId, configuration.containsKey("maxScriptCpuTimeMs") ? configuration.getJsonNumber("maxScriptCpuTimeMs").longValue() : 0, configuration.containsKey("maxScriptAllocatedBytes") ? configuration.getJsonNumber("maxScriptAllocatedBytes").longValue() : 0);
+    }
+
+    /**
+     * Contains the plans of all the operations of a microservice configuration version.<br>
+     */
+    static class MicroservicePlan {
+        final String microserviceId;
+        final long configurationVersion;
+        final JsonObject serviceConfiguration;
+        final String defaultOperationId;
+        final Map<String, OperationPlan> operationPlans;
+
+        MicroservicePlan(String microserviceId, JsonObject serviceConfiguration, long configurationVersion) throws Exception {
+            this.microserviceId = microserviceId;
+            this.configurationVersion = configurationVersion;
+            this.serviceConfiguration = serviceConfiguration;
+            this.defaultOperationId = serviceConfiguration.getString("defaultOperationId");
+            JsonObject connectors = ConnectorsController.unique().getConnectors();
+            LinkedHashMap<String, OperationPlan> operationPlans = new LinkedHashMap<String, OperationPlan>();
+            for(String operationId : serviceConfiguration.getJsonObject("operations").keySet())
+                operationPlans.put(operationId, new OperationPlan(microserviceId, operationId, configurationVersion, serviceConfiguration, connectors));
+            this.operationPlans = Collections.unmodifiableMap(operationPlans);
+        }
+
+        /**
+         * Return the plan of the provided operation or of the default one if operationId is null or empty.<br>
+         * @param operationId The id of the operation
+         * @return OperationPlan The operation plan
+         */
+        OperationPlan getOperationPlan(String operationId) throws Exception {
+            operationId = (operationId == null || operationId.isEmpty())?defaultOperationId:operationId;
+            OperationPlan operationPlan = operationPlans.get(operationId);
+            if(operationPlan == null) throw new Exception("Impossible to find the operation with key " + operationId);
+            return operationPlan;
+        }
+    }
+}
@@ -1,9 +1,8 @@
 package org.adoxx.microservice.api.connectors;
 
-import javax.json.JsonObject;
+import java.util.UUID;
 
-import org.adoxx.microservice.api.log.LogManager;
-import org.adoxx.microservice.api.log.LogI.LogLevel;
+import javax.json.JsonObject;
 
 /**
  * <h1>AsyncConnectorA</h1>
@@ -20,30 +19,51 @@ public abstract class AsyncConnectorA extends SyncConnectorA {
      */
     public abstract void setAsyncResponsesHandler(AsyncResponseHandlerI asyncResponseHandler);
     
+    private String asyncResponsesLaneKey = null;
+    
     /**
-     * Set as handler a wrapper that check if the handler input format is valid and call the original handler inside a Thread in order to not block the process.<br>
+     * Set as handler a wrapper that check if the handler input format is valid and dispatch the response to the original handler through the {@link AsyncResponseDispatcher} in order to not block the process.<br>
+     * The responses are handled in the order they are received, in a lane dedicated to this connector instance.<br>
      * @param asyncResponseHandler The handler to wrap
      */
     public void setAsyncResponsesHandlerSafe(AsyncResponseHandlerI asyncResponseHandler) {
+        setAsyncResponsesHandlerSafe(asyncResponseHandler, getName() + "_" + UUID.randomUUID().toString());
+    }
+    
+    /**
+     * Set as handler a wrapper that check if the handler input format is valid and dispatch the response to the original handler through the {@link AsyncResponseDispatcher} in order to not block the process.<br>
+     * The responses are handled in the order they are received, in the dispatcher lane identified by asyncResponsesLaneKey.<br>
+     * @param asyncResponseHandler The handler to wrap
+     * @param asyncResponsesLaneKey The key of the dispatcher lane to use for the responses of this connector instance
+     */
+    public void setAsyncResponsesHandlerSafe(AsyncResponseHandlerI asyncResponseHandler, String asyncResponsesLaneKey) {
+        this.asyncResponsesLaneKey = asyncResponsesLaneKey;
+        AsyncResponseHandlerI asyncResponseHandlerWrapper = new AsyncResponseHandlerI() {
+            @Override
+            public void handler(JsonObject asyncResponse) throws Exception {
+                try {
+                    asyncResponseHandler.handler(asyncResponse);
+                } catch(Exception e) {
+                    returnedError = e;
+                    throw new Exception("Exception handling the asynchronous response of the Connector '" + getName() + "': " + e.getMessage(), e);
+                }
+            }
+        };
         setAsyncResponsesHandler(new AsyncResponseHandlerI() {
             @Override
             public void handler(JsonObject asyncResponse) throws Exception {
                 //checkResponseStructure(asyncResponse);
                 
-                Thread asyncHandlerThread = new Thread(new Runnable() {
-                    @Override
-                    public void run() {
-                        try {
-                            asyncResponseHandler.handler(asyncResponse);
-                        } catch(Throwable t) {
-                            returnedError = t;
-                            LogManager.unique().log(LogLevel.ERROR, "Exception in the Thread started for handling the asynchronous response of the Connector '" + getName() + "'", t);
-                        }
-                    }
-                });
-                
-                asyncHandlerThread.start();
+                AsyncResponseDispatcher.unique().dispatch(asyncResponsesLaneKey, asyncResponseHandlerWrapper, asyncResponse);
             }
         });
     }
+    
+    /**
+     * Return the key of the {@link AsyncResponseDispatcher} lane used for the responses of this connector instance.<br>
+     * @return String The lane key or null if the handler is not yet set
+     */
+    public String getAsyncResponsesLaneKey() {
+        return asyncResponsesLaneKey;
+    }
 }
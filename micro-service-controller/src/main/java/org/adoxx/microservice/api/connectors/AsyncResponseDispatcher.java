@@ -0,0 +1,362 @@
+package org.adoxx.microservice.api.connectors;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+
+import org.adoxx.microservice.api.log.LogI.LogLevel;
+import org.adoxx.microservice.api.log.LogManager;
+import org.adoxx.microservice.utils.ExecutorManager;
+
+/**
+ * <h1>AsyncResponseDispatcher</h1>
+ * Dispatch the asynchronous responses of the connectors to their handlers using the bounded worker pool returned by {@link ExecutorManager#getAsyncDispatcherExecutor()}.<br>
+ * Every started asynchronous connector instance own a lane: the responses of the same lane are handled serially in the order they are received, while different lanes are handled in parallel.<br>
+ * Every lane keep at most {@link #maxQueueDepth} responses in memory. When the lane is full the {@link #overflowPolicy} decide if the connector thread handle the oldest responses of the lane itself (CALLER_RUNS), is blocked until a worker handle them (BLOCK), discard the response (DROP) or save it on disk to be handled later (SPILL).<br>
+ * The threads that are handling a response never wait for a full lane, otherwise a handler dispatching to other lanes could block all the workers: they handle the lane themselves when no other thread is handling it or queue the response over the limit.<br>
+ *
+ * @author Damiano Falcioni
+ */
+public class AsyncResponseDispatcher {
+
+    public enum OverflowPolicy {
+        CALLER_RUNS,
+        BLOCK,
+        DROP,
+        SPILL
+    }
+
+    public static int maxQueueDepth = 10000;
+    public static OverflowPolicy overflowPolicy = OverflowPolicy.CALLER_RUNS;
+    public static String spillFolder = System.getProperty("java.io.tmpdir") + "/msc-async-spill/";
+    private static final int maxResponsesPerTurn = 64;
+    //time a closed lane key is remembered, so the late responses of a stopped connector do not create the lane again
+    private static final long closedLaneRetentionMs = 10 * 60 * 1000;
+    //true while the current thread is executing a response handler
+    private static final ThreadLocal<Boolean> handlingResponse = ThreadLocal.withInitial(() -> false);
+
+    private static AsyncResponseDispatcher uniqueAsyncResponseDispatcher = null;
+
+    static {
+        uniqueAsyncResponseDispatcher = new AsyncResponseDispatcher();
+    }
+
+    public static AsyncResponseDispatcher unique() {
+        return uniqueAsyncResponseDispatcher;
+    }
+
+    private ConcurrentHashMap<String, Lane> laneList = new ConcurrentHashMap<String, Lane>();
+    private ConcurrentHashMap<String, Long> closedLaneList = new ConcurrentHashMap<String, Long>();
+    private final LongAdder lateDropped = new LongAdder();
+
+    /**
+     * Queue the provided response in the lane identified by laneKey. The handler will be called by a worker of the pool, after all the previous responses of the same lane.<br>
+     * Depending on the {@link #overflowPolicy} the call can handle some responses of the lane or block when the lane is full. The responses for a closed lane are discarded.<br>
+     * @param laneKey The key of the lane, usually the id of the started connector instance
+     * @param asyncResponseHandler The handler to call for the responses of the lane. Used only on the lane creation
+     * @param asyncResponse The response to handle
+     */
+    public void dispatch(String laneKey, AsyncResponseHandlerI asyncResponseHandler, JsonObject asyncResponse) throws Exception {
+        Lane lane = laneList.computeIfAbsent(laneKey, k -> closedLaneList.containsKey(k) ? null : new Lane(k, asyncResponseHandler));
+        if(lane == null) {
+            lateDropped.increment();
+            LogManager.unique().log(LogLevel.DEBUG, "Discarded an asynchronous response for the closed lane " + laneKey, null);
+            return;
+        }
+        lane.offer(asyncResponse);
+    }
+
+    /**
+     * Close the lane identified by laneKey. Already queued responses are still handled, then the lane is removed.<br>
+     * Producers blocked on the lane are released.<br>
+     * @param laneKey The key of the lane to close
+     */
+    public void closeLane(String laneKey) {
+        long now = System.currentTimeMillis();
+        closedLaneList.values().removeIf(closeTime -> now - closeTime > closedLaneRetentionMs);
+        //the lane is marked as closed atomically with respect to its creation in dispatch
+        Lane lane = laneList.compute(laneKey, (k, currentLane) -> {
+            closedLaneList.put(k, now);
+            return currentLane;
+        });
+        if(lane != null)
+            lane.close();
+    }
+
+    /**
+     * Return the metrics of the dispatcher.<br>
+     * @return JsonObject The metrics in the following format:
+     * <pre>
+     * {
+     *      "maxQueueDepth" : 10000,
+     *      "overflowPolicy" : "CALLER_RUNS",
+     *      "lateDropped" : 0, //responses discarded because their lane was already closed
+     *      "lanes" : {
+     *          "lane key" : {
+     *              "queueDepth" : 0, //responses waiting, in memory and on disk
+     *              "spilledDepth" : 0, //responses waiting on disk
+     *              "dispatched" : 0,
+     *              "failed" : 0,
+     *              "dropped" : 0,
+     *              "spilled" : 0,
+     *              "lastLagMs" : 0, //time waited in the lane by the last handled response
+     *              "maxLagMs" : 0,
+     *              "oldestPendingAgeMs" : 0
+     *          },
+     *          ...
+     *      }
+     * }
+     * </pre>
+     */
+    public JsonObject getMetrics() {
+        JsonObjectBuilder lanesBuilder = Json.createObjectBuilder();
+        for(Lane lane : laneList.values())
+            lanesBuilder.add(lane.key, lane.getMetrics());
+        return Json.createObjectBuilder()
+            .add("maxQueueDepth", maxQueueDepth)
+            .add("overflowPolicy", overflowPolicy.name())
+            .add("lateDropped", lateDropped.sum())
+            .add("lanes", lanesBuilder)
+            .build();
+    }
+
+    /**
+     * Return the metrics of a single lane as described in {@link #getMetrics()} or null if the lane does not exist.<br>
+     * @param laneKey The key of the lane
+     * @return JsonObject The lane metrics
+     */
+    public JsonObject getLaneMetrics(String laneKey) {
+        Lane lane = laneList.get(laneKey);
+        return lane == null ? null : lane.getMetrics();
+    }
+
+
+
+    private static class PendingResponse {
+        JsonObject response;
+        long enqueueTime;
+        PendingResponse(JsonObject response, long enqueueTime) {
+            this.response = response;
+            this.enqueueTime = enqueueTime;
+        }
+    }
+
+    private class Lane implements Runnable {
+        private final String key;
+        private final AsyncResponseHandlerI handler;
+        private final ArrayDeque<PendingResponse> queue = new ArrayDeque<PendingResponse>();
+        //a task of the lane is waiting in the executor
+        private boolean scheduled = false;
+        //a worker or a producer thread is handling the responses of the lane
+        private boolean running = false;
+        private boolean closed = false;
+        private long dispatched = 0;
+        private long failed = 0;
+        private long dropped = 0;
+        private long spilled = 0;
+        private long lastLagMs = 0;
+        private long maxLagMs = 0;
+
+        private File spillFile = null;
+        private BufferedWriter spillWriter = null;
+        //open while the spill file has responses to read, it never reads past the complete lines written
+        private BufferedReader spillReader = null;
+        private long spilledDepth = 0;
+
+        Lane(String key, AsyncResponseHandlerI handler) {
+            this.key = key;
+            this.handler = handler;
+        }
+
+        void offer(JsonObject response) throws Exception {
+            long now = System.nanoTime();
+            while(true) {
+                synchronized (this) {
+                    if(closed) {
+                        //late response of a stopped connector
+                        dropped++;
+                        return;
+                    }
+                    //when some responses are on disk the new ones follow them, to keep the order
+                    if(spilledDepth > 0 || (queue.size() >= maxQueueDepth && overflowPolicy == OverflowPolicy.SPILL)) {
+                        spill(response, now);
+                        schedule();
+                        return;
+                    }
+                    if(queue.size() >= maxQueueDepth && overflowPolicy == OverflowPolicy.DROP) {
+                        dropped++;
+                        return;
+                    }
+                    boolean handling = handlingResponse.get();
+                    if(queue.size() < maxQueueDepth || (handling && running)) {
+                        queue.add(new PendingResponse(response, now));
+                        schedule();
+                        return;
+                    }
+                    if(running || (overflowPolicy == OverflowPolicy.BLOCK && !handling)) {
+                        wait();
+                        continue;
+                    }
+                    //the lane is full and nobody is handling it: the producer handle the oldest response, keeping the order of the lane
+                    running = true;
+                }
+                handleResponses(1);
+            }
+        }
+
+        synchronized void close() {
+            closed = true;
+            notifyAll();
+            if(!scheduled && !running && queue.isEmpty() && spilledDepth == 0)
+                remove();
+        }
+
+        private void schedule() {
+            if(scheduled || running) return;
+            scheduled = true;
+            try {
+                ExecutorManager.unique().getAsyncDispatcherExecutor().execute(this);
+            } catch(RejectedExecutionException e) {
+                scheduled = false;
+                LogManager.unique().log(LogLevel.ERROR, "Impossible to dispatch the asynchronous responses of the lane " + key + ": the dispatcher executor is not available", e);
+            }
+        }
+
+        @Override
+        public void run() {
+            synchronized (this) {
+                scheduled = false;
+                //a producer is handling the lane, it will schedule the lane again when done
+                if(running) return;
+                running = true;
+            }
+            handleResponses(maxResponsesPerTurn);
+        }
+
+        //called by the thread that set running, that is released at the end
+        private void handleResponses(int maxResponses) {
+            for(int i = 0; i < maxResponses; i++) {
+                PendingResponse pending = null;
+                synchronized (this) {
+                    if(queue.isEmpty() && spilledDepth > 0)
+                        unspill();
+                    pending = queue.poll();
+                    if(pending == null)
+                        break;
+                    notifyAll();
+                    long lagMs = (System.nanoTime() - pending.enqueueTime) / 1000000;
+                    lastLagMs = lagMs;
+                    if(lagMs > maxLagMs) maxLagMs = lagMs;
+                }
+
+                boolean wasHandlingResponse = handlingResponse.get();
+                handlingResponse.set(true);
+                try {
+                    handler.handler(pending.response);
+                    synchronized (this) { dispatched++; }
+                } catch(Throwable t) {
+                    synchronized (this) { failed++; }
+                    LogManager.unique().log(LogLevel.ERROR, "Exception handling the asynchronous response in the lane " + key, t);
+                } finally {
+                    handlingResponse.set(wasHandlingResponse);
+                }
+            }
+
+            synchronized (this) {
+                running = false;
+                notifyAll();
+                if(!queue.isEmpty() || spilledDepth > 0)
+                    schedule();
+                else if(closed)
+                    remove();
+            }
+        }
+
+        private void remove() {
+            laneList.remove(key, this);
+            deleteSpillFile();
+        }
+
+        private void spill(JsonObject response, long enqueueTime) throws Exception {
+            if(spillWriter == null) {
+                new File(spillFolder).mkdirs();
+                spillFile = new File(spillFolder, key.replaceAll("[^a-zA-Z0-9_\\-]", "_") + ".spill");
+                spillWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(spillFile, false), StandardCharsets.UTF_8));
+            }
+            spillWriter.write(enqueueTime + "\t" + response.toString());
+            spillWriter.write('\n');
+            spillWriter.flush();
+            spilledDepth++;
+            spilled++;
+        }
+
+        private void unspill() {
+            try {
+                if(spillReader == null)
+                    spillReader = new BufferedReader(new InputStreamReader(new FileInputStream(spillFile), StandardCharsets.UTF_8), 64 * 1024);
+                while(spilledDepth > 0 && queue.size() < maxQueueDepth) {
+                    String line = spillReader.readLine();
+                    if(line == null) break;
+                    int separatorIndex = line.indexOf('\t');
+                    long enqueueTime = Long.parseLong(line.substring(0, separatorIndex));
+                    JsonObject response = Json.createReader(new StringReader(line.substring(separatorIndex + 1))).readObject();
+                    queue.add(new PendingResponse(response, enqueueTime));
+                    spilledDepth--;
+                }
+            } catch(Exception e) {
+                LogManager.unique().log(LogLevel.ERROR, "Impossible to read the spilled asynchronous responses of the lane " + key + ": " + spilledDepth + " responses are lost", e);
+                dropped += spilledDepth;
+                spilledDepth = 0;
+            }
+            if(spilledDepth == 0)
+                deleteSpillFile();
+        }
+
+        private void deleteSpillFile() {
+            if(spillWriter != null) {
+                try {
+                    spillWriter.close();
+                } catch(Exception e) {}
+                spillWriter = null;
+            }
+            if(spillReader != null) {
+                try {
+                    spillReader.close();
+                } catch(Exception e) {}
+                spillReader = null;
+            }
+            if(spillFile != null)
+                spillFile.delete();
+            spillFile = null;
+        }
+
+        synchronized JsonObject getMetrics() {
+            PendingResponse oldest = queue.peek();
+            return Json.createObjectBuilder()
+                .add("queueDepth", queue.size() + spilledDepth)
+                .add("spilledDepth", spilledDepth)
+                .add("dispatched", dispatched)
+                .add("failed", failed)
+                .add("dropped", dropped)
+                .add("spilled", spilled)
+                .add("lastLagMs", lastLagMs)
+                .add("maxLagMs", maxLagMs)
+                .add("oldestPendingAgeMs", oldest == null ? 0 : (System.nanoTime() - oldest.enqueueTime) / 1000000)
+                .build();
+        }
+    }
+}
@@ -0,0 +1,352 @@
+package org.adoxx.microservice.api.connectors;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+
+import org.adoxx.microservice.api.log.LogI.LogLevel;
+import org.adoxx.microservice.api.log.LogManager;
+import org.adoxx.microservice.utils.ExecutorManager;
+
+/**
+ * <h1>ConnectorInstancePool</h1>
+ * Pool of started synchronous connector instances, used by the forced calls in order to avoid to create, start and stop a new connector instance for every call.<br>
+ * The instances are grouped by connector id and starting configuration: an instance is borrowed by a single caller at a time and, once returned, it is kept started for the next caller with the same connector and starting configuration.<br>
+ * For every group at most {@link #maxSizePerKey} instances are pooled (further callers receive a not pooled instance stopped on return), idle instances are stopped after {@link #idleTimeoutInSeconds} and every instance is replaced after {@link #maxLifetimeInSeconds}.
+ * When {@link #minIdlePerKey} is greater than 0, the groups used in the last {@link #maxLifetimeInSeconds} are refilled in background with started instances.<br>
+ * The pool is owned by the {@link ConnectorsController} and its instances are normal connector instances, visible by instance id.<br>
+ *
+ * @author Damiano Falcioni
+ */
+public class ConnectorInstancePool {
+
+    public static boolean enabled = true;
+    public static int minIdlePerKey = 0;
+    public static int maxSizePerKey = 4;
+    public static int idleTimeoutInSeconds = 300;
+    public static int maxLifetimeInSeconds = 3600;
+
+    private final ConnectorsController connectorsController;
+    private final ConcurrentHashMap<String, PoolKey> poolKeyList = new ConcurrentHashMap<String, PoolKey>();
+    private final ConcurrentHashMap<String, PooledInstance> borrowedInstanceList = new ConcurrentHashMap<String, PooledInstance>();
+    private ScheduledFuture<?> maintenanceTask = null;
+
+    ConnectorInstancePool(ConnectorsController connectorsController) {
+        this.connectorsController = connectorsController;
+    }
+
+    /**
+     * Return the id of a started instance of the provided synchronous connector, reusing an idle instance of the pool if available.<br>
+     * The instance must be returned to the pool using {@link #release(String)}.<br>
+     * @param connectorId The id of the synchronous connector
+     * @param startConfiguration The starting configuration of the connector
+     * @return String The id of the borrowed connector instance
+     */
+    String borrow(String connectorId, JsonObject startConfiguration) throws Exception {
+        if(!enabled) {
+            String instanceId = connectorsController.startConnectorInstance(connectorId, startConfiguration);
+            borrowedInstanceList.put(instanceId, new PooledInstance(null, instanceId, false));
+            return instanceId;
+        }
+
+        String key = connectorId + "_" + hashStartConfiguration(startConfiguration);
+        PoolKey poolKey = poolKeyList.computeIfAbsent(key, k -> new PoolKey(k, connectorId, startConfiguration));
+        ArrayList<PooledInstance> invalidInstances = new ArrayList<PooledInstance>();
+        PooledInstance pooledInstance = null;
+        boolean pooled = false;
+        synchronized (poolKey) {
+            poolKey.lastBorrowTime = System.currentTimeMillis();
+            while(pooledInstance == null && !poolKey.idleInstances.isEmpty()) {
+                PooledInstance idleInstance = poolKey.idleInstances.pollLast();
+                if(isValid(idleInstance, poolKey.lastBorrowTime)) {
+                    pooledInstance = idleInstance;
+                } else {
+                    invalidInstances.add(idleInstance);
+                    poolKey.size--;
+                }
+            }
+            if(pooledInstance != null) {
+                poolKey.reused++;
+            } else {
+                pooled = poolKey.size < maxSizePerKey;
+                if(pooled) poolKey.size++;
+                poolKey.created++;
+            }
+        }
+        stopInstances(invalidInstances);
+        scheduleMaintenance();
+
+        if(pooledInstance == null) {
+            try {
+                String instanceId = connectorsController.startConnectorInstance(connectorId, startConfiguration);
+                pooledInstance = new PooledInstance(poolKey, instanceId, pooled);
+            } catch(Exception e) {
+                if(pooled)
+                    synchronized (poolKey) { poolKey.size--; }
+                throw e;
+            }
+        }
+        borrowedInstanceList.put(pooledInstance.instanceId, pooledInstance);
+        return pooledInstance.instanceId;
+    }
+
+    /**
+     * Return a borrowed instance to the pool. The instance is stopped if not pooled, no more valid or if the pool is disabled.<br>
+     * @param instanceId The id of the connector instance returned by {@link #borrow(String, JsonObject)}
+     */
+    void release(String instanceId) throws Exception {
+        PooledInstance pooledInstance = borrowedInstanceList.remove(instanceId);
+        if(pooledInstance == null || !pooledInstance.pooled) {
+            connectorsController.stopConnectorInstance(instanceId);
+            return;
+        }
+        PoolKey poolKey = pooledInstance.poolKey;
+        long now = System.currentTimeMillis();
+        boolean valid = enabled && isValid(pooledInstance, now);
+        synchronized (poolKey) {
+            if(valid && poolKeyList.get(poolKey.key) == poolKey) {
+                pooledInstance.lastReleaseTime = now;
+                poolKey.idleInstances.addLast(pooledInstance);
+                return;
+            }
+            poolKey.size--;
+        }
+        stopInstance(instanceId);
+    }
+
+    /**
+     * Remove from the pool the provided instance, that has been stopped or removed outside the pool.<br>
+     * @param instanceId The id of the connector instance
+     */
+    void forget(String instanceId) {
+        PooledInstance pooledInstance = borrowedInstanceList.remove(instanceId);
+        if(pooledInstance != null && pooledInstance.pooled)
+            synchronized (pooledInstance.poolKey) { pooledInstance.poolKey.size--; }
+        for(PoolKey poolKey : poolKeyList.values())
+            synchronized (poolKey) {
+                if(poolKey.idleInstances.removeIf(idleInstance -> idleInstance.instanceId.equals(instanceId)))
+                    poolKey.size--;
+            }
+    }
+
+    /**
+     * Stop all the idle instances of the pool. Borrowed instances are stopped when returned.<br>
+     */
+    void clear() {
+        ArrayList<PooledInstance> idleInstances = new ArrayList<PooledInstance>();
+        for(PoolKey poolKey : poolKeyList.values())
+            synchronized (poolKey) {
+                idleInstances.addAll(poolKey.idleInstances);
+                poolKey.size -= poolKey.idleInstances.size();
+                poolKey.idleInstances.clear();
+            }
+        poolKeyList.clear();
+        synchronized (this) {
+            if(maintenanceTask != null)
+                maintenanceTask.cancel(false);
+            maintenanceTask = null;
+        }
+        stopInstances(idleInstances);
+    }
+
+    /**
+     * Return the status of the pool.<br>
+     * @return JsonObject The status in the following format:
+     * <pre>
+     * {
+     *      "enabled" : true,
+     *      "minIdlePerKey" : 0,
+     *      "maxSizePerKey" : 4,
+     *      "idleTimeoutInSeconds" : 300,
+     *      "maxLifetimeInSeconds" : 3600,
+     *      "borrowed" : 0, //instances currently borrowed, pooled or not
+     *      "pools" : {
+     *          "connector id_configuration hash" : {
+     *              "connectorId" : "...",
+     *              "size" : 0, //pooled instances, idle and borrowed
+     *              "idle" : 0,
+     *              "created" : 0,
+     *              "reused" : 0,
+     *              "evicted" : 0
+     *          },
+     *          ...
+     *      }
+     * }
+     * </pre>
+     */
+    JsonObject getStatus() {
+        JsonObjectBuilder poolsBuilder = Json.createObjectBuilder();
+        for(PoolKey poolKey : poolKeyList.values())
+            synchronized (poolKey) {
+                poolsBuilder.add(poolKey.key, Json.createObjectBuilder()
+                    .add("connectorId", poolKey.connectorId)
+                    .add("size", poolKey.size)
+                    .add("idle", poolKey.idleInstances.size())
+                    .add("created", poolKey.created)
+                    .add("reused", poolKey.reused)
+                    .add("evicted", poolKey.evicted)
+                );
+            }
+        return Json.createObjectBuilder()
+            .add("enabled", enabled)
+            .add("minIdlePerKey", minIdlePerKey)
+            .add("maxSizePerKey", maxSizePerKey)
+            .add("idleTimeoutInSeconds", idleTimeoutInSeconds)
+            .add("maxLifetimeInSeconds", maxLifetimeInSeconds)
+            .add("borrowed", borrowedInstanceList.size())
+            .add("pools", poolsBuilder)
+            .build();
+    }
+
+    private boolean isValid(PooledInstance pooledInstance, long now) {
+        if(now - pooledInstance.creationTime >= maxLifetimeInSeconds * 1000L)
+            return false;
+        return connectorsController.checkConnectorInstanceStatus(pooledInstance.instanceId).getString("connectorInstanceStatus").equals("STARTED");
+    }
+
+    private synchronized void scheduleMaintenance() {
+        if(maintenanceTask != null && !maintenanceTask.isDone()) return;
+        long period = Math.max(1, Math.min(30, Math.min(idleTimeoutInSeconds, maxLifetimeInSeconds)));
+        maintenanceTask = ExecutorManager.unique().getScheduledExecutor().scheduleWithFixedDelay(this::maintenance, period, period, TimeUnit.SECONDS);
+    }
+
+    private void maintenance() {
+        try {
+            long now = System.currentTimeMillis();
+            ArrayList<PooledInstance> evictedInstances = new ArrayList<PooledInstance>();
+            ArrayList<PoolKey> poolKeysToFill = new ArrayList<PoolKey>();
+            for(PoolKey poolKey : poolKeyList.values()) {
+                synchronized (poolKey) {
+                    boolean used = now - poolKey.lastBorrowTime < maxLifetimeInSeconds * 1000L;
+                    int minIdle = used ? minIdlePerKey : 0;
+                    int idle = poolKey.idleInstances.size();
+                    Iterator<PooledInstance> idleInstancesIterator = poolKey.idleInstances.iterator();
+                    while(idleInstancesIterator.hasNext()) {
+                        PooledInstance idleInstance = idleInstancesIterator.next();
+                        boolean expired = now - idleInstance.creationTime >= maxLifetimeInSeconds * 1000L;
+                        boolean unused = now - idleInstance.lastReleaseTime >= idleTimeoutInSeconds * 1000L && idle > minIdle;
+                        if(expired || unused) {
+                            idleInstancesIterator.remove();
+                            evictedInstances.add(idleInstance);
+                            poolKey.size--;
+                            poolKey.evicted++;
+                            idle--;
+                        }
+                    }
+                    if(poolKey.size == 0 && !used)
+                        poolKeyList.remove(poolKey.key, poolKey);
+                    else if(idle < minIdle && poolKey.size < maxSizePerKey)
+                        poolKeysToFill.add(poolKey);
+                }
+            }
+            stopInstances(evictedInstances);
+            for(PoolKey poolKey : poolKeysToFill)
+                fill(poolKey, now);
+        } catch(Exception e) {
+            LogManager.unique().log(LogLevel.ERROR, "Error in the maintenance of the connector instance pool", e);
+        }
+    }
+
+    private void fill(PoolKey poolKey, long now) {
+        while(true) {
+            synchronized (poolKey) {
+                if(poolKey.idleInstances.size() >= minIdlePerKey || poolKey.size >= maxSizePerKey || !enabled)
+                    return;
+                poolKey.size++;
+                poolKey.created++;
+            }
+            try {
+                String instanceId = connectorsController.startConnectorInstance(poolKey.connectorId, poolKey.startConfiguration);
+                PooledInstance pooledInstance = new PooledInstance(poolKey, instanceId, true);
+                pooledInstance.lastReleaseTime = now;
+                synchronized (poolKey) {
+                    if(poolKeyList.get(poolKey.key) == poolKey) {
+                        poolKey.idleInstances.addFirst(pooledInstance);
+                        continue;
+                    }
+                    poolKey.size--;
+                }
+                stopInstance(instanceId);
+                return;
+            } catch(Exception e) {
+                synchronized (poolKey) { poolKey.size--; }
+                LogManager.unique().log(LogLevel.ERROR, "Impossible to start a pooled instance of the connector " + poolKey.connectorId, e);
+                return;
+            }
+        }
+    }
+
+    private void stopInstances(ArrayList<PooledInstance> pooledInstances) {
+        if(pooledInstances.isEmpty()) return;
+        Runnable stopTask = () -> {
+            for(PooledInstance pooledInstance : pooledInstances)
+                stopInstance(pooledInstance.instanceId);
+        };
+        try {
+            ExecutorManager.unique().getConnectorExecutor().execute(stopTask);
+        } catch(Exception e) {
+            stopTask.run();
+        }
+    }
+
+    private void stopInstance(String instanceId) {
+        try {
+            //the instance can be already removed by fixAllConnectorInstances
+            if(!connectorsController.checkConnectorInstanceStatus(instanceId).getString("connectorInstanceStatus").equals("STOPPED"))
+                connectorsController.stopConnectorInstance(instanceId);
+        } catch(Exception e) {
+            LogManager.unique().log(LogLevel.ERROR, "Impossible to stop the pooled connector instance " + instanceId, e);
+        }
+    }
+
+    private static String hashStartConfiguration(JsonObject startConfiguration) throws Exception {
+        byte[] hash = MessageDigest.getInstance("SHA-256").digest(startConfiguration.toString().getBytes(StandardCharsets.UTF_8));
+        StringBuilder sb = new StringBuilder(hash.length * 2);
+        for(byte b : hash)
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        return sb.toString();
+    }
+
+
+
+    private static class PoolKey {
+        private final String key;
+        private final String connectorId;
+        private final JsonObject startConfiguration;
+        private final ArrayDeque<PooledInstance> idleInstances = new ArrayDeque<PooledInstance>();
+        private int size = 0;
+        private long created = 0;
+        private long reused = 0;
+        private long evicted = 0;
+        private long lastBorrowTime = 0;
+
+        PoolKey(String key, String connectorId, JsonObject startConfiguration) {
+            this.key = key;
+            this.connectorId = connectorId;
+            this.startConfiguration = startConfiguration;
+        }
+    }
+
+    private static class PooledInstance {
+        private final PoolKey poolKey;
+        private final String instanceId;
+        private final boolean pooled;
+        private final long creationTime = System.currentTimeMillis();
+        private long lastReleaseTime = 0;
+
+        PooledInstance(PoolKey poolKey, String instanceId, boolean pooled) {
+            this.poolKey = poolKey;
+            this.instanceId = instanceId;
+            this.pooled = pooled;
+        }
+    }
+}
@@ -2,15 +2,16 @@ package org.adoxx.microservice.api.connectors;
 
 import java.lang.reflect.Constructor;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.Map.Entry;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.json.Json;
 import javax.json.JsonObject;
 import javax.json.JsonObjectBuilder;
 import javax.json.JsonValue;
 
+import org.adoxx.microservice.api.CallContext;
 import org.adoxx.microservice.api.connectors.impl.ADOxxAssetEngineConnector;
 import org.adoxx.microservice.api.connectors.impl.ADOxxClassicSafeConnector;
 import org.adoxx.microservice.api.connectors.impl.ADOxxClassicUnsafeConnector;
@@ -54,19 +55,22 @@ import org.adoxx.microservice.api.connectors.impl.TwitterUserInfosConnector;
  * In order to be recognized as a connector, a class must extend one of the two abstract classes {@link SyncConnectorA} or {@link AsyncConnectorA} depending if the connector work in a synchronous or asynchronous way.<br>
  * In case the connector is user defined, it must be added to the controller using {@link #addConnector(String)}.<br>
  * In order to be used, a connector instance must be started using {@link #startConnectorInstance(String, JsonObject)} that will create a new instance of the connector, call its starting procedures and return the connector new instance id.<br>
- * Once a connector is started it can be called, stopped and checked using its instance id.
+ * Once a connector is started it can be called, stopped and checked using its instance id.<br>
+ * Instances of synchronous connectors needed only for a limited time (like in the forced calls) can be borrowed from a pool of warm instances using {@link #borrowConnectorInstance(String, JsonObject)} and returned using {@link #releaseConnectorInstance(String)}.
  * @author Damiano Falcioni
  */
 public class ConnectorsController {
 
-    private HashMap<String, Class<?>> asyncConnectorsList = new HashMap<String, Class<?>>();
-    private HashMap<String, Class<?>> syncConnectorsList = new HashMap<String, Class<?>>();
+    private ConcurrentHashMap<String, Class<?>> asyncConnectorsList = new ConcurrentHashMap<String, Class<?>>();
+    private ConcurrentHashMap<String, Class<?>> syncConnectorsList = new ConcurrentHashMap<String, Class<?>>();
     
     private JsonObjectBuilder connectorsDescriptionBuilder = Json.createObjectBuilder();
-    private JsonObject connectorsDescriptionJson = Json.createObjectBuilder().build();
+    private volatile JsonObject connectorsDescriptionJson = Json.createObjectBuilder().build();
     
-    private HashMap<String, AsyncConnectorA> asyncConnectorInstancesList = new HashMap<String, AsyncConnectorA>();
-    private HashMap<String, SyncConnectorA> syncConnectorInstancesList = new HashMap<String, SyncConnectorA>();
+    private ConcurrentHashMap<String, AsyncConnectorA> asyncConnectorInstancesList = new ConcurrentHashMap<String, AsyncConnectorA>();
+    private ConcurrentHashMap<String, SyncConnectorA> syncConnectorInstancesList = new ConcurrentHashMap<String, SyncConnectorA>();
+    
+    private ConnectorInstancePool connectorInstancePool = new ConnectorInstancePool(this);
     
     private static ConnectorsController connectorsController = null;
     
@@ -74,7 +78,7 @@ public class ConnectorsController {
      * Factory method that return everytime the same ConnectorsController instance.<br>
      * @return ConnectorsController The unique ConnectorsController instance
      */
-    public static ConnectorsController unique() throws Exception {
+    public static synchronized ConnectorsController unique() throws Exception {
         if(connectorsController == null)
             connectorsController = new ConnectorsController();
         return connectorsController;
@@ -84,7 +88,7 @@ public class ConnectorsController {
      * Factory method that update the unique ConnectorsController instance with a new one and return it.<br>
      * @return ConnectorsController The new ConnectorsController instance
      */
-    public static ConnectorsController newUnique() throws Exception {
+    public static synchronized ConnectorsController newUnique() throws Exception {
         connectorsController = new ConnectorsController();
         return connectorsController;
     }
@@ -136,8 +140,8 @@ public class ConnectorsController {
      * In order to be added, the class must be available in the classpath and must extend one of the two abstract classes {@link SyncConnectorA} or {@link AsyncConnectorA} depending if the connector work in a synchronous or asynchronous way.<br>
      * @param className The full qualified name of the class.
      */
-    public void addConnector(String className) throws Exception {
-        if(asyncConnectorsList.containsKey(className)) throw new Exception("The connector " + className + " is already present");
+    public synchronized void addConnector(String className) throws Exception {
+        if(asyncConnectorsList.containsKey(className) || syncConnectorsList.containsKey(className)) throw new Exception("The connector " + className + " is already present");
         
         Class<?> connectorClass = Class.forName(className);
         if(connectorClass.getSuperclass() == null || (!connectorClass.getSuperclass().getName().equals(SyncConnectorA.class.getName()) && !connectorClass.getSuperclass().getName().equals(AsyncConnectorA.class.getName())))
@@ -201,7 +205,7 @@ public class ConnectorsController {
 
     /**
      * Create a new instance for the provided synchronous connector and start it.<br>
-     * The process create a new Thread for the instance calling the {@link SyncConnectorA#threadStart(JsonObject)} and it is keeped active till a stop operation happend. The starting is so not blocking.<br>
+     * The process start the instance on the shared connector executor calling the {@link SyncConnectorA#threadStart(JsonObject)} and it is keeped active till a stop operation happend. The starting is so not blocking.<br>
      * @param connectorId The id of the connector as returned {@link #getConnectors()}
      * @param startConfiguration The starting configuration as returned by the JSON field startConfigurationTemplate of {@link #getConnectors()}, but filled with values
      * @return String The id of the new instance created.
@@ -212,7 +216,7 @@ public class ConnectorsController {
     
     /**
      * Create a new instance for the provided asynchronous connector and start it.<br>
-     * The process create a new Thread for the instance calling the {@link SyncConnectorA#threadStart(JsonObject)} and it is keeped active till a stop operation happend. The starting is so not blocking.<br>
+     * The process start the instance on the shared connector executor calling the {@link SyncConnectorA#threadStart(JsonObject)} and it is keeped active till a stop operation happend. The starting is so not blocking.<br>
      * @param connectorId The id of the connector as returned {@link #getConnectors()}
      * @param startConfiguration The starting configuration as returned by the JSON field startConfigurationTemplate of {@link #getConnectors()}, but filled with values
      * @param asyncResponseHandler The handler to manage the asynchronous responses. Once a response is received it will be received as parameter of {@link AsyncResponseHandlerI#handler(JsonObject)}
@@ -226,7 +230,7 @@ public class ConnectorsController {
             if(asyncResponseHandler==null) throw new Exception("asyncResponseHandler can not be null for the async connector " + connectorId);
             AsyncConnectorA connector = (AsyncConnectorA)asyncConnectorsList.get(connectorId).newInstance();
             asyncConnectorInstancesList.put(id, connector);
-            connector.setAsyncResponsesHandlerSafe(asyncResponseHandler);
+            connector.setAsyncResponsesHandlerSafe(asyncResponseHandler, id);
             connector.threadStart(startConfiguration);
         } else {
             if(asyncResponseHandler!=null) throw new Exception("asyncResponseHandler must be null for the sync connector " + connectorId);
@@ -245,34 +249,30 @@ public class ConnectorsController {
      * @return JsonObject A JSON object in one of the two formats returned by {@link BasicConnectorA#performCall(JsonObject)}
      */
     public JsonObject callConnectorInstance(String startedConnectorInstanceId, JsonObject callConfiguration) throws Exception {
-        if(!asyncConnectorInstancesList.containsKey(startedConnectorInstanceId) && !syncConnectorInstancesList.containsKey(startedConnectorInstanceId)) throw new Exception("The connector instance " + startedConnectorInstanceId + " is not present");
-        
-        if(asyncConnectorInstancesList.containsKey(startedConnectorInstanceId)) {
-            AsyncConnectorA connector = asyncConnectorInstancesList.get(startedConnectorInstanceId);
-            connector.waitThreadStart();
-            return connector.performCallSafe(callConfiguration);
-        } else {
-            SyncConnectorA connector = syncConnectorInstancesList.get(startedConnectorInstanceId);
-            connector.waitThreadStart();
-            return connector.performCallSafe(callConfiguration);
-        }
+        SyncConnectorA connector = getConnectorInstance(startedConnectorInstanceId);
+        if(connector == null) throw new Exception("The connector instance " + startedConnectorInstanceId + " is not present");
+        connector.waitThreadStart();
+        CallContext.checkCurrentDeadline();
+        return connector.performCallSafe(callConfiguration);
     }
     
     /**
      * Stop a connector instance.<br>
-     * The process terminate the started Thread calling the {@link SyncConnectorA#threadStop()}.<br>
+     * The process terminate the started instance calling the {@link SyncConnectorA#threadStop()}.<br>
      * @param startedConnectorInstanceId The id of the started connector instance to stop
      */
     public void stopConnectorInstance(String startedConnectorInstanceId) throws Exception {
-        if(!asyncConnectorInstancesList.containsKey(startedConnectorInstanceId) && !syncConnectorInstancesList.containsKey(startedConnectorInstanceId)) throw new Exception("The connector instance " + startedConnectorInstanceId + " is not present");
-        if(asyncConnectorInstancesList.containsKey(startedConnectorInstanceId)) {
-            AsyncConnectorA connector = asyncConnectorInstancesList.get(startedConnectorInstanceId);
+        SyncConnectorA syncOrAsyncConnector = getConnectorInstance(startedConnectorInstanceId);
+        if(syncOrAsyncConnector == null) throw new Exception("The connector instance " + startedConnectorInstanceId + " is not present");
+        if(syncOrAsyncConnector instanceof AsyncConnectorA) {
+            AsyncConnectorA connector = (AsyncConnectorA) syncOrAsyncConnector;
             connector.waitThreadStart();
             connector.threadStop();
             connector.waitThreadStop();
             asyncConnectorInstancesList.remove(startedConnectorInstanceId);
+            AsyncResponseDispatcher.unique().closeLane(startedConnectorInstanceId);
         } else {
-            SyncConnectorA connector = syncConnectorInstancesList.get(startedConnectorInstanceId);
+            SyncConnectorA connector = syncOrAsyncConnector;
             connector.waitThreadStart();
             connector.threadStop();
             connector.waitThreadStop();
@@ -281,19 +281,54 @@ public class ConnectorsController {
     }
     
     /**
-     * Force a Call to the specified connector automatically starting an instance and stopping it in the end.<br>
+     * Borrow a started instance of the provided synchronous connector from the pool of warm instances, creating and starting a new one if no idle instance with the same starting configuration is available.<br>
+     * The instance is used exclusively by the caller till it is returned with {@link #releaseConnectorInstance(String)}. See {@link ConnectorInstancePool} for the pooling rules.<br>
+     * @param connectorId The id of the synchronous connector as returned {@link #getConnectors()}
+     * @param startConfiguration The starting configuration as returned by the JSON field startConfigurationTemplate of {@link #getConnectors()}, but filled with values
+     * @return String The id of the borrowed instance, to be used as a normal started instance id
+     */
+    public String borrowConnectorInstance(String connectorId, JsonObject startConfiguration) throws Exception {
+        if(!syncConnectorsList.containsKey(connectorId)) throw new Exception("The synchronous connector " + connectorId + " is not present");
+        return connectorInstancePool.borrow(connectorId, startConfiguration);
+    }
+    
+    /**
+     * Return to the pool an instance obtained from {@link #borrowConnectorInstance(String, JsonObject)}. The instance is stopped if it can not be pooled.<br>
+     * @param borrowedConnectorInstanceId The id of the borrowed connector instance
+     */
+    public void releaseConnectorInstance(String borrowedConnectorInstanceId) throws Exception {
+        connectorInstancePool.release(borrowedConnectorInstanceId);
+    }
+    
+    /**
+     * Stop all the idle instances of the pool of warm instances.<br>
+     */
+    public void clearConnectorInstancePool() {
+        connectorInstancePool.clear();
+    }
+    
+    /**
+     * Return the status of the pool of warm connector instances<br>
+     * @return JsonObject The status as described in {@link ConnectorInstancePool#getStatus()}
+     */
+    public JsonObject getConnectorInstancePoolStatus() {
+        return connectorInstancePool.getStatus();
+    }
+    
+    /**
+     * Force a Call to the specified connector using an instance borrowed from the pool of warm instances, or automatically starting an instance and stopping it in the end when the pool can not be used.<br>
      * @param connectorId The id of the connector as returned {@link #getConnectors()}
      * @param startConfiguration The starting configuration as returned by the JSON field startConfigurationTemplate of {@link #getConnectors()}, but filled with values     * 
      * @param callConfiguration The configuration as returned by the JSON field callConfigurationTemplate of {@link #getConnectors()}, but filled with values
      * @return JsonObject A JSON object in one of the two formats returned by {@link BasicConnectorA#performCall(JsonObject)}
      */
     public JsonObject forceCallConnectorInstance(String connectorId, JsonObject startConfiguration, JsonObject callConfiguration) throws Exception {
-        String instanceId = startConnectorInstance(connectorId, startConfiguration);
+        String instanceId = borrowConnectorInstance(connectorId, startConfiguration);
         try {
             JsonObject ret = callConnectorInstance(instanceId, callConfiguration);
             return ret;
         } finally {
-            stopConnectorInstance(instanceId);
+            releaseConnectorInstance(instanceId);
         }
     }
     
@@ -309,6 +344,7 @@ public class ConnectorsController {
         SyncConnectorA connector = (SyncConnectorA)syncConnectorsList.get(connectorId).newInstance();
         try {
             connector.start(startConfiguration);
+            CallContext.checkCurrentDeadline();
             JsonObject ret = connector.performCall(callConfiguration);
             return ret;
         } finally {
@@ -330,22 +366,12 @@ public class ConnectorsController {
     public JsonObject checkConnectorInstanceStatus(String startedConnectorInstanceId) {
         String status = "STARTED";
         String error = "";
-        if(!asyncConnectorInstancesList.containsKey(startedConnectorInstanceId) && !syncConnectorInstancesList.containsKey(startedConnectorInstanceId)) {
+        SyncConnectorA connector = getConnectorInstance(startedConnectorInstanceId);
+        if(connector == null) {
             status = "STOPPED";
-        } else {
-            if(asyncConnectorInstancesList.containsKey(startedConnectorInstanceId)) {
-                AsyncConnectorA connector = asyncConnectorInstancesList.get(startedConnectorInstanceId);
-                if(connector.getThreadLastError() != null) {
-                    status = "ERROR";
-                    error = connector.getThreadLastError().getMessage();
-                }
-            } else {
-                SyncConnectorA connector = syncConnectorInstancesList.get(startedConnectorInstanceId);
-                if(connector.getThreadLastError() != null) {
-                    status = "ERROR";
-                    error = connector.getThreadLastError().getMessage();
-                }
-            }
+        } else if(connector.getThreadLastError() != null) {
+            status = "ERROR";
+            error = connector.getThreadLastError().getMessage();
         }
         
         return Json.createObjectBuilder().add("connectorInstanceStatus", status).add("error", error).build();
@@ -363,10 +389,22 @@ public class ConnectorsController {
         for(Entry<String, SyncConnectorA> entry : syncConnectorInstancesList.entrySet())
             if(entry.getValue().isStopped())
                 toRemoveSync.add(entry.getKey());
-        for(String key : toRemoveAsync)
+        for(String key : toRemoveAsync) {
             asyncConnectorInstancesList.remove(key);
-        for(String key : toRemoveSync)
+            AsyncResponseDispatcher.unique().closeLane(key);
+        }
+        for(String key : toRemoveSync) {
             syncConnectorInstancesList.remove(key);
+            connectorInstancePool.forget(key);
+        }
+    }
+    
+    private SyncConnectorA getConnectorInstance(String startedConnectorInstanceId) {
+        if(startedConnectorInstanceId == null) return null;
+        SyncConnectorA connector = asyncConnectorInstancesList.get(startedConnectorInstanceId);
+        if(connector == null)
+            connector = syncConnectorInstancesList.get(startedConnectorInstanceId);
+        return connector;
     }
     
     private void updateConnectorsDescription(){
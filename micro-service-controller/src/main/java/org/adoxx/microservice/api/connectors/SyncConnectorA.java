@@ -1,11 +1,12 @@
 package org.adoxx.microservice.api.connectors;
 
-import java.lang.Thread.State;
+import java.util.concurrent.RejectedExecutionException;
 
 import javax.json.JsonObject;
 
 import org.adoxx.microservice.api.log.LogI.LogLevel;
 import org.adoxx.microservice.api.log.LogManager;
+import org.adoxx.microservice.utils.ExecutorManager;
 
 /**
  * <h1>SyncConnectorA</h1>
@@ -61,17 +62,16 @@ public abstract class SyncConnectorA extends BasicConnectorA {
      */
     public abstract void stop() throws Exception;
     
-    private Thread thread = null;
+    private boolean isRunning = false;
     Throwable returnedError = null;
     private ConnectorStatus connectorThreadStatus = ConnectorStatus.STOPPED;
     private boolean stop = false;
     private boolean isStarted = false;
     private boolean isStopped = false;
-    private boolean isPreStarted = false;
-    private final Object stop_lock = new Object();
-    private final Object isStarted_lock = new Object();
-    private final Object isStopped_lock = new Object();
-    private final Object preStarted_lock = new Object();
+    private boolean isStartCompleted = false;
+    private long threadStartRequestTime = 0;
+    private long threadStartLatencyNanos = -1;
+    private final Object status_lock = new Object();
     
     public enum ConnectorStatus {
         STARTED,
@@ -79,53 +79,44 @@ public abstract class SyncConnectorA extends BasicConnectorA {
     }
     
     /**
-     * Create a new Thread that perform the {@link #start(JsonObject)} and wait for the {@link #threadStop()} to be executed<br>
-     * If a Thread already exist the request will be skipped and nothing is done.<br> 
+     * Submit to the shared connector executor a task that perform the {@link #start(JsonObject)}.<br>
+     * The connector is considered started when {@link #setPreStarted()} is called or when {@link #start(JsonObject)} return, and stopped when {@link #threadStop()} is executed and {@link #start(JsonObject)} returned.<br>
+     * Connectors that do not block inside {@link #start(JsonObject)} release their executor thread immediately after the start.<br>
+     * If a start is already running the request will be skipped and nothing is done.<br> 
      * @param startConfiguration The configuration JSON as returned by {@link #getStartConfigurationTemplate()}, but filled with values
      */
     public void threadStart(JsonObject startConfiguration) {
         
-        if(thread != null) return;
-        
-        thread = new Thread(new Runnable() {
-            public void run() {
-                isStarted = false;
-                isStopped = false;
-                isPreStarted = false;
-                stop = false;
-                
-                try {
-                    start(startConfiguration);
-                } catch(Throwable t) {
-                    returnedError = t;
-                    LogManager.unique().log(LogLevel.ERROR, "Exception in the Thread started for the Connector '" + getName() + "' with starting configuration: " + startConfiguration.toString(), t);
-                    notifyStop();
-                }
-                setPreStarted(); //in case is not called inside the start, I will do it
-                
-                waitThreadStart(); //here wait for the monitoring thread to complete
-                waitStop();
-                
-                notifyStopped();
-            }
-        });
+        synchronized (status_lock) {
+            if(isRunning) return;
+            isRunning = true;
+            isStarted = false;
+            isStopped = false;
+            isStartCompleted = false;
+            stop = false;
+            threadStartRequestTime = System.nanoTime();
+            threadStartLatencyNanos = -1;
+        }
         
-        Thread threadStartMonitor = new Thread(new Runnable() {
-            public void run() {
-                waitPreStarted();
-                while(true) {
-                    if(thread != null && (thread.getState().equals(State.BLOCKED) || thread.getState().equals(State.WAITING) || thread.getState().equals(State.TIMED_WAITING))) {
-                        notifyStarted();
-                        break;
+        try {
+            ExecutorManager.unique().getConnectorExecutor().execute(new Runnable() {
+                public void run() {
+                    try {
+                        start(startConfiguration);
+                    } catch(Throwable t) {
+                        returnedError = t;
+                        LogManager.unique().log(LogLevel.ERROR, "Exception in the Thread started for the Connector '" + getName() + "' with starting configuration: " + startConfiguration.toString(), t);
+                        notifyStop();
                     }
-                    if(thread == null) //not required but just in case
-                        break;
+                    notifyStartCompleted();
                 }
-            }
-        });
-        
-        thread.start();
-        threadStartMonitor.start();
+            });
+        } catch(RejectedExecutionException e) {
+            returnedError = e;
+            LogManager.unique().log(LogLevel.ERROR, "Impossible to start the Connector '" + getName() + "': the connector executor is not available", e);
+            notifyStop();
+            notifyStartCompleted();
+        }
     }
     
     /**
@@ -134,8 +125,8 @@ public abstract class SyncConnectorA extends BasicConnectorA {
      * @return JsonObject A JSON object in the format specified in {@link #performCall(JsonObject)}
      */
     public JsonObject performCallSafe(JsonObject callConfiguration) throws Exception{
-        if(!isStarted) throw new Exception("The connector is not yet started");
-        if(isStopped)
+        if(!isStarted()) throw new Exception("The connector is not yet started");
+        if(isStopped())
             if(getThreadLastError()==null)
                 throw new Exception("Impossible to perform the call: the connector is stopped.");
             else
@@ -144,7 +135,7 @@ public abstract class SyncConnectorA extends BasicConnectorA {
     }
     
     /**
-     * Call the {@link #stop()} and terminate the started Thread.<br>
+     * Call the {@link #stop()} and terminate the started task.<br>
      */
     public void threadStop() throws Exception {
         try {
@@ -158,10 +149,10 @@ public abstract class SyncConnectorA extends BasicConnectorA {
      * Block the current process untill the {@link #threadStart(JsonObject)} complete the initialization process.<br>
      */
     public void waitThreadStart(){
-        synchronized (isStarted_lock) {
+        synchronized (status_lock) {
             while(!isStarted){
                 try {
-                    isStarted_lock.wait();
+                    status_lock.wait();
                 } catch (InterruptedException e) {
                     e.printStackTrace();
                     break;
@@ -174,10 +165,10 @@ public abstract class SyncConnectorA extends BasicConnectorA {
      * Block the current process untill the {@link #threadStop()} complete.<br>
      */
     public void waitThreadStop(){
-        synchronized (isStopped_lock) {
+        synchronized (status_lock) {
             while(!isStopped){
                 try {
-                    isStopped_lock.wait();
+                    status_lock.wait();
                 } catch (InterruptedException e) {
                     e.printStackTrace();
                     break;
@@ -187,100 +178,90 @@ public abstract class SyncConnectorA extends BasicConnectorA {
     }
     
     /**
-     * Return the error generated by the started Thread.<br>
-     * @return Exception The error generated in the Thread or null if the Thread did not rised an Exception
+     * Return the error generated by the started task.<br>
+     * @return Exception The error generated in the task or null if the task did not rised an Exception
      */
     public Throwable getThreadLastError() {
         return returnedError;
     }
     
     /**
-     * Return the Thread status of this connector.<br>
-     * @return ConnectorStatus Thread status that can be STARTED or STOPPED
+     * Return the status of this connector.<br>
+     * @return ConnectorStatus Status that can be STARTED or STOPPED
      */
     public ConnectorStatus getThreadStatus() {
-        return connectorThreadStatus;
+        synchronized (status_lock) {
+            return connectorThreadStatus;
+        }
     }
     
     /**
-     * Return true if the Thread completed all its starting procedures, false otherwise<br>
-     * @return boolean true if the Thread completed all its starting procedures, false otherwise
+     * Return the time elapsed between the {@link #threadStart(JsonObject)} request and the connector readiness.<br>
+     * @return long The start to ready latency in nanoseconds or -1 if the connector is not yet started
+     */
+    public long getThreadStartLatencyNanos() {
+        synchronized (status_lock) {
+            return threadStartLatencyNanos;
+        }
+    }
+    
+    /**
+     * Return true if the connector completed all its starting procedures, false otherwise<br>
+     * @return boolean true if the connector completed all its starting procedures, false otherwise
      */
     public boolean isStarted(){
-        synchronized (isStarted_lock) {
+        synchronized (status_lock) {
             return isStarted;
         }
     }
     
     /**
-     * Return true if the Thread completed all its stopping procedures, false otherwise<br>
-     * @return boolean true if the Thread completed all its stopping procedures, false otherwise
+     * Return true if the connector completed all its stopping procedures, false otherwise<br>
+     * @return boolean true if the connector completed all its stopping procedures, false otherwise
      */
     public boolean isStopped(){
-        synchronized (isStopped_lock) {
+        synchronized (status_lock) {
             return isStopped;
         }
     }
     
     /**
-     * Notify all the internal procedures that the starting procedures are completed and on the next blocking the Thread will be considered as started.<br>
+     * Notify all the internal procedures that the starting procedures are completed and the connector can be considered as started.<br>
+     * Must be called by the connectors that block inside the {@link #start(JsonObject)} just before the blocking operation. Multiple calls are allowed.<br>
      */
     protected void setPreStarted() {
-        synchronized (preStarted_lock) {
-            isPreStarted = true;
-            preStarted_lock.notifyAll();
-        }
-    }
-    
-    
-    
-    private void notifyStopped() {
-        synchronized (isStopped_lock) {
-            thread = null;
-            isStopped = true;            
-            connectorThreadStatus = ConnectorStatus.STOPPED;
-            isStopped_lock.notifyAll();
-        }
-    }
-    
-    private void notifyStarted() {
-        synchronized (isStarted_lock) {
+        synchronized (status_lock) {
+            if(!isRunning || isStarted) return;
             isStarted = true;
+            threadStartLatencyNanos = System.nanoTime() - threadStartRequestTime;
+            ExecutorManager.unique().recordConnectorStartLatency(threadStartLatencyNanos);
             connectorThreadStatus = ConnectorStatus.STARTED;
-            isStarted_lock.notifyAll();
+            status_lock.notifyAll();
         }
     }
     
-    private void waitPreStarted() {
-        synchronized (preStarted_lock) {
-            while(!isPreStarted) {
-                try {
-                    preStarted_lock.wait();
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                    break;
-                }
-            }
-        }
-    }
     
-    private void waitStop() {
-        synchronized (stop_lock) {
-            while(!stop){
-                try {
-                    stop_lock.wait();
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                    break;
-                }
-            }
+    
+    private void notifyStartCompleted() {
+        setPreStarted(); //in case is not called inside the start, I will do it
+        synchronized (status_lock) {
+            isStartCompleted = true;
+            checkStopped();
         }
     }
     
     private void notifyStop() {
-        synchronized (stop_lock) {
+        synchronized (status_lock) {
             stop = true;
-            stop_lock.notifyAll();
+            checkStopped();
         }
     }
+    
+    private void checkStopped() {
+        if(!stop || !isStartCompleted || isStopped) return;
+        isRunning = false;
+        isStopped = true;
+        connectorThreadStatus = ConnectorStatus.STOPPED;
+        status_lock.notifyAll();
+    }
 }
@@ -25,6 +25,18 @@ public class DashboardConnector extends SyncConnectorA{
 
     private JsonArray modelList = null;
     
+    private static final String GOAL_HELPERS_SCRIPT
+        = "var allDependencySucceed = function(aggregationType){ var status=1;var failedGoals='';var failedKPIs='';for(var i=0;i<requiredGoalValueList.length;i++){status=requiredGoalValueList[i].value.status;if(status<=0){failedGoals+=requiredGoalValueList[i].name+'; ';break;}} if(status>0) for(var i=0;i<requiredKpiValueList.length;i++){status=requiredKpiValueList[i].value.targetRangeAlgorithmResult!=null?requiredKpiValueList[i].value.targetRangeAlgorithmResult.status:0;if(status<0){failedKPIs+=requiredKpiValueList[i].name+'; ';break;}} return{status:status,moreInfo:{failedGoals:failedGoals,failedKPIs:failedKPIs}};};\n"
+        + "var oneDependencySucceed = function(aggregationType){ var status=-1;var failedGoals='';var failedKPIs='';for(var i=0;i<requiredGoalValueList.length;i++){if(requiredGoalValueList[i].value.status<=0) failedGoals+=requiredGoalValueList[i].name+'; ';if(requiredGoalValueList[i].value.status>0) status=requiredGoalValueList[i].value.status;} for(var i=0;i<requiredKpiValueList.length;i++){if(requiredKpiValueList[i].value.targetRangeAlgorithmResult!=null) if(requiredKpiValueList[i].value.targetRangeAlgorithmResult.status<=0) failedKPIs+=requiredKpiValueList[i].name+'; ';else status=requiredKpiValueList[i].value.targetRangeAlgorithmResult.status;} return{status:status,moreInfo:{failedGoals:failedGoals,failedKPIs:failedKPIs}}; };\n";
+    private static final String KPI_HELPERS_SCRIPT
+        = "function combine(fieldAggList){fieldAggList=fieldAggList==null?[]:fieldAggList; var combineMethods={sum:function(field,rowNum){var sum=0;requiredKpiValueList.forEach(function(requiredKpiValue){sum+=requiredKpiValue.value.data.length>rowNum?Number(requiredKpiValue.value.data[rowNum][field]):0;});return sum;},avg:function(field,rowNum){var avg=0;requiredKpiValueList.forEach(function(requiredKpiValue){avg+=requiredKpiValue.value.data.length>rowNum?Number(requiredKpiValue.value.data[rowNum][field]):0;});return(avg/requiredKpiValueList.length);},min:function(field,rowNum){var min=null;requiredKpiValueList.forEach(function(requiredKpiValue){var val=requiredKpiValue.value.data.length>rowNum?Number(requiredKpiValue.value.data[rowNum][field]):null;min=min==null?val:val!=null&&val<min?val:min;});return min;},max:function(field,rowNum){var max=null;requiredKpiValueList.forEach(function(requiredKpiValue){var val=requiredKpiValue.value.data.length>rowNum?Number(requiredKpiValue.value.data[rowNum][field]):null;max=max==null?val:val!=null&&val>max?val:max;});return max;},first:function(field,rowNum){return requiredKpiValueList.length!=0&&requiredKpiValueList[0].value.data.length!=0?requiredKpiValueList[0].value.data[rowNum][field]:null;}};var ret={columns:[],data:[],moreInfo:{}};var maxRow=requiredKpiValueList[0]?requiredKpiValueList[0].value.data.length:0;for(var rowNum=0;rowNum<maxRow;rowNum++){var obj={};fieldAggList.forEach(function(fieldAgg){obj[fieldAgg.field]=combineMethods[fieldAgg.aggregation](fieldAgg.field,rowNum);});ret.data.push(obj);} fieldAggList.forEach(function(fieldAgg){ret.columns.push(fieldAgg.field);});return ret;}\n"
+        + "function calculateFields(functions,aliases){var _getKPI=function(id){for(var i=0;i<requiredKpiValueList.length;i++) if(requiredKpiValueList[i].id==id) return requiredKpiValueList[i];throw'Impossible to find the required kpi '+id;};var ret={columns:[],data:[],moreInfo:{}};Object.keys(functions).forEach(function(field){ret.columns.push(field);ret.moreInfo[field]=functions[field];});var dataLength=0;for(var i=0;i<requiredKpiValueList.length;i++) if(requiredKpiValueList[i].value.data.length>dataLength) dataLength=requiredKpiValueList[i].value.data.length;for(var i=0;i<dataLength;i++){var toEval='';Object.keys(aliases).forEach(function(alias){toEval+='var '+alias+'=_getKPI(\"'+aliases[alias]+'\").value.data['+i+']; ';});toEval+='var evalRet={';Object.keys(functions).forEach(function(field){toEval+='\"'+field+'\": function () { try{ return '+functions[field]+'; } catch(e) { return e; } }(), ';});toEval+='};';eval(toEval);var retData={};Object.keys(functions).forEach(function(field){retData[field]=evalRet[field];});ret.data.push(retData);} return ret;}\n"
+        + "function round(x,digits){return parseFloat(x.toFixed(digits))}\n";
+    private static final String TARGET_RANGE_HELPERS_SCRIPT
+        = "var evaluateRange=function(range){if(kpiValue.data.length==0){return{status:0,statusList:[],moreInfo:{details:'No data available'}};}var statusList=[];var status=0;var varDec;for(var i=0;i<kpiValue.data.length;i++){varDec='';kpiValue.columns.forEach(function(key){varDec+='var '+key+'=kpiValue.data['+i+'].'+key+'; ';});try{var evalF=new Function('kpiValue',varDec+'return '+range+';');var evalRet=evalF(kpiValue);statusList.push(evalRet?1:-1);if(i==0)status=evalRet?1:-1;}catch(e){statusList.push(0);console.log(e);}}return{status:status,statusList:statusList,moreInfo:{rule:range}};};\n";
+    private static final String ALERT_RANGE_HELPERS_SCRIPT
+        = "var evaluateRange=function(range,successColor){if(kpiValue.data.length==0){return{status:0,statusList:[],moreInfo:{details:'No data available'}};} var statusList=[];var status=0;var varDec;for(var i=0;i<kpiValue.data.length;i++){varDec='';kpiValue.columns.forEach(function(key){varDec+='var '+key+'=kpiValue.data['+i+'].'+key+'; ';});try{var evalF=new Function('kpiValue',varDec+'return '+range+';');var evalRet=evalF(kpiValue);statusList.push(evalRet?1:-1);if(i==0) status=evalRet?1:-1;}catch(e){statusList.push(0);console.log(e);}} var ret={status:status,statusList:statusList,moreInfo:{rule:range}};if(successColor){ret.widgetSpecificCustomization={alertSuccessColor:successColor&&successColor!=''?successColor:'yellow'};} return ret;};\n";
+    
     @Override
     public String getName() {
         return "Dashboard Connector";
@@ -239,18 +251,10 @@ public class DashboardConnector extends SyncConnectorA{
             JsonObject connectedAlgorithmJson = find("algorithmList", connectedAlgorithmId);
             HashMap<String, Object> jsEngineParamenters = new HashMap<String, Object>();
             String code = connectedAlgorithmJson.getString("code", "");
-            jsEngineParamenters.put("_code", code);
-            jsEngineParamenters.put("_requiredGoalValueList", requiredGoalValueListBuilder.build().toString());
-            jsEngineParamenters.put("_requiredKpiValueList", requiredKpiValueListBuilder.build().toString());
-            String alg = "var requiredGoalValueList = JSON.parse(_requiredGoalValueList);\n";
-            alg += "var requiredKpiValueList = JSON.parse(_requiredKpiValueList);\n";
-            alg += "var fnInitCode = \"var allDependencySucceed = function(aggregationType){ var status=1;var failedGoals='';var failedKPIs='';for(var i=0;i<requiredGoalValueList.length;i++){status=requiredGoalValueList[i].value.status;if(status<=0){failedGoals+=requiredGoalValueList[i].name+'; ';break;}} if(status>0) for(var i=0;i<requiredKpiValueList.length;i++){status=requiredKpiValueList[i].value.targetRangeAlgorithmResult!=null?requiredKpiValueList[i].value.targetRangeAlgorithmResult.status:0;if(status<0){failedKPIs+=requiredKpiValueList[i].name+'; ';break;}} return{status:status,moreInfo:{failedGoals:failedGoals,failedKPIs:failedKPIs}};};\";\n";
-            alg += "fnInitCode += \"var oneDependencySucceed = function(aggregationType){ var status=-1;var failedGoals='';var failedKPIs='';for(var i=0;i<requiredGoalValueList.length;i++){if(requiredGoalValueList[i].value.status<=0) failedGoals+=requiredGoalValueList[i].name+'; ';if(requiredGoalValueList[i].value.status>0) status=requiredGoalValueList[i].value.status;} for(var i=0;i<requiredKpiValueList.length;i++){if(requiredKpiValueList[i].value.targetRangeAlgorithmResult!=null) if(requiredKpiValueList[i].value.targetRangeAlgorithmResult.status<=0) failedKPIs+=requiredKpiValueList[i].name+'; ';else status=requiredKpiValueList[i].value.targetRangeAlgorithmResult.status;} return{status:status,moreInfo:{failedGoals:failedGoals,failedKPIs:failedKPIs}}; };\";";
-            alg += "var algF = new Function('requiredGoalValueList', 'requiredKpiValueList', fnInitCode + '\\n' + _code);\n";
-            alg += "var goalMeasure = algF(requiredGoalValueList, requiredKpiValueList);\n";
-            alg += "JSON.stringify(goalMeasure);\n";
-            Object javascriptOutput = Utils.javascriptSafeEval(jsEngineParamenters, alg, false);
-            goalValue = Json.createReader(new StringReader((String)javascriptOutput)).readObject();
+            jsEngineParamenters.put("_requiredGoalValueList", requiredGoalValueListBuilder.build());
+            jsEngineParamenters.put("_requiredKpiValueList", requiredKpiValueListBuilder.build());
+            String alg = buildAlgorithmScript(GOAL_HELPERS_SCRIPT, code, "requiredGoalValueList", "requiredKpiValueList");
+            goalValue = toJsonObject(Utils.javascriptSafeEval(jsEngineParamenters, alg, false));
         }
         
         if(connectedAlgorithmId.equals(""))
@@ -314,19 +318,10 @@ public class DashboardConnector extends SyncConnectorA{
             JsonObject connectedAlgorithmJson = find("algorithmList", connectedAlgorithmId);
             HashMap<String, Object> jsEngineParamenters = new HashMap<String, Object>();
             String code = connectedAlgorithmJson.getString("code", "");
-            jsEngineParamenters.put("_code", code);
-            jsEngineParamenters.put("_dataSourceOutput", kpiValue==null?null:kpiValue.toString());
-            jsEngineParamenters.put("_requiredKpiValueList", requiredKpiValueListBuilder.build().toString());
-            String alg = "var dataSourceOutput = _dataSourceOutput==null?null:JSON.parse(_dataSourceOutput);\n";
-            alg += "var requiredKpiValueList = JSON.parse(_requiredKpiValueList);\n";
-            alg += "var fnInitCode = \"function combine(fieldAggList){fieldAggList=fieldAggList==null?[]:fieldAggList; var combineMethods={sum:function(field,rowNum){var sum=0;requiredKpiValueList.forEach(function(requiredKpiValue){sum+=requiredKpiValue.value.data.length>rowNum?Number(requiredKpiValue.value.data[rowNum][field]):0;});return sum;},avg:function(field,rowNum){var avg=0;requiredKpiValueList.forEach(function(requiredKpiValue){avg+=requiredKpiValue.value.data.length>rowNum?Number(requiredKpiValue.value.data[rowNum][field]):0;});return(avg/requiredKpiValueList.length);},min:function(field,rowNum){var min=null;requiredKpiValueList.forEach(function(requiredKpiValue){var val=requiredKpiValue.value.data.length>rowNum?Number(requiredKpiValue.value.data[rowNum][field]):null;min=min==null?val:val!=null&&val<min?val:min;});return min;},max:function(field,rowNum){var max=null;requiredKpiValueList.forEach(function(requiredKpiValue){var val=requiredKpiValue.value.data.length>rowNum?Number(requiredKpiValue.value.data[rowNum][field]):null;max=max==null?val:val!=null&&val>max?val:max;});return max;},first:function(field,rowNum){return requiredKpiValueList.length!=0&&requiredKpiValueList[0].value.data.length!=0?requiredKpiValueList[0].value.data[rowNum][field]:null;}};var ret={columns:[],data:[],moreInfo:{}};var maxRow=requiredKpiValueList[0]?requiredKpiValueList[0].value.data.length:0;for(var rowNum=0;rowNum<maxRow;rowNum++){var obj={};fieldAggList.forEach(function(fieldAgg){obj[fieldAgg.field]=combineMethods[fieldAgg.aggregation](fieldAgg.field,rowNum);});ret.data.push(obj);} fieldAggList.forEach(function(fieldAgg){ret.columns.push(fieldAgg.field);});return ret;}\";\n";
-            alg += "fnInitCode += \"function calculateFields(functions,aliases){var _getKPI=function(id){for(var i=0;i<requiredKpiValueList.length;i++) if(requiredKpiValueList[i].id==id) return requiredKpiValueList[i];throw'Impossible to find the required kpi '+id;};var ret={columns:[],data:[],moreInfo:{}};Object.keys(functions).forEach(function(field){ret.columns.push(field);ret.moreInfo[field]=functions[field];});var dataLength=0;for(var i=0;i<requiredKpiValueList.length;i++) if(requiredKpiValueList[i].value.data.length>dataLength) dataLength=requiredKpiValueList[i].value.data.length;for(var i=0;i<dataLength;i++){var toEval='';Object.keys(aliases).forEach(function(alias){toEval+='var '+alias+'=_getKPI(\\\"'+aliases[alias]+'\\\").value.data['+i+']; ';});toEval+='var evalRet={';Object.keys(functions).forEach(function(field){toEval+='\\\"'+field+'\\\": function () { try{ return '+functions[field]+'; } catch(e) { return e; } }(), ';});toEval+='};';eval(toEval);var retData={};Object.keys(functions).forEach(function(field){retData[field]=evalRet[field];});ret.data.push(retData);} return ret;}\";\n";
-            alg += "fnInitCode += \"function round(x,digits){return parseFloat(x.toFixed(digits))}\";";
-            alg += "var algF = new Function('dataSourceOutput', 'requiredKpiValueList', fnInitCode + '\\n' + _code);\n";
-            alg += "var kpiMeasure = algF(dataSourceOutput, requiredKpiValueList);\n";
-            alg += "JSON.stringify(kpiMeasure);\n";
-            Object javascriptOutput = Utils.javascriptSafeEval(jsEngineParamenters, alg, false);
-            kpiValue = Json.createReader(new StringReader((String)javascriptOutput)).readObject();
+            jsEngineParamenters.put("_dataSourceOutput", kpiValue);
+            jsEngineParamenters.put("_requiredKpiValueList", requiredKpiValueListBuilder.build());
+            String alg = buildAlgorithmScript(KPI_HELPERS_SCRIPT, code, "dataSourceOutput", "requiredKpiValueList");
+            kpiValue = toJsonObject(Utils.javascriptSafeEval(jsEngineParamenters, alg, false));
         }
         
         if(connectedDataSourceId.equals("") && connectedAlgorithmId.equals(""))
@@ -349,15 +344,10 @@ public class DashboardConnector extends SyncConnectorA{
             JsonObject targetRangeAlgorithmJson = find("algorithmList", targetRangeAlgorithmId);
             HashMap<String, Object> jsEngineParamenters = new HashMap<String, Object>();
             String code = targetRangeAlgorithmJson.getString("code", "");
-            jsEngineParamenters.put("_code", code);
-            jsEngineParamenters.put("_moreInfo", kpiJson.getJsonObject("moreInfo").toString());
-            jsEngineParamenters.put("_kpiMeasure", kpiValue.toString());
-            String alg = "var fnRangeEvalTarget = \"var evaluateRange=function(range){if(kpiValue.data.length==0){return{status:0,statusList:[],moreInfo:{details:'No data available'}};}var statusList=[];var status=0;var varDec;for(var i=0;i<kpiValue.data.length;i++){varDec='';kpiValue.columns.forEach(function(key){varDec+='var '+key+'=kpiValue.data['+i+'].'+key+'; ';});try{var evalF=new Function('kpiValue',varDec+'return '+range+';');var evalRet=evalF(kpiValue);statusList.push(evalRet?1:-1);if(i==0)status=evalRet?1:-1;}catch(e){statusList.push(0);console.log(e);}}return{status:status,statusList:statusList,moreInfo:{rule:range}};};\";\n";
-            alg += "var algTargetRangeF = new Function('kpiMoreInfo', 'kpiValue', fnRangeEvalTarget + _code);\n";
-            alg += "var targetRangeAlgorithmResult = algTargetRangeF(JSON.parse(_moreInfo), JSON.parse(_kpiMeasure));\n";
-            alg += "out(targetRangeAlgorithmResult);\n";
-            Object javascriptOutput = Utils.javascriptSafeEval(jsEngineParamenters, alg, false);
-            targetRangeValue = Json.createReader(new StringReader((String)javascriptOutput)).readObject();
+            jsEngineParamenters.put("_kpiMoreInfo", kpiJson.getJsonObject("moreInfo"));
+            jsEngineParamenters.put("_kpiValue", kpiValue);
+            String alg = buildAlgorithmScript(TARGET_RANGE_HELPERS_SCRIPT, code, "kpiMoreInfo", "kpiValue");
+            targetRangeValue = toJsonObject(Utils.javascriptSafeEval(jsEngineParamenters, alg, false));
         }
         
         JsonArrayBuilder alertRangeValueListBuilder = Json.createArrayBuilder();
@@ -365,15 +355,10 @@ public class DashboardConnector extends SyncConnectorA{
             JsonObject alertRangeAlgorithmJson = find("algorithmList", ((JsonString)alertRangeAlgorithmId).getString());
             HashMap<String, Object> jsEngineParamenters = new HashMap<String, Object>();
             String code = alertRangeAlgorithmJson.getString("code", "");
-            jsEngineParamenters.put("_code", code);
-            jsEngineParamenters.put("_moreInfo", kpiJson.getJsonObject("moreInfo").toString());
-            jsEngineParamenters.put("_kpiMeasure", kpiValue.toString());
-            String alg = "var fnRangeEvalAlert = \"var evaluateRange=function(range,successColor){if(kpiValue.data.length==0){return{status:0,statusList:[],moreInfo:{details:'No data available'}};} var statusList=[];var status=0;var varDec;for(var i=0;i<kpiValue.data.length;i++){varDec='';kpiValue.columns.forEach(function(key){varDec+='var '+key+'=kpiValue.data['+i+'].'+key+'; ';});try{var evalF=new Function('kpiValue',varDec+'return '+range+';');var evalRet=evalF(kpiValue);statusList.push(evalRet?1:-1);if(i==0) status=evalRet?1:-1;}catch(e){statusList.push(0);console.log(e);}} var ret={status:status,statusList:statusList,moreInfo:{rule:range}};if(successColor){ret.widgetSpecificCustomization={alertSuccessColor:successColor&&successColor!=''?successColor:'yellow'};} return ret;};\";\n";
-            alg += "var algAlertRangeF = new Function('kpiMoreInfo', 'kpiValue', fnRangeEvalAlert + _code);\n";
-            alg += "var alertRangeAlgorithmResult = algAlertRangeF(JSON.parse(_moreInfo), JSON.parse(_kpiMeasure));\n";
-            alg += "out(alertRangeAlgorithmResult);\n";
-            Object javascriptOutput = Utils.javascriptSafeEval(jsEngineParamenters, alg, false);
-            JsonObject alertRangeValue = Json.createReader(new StringReader((String)javascriptOutput)).readObject();
+            jsEngineParamenters.put("_kpiMoreInfo", kpiJson.getJsonObject("moreInfo"));
+            jsEngineParamenters.put("_kpiValue", kpiValue);
+            String alg = buildAlgorithmScript(ALERT_RANGE_HELPERS_SCRIPT, code, "kpiMoreInfo", "kpiValue");
+            JsonObject alertRangeValue = toJsonObject(Utils.javascriptSafeEval(jsEngineParamenters, alg, false));
             alertRangeValueListBuilder.add(alertRangeValue);
         }
         
@@ -388,6 +373,27 @@ public class DashboardConnector extends SyncConnectorA{
             .build();
     }
     
+    /**
+     * Build the script that evaluate the code of a dashboard algorithm as the body of a function with the provided parameters, preceded by the helper functions available to the algorithm.<br>
+     * The script depend only on the helpers and on the code of the algorithm: the engines compile it the first time and then reuse it from their compiled scripts cache, until the algorithm is changed.<br>
+     * The value of every parameter must be provided in the variable with the same name prefixed by "_", and is exchanged with the script through the JSON bridge, so the inputs and the result are not serialized and parsed again.<br>
+     */
+    private static String buildAlgorithmScript(String helpersScript, String code, String... parameterNameList) {
+        String parameters = String.join(", ", parameterNameList);
+        String wrappedParameters = "";
+        for(String parameterName : parameterNameList)
+            wrappedParameters += (wrappedParameters.isEmpty() ? "" : ", ") + "_jsonBridge.wrap(_" + parameterName + ")";
+        return "_jsonBridge.toJson((function(" + parameters + "){\n" + helpersScript + code + "\n})(" + wrappedParameters + "));\n";
+    }
+    
+    private static JsonObject toJsonObject(Object javascriptOutput) throws Exception {
+        if(javascriptOutput instanceof JsonObject)
+            return (JsonObject) javascriptOutput;
+        if(javascriptOutput instanceof String)
+            return Json.createReader(new StringReader((String)javascriptOutput)).readObject();
+        throw new Exception("The algorithm must return a JSON object. Obtained: " + javascriptOutput);
+    }
+    
     private JsonObject find(String arrayKey, String id) throws Exception {
         for(JsonValue modelVal : modelList) {
             JsonObject modelJson = modelVal.asJsonObject();
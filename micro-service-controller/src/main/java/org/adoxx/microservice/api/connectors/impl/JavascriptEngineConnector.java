@@ -19,8 +19,8 @@ public class JavascriptEngineConnector extends SyncConnectorA{
     @Override
     public JsonObject getDescription() {
         return Json.createObjectBuilder()
-            .add("en", "Execute a Javascript using the Nashorn engine and return its output")
-            .add("de", "Execute a Javascript using the Nashorn engine and return its output")
+            .add("en", "Execute a Javascript using the configured engine (Nashorn by default) and return its output")
+            .add("de", "Execute a Javascript using the configured engine (Nashorn by default) and return its output")
             .build();
     }
     
@@ -4,6 +4,7 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
 
 import javax.json.Json;
 import javax.json.JsonArrayBuilder;
@@ -11,6 +12,7 @@ import javax.json.JsonObject;
 import javax.json.JsonObjectBuilder;
 import javax.json.JsonValue;
 
+import org.adoxx.microservice.api.CallContext;
 import org.adoxx.microservice.api.connectors.SyncConnectorA;
 import org.adoxx.microservice.utils.Utils;
 
@@ -157,21 +159,36 @@ public class MSSQLServerConnector extends SyncConnectorA{
         
         try (Connection connection = dataSource.getConnection()) {
             try (PreparedStatement statement = connection.prepareStatement(query)) {
-                if(statement.execute()) {
-                    try (ResultSet resultSet = statement.getResultSet()) {
-                        ResultSetMetaData metadata = resultSet.getMetaData();
-                        for(int i=1;i<=metadata.getColumnCount();i++)
-                            columnList.add(metadata.getColumnName(i));
-                        while (resultSet.next()) {
-                            JsonObjectBuilder dataObject = Json.createObjectBuilder();
+                long callTimeoutMs = CallContext.getCurrentTimeoutMillis(0);
+                if(callTimeoutMs > 0)
+                    statement.setQueryTimeout((int) Math.min((callTimeoutMs + 999) / 1000, Integer.MAX_VALUE));
+                //the statement is cancelled exactly at the deadline, that the query timeout approximates in seconds
+                Runnable cancelRegistration = CallContext.onCurrentCancel(() -> {
+                    try {
+                        statement.cancel();
+                    } catch(SQLException e) {
+                        throw new IllegalStateException("Impossible to cancel the query: " + e.getMessage(), e);
+                    }
+                });
+                try {
+                    if(statement.execute()) {
+                        try (ResultSet resultSet = statement.getResultSet()) {
+                            ResultSetMetaData metadata = resultSet.getMetaData();
                             for(int i=1;i<=metadata.getColumnCount();i++)
-                                if(resultSet.getString(i)==null)
-                                    dataObject.add(metadata.getColumnName(i), JsonValue.NULL);
-                                else
-                                    dataObject.add(metadata.getColumnName(i), resultSet.getString(i));
-                            dataList.add(dataObject);
+                                columnList.add(metadata.getColumnName(i));
+                            while (resultSet.next()) {
+                                JsonObjectBuilder dataObject = Json.createObjectBuilder();
+                                for(int i=1;i<=metadata.getColumnCount();i++)
+                                    if(resultSet.getString(i)==null)
+                                        dataObject.add(metadata.getColumnName(i), JsonValue.NULL);
+                                    else
+                                        dataObject.add(metadata.getColumnName(i), resultSet.getString(i));
+                                dataList.add(dataObject);
+                            }
                         }
                     }
+                } finally {
+                    cancelRegistration.run();
                 }
             }
         }
@@ -0,0 +1,317 @@
+package org.adoxx.microservice.api.persistence;
+
+import java.io.File;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import javax.json.Json;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import javax.json.JsonValue;
+
+import org.adoxx.microservice.api.log.LogI.LogLevel;
+import org.adoxx.microservice.api.log.LogManager;
+import org.adoxx.microservice.utils.ExecutorManager;
+import org.adoxx.microservice.utils.Utils;
+
+/**
+ * <h1>MicroserviceSummaryIndex</h1>
+ * Index of the information needed to list the microservices (name, description, public and moreInfos), so the listing does not read and parse every configuration.<br>
+ * The index is loaded the first time it is required and then maintained incrementally by the write operations of the {@link PersistenceManager} and by the changes notified by the provider.
+ * When an index file is specified, the index is also saved on disk together with the stamp of every configuration (see {@link PersistenceI#getMicroserviceConfigurationStamp(String)}), so at the next load only the configurations changed in the meanwhile are read again.
+ * The changes are saved at most once every {@link #saveDelayMs} milliseconds; {@link #flush()} saves the pending changes immediately.<br>
+ *
+ * @author Damiano Falcioni
+ */
+public class MicroserviceSummaryIndex {
+
+    public static long saveDelayMs = 1000;
+
+    private final PersistenceI store;
+    private final String indexFile;
+    //replaced at every change, so the listings can read it without locks
+    private volatile Snapshot snapshot = null;
+    //the save of the changes not yet written in the index file
+    private ScheduledFuture<?> pendingSave = null;
+
+    private static class Summary {
+        final String id;
+        final String name;
+        final String description;
+        final boolean isPublic;
+        final JsonObject summary;
+        final long stamp;
+
+        private Summary(JsonObject summary, long stamp) {
+            this.id = summary.getString("id");
+            this.name = summary.getString("name", "");
+            this.description = summary.getString("description", "");
+            this.isPublic = summary.getBoolean("public", false);
+            this.summary = summary;
+            this.stamp = stamp;
+        }
+    }
+
+    private static class Snapshot {
+        final TreeMap<String, Summary> summaryList;
+        //the summaries sorted by every key, created when first required
+        final ConcurrentHashMap<String, List<Summary>> sortedSummaryList = new ConcurrentHashMap<String, List<Summary>>();
+
+        private Snapshot(TreeMap<String, Summary> summaryList) {
+            this.summaryList = summaryList;
+        }
+
+        List<Summary> getSortedList(String sortBy) {
+            return sortedSummaryList.computeIfAbsent(sortBy, key -> {
+                List<Summary> sortedList = new ArrayList<Summary>(summaryList.values());
+                if(key.equals("id"))
+                    return Collections.unmodifiableList(sortedList);
+                Comparator<Summary> comparator = key.equals("name") ? Comparator.comparing((Summary summary) -> summary.name, String.CASE_INSENSITIVE_ORDER) : Comparator.comparing((Summary summary) -> summary.description, String.CASE_INSENSITIVE_ORDER);
+                sortedList.sort(comparator.thenComparing(summary -> summary.id));
+                return Collections.unmodifiableList(sortedList);
+            });
+        }
+    }
+
+    /**
+     * @param store The store used to read the validated configurations, their ids and stamps
+     * @param indexFile The file where the index is saved. Can be null to keep the index only in memory
+     */
+    public MicroserviceSummaryIndex(PersistenceI store, String indexFile) {
+        this.store = store;
+        this.indexFile = indexFile;
+    }
+
+    /**
+     * Return the summaries of the microservices, sorted by id<br>
+     * @return List The list of JSON objects in the format {"id":"...", "name":"...", "description":"...", "public":true, "moreInfos":{...}}
+     * @throws Exception in case the index can not be loaded
+     */
+    public List<JsonObject> getSummaryList() throws Exception {
+        Snapshot currentSnapshot = getSnapshot();
+        List<JsonObject> ret = new ArrayList<JsonObject>(currentSnapshot.summaryList.size());
+        for(Summary summary : currentSnapshot.summaryList.values())
+            ret.add(summary.summary);
+        return ret;
+    }
+
+    /**
+     * Return a page of the summaries of the microservices<br>
+     * @param publicFilter When not null return only the microservices with this value of "public"
+     * @param sortBy The key used to sort the summaries: "id", "name" or "description"
+     * @param descending True to invert the order
+     * @param offset The number of summaries to skip
+     * @param limit The maximum number of summaries to return. 0 or less for no limit
+     * @return JsonObject A JSON object of this format:
+     * <pre>
+     * {
+     *     "total" : number of microservices matching the filter,
+     *     "offset" : 0,
+     *     "limit" : 50,
+     *     "microserviceList" : [{
+     *         "id" : "id of the microservice",
+     *         "name" : "name of the microservice",
+     *         "description" : "description of the microservice",
+     *         "public" : true,
+     *         "moreInfos" : {...}
+     *     }]
+     * }
+     * </pre>
+     * @throws Exception in case of error
+     */
+    public JsonObject getSummaryPage(Boolean publicFilter, String sortBy, boolean descending, int offset, int limit) throws Exception {
+        if(sortBy == null || sortBy.isEmpty())
+            sortBy = "id";
+        if(!sortBy.equals("id") && !sortBy.equals("name") && !sortBy.equals("description"))
+            throw new Exception("Unsupported sorting key " + sortBy + ". Allowed values: id, name, description");
+        if(offset < 0)
+            throw new Exception("offset can not be negative");
+        List<Summary> sortedSummaryList = getSnapshot().getSortedList(sortBy);
+        List<Summary> filteredSummaryList = sortedSummaryList;
+        if(publicFilter != null) {
+            filteredSummaryList = new ArrayList<Summary>();
+            for(Summary summary : sortedSummaryList)
+                if(summary.isPublic == publicFilter)
+                    filteredSummaryList.add(summary);
+        }
+        int total = filteredSummaryList.size();
+        int end = limit <= 0 ? total : (int) Math.min((long) offset + limit, total);
+        JsonArrayBuilder pageBuilder = Json.createArrayBuilder();
+        for(int i = offset; i < end; i++)
+            pageBuilder.add(filteredSummaryList.get(descending ? total - 1 - i : i).summary);
+        return Json.createObjectBuilder()
+            .add("total", total)
+            .add("offset", offset)
+            .add("limit", limit)
+            .add("microserviceList", pageBuilder)
+            .build();
+    }
+
+    /**
+     * Update the summary of a microservice after its configuration has been written<br>
+     */
+    public synchronized void put(String microserviceId, JsonObject microserviceConfiguration) {
+        if(snapshot == null)
+            return;
+        TreeMap<String, Summary> newSummaryList = new TreeMap<String, Summary>(snapshot.summaryList);
+        newSummaryList.put(microserviceId, new Summary(createSummary(microserviceId, microserviceConfiguration), getStamp(microserviceId)));
+        snapshot = new Snapshot(newSummaryList);
+        scheduleSave();
+    }
+
+    /**
+     * Remove the summary of a deleted microservice<br>
+     */
+    public synchronized void remove(String microserviceId) {
+        if(snapshot == null || !snapshot.summaryList.containsKey(microserviceId))
+            return;
+        TreeMap<String, Summary> newSummaryList = new TreeMap<String, Summary>(snapshot.summaryList);
+        newSummaryList.remove(microserviceId);
+        snapshot = new Snapshot(newSummaryList);
+        scheduleSave();
+    }
+
+    /**
+     * Read again the configuration of a microservice changed outside of the {@link PersistenceManager}<br>
+     * @param microserviceId The id of the changed microservice, or null to check all the microservices
+     */
+    public synchronized void refresh(String microserviceId) {
+        if(snapshot == null)
+            return;
+        if(microserviceId == null) {
+            snapshot = null;
+            return;
+        }
+        try {
+            if(store.existMicroserviceConfiguration(microserviceId))
+                put(microserviceId, store.retrieveMicroserviceConfiguration(microserviceId));
+            else
+                remove(microserviceId);
+        } catch(Exception ex) {
+            LogManager.unique().log(LogLevel.ERROR, "Error updating the summary of the microservice '" + microserviceId + "'", ex);
+            remove(microserviceId);
+        }
+    }
+
+    /**
+     * Save immediately the changes not yet written in the index file<br>
+     */
+    public synchronized void flush() {
+        if(pendingSave == null)
+            return;
+        pendingSave.cancel(false);
+        pendingSave = null;
+        if(snapshot != null)
+            save(snapshot.summaryList);
+    }
+
+    private void scheduleSave() {
+        if(indexFile == null || pendingSave != null)
+            return;
+        try {
+            pendingSave = ExecutorManager.unique().getScheduledExecutor().schedule(this::flush, saveDelayMs, TimeUnit.MILLISECONDS);
+        } catch(Exception ex) {
+            //the executors are shut down: the change is saved now
+            save(snapshot.summaryList);
+        }
+    }
+
+    private Snapshot getSnapshot() throws Exception {
+        Snapshot currentSnapshot = snapshot;
+        return currentSnapshot != null ? currentSnapshot : load();
+    }
+
+    private synchronized Snapshot load() throws Exception {
+        if(snapshot != null)
+            return snapshot;
+        Map<String, Summary> savedSummaryList = read();
+        TreeMap<String, Summary> newSummaryList = new TreeMap<String, Summary>();
+        boolean changed = savedSummaryList.isEmpty();
+        for(String microserviceId : store.retrieveAllMicroservicesId()) {
+            long stamp = getStamp(microserviceId);
+            Summary savedSummary = savedSummaryList.get(microserviceId);
+            if(savedSummary != null && stamp != -1 && savedSummary.stamp == stamp) {
+                newSummaryList.put(microserviceId, savedSummary);
+                continue;
+            }
+            changed = true;
+            try {
+                newSummaryList.put(microserviceId, new Summary(createSummary(microserviceId, store.retrieveMicroserviceConfiguration(microserviceId)), stamp));
+            } catch(Exception ex) {
+                LogManager.unique().log(LogLevel.ERROR, "Error retrieving the information for the microservice '" + microserviceId + "'", ex);
+            }
+        }
+        if(changed || newSummaryList.size() != savedSummaryList.size())
+            save(newSummaryList);
+        snapshot = new Snapshot(newSummaryList);
+        return snapshot;
+    }
+
+    private long getStamp(String microserviceId) {
+        try {
+            return store.getMicroserviceConfigurationStamp(microserviceId);
+        } catch(Exception ex) {
+            return -1;
+        }
+    }
+
+    private static JsonObject createSummary(String microserviceId, JsonObject microserviceConfiguration) {
+        JsonObject moreInfos = microserviceConfiguration.getJsonObject("moreInfos");
+        return Json.createObjectBuilder()
+            .add("id", microserviceId)
+            .add("name", microserviceConfiguration.getString("name", ""))
+            .add("description", microserviceConfiguration.getString("description", ""))
+            .add("public", microserviceConfiguration.getBoolean("public", false))
+            .add("moreInfos", moreInfos == null ? JsonValue.EMPTY_JSON_OBJECT : moreInfos)
+            .build();
+    }
+
+    private Map<String, Summary> read() {
+        Map<String, Summary> ret = new HashMap<String, Summary>();
+        if(indexFile == null || !new File(indexFile).exists())
+            return ret;
+        try {
+            JsonObject index = Json.createReader(new StringReader(new String(Utils.readFile(indexFile), "UTF-8"))).readObject();
+            for(JsonValue entry : index.getJsonArray("summaryList")) {
+                JsonObject entryObject = entry.asJsonObject();
+                ret.put(entryObject.getJsonObject("summary").getString("id"), new Summary(entryObject.getJsonObject("summary"), entryObject.getJsonNumber("stamp").longValue()));
+            }
+        } catch(Exception ex) {
+            LogManager.unique().log(LogLevel.WARN, "Impossible to read the microservices summary index " + indexFile + ": it will be rebuilt", ex);
+            ret.clear();
+        }
+        return ret;
+    }
+
+    private void save(TreeMap<String, Summary> summaryListToSave) {
+        if(indexFile == null)
+            return;
+        try {
+            JsonArrayBuilder summaryListBuilder = Json.createArrayBuilder();
+            for(Summary summary : summaryListToSave.values())
+                summaryListBuilder.add(Json.createObjectBuilder().add("summary", summary.summary).add("stamp", summary.stamp));
+            JsonObjectBuilder indexBuilder = Json.createObjectBuilder().add("summaryList", summaryListBuilder);
+            File file = new File(indexFile);
+            if(file.getParentFile() != null && !file.getParentFile().exists())
+                file.getParentFile().mkdirs();
+            //the index is replaced atomically, so a crash never leave a partial file
+            File tmpFile = new File(indexFile + ".tmp");
+            Utils.writeFile(indexBuilder.build().toString().getBytes("UTF-8"), tmpFile, false);
+            Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch(Exception ex) {
+            LogManager.unique().log(LogLevel.WARN, "Impossible to save the microservices summary index " + indexFile, ex);
+        }
+    }
+}
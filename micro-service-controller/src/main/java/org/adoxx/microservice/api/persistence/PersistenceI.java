@@ -2,7 +2,9 @@ package org.adoxx.microservice.api.persistence;
 
 import java.util.List;
 
+import javax.json.JsonArray;
 import javax.json.JsonObject;
+import javax.json.JsonValue;
 
 public interface PersistenceI {
     public String saveMicroserviceConfiguration(JsonObject microserviceConfiguration) throws Exception;
@@ -11,4 +13,38 @@ public interface PersistenceI {
     public List<String> retrieveAllMicroservicesId() throws Exception;
     public JsonObject retrieveMicroserviceConfiguration(String microserviceId) throws Exception;
     public boolean existMicroserviceConfiguration(String microserviceId) throws Exception;
+    
+    /**
+     * Return a value that change every time the configuration is changed, as its last modification time, used to detect the configurations changed while the index of the microservices was not loaded<br>
+     * @param microserviceId The id of the microservice
+     * @return long The stamp of the configuration, or -1 when the store can not provide it
+     * @throws Exception in case of error
+     */
+    public default long getMicroserviceConfigurationStamp(String microserviceId) throws Exception {
+        return -1;
+    }
+    
+    /**
+     * Return the previous versions of a configuration still kept by the store, from the oldest<br>
+     * @param microserviceId The id of the microservice
+     * @return JsonArray An array of JSON objects in the format {"version":1, "timestamp":1234567890, "deleted":false, "configuration":{...}}, or an empty array when the store does not keep the history
+     * @throws Exception in case of error
+     */
+    public default JsonArray retrieveMicroserviceConfigurationHistory(String microserviceId) throws Exception {
+        return JsonValue.EMPTY_JSON_ARRAY;
+    }
+    
+    /**
+     * Return a page of the microservice summaries when the store can compute it without reading the configurations, as with indexed columns<br>
+     * @param publicFilter When not null return only the microservices with this value of "public"
+     * @param sortBy The key used to sort the microservices: "id", "name" or "description"
+     * @param descending True to invert the order
+     * @param offset The number of microservices to skip
+     * @param limit The maximum number of microservices to return. 0 or less for no limit
+     * @return JsonObject A JSON object as specified in {@link MicroserviceSummaryIndex#getSummaryPage(Boolean, String, boolean, int, int)}, or null when the store does not support it and the {@link MicroserviceSummaryIndex} must be used
+     * @throws Exception in case of error
+     */
+    public default JsonObject retrieveMicroserviceSummaryPage(Boolean publicFilter, String sortBy, boolean descending, int offset, int limit) throws Exception {
+        return null;
+    }
 }
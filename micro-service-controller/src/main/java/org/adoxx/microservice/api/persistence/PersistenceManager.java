@@ -1,11 +1,21 @@
 package org.adoxx.microservice.api.persistence;
 
+import java.math.BigInteger;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonNumber;
 import javax.json.JsonObject;
+import javax.json.JsonValue;
 
 import org.adoxx.microservice.api.connectors.ConnectorsController;
+import org.adoxx.microservice.api.log.LogI.LogLevel;
+import org.adoxx.microservice.api.log.LogManager;
 import org.adoxx.microservice.api.persistence.impl.FileBasedStore;
+import org.adoxx.microservice.api.persistence.impl.H2Store;
 import org.adoxx.microservice.api.persistence.impl.InMemoryStore;
 
 public class PersistenceManager implements PersistenceI {
@@ -23,40 +33,85 @@ public class PersistenceManager implements PersistenceI {
     
     private PersistenceI persistenceProvider = null;
     
+    //the configuration objects returned by the provider that passed the format check: while the provider returns the same object it is not validated again
+    private ConcurrentHashMap<String, JsonObject> validatedConfigurationList = new ConcurrentHashMap<String, JsonObject>();
+    private LongAdder validations = new LongAdder();
+    private LongAdder validatedReads = new LongAdder();
+    
+    private String summaryIndexFile = null;
+    private volatile MicroserviceSummaryIndex summaryIndex = new MicroserviceSummaryIndex(this, null);
+    
     public void setProvider(PersistenceI provider) {
         persistenceProvider = provider;
+        validatedConfigurationList.clear();
+        summaryIndex.flush();
+        summaryIndex = new MicroserviceSummaryIndex(this, summaryIndexFile);
+    }
+    
+    /**
+     * Set the file where the index of the microservices summaries is saved, so it is not rebuilt at every start<br>
+     * @param summaryIndexFile The path of the file, or null to keep the index only in memory
+     */
+    public void setSummaryIndexFile(String summaryIndexFile) {
+        this.summaryIndexFile = summaryIndexFile;
+        summaryIndex.flush();
+        summaryIndex = new MicroserviceSummaryIndex(this, summaryIndexFile);
+    }
+    
+    public MicroserviceSummaryIndex getSummaryIndex() {
+        return summaryIndex;
+    }
+    
+    /**
+     * Update the caches depending on a configuration changed outside of the PersistenceManager, as a file changed in the folder of the configurations<br>
+     * @param microserviceId The id of the changed configuration, or null when all the configurations can be changed
+     */
+    public void notifyExternalChange(String microserviceId) {
+        if(microserviceId == null)
+            validatedConfigurationList.clear();
+        else
+            validatedConfigurationList.remove(microserviceId);
+        summaryIndex.refresh(microserviceId);
     }
     
     public void setFileBasedStoreProvider(String baseFolder) {
-        persistenceProvider = new FileBasedStore(baseFolder);
+        setProvider(new FileBasedStore(baseFolder));
     }
     
     public void setFileBasedStoreProvider() {
-        persistenceProvider = new FileBasedStore();
+        setProvider(new FileBasedStore());
     }
     
     public void setInMemoryStoreProvider() {
-        persistenceProvider = new InMemoryStore();
+        setProvider(new InMemoryStore());
     }
 
     @Override
     public String saveMicroserviceConfiguration(JsonObject microserviceConfiguration) throws Exception {
         if(persistenceProvider == null) throw new Exception("A provider must first be specified");
         checkMicroserviceConfigurationFormat(microserviceConfiguration);
-        return persistenceProvider.saveMicroserviceConfiguration(microserviceConfiguration);
+        String microserviceId = persistenceProvider.saveMicroserviceConfiguration(microserviceConfiguration);
+        recordValidatedConfiguration(microserviceId, microserviceConfiguration);
+        summaryIndex.put(microserviceId, microserviceConfiguration);
+        return microserviceId;
     }
 
     @Override
     public void updateMicroserviceConfiguration(String microserviceId, JsonObject microserviceConfiguration) throws Exception {
         if(persistenceProvider == null) throw new Exception("A provider must first be specified");
         checkMicroserviceConfigurationFormat(microserviceConfiguration);
+        validatedConfigurationList.remove(microserviceId);
         persistenceProvider.updateMicroserviceConfiguration(microserviceId, microserviceConfiguration);
+        recordValidatedConfiguration(microserviceId, microserviceConfiguration);
+        summaryIndex.put(microserviceId, microserviceConfiguration);
     }
     
     @Override
     public void deleteMicroserviceConfiguration(String microserviceId) throws Exception {
         if(persistenceProvider == null) throw new Exception("A provider must first be specified");
+        validatedConfigurationList.remove(microserviceId);
         persistenceProvider.deleteMicroserviceConfiguration(microserviceId);
+        summaryIndex.remove(microserviceId);
     }
 
     @Override
@@ -65,21 +120,92 @@ public class PersistenceManager implements PersistenceI {
         return persistenceProvider.retrieveAllMicroservicesId();
     }
 
+    /**
+     * Retrieve the validated configuration of a microservice<br>
+     * The configuration is validated only if the provider returns a different object from the one already validated, as when the configuration is loaded for the first time or after an external change.<br>
+     */
     @Override
     public JsonObject retrieveMicroserviceConfiguration(String microserviceId) throws Exception {
         if(persistenceProvider == null) throw new Exception("A provider must first be specified");
         JsonObject serviceConfiguration = persistenceProvider.retrieveMicroserviceConfiguration(microserviceId);
+        if(serviceConfiguration != null && validatedConfigurationList.get(microserviceId) == serviceConfiguration) {
+            validatedReads.increment();
+            return serviceConfiguration;
+        }
         checkMicroserviceConfigurationFormat(serviceConfiguration);
+        validatedConfigurationList.put(microserviceId, serviceConfiguration);
         return serviceConfiguration;
     }
     
+    @Override
+    public long getMicroserviceConfigurationStamp(String microserviceId) throws Exception {
+        if(persistenceProvider == null) throw new Exception("A provider must first be specified");
+        return persistenceProvider.getMicroserviceConfigurationStamp(microserviceId);
+    }
+    
+    @Override
+    public JsonArray retrieveMicroserviceConfigurationHistory(String microserviceId) throws Exception {
+        if(persistenceProvider == null) throw new Exception("A provider must first be specified");
+        return persistenceProvider.retrieveMicroserviceConfigurationHistory(microserviceId);
+    }
+    
+    /**
+     * Return a page of the microservice summaries, computed by the provider when it supports it (see {@link H2Store}) or by the {@link MicroserviceSummaryIndex}<br>
+     * This method never return null.<br>
+     */
+    @Override
+    public JsonObject retrieveMicroserviceSummaryPage(Boolean publicFilter, String sortBy, boolean descending, int offset, int limit) throws Exception {
+        if(persistenceProvider == null) throw new Exception("A provider must first be specified");
+        JsonObject ret = persistenceProvider.retrieveMicroserviceSummaryPage(publicFilter, sortBy, descending, offset, limit);
+        return ret != null ? ret : summaryIndex.getSummaryPage(publicFilter, sortBy, descending, offset, limit);
+    }
+    
     @Override
     public boolean existMicroserviceConfiguration(String microserviceId) throws Exception {
         if(persistenceProvider == null) throw new Exception("A provider must first be specified");
         return persistenceProvider.existMicroserviceConfiguration(microserviceId);
     }
     
+    /**
+     * Return the counters of the configuration validations<br>
+     * @return JsonObject A JSON object of this format:
+     * <pre>
+     * {
+     *     "validations" : number of configurations validated, when written or loaded by the provider,
+     *     "validatedReads" : number of reads that returned a configuration already validated,
+     *     "validatedConfigurations" : number of validated configurations kept
+     * }
+     * </pre>
+     */
+    public JsonObject getStatus() {
+        return Json.createObjectBuilder()
+            .add("validations", validations.sum())
+            .add("validatedReads", validatedReads.sum())
+            .add("validatedConfigurations", validatedConfigurationList.size())
+            .build();
+    }
+    
+    private void recordValidatedConfiguration(String microserviceId, JsonObject microserviceConfiguration) {
+        //the provider can return a different object from the written one, as the CachedStore, and that is the object compared by the next reads
+        try {
+            JsonObject storedConfiguration = persistenceProvider.retrieveMicroserviceConfiguration(microserviceId);
+            if(microserviceConfiguration.equals(storedConfiguration))
+                validatedConfigurationList.put(microserviceId, storedConfiguration);
+        } catch(Exception ex) {
+            LogManager.unique().log(LogLevel.WARN, "Impossible to read back the configuration of the microservice " + microserviceId + ", it will be validated at the next read", ex);
+        }
+    }
+    
+    //the numbers with a fractional part, as 1.5 or 1.0, are not accepted, nor the ones that would be truncated reading them
+    private static boolean isNonNegativeInteger(JsonValue value, long maxValue) {
+        if(!(value instanceof JsonNumber) || !((JsonNumber) value).isIntegral())
+            return false;
+        BigInteger integer = ((JsonNumber) value).bigIntegerValue();
+        return integer.signum() >= 0 && integer.compareTo(BigInteger.valueOf(maxValue)) <= 0;
+    }
+    
     private void checkMicroserviceConfigurationFormat(JsonObject microserviceConfiguration) throws Exception {
+        validations.increment();
         JsonObject modulesInfo = ConnectorsController.unique().getConnectors();
         
         if(microserviceConfiguration == null) throw new Exception("microserviceConfiguration can not be null");
@@ -135,6 +261,10 @@ public class PersistenceManager implements PersistenceI {
             if(configuration.getString("outputDescription", null) == null) throw new Exception("operation "+operationKey+" configuration outputDescription must be present");
             if(configuration.getString("outputAdaptationAlgorithm", null) == null) throw new Exception("operation "+operationKey+" configuration outputAdaptationAlgorithm must be present");
             if(configuration.getString("statusCheckAlgorithm", null) == null) throw new Exception("operation "+operationKey+" configuration statusCheckAlgorithm must be present");
+            for(String limitKey : new String[] {"maxConcurrentCalls", "maxQueuedCalls", "queueTimeoutMs"})
+                if(configuration.containsKey(limitKey) && !isNonNegativeInteger(configuration.get(limitKey), Integer.MAX_VALUE)) throw new Exception("operation "+operationKey+" configuration "+limitKey+" must be a non-negative integer");
+            for(String limitKey : new String[] {"maxScriptCpuTimeMs", "maxScriptAllocatedBytes"})
+                if(configuration.containsKey(limitKey) && !isNonNegativeInteger(configuration.get(limitKey), Long.MAX_VALUE)) throw new Exception("operation "+operationKey+" configuration "+limitKey+" must be a non-negative integer");
         }
         
         if(microserviceConfiguration.getJsonObject("moreInfos") == null) throw new Exception("moreInfos object must be present");
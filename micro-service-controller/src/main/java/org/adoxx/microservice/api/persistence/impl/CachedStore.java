@@ -0,0 +1,228 @@
+package org.adoxx.microservice.api.persistence.impl;
+
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import javax.json.JsonArray;
+import javax.json.JsonObject;
+
+import org.adoxx.microservice.api.log.LogI.LogLevel;
+import org.adoxx.microservice.api.log.LogManager;
+import org.adoxx.microservice.api.persistence.PersistenceI;
+import org.adoxx.microservice.utils.ExecutorManager;
+
+/**
+ * <h1>CachedStore</h1>
+ * A {@link PersistenceI} that keep in memory the configurations retrieved from another store, so they are not read and parsed at every request.<br>
+ * The cached configurations are invalidated by the write operations performed through this store and, when a folder is provided, by the changes of the files in that folder notified by a {@link WatchService}, so the configurations copied in the folder by external processes are still picked up.<br>
+ * The JsonObject configurations are immutable and are shared between all the callers.<br>
+ *
+ * @author Damiano Falcioni
+ */
+public class CachedStore implements PersistenceI {
+
+    private final PersistenceI store;
+    private final ConcurrentHashMap<String, JsonObject> configurationList = new ConcurrentHashMap<String, JsonObject>();
+    private volatile List<String> microserviceIdList = null;
+    //incremented at every invalidation, so a value read before an invalidation is not cached
+    private final AtomicLong generation = new AtomicLong(0);
+    private volatile Consumer<String> changeListener = null;
+    //when the folder can not be watched anymore the configurations are read from the store at every request
+    private volatile boolean bypassed = false;
+    private WatchService watchService = null;
+    private Future<?> watcherTask = null;
+
+    public CachedStore(PersistenceI store) {
+        this.store = store;
+    }
+
+    /**
+     * Create the cache for the provided store, watching for changes the folder where the store keep the configurations as &lt;microserviceId&gt;.json files<br>
+     * @param store The store to cache
+     * @param watchedFolder The folder of the configurations
+     * @throws Exception in case the folder can not be watched
+     */
+    public CachedStore(PersistenceI store, String watchedFolder) throws Exception {
+        this(store);
+        Path watchedPath = Paths.get(watchedFolder);
+        watchService = FileSystems.getDefault().newWatchService();
+        watchedPath.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+        //the watcher runs on a runtime executor, so it is stopped by the ExecutorManager shutdown also when the store is not closed
+        watcherTask = ExecutorManager.unique().getCallExecutor().submit(() -> watch(watchService));
+    }
+
+    /**
+     * Set the function called with the id of every configuration changed outside of this store, or with null when all the configurations must be considered changed<br>
+     */
+    public void setChangeListener(Consumer<String> changeListener) {
+        this.changeListener = changeListener;
+    }
+
+    /**
+     * Stop watching the folder of the configurations<br>
+     */
+    public void close() {
+        if(watchService == null)
+            return;
+        try {
+            watchService.close();
+        } catch(Exception ex) {
+            LogManager.unique().log(LogLevel.WARN, "Impossible to close the persistence watch service", ex);
+        }
+        watcherTask.cancel(true);
+    }
+
+    public void invalidate(String microserviceId) {
+        generation.incrementAndGet();
+        configurationList.remove(microserviceId);
+        microserviceIdList = null;
+    }
+
+    public void invalidateAll() {
+        generation.incrementAndGet();
+        configurationList.clear();
+        microserviceIdList = null;
+    }
+
+    @Override
+    public String saveMicroserviceConfiguration(JsonObject microserviceConfiguration) throws Exception {
+        String microserviceId = store.saveMicroserviceConfiguration(microserviceConfiguration);
+        invalidate(microserviceId);
+        return microserviceId;
+    }
+
+    @Override
+    public void updateMicroserviceConfiguration(String microserviceId, JsonObject microserviceConfiguration) throws Exception {
+        try {
+            store.updateMicroserviceConfiguration(microserviceId, microserviceConfiguration);
+        } finally {
+            invalidate(microserviceId);
+        }
+    }
+
+    @Override
+    public void deleteMicroserviceConfiguration(String microserviceId) throws Exception {
+        try {
+            store.deleteMicroserviceConfiguration(microserviceId);
+        } finally {
+            invalidate(microserviceId);
+        }
+    }
+
+    @Override
+    public List<String> retrieveAllMicroservicesId() throws Exception {
+        if(bypassed)
+            return store.retrieveAllMicroservicesId();
+        List<String> idList = microserviceIdList;
+        if(idList != null)
+            return new ArrayList<String>(idList);
+        long currentGeneration = generation.get();
+        idList = Collections.unmodifiableList(new ArrayList<String>(store.retrieveAllMicroservicesId()));
+        if(generation.get() == currentGeneration)
+            microserviceIdList = idList;
+        return new ArrayList<String>(idList);
+    }
+
+    @Override
+    public JsonObject retrieveMicroserviceConfiguration(String microserviceId) throws Exception {
+        if(bypassed)
+            return store.retrieveMicroserviceConfiguration(microserviceId);
+        JsonObject configuration = configurationList.get(microserviceId);
+        if(configuration != null)
+            return configuration;
+        long currentGeneration = generation.get();
+        configuration = store.retrieveMicroserviceConfiguration(microserviceId);
+        if(configuration != null) {
+            configurationList.put(microserviceId, configuration);
+            //an invalidation happened during the read: the value could be old
+            if(generation.get() != currentGeneration)
+                configurationList.remove(microserviceId, configuration);
+        }
+        return configuration;
+    }
+
+    @Override
+    public boolean existMicroserviceConfiguration(String microserviceId) throws Exception {
+        if(bypassed)
+            return store.existMicroserviceConfiguration(microserviceId);
+        if(configurationList.containsKey(microserviceId))
+            return true;
+        List<String> idList = microserviceIdList;
+        if(idList != null)
+            return idList.contains(microserviceId);
+        return store.existMicroserviceConfiguration(microserviceId);
+    }
+
+    @Override
+    public long getMicroserviceConfigurationStamp(String microserviceId) throws Exception {
+        return store.getMicroserviceConfigurationStamp(microserviceId);
+    }
+
+    @Override
+    public JsonArray retrieveMicroserviceConfigurationHistory(String microserviceId) throws Exception {
+        return store.retrieveMicroserviceConfigurationHistory(microserviceId);
+    }
+
+    @Override
+    public JsonObject retrieveMicroserviceSummaryPage(Boolean publicFilter, String sortBy, boolean descending, int offset, int limit) throws Exception {
+        return store.retrieveMicroserviceSummaryPage(publicFilter, sortBy, descending, offset, limit);
+    }
+
+    private void watch(WatchService watchService) {
+        while(true) {
+            WatchKey watchKey;
+            try {
+                watchKey = watchService.take();
+            } catch(ClosedWatchServiceException ex) {
+                return;
+            } catch(InterruptedException ex) {
+                //interrupted by the shutdown of the executors
+                close();
+                return;
+            }
+            for(WatchEvent<?> event : watchKey.pollEvents()) {
+                try {
+                    if(event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        invalidateAll();
+                        notifyChange(null);
+                        continue;
+                    }
+                    String fileName = ((Path) event.context()).getFileName().toString();
+                    if(!fileName.toLowerCase().endsWith(".json"))
+                        continue;
+                    String microserviceId = fileName.substring(0, fileName.length()-5);
+                    invalidate(microserviceId);
+                    notifyChange(microserviceId);
+                } catch(Exception ex) {
+                    LogManager.unique().log(LogLevel.ERROR, "Error processing the change of a microservice configuration file", ex);
+                }
+            }
+            if(!watchKey.reset()) {
+                LogManager.unique().log(LogLevel.WARN, "The folder of the microservice configurations is no longer watched: the cache is bypassed", null);
+                bypassed = true;
+                invalidateAll();
+                notifyChange(null);
+                return;
+            }
+        }
+    }
+
+    private void notifyChange(String microserviceId) {
+        Consumer<String> listener = changeListener;
+        if(listener != null)
+            listener.accept(microserviceId);
+    }
+}
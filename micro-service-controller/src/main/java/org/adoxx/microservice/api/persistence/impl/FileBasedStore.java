@@ -37,6 +37,10 @@ public class FileBasedStore implements PersistenceI {
         this( System.getProperty("java.io.tmpdir")+"/ADOxx_micro_configs/");
     }
     
+    public String getBaseFolder() {
+        return baseFolder;
+    }
+    
     @Override
     public String saveMicroserviceConfiguration(JsonObject microserviceConfiguration) throws Exception {
         String id = UUID.randomUUID().toString();
@@ -86,6 +90,12 @@ public class FileBasedStore implements PersistenceI {
         return new File(baseFolder+microserviceId+".json").exists();
     }
     
+    @Override
+    public long getMicroserviceConfigurationStamp(String microserviceId) throws Exception {
+        File configFile = new File(baseFolder+microserviceId+".json");
+        return configFile.exists() ? configFile.lastModified() : -1;
+    }
+    
     /*
     public static void main(String[] argv){
         try {
@@ -0,0 +1,383 @@
+package org.adoxx.microservice.api.persistence.impl;
+
+import java.io.File;
+import java.io.StringReader;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import javax.json.Json;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonBuilderFactory;
+import javax.json.JsonObject;
+import javax.json.JsonReaderFactory;
+import javax.json.JsonValue;
+
+import org.adoxx.microservice.api.log.LogI.LogLevel;
+import org.adoxx.microservice.api.log.LogManager;
+import org.adoxx.microservice.api.persistence.PersistenceI;
+import org.adoxx.microservice.utils.Utils;
+import org.h2.api.ErrorCode;
+import org.h2.jdbcx.JdbcConnectionPool;
+
+/**
+ * <h1>H2Store</h1>
+ * A {@link PersistenceI} that keep the microservice configurations in an embedded H2 database.<br>
+ * Every configuration is stored in a row of the MICROSERVICE table together with its name, description, public flag and moreInfos in separate columns, accessed through a pool of connections and prepared statements.
+ * The name, description and public columns are indexed and used by {@link #retrieveMicroserviceSummaryPage(Boolean, String, boolean, int, int)}, so the microservices are listed, filtered and paged by the database without parsing the configurations.<br>
+ * The STAMP column is incremented at every write and is returned by {@link #getMicroserviceConfigurationStamp(String)}.<br>
+ * The configurations of a {@link FileBasedStore} folder can be imported with {@link #importFolder(String)} or from the command line with the main method.<br>
+ *
+ * @author Damiano Falcioni
+ */
+public class H2Store implements PersistenceI {
+
+    //the name and description are case insensitive, to sort them as the MicroserviceSummaryIndex
+    private static final String CREATE_TABLE = "CREATE TABLE IF NOT EXISTS MICROSERVICE (ID VARCHAR(255) PRIMARY KEY, NAME VARCHAR_IGNORECASE, DESCRIPTION VARCHAR_IGNORECASE, IS_PUBLIC BOOLEAN, MORE_INFOS CLOB, STAMP BIGINT NOT NULL, CONFIGURATION CLOB NOT NULL)";
+    //the tables created without the summary columns are extended and then filled by fillMissingSummaries
+    private static final String[] ADD_SUMMARY_COLUMN_LIST = {
+        "ALTER TABLE MICROSERVICE ADD COLUMN IF NOT EXISTS NAME VARCHAR_IGNORECASE",
+        "ALTER TABLE MICROSERVICE ADD COLUMN IF NOT EXISTS DESCRIPTION VARCHAR_IGNORECASE",
+        "ALTER TABLE MICROSERVICE ADD COLUMN IF NOT EXISTS IS_PUBLIC BOOLEAN",
+        "ALTER TABLE MICROSERVICE ADD COLUMN IF NOT EXISTS MORE_INFOS CLOB"
+    };
+    private static final String[] CREATE_INDEX_LIST = {
+        "CREATE INDEX IF NOT EXISTS MICROSERVICE_NAME_IDX ON MICROSERVICE(NAME, ID)",
+        "CREATE INDEX IF NOT EXISTS MICROSERVICE_DESCRIPTION_IDX ON MICROSERVICE(DESCRIPTION, ID)",
+        "CREATE INDEX IF NOT EXISTS MICROSERVICE_PUBLIC_IDX ON MICROSERVICE(IS_PUBLIC, NAME, ID)"
+    };
+    private static final String SELECT_MISSING_SUMMARY = "SELECT ID, CONFIGURATION FROM MICROSERVICE WHERE NAME IS NULL";
+    private static final String UPDATE_SUMMARY = "UPDATE MICROSERVICE SET NAME = ?, DESCRIPTION = ?, IS_PUBLIC = ?, MORE_INFOS = ? WHERE ID = ?";
+    //the stamp is incremented by the database while the row is locked, so two concurrent writes of the same id never get the same stamp
+    private static final String UPDATE = "UPDATE MICROSERVICE SET NAME = ?, DESCRIPTION = ?, IS_PUBLIC = ?, MORE_INFOS = ?, CONFIGURATION = ?, STAMP = STAMP + 1 WHERE ID = ?";
+    private static final String INSERT = "INSERT INTO MICROSERVICE (NAME, DESCRIPTION, IS_PUBLIC, MORE_INFOS, CONFIGURATION, ID, STAMP) VALUES (?, ?, ?, ?, ?, ?, 1)";
+    private static final String DELETE = "DELETE FROM MICROSERVICE WHERE ID = ?";
+    private static final String SELECT_ID_LIST = "SELECT ID FROM MICROSERVICE ORDER BY ID";
+    private static final String SELECT_CONFIGURATION = "SELECT CONFIGURATION FROM MICROSERVICE WHERE ID = ?";
+    private static final String SELECT_STAMP = "SELECT STAMP FROM MICROSERVICE WHERE ID = ?";
+    private static final String COUNT = "SELECT COUNT(*) FROM MICROSERVICE";
+    private static final String SELECT_SUMMARY = "SELECT ID, NAME, DESCRIPTION, IS_PUBLIC, MORE_INFOS FROM MICROSERVICE";
+    //Json.create* look up the JsonProvider and allocate new buffers at every call: the factories are created once
+    private static final JsonReaderFactory jsonReaderFactory = Json.createReaderFactory(null);
+    private static final JsonBuilderFactory jsonBuilderFactory = Json.createBuilderFactory(null);
+
+    private final JdbcConnectionPool connectionPool;
+
+    /**
+     * @param jdbcUrl The H2 database url, for example jdbc:h2:/opt/msc-data/microservices-db
+     * @param user The database user
+     * @param password The database password
+     * @param maxConnections The maximum number of pooled connections
+     * @throws Exception in case the database can not be opened or initialized
+     */
+    public H2Store(String jdbcUrl, String user, String password, int maxConnections) throws Exception {
+        if(jdbcUrl == null || jdbcUrl.isEmpty())
+            throw new Exception("The H2 database url is not provided");
+        connectionPool = JdbcConnectionPool.create(jdbcUrl, user == null ? "" : user, password == null ? "" : password);
+        connectionPool.setMaxConnections(maxConnections > 0 ? maxConnections : 10);
+        try (Connection connection = connectionPool.getConnection()) {
+            try (Statement statement = connection.createStatement()) {
+                statement.execute(CREATE_TABLE);
+                for(String addSummaryColumn : ADD_SUMMARY_COLUMN_LIST)
+                    statement.execute(addSummaryColumn);
+                for(String createIndex : CREATE_INDEX_LIST)
+                    statement.execute(createIndex);
+            }
+            fillMissingSummaries(connection);
+        } catch(Exception ex) {
+            connectionPool.dispose();
+            throw ex;
+        }
+    }
+
+    /**
+     * Close all the pooled connections<br>
+     */
+    public void close() {
+        connectionPool.dispose();
+    }
+
+    @Override
+    public String saveMicroserviceConfiguration(JsonObject microserviceConfiguration) throws Exception {
+        String microserviceId = UUID.randomUUID().toString();
+        write(microserviceId, microserviceConfiguration);
+        return microserviceId;
+    }
+
+    @Override
+    public void updateMicroserviceConfiguration(String microserviceId, JsonObject microserviceConfiguration) throws Exception {
+        //like the FileBasedStore, updating a missing configuration create it
+        write(microserviceId, microserviceConfiguration);
+    }
+
+    @Override
+    public void deleteMicroserviceConfiguration(String microserviceId) throws Exception {
+        try (Connection connection = connectionPool.getConnection()) {
+            try (PreparedStatement statement = connection.prepareStatement(DELETE)) {
+                statement.setString(1, microserviceId);
+                if(statement.executeUpdate() == 0)
+                    throw new Exception("Impossible to find the configuration for the microservice Id " + microserviceId);
+            }
+        }
+    }
+
+    @Override
+    public List<String> retrieveAllMicroservicesId() throws Exception {
+        List<String> ret = new ArrayList<String>();
+        try (Connection connection = connectionPool.getConnection()) {
+            try (PreparedStatement statement = connection.prepareStatement(SELECT_ID_LIST)) {
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while(resultSet.next())
+                        ret.add(resultSet.getString(1));
+                }
+            }
+        }
+        return ret;
+    }
+
+    @Override
+    public JsonObject retrieveMicroserviceConfiguration(String microserviceId) throws Exception {
+        String configuration = null;
+        try (Connection connection = connectionPool.getConnection()) {
+            try (PreparedStatement statement = connection.prepareStatement(SELECT_CONFIGURATION)) {
+                statement.setString(1, microserviceId);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    if(resultSet.next())
+                        configuration = resultSet.getString(1);
+                }
+            }
+        }
+        if(configuration == null)
+            throw new Exception("Impossible to retrive the configuration for the service " + microserviceId);
+        return jsonReaderFactory.createReader(new StringReader(configuration)).readObject();
+    }
+
+    @Override
+    public boolean existMicroserviceConfiguration(String microserviceId) throws Exception {
+        return getMicroserviceConfigurationStamp(microserviceId) != -1;
+    }
+
+    @Override
+    public long getMicroserviceConfigurationStamp(String microserviceId) throws Exception {
+        try (Connection connection = connectionPool.getConnection()) {
+            try (PreparedStatement statement = connection.prepareStatement(SELECT_STAMP)) {
+                statement.setString(1, microserviceId);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    return resultSet.next() ? resultSet.getLong(1) : -1;
+                }
+            }
+        }
+    }
+
+    /**
+     * Return a page of the microservice summaries, filtered, sorted and paged by the database through the indexed summary columns<br>
+     */
+    @Override
+    public JsonObject retrieveMicroserviceSummaryPage(Boolean publicFilter, String sortBy, boolean descending, int offset, int limit) throws Exception {
+        if(sortBy == null || sortBy.isEmpty())
+            sortBy = "id";
+        String sortColumn;
+        if(sortBy.equals("id"))
+            sortColumn = "ID";
+        else if(sortBy.equals("name"))
+            sortColumn = "NAME";
+        else if(sortBy.equals("description"))
+            sortColumn = "DESCRIPTION";
+        else
+            throw new Exception("Unsupported sorting key " + sortBy + ". Allowed values: id, name, description");
+        if(offset < 0)
+            throw new Exception("offset can not be negative");
+        String where = publicFilter == null ? "" : " WHERE IS_PUBLIC = ?";
+        String direction = descending ? " DESC" : "";
+        //the ties are sorted by id, in the same direction, as the MicroserviceSummaryIndex
+        String orderBy = " ORDER BY " + sortColumn + direction + (sortColumn.equals("ID") ? "" : ", ID" + direction);
+        //H2 read the page in the order of MICROSERVICE_PUBLIC_IDX only when the filtered column is part of the order, otherwise it sort all the filtered rows
+        if(publicFilter != null && sortColumn.equals("NAME"))
+            orderBy = " ORDER BY IS_PUBLIC" + direction + ", NAME" + direction + ", ID" + direction;
+        String page = " OFFSET ? ROWS" + (limit > 0 ? " FETCH NEXT ? ROWS ONLY" : "");
+        int total;
+        JsonArrayBuilder pageBuilder = jsonBuilderFactory.createArrayBuilder();
+        try (Connection connection = connectionPool.getConnection()) {
+            try (PreparedStatement statement = connection.prepareStatement(COUNT + where)) {
+                if(publicFilter != null)
+                    statement.setBoolean(1, publicFilter);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    resultSet.next();
+                    total = resultSet.getInt(1);
+                }
+            }
+            try (PreparedStatement statement = connection.prepareStatement(SELECT_SUMMARY + where + orderBy + page)) {
+                int parameterIndex = 1;
+                if(publicFilter != null)
+                    statement.setBoolean(parameterIndex++, publicFilter);
+                statement.setInt(parameterIndex++, offset);
+                if(limit > 0)
+                    statement.setInt(parameterIndex++, limit);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while(resultSet.next()) {
+                        String moreInfos = resultSet.getString(5);
+                        pageBuilder.add(jsonBuilderFactory.createObjectBuilder()
+                            .add("id", resultSet.getString(1))
+                            .add("name", resultSet.getString(2))
+                            .add("description", resultSet.getString(3))
+                            .add("public", resultSet.getBoolean(4))
+                            .add("moreInfos", moreInfos == null ? JsonValue.EMPTY_JSON_OBJECT : jsonReaderFactory.createReader(new StringReader(moreInfos)).readObject())
+                        );
+                    }
+                }
+            }
+        }
+        return jsonBuilderFactory.createObjectBuilder()
+            .add("total", total)
+            .add("offset", offset)
+            .add("limit", limit)
+            .add("microserviceList", pageBuilder)
+            .build();
+    }
+
+    /**
+     * Return the number of stored configurations<br>
+     */
+    public int countMicroserviceConfigurations() throws Exception {
+        try (Connection connection = connectionPool.getConnection()) {
+            try (PreparedStatement statement = connection.prepareStatement(COUNT)) {
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    resultSet.next();
+                    return resultSet.getInt(1);
+                }
+            }
+        }
+    }
+
+    /**
+     * Import in this store all the &lt;microserviceId&gt;.json configurations of a {@link FileBasedStore} folder, keeping their ids<br>
+     * The configurations already present are overwritten. The import is done in a single transaction.<br>
+     * @param folder The folder of the configurations
+     * @return int The number of imported configurations
+     * @throws Exception in case a configuration can not be read or stored. In this case nothing is imported
+     */
+    public int importFolder(String folder) throws Exception {
+        File[] fileList = new File(folder).listFiles();
+        if(fileList == null)
+            throw new Exception("Impossible to read the folder " + folder);
+        int imported = 0;
+        try (Connection connection = connectionPool.getConnection()) {
+            connection.setAutoCommit(false);
+            try (PreparedStatement updateStatement = connection.prepareStatement(UPDATE); PreparedStatement insertStatement = connection.prepareStatement(INSERT)) {
+                for(File file : fileList) {
+                    String fileName = file.getName();
+                    if(!file.isFile() || !fileName.toLowerCase().endsWith(".json"))
+                        continue;
+                    String microserviceId = fileName.substring(0, fileName.length()-5);
+                    JsonObject microserviceConfiguration;
+                    try {
+                        microserviceConfiguration = Json.createReader(new StringReader(new String(Utils.readFile(file), "UTF-8"))).readObject();
+                    } catch(Exception ex) {
+                        throw new Exception("Impossible to read the configuration " + file.getAbsolutePath() + ": " + ex.getMessage(), ex);
+                    }
+                    write(updateStatement, insertStatement, microserviceId, microserviceConfiguration);
+                    imported++;
+                }
+                connection.commit();
+            } catch(Exception ex) {
+                connection.rollback();
+                throw ex;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        }
+        LogManager.unique().log(LogLevel.INFO, "Imported " + imported + " microservice configurations from " + folder, null);
+        return imported;
+    }
+
+    private void write(String microserviceId, JsonObject microserviceConfiguration) throws Exception {
+        try (Connection connection = connectionPool.getConnection()) {
+            connection.setAutoCommit(false);
+            try (PreparedStatement updateStatement = connection.prepareStatement(UPDATE); PreparedStatement insertStatement = connection.prepareStatement(INSERT)) {
+                write(updateStatement, insertStatement, microserviceId, microserviceConfiguration);
+                connection.commit();
+            } catch(Exception ex) {
+                connection.rollback();
+                throw ex;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        }
+    }
+
+    //update the row incrementing its stamp, or insert it with stamp 1 when missing. Must be called in a transaction
+    private static void write(PreparedStatement updateStatement, PreparedStatement insertStatement, String microserviceId, JsonObject microserviceConfiguration) throws Exception {
+        setWriteParameters(updateStatement, microserviceId, microserviceConfiguration);
+        if(updateStatement.executeUpdate() != 0)
+            return;
+        setWriteParameters(insertStatement, microserviceId, microserviceConfiguration);
+        try {
+            insertStatement.executeUpdate();
+        } catch(SQLException ex) {
+            //the row has been inserted by a concurrent write after the update: now the update finds it
+            if(ex.getErrorCode() != ErrorCode.DUPLICATE_KEY_1 || updateStatement.executeUpdate() == 0)
+                throw ex;
+        }
+    }
+
+    private static void setWriteParameters(PreparedStatement statement, String microserviceId, JsonObject microserviceConfiguration) throws Exception {
+        setSummaryParameters(statement, microserviceConfiguration);
+        statement.setString(5, microserviceConfiguration.toString());
+        statement.setString(6, microserviceId);
+    }
+
+    private static void setSummaryParameters(PreparedStatement statement, JsonObject microserviceConfiguration) throws Exception {
+        JsonObject moreInfos = microserviceConfiguration.getJsonObject("moreInfos");
+        statement.setString(1, microserviceConfiguration.getString("name", ""));
+        statement.setString(2, microserviceConfiguration.getString("description", ""));
+        statement.setBoolean(3, microserviceConfiguration.getBoolean("public", false));
+        statement.setString(4, moreInfos == null ? "{}" : moreInfos.toString());
+    }
+
+    //fill the summary columns of the rows written before they existed
+    private static void fillMissingSummaries(Connection connection) throws Exception {
+        int filled = 0;
+        connection.setAutoCommit(false);
+        try (PreparedStatement selectStatement = connection.prepareStatement(SELECT_MISSING_SUMMARY); PreparedStatement updateStatement = connection.prepareStatement(UPDATE_SUMMARY)) {
+            try (ResultSet resultSet = selectStatement.executeQuery()) {
+                while(resultSet.next()) {
+                    setSummaryParameters(updateStatement, Json.createReader(new StringReader(resultSet.getString(2))).readObject());
+                    updateStatement.setString(5, resultSet.getString(1));
+                    updateStatement.addBatch();
+                    filled++;
+                }
+            }
+            updateStatement.executeBatch();
+            connection.commit();
+        } catch(Exception ex) {
+            connection.rollback();
+            throw ex;
+        } finally {
+            connection.setAutoCommit(true);
+        }
+        if(filled != 0)
+            LogManager.unique().log(LogLevel.INFO, "Filled the summary columns of " + filled + " microservice configurations", null);
+    }
+
+    /**
+     * Import the configurations of a microservices-collection folder in an H2 database<br>
+     * Usage: H2Store &lt;microservicesDefinitionFolder&gt; &lt;jdbcUrl&gt; [user] [password]
+     */
+    public static void main(String[] argv) throws Exception {
+        if(argv.length < 2) {
+            System.out.println("Usage: H2Store <microservicesDefinitionFolder> <jdbcUrl> [user] [password]");
+            return;
+        }
+        H2Store h2Store = new H2Store(argv[1], argv.length > 2 ? argv[2] : "", argv.length > 3 ? argv[3] : "", 1);
+        try {
+            System.out.println("Imported configurations: " + h2Store.importFolder(argv[0]));
+        } finally {
+            h2Store.close();
+        }
+    }
+}
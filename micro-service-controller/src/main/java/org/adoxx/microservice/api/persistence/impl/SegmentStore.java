@@ -0,0 +1,669 @@
+package org.adoxx.microservice.api.persistence.impl;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+
+import org.adoxx.microservice.api.log.LogI.LogLevel;
+import org.adoxx.microservice.api.log.LogManager;
+import org.adoxx.microservice.api.persistence.PersistenceI;
+import org.adoxx.microservice.utils.ExecutorManager;
+import org.adoxx.microservice.utils.Utils;
+
+/**
+ * <h1>SegmentStore</h1>
+ * A {@link PersistenceI} that append every write of a configuration, update or delete, as a record at the end of a segment file, instead of rewriting a file for every configuration.<br>
+ * An in memory index keep the position of the records of every microservice and is rebuilt at startup reading sequentially the segments, verifying the CRC of every record. Only the active segment can end with an incomplete record, that is removed; a corrupted record in the other segments stop the opening of the store.<br>
+ * The old records are kept as version history (see {@link #retrieveMicroserviceConfigurationHistory(String)}) until they are removed by the periodic compaction, that rewrite in a single compacted segment the last {@link #maxHistoryVersions} records of every microservice. The deleted microservices are removed by the compaction together with their history.<br>
+ * The records are made durable according to {@link #syncMode}: at every write, with the concurrent writes sharing the same fsync (group commit), periodically, or leaving it to the operating system.<br>
+ * Folder content:
+ * <pre>
+ * compacted-&lt;n&gt;.log : the result of the last compaction, that replace all the segments up to n
+ * segment-&lt;n&gt;.log : the segments written after the compaction, the last one is the active segment
+ * </pre>
+ * Record format: record length (int), CRC32 (int), type (byte), version (long), timestamp (long), id length (short), id (UTF-8), configuration (UTF-8 JSON, empty for the deletes).<br>
+ *
+ * @author Damiano Falcioni
+ */
+public class SegmentStore implements PersistenceI {
+
+    public enum SyncMode {
+        ALWAYS,
+        INTERVAL,
+        NONE
+    }
+
+    public static SyncMode syncMode = SyncMode.ALWAYS;
+    public static int syncIntervalMs = 1000;
+    public static int maxSegmentSizeInMB = 16;
+    public static int maxHistoryVersions = 10;
+    public static int compactionIntervalInSeconds = 600;
+    public static double compactionMinGarbageRatio = 0.5;
+
+    private static final byte TYPE_PUT = 1;
+    private static final byte TYPE_DELETE = 2;
+    //the bytes of the record after the length and the CRC, excluded the id and the configuration
+    private static final int HEADER_SIZE = 1 + 8 + 8 + 2;
+    private static final int MAX_RECORD_SIZE = 256 * 1024 * 1024;
+    private static final Pattern SEGMENT_NAME = Pattern.compile("(segment|compacted)-(\\d+)\\.log");
+
+    private static class Segment {
+        final long id;
+        final boolean compacted;
+        final File file;
+        final FileChannel channel;
+        //written bytes, modified only under the write lock
+        long size;
+
+        Segment(long id, boolean compacted, File file) throws Exception {
+            this.id = id;
+            this.compacted = compacted;
+            this.file = file;
+            this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.size = channel.size();
+        }
+    }
+
+    private static class RecordPointer {
+        final Segment segment;
+        final long offset;
+        final int size;
+        final long version;
+        final long timestamp;
+        final boolean deleted;
+
+        RecordPointer(Segment segment, long offset, int size, long version, long timestamp, boolean deleted) {
+            this.segment = segment;
+            this.offset = offset;
+            this.size = size;
+            this.version = version;
+            this.timestamp = timestamp;
+            this.deleted = deleted;
+        }
+    }
+
+    private static class Record {
+        final byte type;
+        final long version;
+        final long timestamp;
+        final String microserviceId;
+        final String configuration;
+
+        Record(byte type, long version, long timestamp, String microserviceId, String configuration) {
+            this.type = type;
+            this.version = version;
+            this.timestamp = timestamp;
+            this.microserviceId = microserviceId;
+            this.configuration = configuration;
+        }
+    }
+
+    private final String folder;
+    //the write lock is required to append records and to replace the compacted segments, the read lock to read records
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    //the records of every microservice, the last one is the current state
+    private final HashMap<String, ArrayList<RecordPointer>> historyList = new HashMap<String, ArrayList<RecordPointer>>();
+    //the segments in replay order, the last one is the active segment
+    private final ArrayList<Segment> segmentList = new ArrayList<Segment>();
+    private long lastVersion = 0;
+    private long appendedBytes = 0;
+    private final Object syncLock = new Object();
+    private long syncedBytes = 0;
+    //held by the running compaction, so the store is not closed while the segments are copied
+    private final ReentrantLock compactionLock = new ReentrantLock();
+    private boolean closed = false;
+    private ScheduledFuture<?> syncTask = null;
+    private ScheduledFuture<?> compactionTask = null;
+
+    /**
+     * Open the store in the provided folder, rebuilding the index from its segments<br>
+     * @param folder The folder of the segments
+     * @throws Exception in case the segments can not be read
+     */
+    public SegmentStore(String folder) throws Exception {
+        if(folder == null || folder.isEmpty())
+            throw new Exception("The folder of the segment store is not provided");
+        if(!folder.endsWith("/") && !folder.endsWith("\\"))
+            folder += "/";
+        if(!new File(folder).exists())
+            new File(folder).mkdirs();
+        this.folder = folder;
+        open();
+        if(syncMode == SyncMode.INTERVAL && syncIntervalMs > 0)
+            syncTask = ExecutorManager.unique().getScheduledExecutor().scheduleWithFixedDelay(() -> ExecutorManager.unique().getConnectorExecutor().execute(this::syncQuietly), syncIntervalMs, syncIntervalMs, TimeUnit.MILLISECONDS);
+        if(compactionIntervalInSeconds > 0)
+            compactionTask = ExecutorManager.unique().getScheduledExecutor().scheduleWithFixedDelay(() -> ExecutorManager.unique().getConnectorExecutor().execute(this::compactQuietly), compactionIntervalInSeconds, compactionIntervalInSeconds, TimeUnit.SECONDS);
+    }
+
+    public String getFolder() {
+        return folder;
+    }
+
+    /**
+     * Stop the periodic tasks, wait the end of a running compaction, make durable the written records and close the segments<br>
+     */
+    public void close() {
+        if(syncTask != null)
+            syncTask.cancel(false);
+        if(compactionTask != null)
+            compactionTask.cancel(false);
+        compactionLock.lock();
+        try {
+            closed = true;
+            syncQuietly();
+            lock.writeLock().lock();
+            try {
+                for(Segment segment : segmentList)
+                    closeQuietly(segment);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        } finally {
+            compactionLock.unlock();
+        }
+    }
+
+    @Override
+    public String saveMicroserviceConfiguration(JsonObject microserviceConfiguration) throws Exception {
+        String microserviceId = UUID.randomUUID().toString();
+        append(TYPE_PUT, microserviceId, microserviceConfiguration.toString());
+        return microserviceId;
+    }
+
+    @Override
+    public void updateMicroserviceConfiguration(String microserviceId, JsonObject microserviceConfiguration) throws Exception {
+        append(TYPE_PUT, microserviceId, microserviceConfiguration.toString());
+    }
+
+    @Override
+    public void deleteMicroserviceConfiguration(String microserviceId) throws Exception {
+        append(TYPE_DELETE, microserviceId, "");
+    }
+
+    @Override
+    public List<String> retrieveAllMicroservicesId() throws Exception {
+        List<String> ret = new ArrayList<String>();
+        lock.readLock().lock();
+        try {
+            for(Map.Entry<String, ArrayList<RecordPointer>> entry : historyList.entrySet())
+                if(!getLast(entry.getValue()).deleted)
+                    ret.add(entry.getKey());
+        } finally {
+            lock.readLock().unlock();
+        }
+        return ret;
+    }
+
+    @Override
+    public JsonObject retrieveMicroserviceConfiguration(String microserviceId) throws Exception {
+        Record record;
+        lock.readLock().lock();
+        try {
+            ArrayList<RecordPointer> recordList = historyList.get(microserviceId);
+            if(recordList == null || getLast(recordList).deleted)
+                throw new Exception("Impossible to retrive the configuration for the service " + microserviceId);
+            record = read(getLast(recordList));
+        } finally {
+            lock.readLock().unlock();
+        }
+        return Json.createReader(new StringReader(record.configuration)).readObject();
+    }
+
+    @Override
+    public boolean existMicroserviceConfiguration(String microserviceId) throws Exception {
+        return getMicroserviceConfigurationStamp(microserviceId) != -1;
+    }
+
+    @Override
+    public long getMicroserviceConfigurationStamp(String microserviceId) throws Exception {
+        lock.readLock().lock();
+        try {
+            ArrayList<RecordPointer> recordList = historyList.get(microserviceId);
+            if(recordList == null || getLast(recordList).deleted)
+                return -1;
+            return getLast(recordList).version;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Return the versions of a microservice configuration still present in the segments, from the oldest<br>
+     * @param microserviceId The id of the microservice
+     * @return JsonArray An array of JSON objects in the format {"version":1, "timestamp":1234567890, "deleted":false, "configuration":{...}}. The configuration is missing for the deletes
+     * @throws Exception in case a record can not be read
+     */
+    @Override
+    public JsonArray retrieveMicroserviceConfigurationHistory(String microserviceId) throws Exception {
+        List<Record> recordList = new ArrayList<Record>();
+        lock.readLock().lock();
+        try {
+            ArrayList<RecordPointer> pointerList = historyList.get(microserviceId);
+            if(pointerList != null)
+                for(RecordPointer pointer : pointerList)
+                    recordList.add(read(pointer));
+        } finally {
+            lock.readLock().unlock();
+        }
+        JsonArrayBuilder ret = Json.createArrayBuilder();
+        for(Record record : recordList) {
+            JsonObjectBuilder version = Json.createObjectBuilder()
+                .add("version", record.version)
+                .add("timestamp", record.timestamp)
+                .add("deleted", record.type == TYPE_DELETE);
+            if(record.type == TYPE_PUT)
+                version.add("configuration", Json.createReader(new StringReader(record.configuration)).readObject());
+            ret.add(version);
+        }
+        return ret.build();
+    }
+
+    /**
+     * Return the number of stored configurations<br>
+     */
+    public int countMicroserviceConfigurations() throws Exception {
+        return retrieveAllMicroservicesId().size();
+    }
+
+    /**
+     * Import in this store all the &lt;microserviceId&gt;.json configurations of a {@link FileBasedStore} folder, keeping their ids<br>
+     * @param folder The folder of the configurations
+     * @return int The number of imported configurations
+     * @throws Exception in case a configuration can not be read or stored
+     */
+    public int importFolder(String folder) throws Exception {
+        File[] fileList = new File(folder).listFiles();
+        if(fileList == null)
+            throw new Exception("Impossible to read the folder " + folder);
+        int imported = 0;
+        for(File file : fileList) {
+            String fileName = file.getName();
+            if(!file.isFile() || !fileName.toLowerCase().endsWith(".json"))
+                continue;
+            JsonObject microserviceConfiguration;
+            try {
+                microserviceConfiguration = Json.createReader(new StringReader(new String(Utils.readFile(file), "UTF-8"))).readObject();
+            } catch(Exception ex) {
+                throw new Exception("Impossible to read the configuration " + file.getAbsolutePath() + ": " + ex.getMessage(), ex);
+            }
+            appendRecord(TYPE_PUT, fileName.substring(0, fileName.length()-5), microserviceConfiguration.toString());
+            imported++;
+        }
+        sync(Long.MAX_VALUE);
+        LogManager.unique().log(LogLevel.INFO, "Imported " + imported + " microservice configurations from " + folder, null);
+        return imported;
+    }
+
+    /**
+     * Rewrite the records of the closed segments in a single compacted segment, keeping only the last {@link #maxHistoryVersions} records of every microservice<br>
+     * The deletes are kept only while an older record of the same microservice is kept, so a microservice deleted in the closed segments is removed with all its history.<br>
+     * The compaction is performed only when the removed records are at least {@link #compactionMinGarbageRatio} of the closed segments.<br>
+     * @return boolean true if the compaction has been performed, false if it was not required, another compaction is running or the store is closed
+     * @throws Exception in case of error. The segments are not changed in this case
+     */
+    public boolean compact() throws Exception {
+        if(!compactionLock.tryLock())
+            return false;
+        try {
+            if(closed)
+                return false;
+            List<Segment> closedSegmentList;
+            List<RecordPointer> retainedList = new ArrayList<RecordPointer>();
+            long closedBytes = 0;
+            long retainedBytes = 0;
+            lock.readLock().lock();
+            try {
+                closedSegmentList = new ArrayList<Segment>(segmentList.subList(0, segmentList.size()-1));
+                if(closedSegmentList.isEmpty() || (closedSegmentList.size() == 1 && closedSegmentList.get(0).compacted))
+                    return false;
+                for(Segment segment : closedSegmentList)
+                    closedBytes += segment.size;
+                for(ArrayList<RecordPointer> pointerList : historyList.values()) {
+                    if(getLast(pointerList).deleted && closedSegmentList.contains(getLast(pointerList).segment))
+                        continue;
+                    boolean putRetained = false;
+                    for(RecordPointer pointer : pointerList.subList(Math.max(0, pointerList.size() - Math.max(1, maxHistoryVersions)), pointerList.size())) {
+                        //the segments are replayed in order, so a delete without a previous put in the compacted segment hides nothing
+                        if(!closedSegmentList.contains(pointer.segment) || (pointer.deleted && !putRetained))
+                            continue;
+                        retainedList.add(pointer);
+                        retainedBytes += pointer.size;
+                        putRetained |= !pointer.deleted;
+                    }
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+            if(closedBytes == 0 || closedBytes - retainedBytes < closedBytes * compactionMinGarbageRatio)
+                return false;
+
+            //the closed segments are not modified anymore, so they are copied without locks
+            retainedList.sort(Comparator.comparingLong(pointer -> pointer.version));
+            long compactedId = closedSegmentList.get(closedSegmentList.size()-1).id;
+            File tmpFile = new File(folder + "compacted-" + compactedId + ".tmp");
+            IdentityHashMap<RecordPointer, RecordPointer> movedList = new IdentityHashMap<RecordPointer, RecordPointer>();
+            try (FileChannel tmpChannel = FileChannel.open(tmpFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                long position = 0;
+                for(RecordPointer pointer : retainedList) {
+                    ByteBuffer buffer = readBytes(pointer);
+                    while(buffer.hasRemaining())
+                        position += tmpChannel.write(buffer, position);
+                    movedList.put(pointer, null);
+                }
+                tmpChannel.force(true);
+            }
+
+            Segment compactedSegment;
+            lock.writeLock().lock();
+            try {
+                File compactedFile = new File(folder + "compacted-" + compactedId + ".log");
+                Files.move(tmpFile.toPath(), compactedFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                compactedSegment = new Segment(compactedId, true, compactedFile);
+                long offset = 0;
+                for(RecordPointer pointer : retainedList) {
+                    movedList.put(pointer, new RecordPointer(compactedSegment, offset, pointer.size, pointer.version, pointer.timestamp, pointer.deleted));
+                    offset += pointer.size;
+                }
+                for(Iterator<ArrayList<RecordPointer>> iterator = historyList.values().iterator(); iterator.hasNext();) {
+                    ArrayList<RecordPointer> pointerList = iterator.next();
+                    ArrayList<RecordPointer> newPointerList = new ArrayList<RecordPointer>(pointerList.size());
+                    for(RecordPointer pointer : pointerList) {
+                        if(!closedSegmentList.contains(pointer.segment))
+                            newPointerList.add(pointer);
+                        else if(movedList.get(pointer) != null)
+                            newPointerList.add(movedList.get(pointer));
+                    }
+                    if(newPointerList.isEmpty())
+                        iterator.remove();
+                    else {
+                        pointerList.clear();
+                        pointerList.addAll(newPointerList);
+                    }
+                }
+                segmentList.removeAll(closedSegmentList);
+                segmentList.add(0, compactedSegment);
+            } finally {
+                lock.writeLock().unlock();
+            }
+            //the rename must be durable before the replaced segments are deleted
+            syncFolder();
+            //no reader can reference the old segments anymore
+            for(Segment segment : closedSegmentList) {
+                closeQuietly(segment);
+                if(!segment.file.delete())
+                    LogManager.unique().log(LogLevel.WARN, "Impossible to delete the compacted segment " + segment.file.getAbsolutePath() + ": it will be deleted at the next start", null);
+            }
+            LogManager.unique().log(LogLevel.INFO, "Compacted " + closedSegmentList.size() + " segments from " + closedBytes + " to " + retainedBytes + " bytes", null);
+            return true;
+        } finally {
+            compactionLock.unlock();
+        }
+    }
+
+    private void compactQuietly() {
+        try {
+            compact();
+        } catch(Exception ex) {
+            LogManager.unique().log(LogLevel.ERROR, "Error compacting the segment store " + folder, ex);
+        }
+    }
+
+    private void append(byte type, String microserviceId, String configuration) throws Exception {
+        long position = appendRecord(type, microserviceId, configuration);
+        if(syncMode == SyncMode.ALWAYS)
+            sync(position);
+    }
+
+    private long appendRecord(byte type, String microserviceId, String configuration) throws Exception {
+        lock.writeLock().lock();
+        try {
+            //the existence is checked under the same lock of the append, so a microservice is never deleted twice
+            if(type == TYPE_DELETE) {
+                ArrayList<RecordPointer> recordList = historyList.get(microserviceId);
+                if(recordList == null || getLast(recordList).deleted)
+                    throw new Exception("Impossible to find the configuration for the microservice Id " + microserviceId);
+            }
+            Segment activeSegment = getLast(segmentList);
+            if(activeSegment.size >= (long) maxSegmentSizeInMB * 1024 * 1024) {
+                //the closed segments must be durable, the sync only force the active one
+                if(syncMode != SyncMode.NONE)
+                    activeSegment.channel.force(false);
+                activeSegment = new Segment(activeSegment.id + 1, false, new File(folder + "segment-" + (activeSegment.id + 1) + ".log"));
+                segmentList.add(activeSegment);
+            }
+            long version = lastVersion + 1;
+            long timestamp = System.currentTimeMillis();
+            ByteBuffer buffer = encode(type, version, timestamp, microserviceId, configuration);
+            int size = buffer.remaining();
+            long offset = activeSegment.size;
+            while(buffer.hasRemaining())
+                activeSegment.channel.write(buffer, offset + size - buffer.remaining());
+            activeSegment.size += size;
+            lastVersion = version;
+            appendedBytes += size;
+            historyList.computeIfAbsent(microserviceId, key -> new ArrayList<RecordPointer>()).add(new RecordPointer(activeSegment, offset, size, version, timestamp, type == TYPE_DELETE));
+            return appendedBytes;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    //group commit: the writers waiting while another one is forcing the segment are all made durable by the following force
+    private void sync(long position) throws Exception {
+        synchronized(syncLock) {
+            if(syncedBytes >= position)
+                return;
+            Segment activeSegment;
+            long syncPosition;
+            lock.readLock().lock();
+            try {
+                activeSegment = getLast(segmentList);
+                syncPosition = appendedBytes;
+            } finally {
+                lock.readLock().unlock();
+            }
+            if(syncPosition > syncedBytes)
+                activeSegment.channel.force(false);
+            syncedBytes = syncPosition;
+        }
+    }
+
+    private void syncQuietly() {
+        try {
+            sync(Long.MAX_VALUE);
+        } catch(Exception ex) {
+            LogManager.unique().log(LogLevel.ERROR, "Error syncing the segment store " + folder, ex);
+        }
+    }
+
+    private void open() throws Exception {
+        File[] fileList = new File(folder).listFiles();
+        if(fileList == null)
+            throw new Exception("Impossible to read the folder " + folder);
+        long compactedId = -1;
+        for(File file : fileList) {
+            Matcher matcher = SEGMENT_NAME.matcher(file.getName());
+            if(matcher.matches() && matcher.group(1).equals("compacted"))
+                compactedId = Math.max(compactedId, Long.parseLong(matcher.group(2)));
+        }
+        //the files replaced by the last compaction are deleted, in case the compaction has been interrupted
+        TreeMap<Long, File> segmentFileList = new TreeMap<Long, File>();
+        for(File file : fileList) {
+            if(file.getName().endsWith(".tmp")) {
+                file.delete();
+                continue;
+            }
+            Matcher matcher = SEGMENT_NAME.matcher(file.getName());
+            if(!matcher.matches())
+                continue;
+            long id = Long.parseLong(matcher.group(2));
+            boolean compacted = matcher.group(1).equals("compacted");
+            if(compacted ? id < compactedId : id <= compactedId)
+                file.delete();
+            else if(!compacted)
+                segmentFileList.put(id, file);
+        }
+        try {
+            if(compactedId != -1)
+                segmentList.add(load(new Segment(compactedId, true, new File(folder + "compacted-" + compactedId + ".log")), false));
+            int i = 0;
+            for(Map.Entry<Long, File> entry : segmentFileList.entrySet())
+                segmentList.add(load(new Segment(entry.getKey(), false, entry.getValue()), ++i == segmentFileList.size()));
+            if(segmentList.isEmpty() || getLast(segmentList).compacted) {
+                long id = compactedId + 1;
+                segmentList.add(new Segment(id, false, new File(folder + "segment-" + id + ".log")));
+            }
+        } catch(Exception ex) {
+            for(Segment segment : segmentList)
+                closeQuietly(segment);
+            throw ex;
+        }
+        appendedBytes = 0;
+        syncedBytes = 0;
+    }
+
+    //read sequentially the records of a segment verifying their CRC. Only the last segment, where a write could have been interrupted, is truncated to its last valid record
+    private Segment load(Segment segment, boolean last) throws Exception {
+        long offset = 0;
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(segment.file), 64 * 1024))) {
+            while(offset < segment.size) {
+                int length = input.readInt();
+                int crc = input.readInt();
+                if(length < HEADER_SIZE || length > MAX_RECORD_SIZE || offset + 8 + length > segment.size)
+                    throw new EOFException();
+                byte[] body = new byte[length];
+                input.readFully(body);
+                CRC32 crc32 = new CRC32();
+                crc32.update(body);
+                if((int) crc32.getValue() != crc)
+                    throw new EOFException();
+                ByteBuffer bodyBuffer = ByteBuffer.wrap(body);
+                byte type = bodyBuffer.get();
+                long version = bodyBuffer.getLong();
+                long timestamp = bodyBuffer.getLong();
+                int idLength = bodyBuffer.getShort() & 0xFFFF;
+                if((type != TYPE_PUT && type != TYPE_DELETE) || idLength > bodyBuffer.remaining())
+                    throw new EOFException();
+                byte[] idBytes = new byte[idLength];
+                bodyBuffer.get(idBytes);
+                String microserviceId = new String(idBytes, StandardCharsets.UTF_8);
+                int size = 8 + length;
+                historyList.computeIfAbsent(microserviceId, key -> new ArrayList<RecordPointer>()).add(new RecordPointer(segment, offset, size, version, timestamp, type == TYPE_DELETE));
+                lastVersion = Math.max(lastVersion, version);
+                offset += size;
+            }
+        } catch(EOFException ex) {
+            //the records after a corruption of a closed segment are committed: they are never removed
+            if(!last)
+                throw new Exception("The segment " + segment.file.getAbsolutePath() + " is corrupted at " + offset + " bytes: the store can not be opened");
+            LogManager.unique().log(LogLevel.WARN, "The segment " + segment.file.getAbsolutePath() + " is truncated at " + offset + " bytes: the incomplete record is removed", null);
+            segment.channel.truncate(offset);
+            segment.channel.force(true);
+            segment.size = offset;
+        }
+        return segment;
+    }
+
+    private void syncFolder() {
+        try (FileChannel folderChannel = FileChannel.open(new File(folder).toPath(), StandardOpenOption.READ)) {
+            folderChannel.force(true);
+        } catch(IOException ex) {
+            //some platforms, as Windows, can not open a folder: there the rename is made durable by the file system
+            LogManager.unique().log(LogLevel.DEBUG, "Impossible to sync the folder " + folder, ex);
+        }
+    }
+
+    private Record read(RecordPointer pointer) throws Exception {
+        ByteBuffer buffer = readBytes(pointer);
+        int length = buffer.getInt();
+        int crc = buffer.getInt();
+        CRC32 crc32 = new CRC32();
+        crc32.update(buffer.array(), 8, length);
+        if((int) crc32.getValue() != crc)
+            throw new Exception("The record at " + pointer.offset + " of the segment " + pointer.segment.file.getAbsolutePath() + " is corrupted");
+        byte type = buffer.get();
+        long version = buffer.getLong();
+        long timestamp = buffer.getLong();
+        byte[] idBytes = new byte[buffer.getShort() & 0xFFFF];
+        buffer.get(idBytes);
+        String configuration = new String(buffer.array(), buffer.position(), buffer.remaining(), StandardCharsets.UTF_8);
+        return new Record(type, version, timestamp, new String(idBytes, StandardCharsets.UTF_8), configuration);
+    }
+
+    private static ByteBuffer readBytes(RecordPointer pointer) throws Exception {
+        ByteBuffer buffer = ByteBuffer.allocate(pointer.size);
+        while(buffer.hasRemaining())
+            if(pointer.segment.channel.read(buffer, pointer.offset + buffer.position()) < 0)
+                throw new Exception("The record at " + pointer.offset + " of the segment " + pointer.segment.file.getAbsolutePath() + " is truncated");
+        buffer.flip();
+        return buffer;
+    }
+
+    private static ByteBuffer encode(byte type, long version, long timestamp, String microserviceId, String configuration) throws Exception {
+        byte[] idBytes = microserviceId.getBytes(StandardCharsets.UTF_8);
+        byte[] configurationBytes = configuration.getBytes(StandardCharsets.UTF_8);
+        if(idBytes.length > 0xFFFF)
+            throw new Exception("The microservice id is too long");
+        int length = HEADER_SIZE + idBytes.length + configurationBytes.length;
+        if(length > MAX_RECORD_SIZE)
+            throw new Exception("The configuration of the microservice " + microserviceId + " is too big");
+        ByteBuffer buffer = ByteBuffer.allocate(8 + length);
+        buffer.putInt(length);
+        buffer.putInt(0);
+        buffer.put(type);
+        buffer.putLong(version);
+        buffer.putLong(timestamp);
+        buffer.putShort((short) idBytes.length);
+        buffer.put(idBytes);
+        buffer.put(configurationBytes);
+        CRC32 crc32 = new CRC32();
+        crc32.update(buffer.array(), 8, length);
+        buffer.putInt(4, (int) crc32.getValue());
+        buffer.flip();
+        return buffer;
+    }
+
+    private static <T> T getLast(List<T> list) {
+        return list.get(list.size()-1);
+    }
+
+    private static void closeQuietly(Segment segment) {
+        try {
+            segment.channel.close();
+        } catch(Exception ex) {
+            LogManager.unique().log(LogLevel.WARN, "Impossible to close the segment " + segment.file.getAbsolutePath(), ex);
+        }
+    }
+}
@@ -0,0 +1,326 @@
+package org.adoxx.microservice.utils;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+
+import org.adoxx.microservice.api.log.LogI.LogLevel;
+import org.adoxx.microservice.api.log.LogManager;
+
+/**
+ * <h1>ExecutorManager</h1>
+ * Holds the shared executors used by the microservice runtime instead of creating raw Threads for each task.<br>
+ * The connector executor is unbounded because asynchronous connectors keep their task blocked for the whole life of the instance.
+ * When the JVM support them (Java 21+) virtual threads are used, otherwise a cached pool of daemon threads.<br>
+ *
+ * @author Damiano Falcioni
+ */
+public class ExecutorManager {
+
+    public static boolean useVirtualThreads = true;
+    public static int asyncDispatcherWorkers = Math.max(2, Runtime.getRuntime().availableProcessors());
+    public static int scriptWorkers = Math.max(8, 4 * Runtime.getRuntime().availableProcessors());
+    public static int maxAbandonedScriptWorkers = 8;
+    public static int asyncCallWorkers = 200;
+    public static int asyncCallMaxQueuedCalls = 1000;
+    public static int shutdownTimeoutInSeconds = 10;
+
+    private static ExecutorManager uniqueExecutorManager = null;
+
+    static {
+        uniqueExecutorManager = new ExecutorManager();
+    }
+
+    public static ExecutorManager unique() {
+        return uniqueExecutorManager;
+    }
+
+    private ExecutorService connectorExecutor = null;
+    private ExecutorService asyncDispatcherExecutor = null;
+    private ExecutorService callExecutor = null;
+    private ThreadPoolExecutor asyncCallExecutor = null;
+    private final LongAdder asyncCallRejected = new LongAdder();
+    private ThreadPoolExecutor scriptExecutor = null;
+    private int abandonedScriptWorkers = 0;
+    private final LongAdder rejectedScriptEvaluations = new LongAdder();
+    private ScheduledExecutorService scheduledExecutor = null;
+    //after the shutdown no executor is created anymore, so the late tasks of an undeploy can not leak threads
+    private boolean isShutdown = false;
+    private final LongAdder connectorStartCount = new LongAdder();
+    private final LongAdder connectorStartLatencyNanos = new LongAdder();
+    private final AtomicLong connectorStartMaxLatencyNanos = new AtomicLong(0);
+
+    /**
+     * Return the executor used to run the {@link org.adoxx.microservice.api.connectors.SyncConnectorA#start(javax.json.JsonObject)} of the connector instances.<br>
+     * The executor is created on the first request.<br>
+     * @return ExecutorService The shared connector executor
+     */
+    public synchronized ExecutorService getConnectorExecutor() {
+        checkNotShutdown();
+        if(connectorExecutor == null || connectorExecutor.isShutdown())
+            connectorExecutor = newUnboundedExecutor("msc-connector-");
+        return connectorExecutor;
+    }
+
+    /**
+     * Return the bounded executor used by the {@link org.adoxx.microservice.api.connectors.AsyncResponseDispatcher} to handle the asynchronous responses of the connectors.<br>
+     * The executor use {@link #asyncDispatcherWorkers} threads and is created on the first request.<br>
+     * @return ExecutorService The shared asynchronous responses executor
+     */
+    public synchronized ExecutorService getAsyncDispatcherExecutor() {
+        checkNotShutdown();
+        if(asyncDispatcherExecutor == null || asyncDispatcherExecutor.isShutdown())
+            asyncDispatcherExecutor = Executors.newFixedThreadPool(Math.max(1, asyncDispatcherWorkers), newDaemonThreadFactory("msc-async-dispatcher-"));
+        return asyncDispatcherExecutor;
+    }
+    
+    /**
+     * Return the executor used to run the calls started by other calls, like the items of {@link org.adoxx.microservice.api.MicroserviceController#callMicroserviceBatch(String, String, java.util.List)}, and the internal tasks of the runtime.<br>
+     * The executor is unbounded like the connector one, so calls that wait for other asynchronous calls (fan-out) can not starve it. The executor is created on the first request.<br>
+     * @return ExecutorService The shared call executor
+     */
+    public synchronized ExecutorService getCallExecutor() {
+        checkNotShutdown();
+        if(callExecutor == null || callExecutor.isShutdown())
+            callExecutor = newUnboundedExecutor("msc-call-");
+        return callExecutor;
+    }
+    
+    /**
+     * Return the bounded executor used to run the asynchronous calls requested from outside the runtime, like the REST calls, with {@link #asyncCallWorkers} threads and at most {@link #asyncCallMaxQueuedCalls} calls waiting.<br>
+     * When all the threads are busy and the queue is full a {@link RejectedExecutionException} is thrown, so a burst of slow calls is rejected instead of starting an unbounded number of threads.
+     * The calls started by other calls (fan-out) must use {@link #getCallExecutor()}, that can not be exhausted by the calls waiting for them. The executor is created on the first request.<br>
+     * @return ExecutorService The shared asynchronous call executor
+     */
+    public synchronized ExecutorService getAsyncCallExecutor() {
+        checkNotShutdown();
+        if(asyncCallExecutor == null || asyncCallExecutor.isShutdown()) {
+            int workers = Math.max(1, asyncCallWorkers);
+            asyncCallExecutor = new ThreadPoolExecutor(workers, workers, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(Math.max(1, asyncCallMaxQueuedCalls)), newDaemonThreadFactory("msc-async-call-"), (runnable, executor) -> {
+                asyncCallRejected.increment();
+                throw new RejectedExecutionException("Too many calls in execution: " + executor.getActiveCount() + " running and " + executor.getQueue().size() + " waiting. Retry later");
+            });
+            asyncCallExecutor.allowCoreThreadTimeOut(true);
+        }
+        return asyncCallExecutor;
+    }
+    
+    /**
+     * Return the bounded executor used to evaluate the javascript algorithms, with {@link #scriptWorkers} threads.<br>
+     * Platform threads are always used, because a runaway script can be stopped only on them. The executor is created on the first request.<br>
+     * When {@link #maxAbandonedScriptWorkers} workers are left to scripts that can not be stopped, no new evaluation is accepted until some of them terminate.<br>
+     * @return ExecutorService The shared script executor
+     * @throws RejectedExecutionException when too many workers are left to scripts that can not be stopped
+     */
+    public synchronized ExecutorService getScriptExecutor() {
+        checkNotShutdown();
+        if(abandonedScriptWorkers >= Math.max(0, maxAbandonedScriptWorkers)) {
+            rejectedScriptEvaluations.increment();
+            throw new RejectedExecutionException("Too many javascript evaluations that can not be stopped are still running (" + abandonedScriptWorkers + "): new evaluations are rejected until they terminate");
+        }
+        if(scriptExecutor == null || scriptExecutor.isShutdown()) {
+            int workers = Math.max(1, scriptWorkers) + abandonedScriptWorkers;
+            scriptExecutor = new ThreadPoolExecutor(workers, workers, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(), newDaemonThreadFactory("msc-script-"));
+        }
+        return scriptExecutor;
+    }
+    
+    /**
+     * Add a worker to the script executor in place of one that is left to a script that can not be stopped, so the executor keeps {@link #scriptWorkers} threads available.
+     * At most {@link #maxAbandonedScriptWorkers} workers are added, after that the new evaluations are rejected.<br>
+     * Every call must be followed by {@link #releaseScriptWorker()} when the script terminates.<br>
+     */
+    public synchronized void replaceScriptWorker() {
+        abandonedScriptWorkers++;
+        resizeScriptExecutor();
+    }
+    
+    /**
+     * Remove the worker added by {@link #replaceScriptWorker()}, when the abandoned script terminates by itself.<br>
+     */
+    public synchronized void releaseScriptWorker() {
+        if(abandonedScriptWorkers == 0)
+            return;
+        abandonedScriptWorkers--;
+        resizeScriptExecutor();
+    }
+    
+    private void resizeScriptExecutor() {
+        if(scriptExecutor == null || scriptExecutor.isShutdown())
+            return;
+        int workers = Math.max(1, scriptWorkers) + Math.min(abandonedScriptWorkers, Math.max(0, maxAbandonedScriptWorkers));
+        //the core size can never exceed the maximum size
+        if(workers > scriptExecutor.getMaximumPoolSize()) {
+            scriptExecutor.setMaximumPoolSize(workers);
+            scriptExecutor.setCorePoolSize(workers);
+        } else {
+            scriptExecutor.setCorePoolSize(workers);
+            scriptExecutor.setMaximumPoolSize(workers);
+        }
+    }
+    
+    /**
+     * Return the single threaded executor used for the periodic maintenance tasks of the runtime, like the eviction of the idle connector instances.<br>
+     * The tasks must be short: long running work must be submitted to the other executors.<br>
+     * @return ScheduledExecutorService The shared scheduled executor
+     */
+    public synchronized ScheduledExecutorService getScheduledExecutor() {
+        checkNotShutdown();
+        if(scheduledExecutor == null || scheduledExecutor.isShutdown()) {
+            ScheduledThreadPoolExecutor singleThreadScheduledExecutor = new ScheduledThreadPoolExecutor(1, newDaemonThreadFactory("msc-scheduler-"));
+            //the timers of the calls completed before their deadline are cancelled and must not stay in the queue
+            singleThreadScheduledExecutor.setRemoveOnCancelPolicy(true);
+            scheduledExecutor = singleThreadScheduledExecutor;
+        }
+        return scheduledExecutor;
+    }
+    
+    /**
+     * Return true if the current JVM is able to create virtual threads and their usage is enabled.<br>
+     * @return boolean true if virtual threads are used
+     */
+    public static boolean isVirtualThreadsUsed() {
+        return useVirtualThreads && getVirtualThreadExecutorFactory() != null;
+    }
+
+    /**
+     * Record the time elapsed between the start request of a connector instance and its readiness, see {@link org.adoxx.microservice.api.connectors.SyncConnectorA#getThreadStartLatencyNanos()}<br>
+     * @param latencyNanos The start to ready latency in nanoseconds
+     */
+    public void recordConnectorStartLatency(long latencyNanos) {
+        connectorStartCount.increment();
+        connectorStartLatencyNanos.add(latencyNanos);
+        connectorStartMaxLatencyNanos.accumulateAndGet(latencyNanos, Math::max);
+    }
+
+    /**
+     * Return the status of the executors and the start latency of the connector instances<br>
+     * @return JsonObject A JSON object of this format:
+     * <pre>
+     * {
+     *     "shutdown" : false,
+     *     "virtualThreads" : true,
+     *     "asyncCalls" : {
+     *         "workers" : 200,
+     *         "maxQueuedCalls" : 1000,
+     *         "activeCalls" : number of calls in execution,
+     *         "queuedCalls" : number of calls waiting for a thread,
+     *         "rejectedCalls" : number of calls rejected because the queue was full
+     *     },
+     *     "scriptWorkers" : {
+     *         "workers" : 16,
+     *         "abandonedWorkers" : number of script workers left to scripts that can not be stopped,
+     *         "maxAbandonedWorkers" : 8,
+     *         "exhausted" : true when the new evaluations are rejected because too many workers are abandoned,
+     *         "rejectedEvaluations" : number of evaluations rejected because too many workers were abandoned
+     *     },
+     *     "connectorStart" : {
+     *         "count" : number of connector instances started,
+     *         "averageLatencyMs" : average time between the start request and the readiness,
+     *         "maxLatencyMs" : maximum time between the start request and the readiness
+     *     }
+     * }
+     * </pre>
+     */
+    public synchronized JsonObject getStatus() {
+        long startCount = connectorStartCount.sum();
+        return Json.createObjectBuilder()
+            .add("shutdown", isShutdown)
+            .add("virtualThreads", isVirtualThreadsUsed())
+            .add("asyncCalls", Json.createObjectBuilder()
+                .add("workers", asyncCallWorkers)
+                .add("maxQueuedCalls", asyncCallMaxQueuedCalls)
+                .add("activeCalls", asyncCallExecutor == null ? 0 : asyncCallExecutor.getActiveCount())
+                .add("queuedCalls", asyncCallExecutor == null ? 0 : asyncCallExecutor.getQueue().size())
+                .add("rejectedCalls", asyncCallRejected.sum()))
+            .add("scriptWorkers", Json.createObjectBuilder()
+                .add("workers", scriptWorkers)
+                .add("abandonedWorkers", abandonedScriptWorkers)
+                .add("maxAbandonedWorkers", maxAbandonedScriptWorkers)
+                .add("exhausted", abandonedScriptWorkers >= Math.max(0, maxAbandonedScriptWorkers))
+                .add("rejectedEvaluations", rejectedScriptEvaluations.sum()))
+            .add("connectorStart", Json.createObjectBuilder()
+                .add("count", startCount)
+                .add("averageLatencyMs", startCount == 0 ? 0 : connectorStartLatencyNanos.sum() / startCount / 1000000.0)
+                .add("maxLatencyMs", connectorStartMaxLatencyNanos.get() / 1000000.0))
+            .build();
+    }
+
+    /**
+     * Shutdown all the created executors waiting at most {@link #shutdownTimeoutInSeconds} for the running tasks to complete.<br>
+     * After the shutdown the executors are not created anymore and their getters throw a {@link RejectedExecutionException}.<br>
+     */
+    public synchronized void shutdown() {
+        isShutdown = true;
+        connectorExecutor = shutdownExecutor(connectorExecutor);
+        callExecutor = shutdownExecutor(callExecutor);
+        asyncCallExecutor = (ThreadPoolExecutor) shutdownExecutor(asyncCallExecutor);
+        scriptExecutor = (ThreadPoolExecutor) shutdownExecutor(scriptExecutor);
+        asyncDispatcherExecutor = shutdownExecutor(asyncDispatcherExecutor);
+        scheduledExecutor = (ScheduledExecutorService) shutdownExecutor(scheduledExecutor);
+    }
+
+    private void checkNotShutdown() {
+        if(isShutdown)
+            throw new RejectedExecutionException("The executors of the microservice runtime have been shut down");
+    }
+
+    static ExecutorService shutdownExecutor(ExecutorService executor) {
+        if(executor == null) return null;
+        executor.shutdown();
+        try {
+            if(!executor.awaitTermination(shutdownTimeoutInSeconds, TimeUnit.SECONDS))
+                executor.shutdownNow();
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        return null;
+    }
+
+    static ExecutorService newUnboundedExecutor(String threadNamePrefix) {
+        if(useVirtualThreads) {
+            Method virtualThreadExecutorFactory = getVirtualThreadExecutorFactory();
+            if(virtualThreadExecutorFactory != null) {
+                try {
+                    return (ExecutorService) virtualThreadExecutorFactory.invoke(null);
+                } catch (Exception e) {
+                    LogManager.unique().log(LogLevel.WARN, "Impossible to create a virtual thread executor, falling back to a cached thread pool", e);
+                }
+            }
+        }
+        return Executors.newCachedThreadPool(newDaemonThreadFactory(threadNamePrefix));
+    }
+
+    static ThreadFactory newDaemonThreadFactory(String threadNamePrefix) {
+        AtomicInteger threadCount = new AtomicInteger(0);
+        return new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, threadNamePrefix + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    private static Method getVirtualThreadExecutorFactory() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,277 @@
+package org.adoxx.microservice.utils;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+
+import org.adoxx.microservice.api.log.LogI.LogLevel;
+import org.adoxx.microservice.api.log.LogManager;
+import org.graalvm.polyglot.Context;
+import org.graalvm.polyglot.Engine;
+import org.graalvm.polyglot.HostAccess;
+import org.graalvm.polyglot.Source;
+import org.graalvm.polyglot.Value;
+
+/**
+ * <h1>GraalJSEngineProvider</h1>
+ * A {@link ScriptEngineProviderI} evaluating the scripts with GraalJS. The GraalJS libraries (org.graalvm.js:js and org.graalvm.sdk:graal-sdk) are optional dependencies and must be added to the classpath in order to use this provider.<br>
+ * All the contexts share a single polyglot Engine, so the code of the initialization scripts, of the algorithms and of the remote libraries is parsed and optimized once and reused by all the evaluations.<br>
+ * A context can not be reset to a fresh global object, so every context is used by a single evaluation and then closed. In order to keep the creation of the contexts out of the evaluations, a pool of up to {@link #maxIdleContextsPerPolicy} contexts is kept ready for every host class lookup policy and refilled in background.<br>
+ * The contexts are created in Nashorn compatibility mode and with the javascript prototypes for the Java objects, so the algorithms written for Nashorn can run unchanged in most of the cases. The JSON values are exchanged through the {@link GraalJsonScriptBridge}.<br>
+ * The contexts have no access to the file system and the scripts can use only the Java members explicitly exported with {@link HostAccess.Export}, the functions provided as parameters and the classes allowed by the same class filter policy of the {@link NashornEngineProvider}.<br>
+ * On a JVM without the Graal compiler GraalJS run only in interpreted mode, that is slower than Nashorn: the provider should be used on GraalVM or with the Graal compiler enabled.<br>
+ *
+ * @author Damiano Falcioni
+ */
+public class GraalJSEngineProvider implements ScriptEngineProviderI {
+
+    public static int maxIdleContextsPerPolicy = 8;
+
+    private final Engine engine;
+    private final Source polyfillSource;
+    private final Source disableCriticalFunctionsSource;
+    private final Source disableLoadFunctionsSource;
+    private final Source libraryLoadSource;
+
+    private ConcurrentHashMap<String, ConcurrentLinkedDeque<Context>> idleContextList = new ConcurrentHashMap<String, ConcurrentLinkedDeque<Context>>();
+    private ConcurrentHashMap<String, HostAccess> hostAccessList = new ConcurrentHashMap<String, HostAccess>();
+    private LongAdder createdContexts = new LongAdder();
+    private LongAdder readyContextHits = new LongAdder();
+    private LongAdder cancelledEvaluations = new LongAdder();
+
+    public GraalJSEngineProvider() {
+        this.engine = Engine.newBuilder().option("engine.WarnInterpreterOnly", "false").build();
+        this.polyfillSource = Source.newBuilder("js", JavascriptEnginePool.POLYFILL_SCRIPT, "polyfill.js").buildLiteral();
+        this.disableCriticalFunctionsSource = Source.newBuilder("js", JavascriptEnginePool.DISABLE_CRITICAL_FUNCTIONS_SCRIPT, "disableCriticalFunctions.js").buildLiteral();
+        this.disableLoadFunctionsSource = Source.newBuilder("js", JavascriptEnginePool.DISABLE_LOAD_FUNCTIONS_SCRIPT, "disableLoadFunctions.js").buildLiteral();
+        this.libraryLoadSource = Source.newBuilder("js", JavascriptLibraryCache.LIBRARY_LOAD_SCRIPT, "libraryLoad.js").buildLiteral();
+    }
+
+    /**
+     * The object made available to the <code>load</code> function of a single evaluation, to load the remote libraries through the {@link JavascriptLibraryCache}<br>
+     */
+    public static class GraalLibraryLoader {
+        private final Context context;
+
+        private GraalLibraryLoader(Context context) {
+            this.context = context;
+        }
+
+        /**
+         * Load the library available at the provided URL in the context of the evaluation<br>
+         * @param url The http or https URL of the library
+         * @return Value The value of the last statement of the library
+         * @throws Exception in case of error
+         */
+        @HostAccess.Export
+        public Value load(String url) throws Exception {
+            JavascriptLibraryCache.Library library = JavascriptLibraryCache.unique().loadLibrary(url);
+            //the sources with the same content share the code cached in the engine
+            return context.eval(Source.newBuilder("js", library.source, url).buildLiteral());
+        }
+    }
+
+    @Override
+    public String getName() {
+        return "graaljs";
+    }
+
+    @Override
+    public ScriptEvaluationI prepare(Map<String, Object> parameters, boolean disableCriticalJSFunctions, boolean disableLoadJSFunctions, boolean defaultDenyJavaClasses, List<String> javaClassesExceptionList) throws Exception {
+        String policyKey = JavascriptEnginePool.getPolicyKey(defaultDenyJavaClasses, javaClassesExceptionList);
+        Set<String> javaClassesExceptionSet = javaClassesExceptionList == null ? Collections.emptySet() : new HashSet<String>(javaClassesExceptionList);
+        Context context = borrow(policyKey, defaultDenyJavaClasses, javaClassesExceptionSet);
+        try {
+            Value global = context.getBindings("js");
+            if(parameters != null)
+                for(Entry<String, Object> entry : parameters.entrySet())
+                    global.putMember(entry.getKey(), entry.getValue());
+            if(disableCriticalJSFunctions)
+                context.eval(disableCriticalFunctionsSource);
+            if(disableLoadJSFunctions) {
+                context.eval(disableLoadFunctionsSource);
+            } else if(JavascriptLibraryCache.enabled) {
+                global.putMember(JavascriptLibraryCache.LIBRARY_LOADER_VARIABLE, new GraalLibraryLoader(context));
+                context.eval(libraryLoadSource);
+            }
+            context.eval(polyfillSource);
+        } catch(Exception ex) {
+            context.close();
+            throw ex;
+        }
+        return new ScriptEvaluationI() {
+            @Override
+            public Object eval(String algorithm) throws Exception {
+                return toJava(context.eval(Source.newBuilder("js", algorithm, "algorithm.js").buildLiteral()));
+            }
+
+            @Override
+            public void cancel() {
+                cancelledEvaluations.increment();
+                //closing a context from another thread cancel the running script
+                context.close(true);
+            }
+
+            @Override
+            public void close(boolean reusable) {
+                try {
+                    context.close(!reusable);
+                } catch(Exception ex) {
+                    LogManager.unique().log(LogLevel.WARN, "Impossible to close a GraalJS context", ex);
+                }
+                refill(policyKey, defaultDenyJavaClasses, javaClassesExceptionSet);
+            }
+        };
+    }
+
+    @Override
+    public JsonBridgeI newJsonBridge() {
+        return new GraalJsonScriptBridge();
+    }
+
+    /**
+     * Return the status of the GraalJS contexts<br>
+     * @return JsonObject A JSON object of this format:
+     * <pre>
+     * {
+     *     "engine" : "graaljs",
+     *     "maxIdleContextsPerPolicy" : 8,
+     *     "idleContexts" : number of contexts ready for the next evaluations,
+     *     "createdContexts" : number of contexts created,
+     *     "readyContextHits" : number of evaluations that found a context ready,
+     *     "cancelledEvaluations" : number of evaluations cancelled for timeout or for exceeding their limits
+     * }
+     * </pre>
+     */
+    @Override
+    public JsonObject getStatus() {
+        int idleContexts = 0;
+        for(ConcurrentLinkedDeque<Context> policyIdleContexts : idleContextList.values())
+            idleContexts += policyIdleContexts.size();
+        return Json.createObjectBuilder()
+            .add("engine", getName())
+            .add("maxIdleContextsPerPolicy", maxIdleContextsPerPolicy)
+            .add("idleContexts", idleContexts)
+            .add("createdContexts", createdContexts.sum())
+            .add("readyContextHits", readyContextHits.sum())
+            .add("cancelledEvaluations", cancelledEvaluations.sum())
+            .build();
+    }
+
+    @Override
+    public void clear() {
+        for(ConcurrentLinkedDeque<Context> policyIdleContexts : idleContextList.values())
+            for(Context context = policyIdleContexts.pollFirst(); context != null; context = policyIdleContexts.pollFirst())
+                context.close();
+    }
+
+    private Context borrow(String policyKey, boolean defaultDenyJavaClasses, Set<String> javaClassesExceptionSet) {
+        ConcurrentLinkedDeque<Context> idleContexts = idleContextList.get(policyKey);
+        Context context = idleContexts == null ? null : idleContexts.pollFirst();
+        if(context != null) {
+            readyContextHits.increment();
+            return context;
+        }
+        return newContext(policyKey, defaultDenyJavaClasses, javaClassesExceptionSet);
+    }
+
+    private void refill(String policyKey, boolean defaultDenyJavaClasses, Set<String> javaClassesExceptionSet) {
+        ConcurrentLinkedDeque<Context> idleContexts = idleContextList.computeIfAbsent(policyKey, k -> new ConcurrentLinkedDeque<Context>());
+        if(idleContexts.size() >= maxIdleContextsPerPolicy)
+            return;
+        ExecutorManager.unique().getCallExecutor().execute(() -> {
+            try {
+                if(idleContexts.size() < maxIdleContextsPerPolicy)
+                    idleContexts.offerFirst(newContext(policyKey, defaultDenyJavaClasses, javaClassesExceptionSet));
+            } catch(Exception ex) {
+                LogManager.unique().log(LogLevel.ERROR, "Impossible to create a GraalJS context", ex);
+            }
+        });
+    }
+
+    private Context newContext(String policyKey, boolean defaultDenyJavaClasses, Set<String> javaClassesExceptionSet) {
+        createdContexts.increment();
+        return Context.newBuilder("js")
+            .engine(engine)
+            .allowHostAccess(hostAccessList.computeIfAbsent(policyKey, k -> newHostAccess(defaultDenyJavaClasses, javaClassesExceptionSet)))
+            .allowHostClassLookup(className -> JavascriptEnginePool.isClassExposed(className, defaultDenyJavaClasses, javaClassesExceptionSet))
+            .allowIO(false)
+            .allowExperimentalOptions(true)
+            .option("js.nashorn-compat", "true")
+            .option("js.foreign-object-prototype", "true")
+            .build();
+    }
+
+    /**
+     * Build the Java members accessible from the scripts, following the class filter policy used for the host class lookup<br>
+     * With the default deny policy only the exported members, the functions provided as parameters and the public members of the classes in the exception list are accessible.
+     * With the default allow policy all the public members are accessible, except the ones of the classes in the exception list.<br>
+     */
+    private static HostAccess newHostAccess(boolean defaultDenyJavaClasses, Set<String> javaClassesExceptionSet) {
+        HostAccess.Builder hostAccessBuilder = HostAccess.newBuilder()
+            .allowAccessAnnotatedBy(HostAccess.Export.class)
+            .allowAccessInheritance(true);
+        try {
+            //the microservice calls are provided to the scripts as java.util.function.Function
+            hostAccessBuilder.allowAccess(Function.class.getMethod("apply", Object.class));
+        } catch(NoSuchMethodException ex) {
+            throw new IllegalStateException(ex);
+        }
+        if(!defaultDenyJavaClasses)
+            hostAccessBuilder.allowPublicAccess(true);
+        for(String className : javaClassesExceptionSet) {
+            Class<?> exceptionClass;
+            try {
+                exceptionClass = Class.forName(className, false, GraalJSEngineProvider.class.getClassLoader());
+            } catch(ClassNotFoundException ex) {
+                LogManager.unique().log(LogLevel.WARN, "The Java class " + className + " of the javascript class filter does not exist", null);
+                continue;
+            }
+            if(!defaultDenyJavaClasses) {
+                hostAccessBuilder.denyAccess(exceptionClass);
+                continue;
+            }
+            for(Constructor<?> constructor : exceptionClass.getConstructors())
+                hostAccessBuilder.allowAccess(constructor);
+            for(Method method : exceptionClass.getMethods())
+                //the methods of Object would be inherited by every class
+                if(method.getDeclaringClass() != Object.class)
+                    hostAccessBuilder.allowAccess(method);
+            for(Field field : exceptionClass.getFields())
+                hostAccessBuilder.allowAccess(field);
+        }
+        return hostAccessBuilder.build();
+    }
+
+    /**
+     * Convert the result of an evaluation in the Java object Nashorn would return<br>
+     */
+    private static Object toJava(Value value) {
+        if(value == null || value.isNull())
+            return null;
+        if(value.isHostObject())
+            return value.asHostObject();
+        if(value.isProxyObject())
+            return value.asProxyObject();
+        if(value.isString())
+            return value.asString();
+        if(value.isBoolean())
+            return value.asBoolean();
+        if(value.isNumber())
+            return value.fitsInInt() ? (Object) value.asInt() : (Object) value.asDouble();
+        return value.as(Object.class);
+    }
+}
@@ -0,0 +1,260 @@
+package org.adoxx.microservice.utils;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import javax.json.Json;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonNumber;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import javax.json.JsonString;
+import javax.json.JsonValue;
+
+import org.graalvm.polyglot.Context;
+import org.graalvm.polyglot.HostAccess;
+import org.graalvm.polyglot.Value;
+import org.graalvm.polyglot.proxy.ProxyArray;
+import org.graalvm.polyglot.proxy.ProxyObject;
+
+/**
+ * <h1>GraalJsonScriptBridge</h1>
+ * The GraalJS version of the {@link JsonScriptBridge}: a JsonObject is exposed as a lazy {@link ProxyObject} whose changes are kept aside of the original object, or as a native object when required with {@link #setNativeObjects(boolean)}, while a JsonArray is exposed as a native javascript array.<br>
+ * The bridge is created for a single evaluation and must be bound with {@link #bind(Object)} from the script before the first use. Its methods are exported to the scripts with {@link HostAccess.Export}.<br>
+ *
+ * @author Damiano Falcioni
+ */
+public class GraalJsonScriptBridge implements ScriptEngineProviderI.JsonBridgeI {
+
+    private Value arrayConstructor = null;
+    private Value objectConstructor = null;
+    private boolean nativeObjects = false;
+    private String outString = null;
+    private JsonValue outValue = null;
+
+    @Override
+    @HostAccess.Export
+    public void bind(Object global) {
+        //called by the script, so the current context is the one of the evaluation
+        this.arrayConstructor = Context.getCurrent().getBindings("js").getMember("Array");
+        this.objectConstructor = Context.getCurrent().getBindings("js").getMember("Object");
+    }
+
+    @Override
+    @HostAccess.Export
+    public Object wrap(Object value) {
+        if(!(value instanceof JsonValue))
+            return value;
+        JsonValue jsonValue = (JsonValue) value;
+        switch(jsonValue.getValueType()) {
+            case OBJECT:
+                if(!nativeObjects)
+                    return new JsonObjectProxy((JsonObject) jsonValue);
+                if(objectConstructor == null)
+                    throw new IllegalStateException("The JSON bridge has not been bound to the script global object");
+                Value object = objectConstructor.newInstance();
+                for(Entry<String, JsonValue> member : jsonValue.asJsonObject().entrySet())
+                    object.putMember(member.getKey(), wrap(member.getValue()));
+                return object;
+            case ARRAY:
+                if(arrayConstructor == null)
+                    throw new IllegalStateException("The JSON bridge has not been bound to the script global object");
+                Value array = arrayConstructor.newInstance();
+                int i = 0;
+                for(JsonValue item : jsonValue.asJsonArray())
+                    array.setArrayElement(i++, wrap(item));
+                return array;
+            case STRING:
+                return ((JsonString) jsonValue).getString();
+            case NUMBER:
+                JsonNumber number = (JsonNumber) jsonValue;
+                if(number.isIntegral()) {
+                    long longValue = number.longValue();
+                    if(longValue >= Integer.MIN_VALUE && longValue <= Integer.MAX_VALUE)
+                        return (int) longValue;
+                }
+                return number.doubleValue();
+            case TRUE:
+                return Boolean.TRUE;
+            case FALSE:
+                return Boolean.FALSE;
+            default:
+                return null;
+        }
+    }
+
+    @Override
+    @HostAccess.Export
+    public boolean isProxy(Object value) {
+        return value instanceof JsonObjectProxy;
+    }
+
+    @Override
+    public void setNativeObjects(boolean nativeObjects) {
+        this.nativeObjects = nativeObjects;
+    }
+
+    @Override
+    @HostAccess.Export
+    public JsonValue toJson(Object value) {
+        if(value == null)
+            return JsonValue.NULL;
+        if(value instanceof JsonObjectProxy)
+            return ((JsonObjectProxy) value).toJson();
+        if(value instanceof JsonValue)
+            return (JsonValue) value;
+        //the javascript objects are received as polyglot wrappers, unwrapped by asValue
+        return toJson(Value.asValue(value));
+    }
+
+    @Override
+    @HostAccess.Export
+    public String stringify(Object value) {
+        JsonValue jsonValue = toJson(value);
+        return jsonValue == null ? null : jsonValue.toString();
+    }
+
+    @Override
+    @HostAccess.Export
+    public String out(Object value) {
+        outValue = toJson(value);
+        outString = outValue == null ? null : outValue.toString();
+        return outString;
+    }
+
+    @Override
+    public JsonValue getOutValue(Object result) {
+        return outString != null && outString.equals(result) ? outValue : null;
+    }
+
+    private JsonValue toJson(Value value) {
+        if(value == null || value.isNull())
+            return JsonValue.NULL;
+        if(value.isHostObject()) {
+            Object hostObject = value.asHostObject();
+            return hostObject instanceof JsonValue ? (JsonValue) hostObject : Json.createValue(hostObject.toString());
+        }
+        if(value.isProxyObject()) {
+            Object proxyObject = value.asProxyObject();
+            return proxyObject instanceof JsonObjectProxy ? ((JsonObjectProxy) proxyObject).toJson() : Json.createValue(proxyObject.toString());
+        }
+        if(value.isString())
+            return Json.createValue(value.asString());
+        if(value.isBoolean())
+            return value.asBoolean() ? JsonValue.TRUE : JsonValue.FALSE;
+        if(value.isNumber()) {
+            if(value.fitsInLong())
+                return Json.createValue(value.asLong());
+            double doubleValue = value.asDouble();
+            if(Double.isNaN(doubleValue) || Double.isInfinite(doubleValue))
+                return JsonValue.NULL;
+            return Json.createValue(doubleValue);
+        }
+        if(value.canExecute())
+            return null;
+        if(value.canInvokeMember("toJSON"))
+            return toJson(value.invokeMember("toJSON"));
+        if(value.hasArrayElements()) {
+            JsonArrayBuilder arrayBuilder = Json.createArrayBuilder();
+            for(long i = 0; i < value.getArraySize(); i++) {
+                JsonValue item = toJson(value.getArrayElement(i));
+                arrayBuilder.add(item == null ? JsonValue.NULL : item);
+            }
+            return arrayBuilder.build();
+        }
+        if(value.hasMembers()) {
+            JsonObjectBuilder objectBuilder = Json.createObjectBuilder();
+            for(String key : value.getMemberKeys()) {
+                JsonValue member = toJson(value.getMember(key));
+                if(member != null)
+                    objectBuilder.add(key, member);
+            }
+            return objectBuilder.build();
+        }
+        return Json.createValue(value.toString());
+    }
+
+    /**
+     * A JsonObject exposed to the scripts, whose members are converted on access and whose changes are kept aside of the original object<br>
+     */
+    class JsonObjectProxy implements ProxyObject {
+        private final JsonObject jsonObject;
+        private final LinkedHashMap<String, Object> memberList = new LinkedHashMap<String, Object>();
+        private final Set<String> removedMemberList = new HashSet<String>();
+        private boolean modified = false;
+
+        private JsonObjectProxy(JsonObject jsonObject) {
+            this.jsonObject = jsonObject;
+        }
+
+        JsonValue toJson() {
+            if(!modified && memberList.isEmpty())
+                return jsonObject;
+            JsonObjectBuilder objectBuilder = Json.createObjectBuilder();
+            for(String key : keySet()) {
+                JsonValue member = memberList.containsKey(key) ? GraalJsonScriptBridge.this.toJson(memberList.get(key)) : jsonObject.get(key);
+                if(member != null)
+                    objectBuilder.add(key, member);
+            }
+            return objectBuilder.build();
+        }
+
+        Set<String> keySet() {
+            Set<String> keySet = new LinkedHashSet<String>();
+            for(String key : jsonObject.keySet())
+                if(!removedMemberList.contains(key))
+                    keySet.add(key);
+            for(Entry<String, Object> member : memberList.entrySet())
+                keySet.add(member.getKey());
+            return keySet;
+        }
+
+        @Override
+        public Object getMember(String key) {
+            if(memberList.containsKey(key))
+                return memberList.get(key);
+            if(jsonObject.containsKey(key) && !removedMemberList.contains(key)) {
+                Object member = wrap(jsonObject.get(key));
+                //objects and arrays are kept, so the changes made by the script are not lost
+                if(member instanceof JsonObjectProxy || member instanceof Value)
+                    memberList.put(key, member);
+                return member;
+            }
+            return null;
+        }
+
+        @Override
+        public Object getMemberKeys() {
+            return ProxyArray.fromArray(keySet().toArray());
+        }
+
+        @Override
+        public boolean hasMember(String key) {
+            return memberList.containsKey(key) || (jsonObject.containsKey(key) && !removedMemberList.contains(key));
+        }
+
+        @Override
+        public void putMember(String key, Value value) {
+            memberList.put(key, value);
+            removedMemberList.remove(key);
+            modified = true;
+        }
+
+        @Override
+        public boolean removeMember(String key) {
+            memberList.remove(key);
+            if(jsonObject.containsKey(key))
+                removedMemberList.add(key);
+            modified = true;
+            return true;
+        }
+
+        @Override
+        public String toString() {
+            return toJson().toString();
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package org.adoxx.microservice.utils;
+
+/**
+ * <h1>JavascriptEngineManager</h1>
+ * Hold the {@link ScriptEngineProviderI} used to evaluate all the javascript algorithms.<br>
+ * Nashorn ({@link NashornEngineProvider}) is the default provider. GraalJS ({@link GraalJSEngineProvider}) can be selected when its libraries are available in the classpath.<br>
+ *
+ * @author Damiano Falcioni
+ */
+public class JavascriptEngineManager {
+
+    private static JavascriptEngineManager uniqueJavascriptEngineManager = null;
+
+    static {
+        uniqueJavascriptEngineManager = new JavascriptEngineManager();
+        uniqueJavascriptEngineManager.setNashornProvider();
+    }
+
+    public static JavascriptEngineManager unique() {
+        return uniqueJavascriptEngineManager;
+    }
+
+    private volatile ScriptEngineProviderI scriptEngineProvider = null;
+
+    public void setProvider(ScriptEngineProviderI provider) {
+        ScriptEngineProviderI previousProvider = scriptEngineProvider;
+        scriptEngineProvider = provider;
+        if(previousProvider != null && previousProvider != provider)
+            previousProvider.clear();
+    }
+
+    public void setNashornProvider() {
+        setProvider(new NashornEngineProvider());
+    }
+
+    public void setGraalJSProvider() throws Exception {
+        try {
+            setProvider(new GraalJSEngineProvider());
+        } catch(NoClassDefFoundError e) {
+            throw new Exception("The GraalJS engine is not available in the classpath: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Select the provider by name<br>
+     * @param name The name of the engine: "nashorn" or "graaljs"
+     * @throws Exception in case the engine is unknown or not available
+     */
+    public void setProvider(String name) throws Exception {
+        if("nashorn".equalsIgnoreCase(name))
+            setNashornProvider();
+        else if("graaljs".equalsIgnoreCase(name))
+            setGraalJSProvider();
+        else
+            throw new Exception("Unknown javascript engine " + name + ". Allowed values: nashorn, graaljs");
+    }
+
+    public ScriptEngineProviderI getProvider() {
+        return scriptEngineProvider;
+    }
+}
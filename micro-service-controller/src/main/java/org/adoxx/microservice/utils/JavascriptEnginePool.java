@@ -0,0 +1,255 @@
+package org.adoxx.microservice.utils;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.ScriptEngine;
+import javax.script.ScriptException;
+
+/**
+ * <h1>JavascriptEnginePool</h1>
+ * Keep a pool of pre-initialized Nashorn engines for every ClassFilter policy used by the {@link NashornEngineProvider}, so the engine is not created for every evaluation.<br>
+ * An engine is used by one evaluation at a time and every evaluation run in a fresh global object, so nothing defined by a script is visible to the following ones.<br>
+ * The initialization scripts (polyfill and disabling of the critical functions) are compiled only once for every engine and executed in every new global.<br>
+ * Every engine keep also a bounded LRU cache of the scripts already compiled, keyed by the SHA-256 of their content, so the same algorithm is parsed and compiled only once for every engine.<br>
+ * The remote libraries loaded by the scripts are compiled once for every engine in the same cache, through the {@link JavascriptLibraryCache}.<br>
+ * The scripts are instrumented with the checks of the {@link ScriptInterrupt} of their evaluation before being compiled, so they can be cancelled also while they run only javascript code.<br>
+ * Engines whose script has been forced to termination must not be returned to the pool, so they are simply dropped.<br>
+ *
+ * @author Damiano Falcioni
+ */
+public class JavascriptEnginePool {
+
+    public static int maxIdleEnginesPerPolicy = 8;
+    public static int maxCompiledScriptsPerEngine = 64;
+
+    static final String POLYFILL_SCRIPT = "var global=this;var window=this;var process={env:{}};var console={};console.debug=print;console.log=print;console.warn=print;console.error=print;";
+    static final String DISABLE_CRITICAL_FUNCTIONS_SCRIPT = "quit=function(){throw 'quit() not allowed';};exit=function(){throw 'exit() not allowed';};print=function(){throw 'print() not allowed';};echo=function(){throw 'echo() not allowed';};readFully=function(){throw 'readFully() not allowed';};readLine=function(){throw 'readLine() not allowed';};$ARG=null;$ENV=null;$EXEC=null;$OPTIONS=null;$OUT=null;$ERR=null;$EXIT=null;";
+    static final String DISABLE_LOAD_FUNCTIONS_SCRIPT = "load=function(){throw 'load() not allowed';};loadWithNewGlobal=function(){throw 'loadWithNewGlobal() not allowed';};";
+
+    private static JavascriptEnginePool uniqueJavascriptEnginePool = null;
+
+    static {
+        uniqueJavascriptEnginePool = new JavascriptEnginePool();
+    }
+
+    public static JavascriptEnginePool unique() {
+        return uniqueJavascriptEnginePool;
+    }
+
+    private ConcurrentHashMap<String, ConcurrentLinkedDeque<PooledEngine>> idleEngineList = new ConcurrentHashMap<String, ConcurrentLinkedDeque<PooledEngine>>();
+    private LongAdder compiledScriptCacheHits = new LongAdder();
+    private LongAdder compiledScriptCacheMisses = new LongAdder();
+    private LongAdder compiledScriptCacheEvictions = new LongAdder();
+
+    /**
+     * A Nashorn engine with its compiled initialization scripts and the cache of the scripts it already compiled<br>
+     */
+    class PooledEngine {
+        final String policyKey;
+        final ScriptEngine engine;
+        private final CompiledScript polyfillScript;
+        private final CompiledScript disableCriticalFunctionsScript;
+        private final CompiledScript disableLoadFunctionsScript;
+        private final CompiledScript libraryLoadScript;
+        private final CompiledScript interruptProtectScript;
+        @SuppressWarnings("serial")
+        private final LinkedHashMap<String, CompiledScript> compiledScriptCache = new LinkedHashMap<String, CompiledScript>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CompiledScript> eldest) {
+                if(size() <= maxCompiledScriptsPerEngine)
+                    return false;
+                compiledScriptCacheEvictions.increment();
+                return true;
+            }
+        };
+
+        private PooledEngine(String policyKey, boolean defaultDenyJavaClasses, Set<String> javaClassesExceptionSet) throws ScriptException {
+            this.policyKey = policyKey;
+            //JDK 11+ ready
+            this.engine = new org.openjdk.nashorn.api.scripting.NashornScriptEngineFactory().getScriptEngine(new org.openjdk.nashorn.api.scripting.ClassFilter() {
+                @Override
+                public boolean exposeToScripts(String className) {
+                    return isClassExposed(className, defaultDenyJavaClasses, javaClassesExceptionSet);
+                }
+            });
+            Compilable compiler = (Compilable) engine;
+            this.polyfillScript = compiler.compile(POLYFILL_SCRIPT);
+            this.disableCriticalFunctionsScript = compiler.compile(DISABLE_CRITICAL_FUNCTIONS_SCRIPT);
+            this.disableLoadFunctionsScript = compiler.compile(DISABLE_LOAD_FUNCTIONS_SCRIPT);
+            this.libraryLoadScript = compiler.compile(JavascriptLibraryCache.LIBRARY_LOAD_SCRIPT);
+            this.interruptProtectScript = compiler.compile(ScriptInterrupt.PROTECT_SCRIPT);
+        }
+
+        /**
+         * Create a new global object for an evaluation, initialized as required<br>
+         * @param parameters The objects to make available to the scripts as global variables. Can be null
+         * @param scriptInterrupt The cancellation checked by the instrumented scripts evaluated in this global
+         * @param disableCriticalJSFunctions When true the functions able to interact with the process (quit, exit, print, ...) are disabled
+         * @param disableLoadJSFunctions When true the load functions are disabled
+         * @return Bindings The new global object, to provide to {@link ScriptEngine#eval(String, Bindings)}
+         * @throws ScriptException in case of error
+         */
+        Bindings newGlobal(Map<String, Object> parameters, ScriptInterrupt scriptInterrupt, boolean disableCriticalJSFunctions, boolean disableLoadJSFunctions) throws ScriptException {
+            Bindings global = engine.createBindings();
+            if(parameters != null)
+                for(Entry<String, Object> entry : parameters.entrySet())
+                    global.put(entry.getKey(), entry.getValue());
+            global.put(ScriptInterrupt.VARIABLE, scriptInterrupt);
+            interruptProtectScript.eval(global);
+            if(disableCriticalJSFunctions)
+                disableCriticalFunctionsScript.eval(global);
+            if(disableLoadJSFunctions) {
+                disableLoadFunctionsScript.eval(global);
+            } else if(JavascriptLibraryCache.enabled) {
+                //the remote libraries are loaded through the library cache
+                global.put(JavascriptLibraryCache.LIBRARY_LOADER_VARIABLE, new JavascriptLibraryCache.LibraryLoader(this, global));
+                libraryLoadScript.eval(global);
+            }
+            polyfillScript.eval(global);
+            return global;
+        }
+
+        /**
+         * Return the compiled version of the provided script, compiling it only if not already in the cache of this engine<br>
+         * The engine is used by one evaluation at a time, so the cache does not require synchronization.<br>
+         * @param algorithm The javascript code to compile
+         * @return CompiledScript The compiled script, to evaluate with a global returned by {@link #newGlobal(Map, ScriptInterrupt, boolean, boolean)}
+         * @throws Exception in case of error
+         */
+        CompiledScript compile(String algorithm) throws Exception {
+            if(maxCompiledScriptsPerEngine < 1) {
+                compiledScriptCacheMisses.increment();
+                return ((Compilable) engine).compile(ScriptInterrupt.instrument(algorithm));
+            }
+            return compile(hashAlgorithm(algorithm), algorithm);
+        }
+
+        /**
+         * Return the compiled version of the provided script whose SHA-256 is already known, compiling it only if not already in the cache of this engine<br>
+         * @param algorithmHash The SHA-256 of the script, as returned by {@link JavascriptEnginePool#hashAlgorithm(String)}
+         * @param algorithm The javascript code to compile
+         * @return CompiledScript The compiled script
+         * @throws Exception in case of error
+         */
+        CompiledScript compile(String algorithmHash, String algorithm) throws Exception {
+            if(maxCompiledScriptsPerEngine < 1) {
+                compiledScriptCacheMisses.increment();
+                return ((Compilable) engine).compile(ScriptInterrupt.instrument(algorithm));
+            }
+            CompiledScript compiledScript = compiledScriptCache.get(algorithmHash);
+            if(compiledScript != null) {
+                compiledScriptCacheHits.increment();
+                return compiledScript;
+            }
+            compiledScriptCacheMisses.increment();
+            compiledScript = ((Compilable) engine).compile(ScriptInterrupt.instrument(algorithm));
+            compiledScriptCache.put(algorithmHash, compiledScript);
+            return compiledScript;
+        }
+    }
+
+    /**
+     * Return an engine with the provided ClassFilter policy, reusing an idle one if available.<br>
+     * The engine should be returned with {@link #release(PooledEngine)} at the end of the evaluation.<br>
+     * @param defaultDenyJavaClasses When true the Java classes are not accessible from the scripts, except the ones in javaClassesExceptionList. When false the opposite
+     * @param javaClassesExceptionList The Java classes excluded by the default policy. Can be null
+     * @return PooledEngine The engine to use
+     * @throws Exception in case of error
+     */
+    PooledEngine borrow(boolean defaultDenyJavaClasses, List<String> javaClassesExceptionList) throws Exception {
+        String policyKey = getPolicyKey(defaultDenyJavaClasses, javaClassesExceptionList);
+        ConcurrentLinkedDeque<PooledEngine> idleEngines = idleEngineList.get(policyKey);
+        PooledEngine pooledEngine = idleEngines == null ? null : idleEngines.pollFirst();
+        if(pooledEngine != null)
+            return pooledEngine;
+        return new PooledEngine(policyKey, defaultDenyJavaClasses, javaClassesExceptionList == null ? Collections.emptySet() : new HashSet<String>(javaClassesExceptionList));
+    }
+
+    /**
+     * Return an engine to the pool, if there is room for it<br>
+     * @param pooledEngine The engine obtained from {@link #borrow(boolean, List)}
+     */
+    void release(PooledEngine pooledEngine) {
+        ConcurrentLinkedDeque<PooledEngine> idleEngines = idleEngineList.computeIfAbsent(pooledEngine.policyKey, k -> new ConcurrentLinkedDeque<PooledEngine>());
+        if(idleEngines.size() < maxIdleEnginesPerPolicy)
+            idleEngines.offerFirst(pooledEngine);
+    }
+
+    /**
+     * Remove all the idle engines, together with their compiled scripts<br>
+     */
+    public void clear() {
+        idleEngineList.clear();
+    }
+
+    /**
+     * Return the status of the pool and of the compiled scripts cache<br>
+     * @return JsonObject A JSON object of this format:
+     * <pre>
+     * {
+     *     "maxIdleEnginesPerPolicy" : 8,
+     *     "maxCompiledScriptsPerEngine" : 64,
+     *     "idleEngines" : number of idle engines for all the policies,
+     *     "compiledScriptCacheHits" : number of evaluations that reused a compiled script,
+     *     "compiledScriptCacheMisses" : number of evaluations that compiled the script,
+     *     "compiledScriptCacheEvictions" : number of compiled scripts removed from the cache because not recently used
+     * }
+     * </pre>
+     */
+    public JsonObject getStatus() {
+        int idleEngines = 0;
+        for(ConcurrentLinkedDeque<PooledEngine> policyIdleEngines : idleEngineList.values())
+            idleEngines += policyIdleEngines.size();
+        return Json.createObjectBuilder()
+            .add("maxIdleEnginesPerPolicy", maxIdleEnginesPerPolicy)
+            .add("maxCompiledScriptsPerEngine", maxCompiledScriptsPerEngine)
+            .add("idleEngines", idleEngines)
+            .add("compiledScriptCacheHits", compiledScriptCacheHits.sum())
+            .add("compiledScriptCacheMisses", compiledScriptCacheMisses.sum())
+            .add("compiledScriptCacheEvictions", compiledScriptCacheEvictions.sum())
+            .build();
+    }
+
+    static String hashAlgorithm(String algorithm) throws Exception {
+        byte[] hash = MessageDigest.getInstance("SHA-256").digest(algorithm.getBytes(StandardCharsets.UTF_8));
+        StringBuilder sb = new StringBuilder(hash.length * 2);
+        for(byte b : hash)
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        return sb.toString();
+    }
+
+    /**
+     * The class filter policy shared by all the engine providers<br>
+     * @return boolean true if the scripts can access the provided Java class
+     */
+    static boolean isClassExposed(String className, boolean defaultDenyJavaClasses, Set<String> javaClassesExceptionSet) {
+        if(javaClassesExceptionSet.contains(className))
+            return defaultDenyJavaClasses;
+        return !defaultDenyJavaClasses;
+    }
+
+    static String getPolicyKey(boolean defaultDenyJavaClasses, List<String> javaClassesExceptionList) {
+        if(javaClassesExceptionList == null || javaClassesExceptionList.isEmpty())
+            return defaultDenyJavaClasses ? "deny" : "allow";
+        List<String> sortedExceptionList = new ArrayList<String>(new HashSet<String>(javaClassesExceptionList));
+        Collections.sort(sortedExceptionList);
+        return (defaultDenyJavaClasses ? "deny" : "allow") + ":" + String.join(",", sortedExceptionList);
+    }
+}
@@ -0,0 +1,275 @@
+package org.adoxx.microservice.utils;
+
+import java.io.File;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.script.Bindings;
+
+import org.adoxx.microservice.api.CallContext;
+import org.adoxx.microservice.api.log.LogManager;
+import org.adoxx.microservice.api.log.LogI.LogLevel;
+import org.adoxx.microservice.utils.Utils.HttpResults;
+
+/**
+ * <h1>JavascriptLibraryCache</h1>
+ * Cache of the remote javascript libraries loaded by the scripts with <code>load('http...')</code>, so a library is not downloaded and compiled at every evaluation.<br>
+ * The sources are content-addressed: every library is stored in the folder {@link #cacheFolderName} of the upload folder as <code>&lt;SHA-256 of the content&gt;.js</code>, together with a small JSON file for every URL containing the hash of its current content, its ETag and Last-Modified headers and the time of the last validation.
+ * The compiled version of the libraries is kept in memory in the compiled scripts cache of every javascript engine, keyed by the same hash.<br>
+ * A library is used without contacting the server for {@link #ttlInSeconds} seconds; after that it is revalidated with a conditional request and the cached version is used also when the server is not reachable.<br>
+ * In {@link #offlineMode} the server is never contacted during the evaluations: only the libraries already in the cache, or pre-seeded at startup with {@link #preload()} from {@link #preloadLibraryList}, can be loaded.<br>
+ * The scripts can load only the libraries in {@link #preloadLibraryList} or in {@link #allowedLibraryList}. The downloads and the cache files of the libraries loaded by the scripts are performed with the permissions of the script, so under a security manager they require the same permissions the script would need to access the URL.<br>
+ *
+ * @author Damiano Falcioni
+ */
+public class JavascriptLibraryCache {
+
+    public static boolean enabled = true;
+    public static int ttlInSeconds = 3600;
+    public static boolean offlineMode = false;
+    public static List<String> preloadLibraryList = new ArrayList<String>();
+    public static List<String> allowedLibraryList = new ArrayList<String>();
+    public static int preloadTimeoutInSeconds = 30;
+    public static String cacheFolderName = "_js-library-cache/";
+
+    static final String LIBRARY_LOADER_VARIABLE = "__mscLibraryLoader";
+    static final String LIBRARY_LOAD_SCRIPT = "(function(libraryLoader, originalLoad){load=function(source){if(typeof source === 'string' && /^https?:\\/\\//i.test(source)) return libraryLoader.load(source); return originalLoad.apply(this, arguments);};})(" + LIBRARY_LOADER_VARIABLE + ", load);delete " + LIBRARY_LOADER_VARIABLE + ";";
+
+    private static JavascriptLibraryCache uniqueJavascriptLibraryCache = null;
+
+    static {
+        uniqueJavascriptLibraryCache = new JavascriptLibraryCache();
+    }
+
+    public static JavascriptLibraryCache unique() {
+        return uniqueJavascriptLibraryCache;
+    }
+
+    private ConcurrentHashMap<String, Library> libraryList = new ConcurrentHashMap<String, Library>();
+    private ConcurrentHashMap<String, Object> libraryLockList = new ConcurrentHashMap<String, Object>();
+    private LongAdder cacheHits = new LongAdder();
+    private LongAdder revalidations = new LongAdder();
+    private LongAdder downloads = new LongAdder();
+    private LongAdder staleUses = new LongAdder();
+
+    static class Library {
+        final String url;
+        final String contentHash;
+        final String source;
+        final String etag;
+        final String lastModified;
+        volatile long validationTime;
+
+        private Library(String url, String contentHash, String source, String etag, String lastModified, long validationTime) {
+            this.url = url;
+            this.contentHash = contentHash;
+            this.source = source;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.validationTime = validationTime;
+        }
+    }
+
+    /**
+     * The object made available to the <code>load</code> function of a single evaluation, to load the libraries in its global object<br>
+     */
+    public static class LibraryLoader {
+        private final JavascriptEnginePool.PooledEngine pooledEngine;
+        private final Bindings global;
+
+        LibraryLoader(JavascriptEnginePool.PooledEngine pooledEngine, Bindings global) {
+            this.pooledEngine = pooledEngine;
+            this.global = global;
+        }
+
+        /**
+         * Load the library available at the provided URL in the global object of the evaluation<br>
+         * @param url The http or https URL of the library
+         * @return Object The value of the last statement of the library, as returned by the original load function
+         * @throws Exception in case of error
+         */
+        public Object load(String url) throws Exception {
+            Library library = JavascriptLibraryCache.unique().loadLibrary(url);
+            return pooledEngine.compile(library.contentHash, library.source).eval(global);
+        }
+    }
+
+    /**
+     * Return the library requested by a script, if preloaded or allowed<br>
+     * @param url The http or https URL of the library
+     * @return Library The library
+     * @throws Exception in case the library is not allowed or not available
+     */
+    Library loadLibrary(String url) throws Exception {
+        if(!preloadLibraryList.contains(url) && !allowedLibraryList.contains(url))
+            throw new Exception("The javascript library " + url + " can not be loaded: only the libraries in the preload list or in the allow list are available to the scripts");
+        return getLibrary(url, offlineMode);
+    }
+
+    /**
+     * Return the library available at the provided URL, downloading or revalidating it only when required<br>
+     * @param url The http or https URL of the library
+     * @param offline When true the server is never contacted
+     * @return Library The library
+     * @throws Exception in case the library is not available
+     */
+    Library getLibrary(String url, boolean offline) throws Exception {
+        Library library = libraryList.get(url);
+        if(library != null && (offline || !isExpired(library))) {
+            cacheHits.increment();
+            return library;
+        }
+        synchronized (libraryLockList.computeIfAbsent(url, k -> new Object())) {
+            library = libraryList.get(url);
+            if(library == null) {
+                library = readLibrary(url);
+                if(library != null)
+                    libraryList.put(url, library);
+            }
+            if(library != null && (offline || !isExpired(library))) {
+                cacheHits.increment();
+                return library;
+            }
+            if(offline)
+                throw new Exception("The javascript library " + url + " is not available in the cache and can not be downloaded in offline mode");
+            try {
+                library = fetchLibrary(url, library);
+            } catch(Exception ex) {
+                if(library == null)
+                    throw new Exception("Impossible to load the javascript library " + url + ": " + ex.getMessage(), ex);
+                staleUses.increment();
+                LogManager.unique().log(LogLevel.WARN, "Impossible to revalidate the javascript library " + url + ", the cached version is used", ex);
+                return library;
+            }
+            libraryList.put(url, library);
+            return library;
+        }
+    }
+
+    /**
+     * Download all the libraries in {@link #preloadLibraryList} not already in the cache, in order to be available also in {@link #offlineMode}<br>
+     */
+    public void preload() {
+        for(String url : preloadLibraryList) {
+            try {
+                CallContext.withTimeout(preloadTimeoutInSeconds * 1000L).call(() -> getLibrary(url, false));
+            } catch(Exception ex) {
+                LogManager.unique().log(LogLevel.ERROR, "Impossible to preload the javascript library " + url, ex);
+            }
+        }
+    }
+
+    /**
+     * Remove all the libraries from the memory. The libraries stored in the upload folder are kept<br>
+     */
+    public void clear() {
+        libraryList.clear();
+        libraryLockList.clear();
+    }
+
+    /**
+     * Return the status of the library cache<br>
+     * @return JsonObject A JSON object of this format:
+     * <pre>
+     * {
+     *     "offlineMode" : false,
+     *     "ttlInSeconds" : 3600,
+     *     "libraries" : number of libraries in memory,
+     *     "cacheHits" : number of loads served without contacting the server,
+     *     "revalidations" : number of loads confirmed by the server as not modified,
+     *     "downloads" : number of libraries downloaded,
+     *     "staleUses" : number of loads served from the cache because the server was not reachable
+     * }
+     * </pre>
+     */
+    public JsonObject getStatus() {
+        return Json.createObjectBuilder()
+            .add("offlineMode", offlineMode)
+            .add("ttlInSeconds", ttlInSeconds)
+            .add("libraries", libraryList.size())
+            .add("cacheHits", cacheHits.sum())
+            .add("revalidations", revalidations.sum())
+            .add("downloads", downloads.sum())
+            .add("staleUses", staleUses.sum())
+            .build();
+    }
+
+    private static boolean isExpired(Library library) {
+        return System.currentTimeMillis() - library.validationTime > ttlInSeconds * 1000L;
+    }
+
+    private Library fetchLibrary(String url, Library cachedLibrary) throws Exception {
+        ArrayList<String[]> htmlHeaderList = new ArrayList<String[]>();
+        if(cachedLibrary != null && !cachedLibrary.etag.isEmpty())
+            htmlHeaderList.add(new String[]{"If-None-Match", cachedLibrary.etag});
+        if(cachedLibrary != null && !cachedLibrary.lastModified.isEmpty())
+            htmlHeaderList.add(new String[]{"If-Modified-Since", cachedLibrary.lastModified});
+        HttpResults out = Utils.sendHTTP(url, "GET", null, htmlHeaderList, false, false);
+
+        if(cachedLibrary != null && getHeader(out, null).contains(" 304")) {
+            revalidations.increment();
+            cachedLibrary.validationTime = System.currentTimeMillis();
+            writeLibraryInfo(cachedLibrary);
+            return cachedLibrary;
+        }
+
+        downloads.increment();
+        String source = new String(out.data, StandardCharsets.UTF_8);
+        Library library = new Library(url, JavascriptEnginePool.hashAlgorithm(source), source, getHeader(out, "etag"), getHeader(out, "last-modified"), System.currentTimeMillis());
+        try {
+            File sourceFile = new File(getCacheFolder(), library.contentHash + ".js");
+            if(!sourceFile.isFile())
+                Utils.writeFile(out.data, sourceFile, false);
+            writeLibraryInfo(library);
+        } catch(Exception ex) {
+            LogManager.unique().log(LogLevel.WARN, "Impossible to store the javascript library " + url + " in the upload folder", ex);
+        }
+        return library;
+    }
+
+    private Library readLibrary(String url) {
+        try {
+            File infoFile = new File(getCacheFolder(), JavascriptEnginePool.hashAlgorithm(url) + ".json");
+            if(!infoFile.isFile())
+                return null;
+            JsonObject info = Json.createReader(new StringReader(new String(Utils.readFile(infoFile), StandardCharsets.UTF_8))).readObject();
+            String contentHash = info.getString("contentHash");
+            File sourceFile = new File(getCacheFolder(), contentHash + ".js");
+            if(!sourceFile.isFile())
+                return null;
+            String source = new String(Utils.readFile(sourceFile), StandardCharsets.UTF_8);
+            if(!contentHash.equals(JavascriptEnginePool.hashAlgorithm(source)))
+                return null;
+            return new Library(url, contentHash, source, info.getString("etag", ""), info.getString("lastModified", ""), info.getJsonNumber("validationTime").longValue());
+        } catch(Exception ex) {
+            LogManager.unique().log(LogLevel.WARN, "Impossible to read the cached javascript library " + url + ", it will be downloaded again", ex);
+            return null;
+        }
+    }
+
+    private static void writeLibraryInfo(Library library) throws Exception {
+        JsonObject info = Json.createObjectBuilder()
+            .add("url", library.url)
+            .add("contentHash", library.contentHash)
+            .add("etag", library.etag)
+            .add("lastModified", library.lastModified)
+            .add("validationTime", library.validationTime)
+            .build();
+        Utils.writeFile(info.toString().getBytes(StandardCharsets.UTF_8), new File(getCacheFolder(), JavascriptEnginePool.hashAlgorithm(library.url) + ".json"), false);
+    }
+
+    private static File getCacheFolder() {
+        return new File(Utils.uploadFolder + ((Utils.uploadFolder.endsWith("\\") || Utils.uploadFolder.endsWith("/"))?"":"/") + cacheFolderName);
+    }
+
+    private static String getHeader(HttpResults out, String name) {
+        List<String> valueList = out.headerMap.get(name);
+        return valueList == null || valueList.isEmpty() || valueList.get(0) == null ? "" : valueList.get(0);
+    }
+}
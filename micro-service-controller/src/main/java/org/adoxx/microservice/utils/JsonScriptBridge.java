@@ -0,0 +1,322 @@
+package org.adoxx.microservice.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import javax.json.Json;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonNumber;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import javax.json.JsonString;
+import javax.json.JsonValue;
+
+import org.openjdk.nashorn.api.scripting.AbstractJSObject;
+import org.openjdk.nashorn.api.scripting.JSObject;
+import org.openjdk.nashorn.api.scripting.ScriptObjectMirror;
+
+/**
+ * <h1>JsonScriptBridge</h1>
+ * Expose javax.json values to the Nashorn javascript evaluations without serializing and parsing them, and convert the values of the scripts directly to javax.json.<br>
+ * A JsonObject is exposed as a lazy proxy: its members are converted only when the script access them, so the cost depends on the part of the object really used.
+ * The proxy can be modified by the script: the changes are kept in the proxy and the original JsonObject is never altered, so an object returned unchanged is given back without any conversion.
+ * The proxy is not a native object: the Object functions (Object.keys, ...) and instanceof do not support it, so the scripts using them receive native objects (see {@link #setNativeObjects(boolean)}).<br>
+ * A JsonArray is exposed as a native javascript array, in order to support all the array functions, whose object items are again lazy proxies.<br>
+ * The bridge is created for a single evaluation and must be bound to its global object with {@link #bind(Object)} before the first use.<br>
+ *
+ * @author Damiano Falcioni
+ */
+public class JsonScriptBridge implements ScriptEngineProviderI.JsonBridgeI {
+
+    private JSObject global = null;
+    private JSObject arrayConstructor = null;
+    private JSObject objectConstructor = null;
+    private Object undefined = null;
+    private boolean nativeObjects = false;
+    private String outString = null;
+    private JsonValue outValue = null;
+
+    /**
+     * Bind the bridge to the global object of the evaluation<br>
+     * @param global The javascript global object (<code>this</code> at the top level of the script)
+     */
+    @Override
+    public void bind(Object global) {
+        this.global = (JSObject) global;
+        this.arrayConstructor = (JSObject) this.global.getMember("Array");
+        this.objectConstructor = (JSObject) this.global.getMember("Object");
+        this.undefined = this.global.getMember("undefined");
+    }
+
+    /**
+     * Convert a javax.json value in the corresponding javascript value<br>
+     * @param value The value to convert
+     * @return Object A lazy proxy for the objects, a native array for the arrays and the primitive value otherwise
+     */
+    @Override
+    public Object wrap(Object value) {
+        if(!(value instanceof JsonValue))
+            return value;
+        JsonValue jsonValue = (JsonValue) value;
+        switch(jsonValue.getValueType()) {
+            case OBJECT:
+                if(!nativeObjects)
+                    return new JsonObjectProxy((JsonObject) jsonValue);
+                if(global == null)
+                    throw new IllegalStateException("The JSON bridge has not been bound to the script global object");
+                JSObject object = (JSObject) objectConstructor.newObject();
+                for(Entry<String, JsonValue> member : jsonValue.asJsonObject().entrySet())
+                    object.setMember(member.getKey(), wrap(member.getValue()));
+                return object;
+            case ARRAY:
+                if(global == null)
+                    throw new IllegalStateException("The JSON bridge has not been bound to the script global object");
+                JSObject array = (JSObject) arrayConstructor.newObject();
+                int i = 0;
+                for(JsonValue item : jsonValue.asJsonArray())
+                    array.setSlot(i++, wrap(item));
+                return array;
+            case STRING:
+                return ((JsonString) jsonValue).getString();
+            case NUMBER:
+                JsonNumber number = (JsonNumber) jsonValue;
+                if(number.isIntegral()) {
+                    long longValue = number.longValue();
+                    if(longValue >= Integer.MIN_VALUE && longValue <= Integer.MAX_VALUE)
+                        return (int) longValue;
+                }
+                return number.doubleValue();
+            case TRUE:
+                return Boolean.TRUE;
+            case FALSE:
+                return Boolean.FALSE;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Return true if the provided value is a proxy created by this bridge<br>
+     * @param value The value to check
+     * @return boolean true if the value is a proxy of a JsonObject
+     */
+    @Override
+    public boolean isProxy(Object value) {
+        return value instanceof JsonObjectProxy;
+    }
+
+    @Override
+    public void setNativeObjects(boolean nativeObjects) {
+        this.nativeObjects = nativeObjects;
+    }
+
+    /**
+     * Convert a javascript value in the corresponding javax.json value, following the rules of <code>JSON.stringify</code><br>
+     * @param value The javascript value
+     * @return JsonValue The converted value or null when the value is not representable in JSON (undefined or functions)
+     */
+    @Override
+    public JsonValue toJson(Object value) {
+        if(value == null)
+            return JsonValue.NULL;
+        if(value instanceof JsonObjectProxy)
+            return ((JsonObjectProxy) value).toJson();
+        if(value instanceof JsonValue)
+            return (JsonValue) value;
+        if(ScriptObjectMirror.isUndefined(value))
+            return null;
+        if(value instanceof CharSequence)
+            return Json.createValue(value.toString());
+        if(value instanceof Boolean)
+            return (Boolean) value ? JsonValue.TRUE : JsonValue.FALSE;
+        if(value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte)
+            return Json.createValue(((Number) value).longValue());
+        if(value instanceof Number) {
+            double doubleValue = ((Number) value).doubleValue();
+            if(Double.isNaN(doubleValue) || Double.isInfinite(doubleValue))
+                return JsonValue.NULL;
+            if(doubleValue == Math.rint(doubleValue) && Math.abs(doubleValue) < 9007199254740992d)
+                return Json.createValue((long) doubleValue);
+            return Json.createValue(doubleValue);
+        }
+        if(value instanceof JSObject) {
+            JSObject jsObject = (JSObject) value;
+            if(jsObject.isFunction())
+                return null;
+            Object toJSON = jsObject.getMember("toJSON");
+            if(toJSON instanceof JSObject && ((JSObject) toJSON).isFunction())
+                return toJson(((JSObject) toJSON).call(jsObject));
+            if(jsObject.isArray()) {
+                JsonArrayBuilder arrayBuilder = Json.createArrayBuilder();
+                int length = ((Number) jsObject.getMember("length")).intValue();
+                for(int i = 0; i < length; i++) {
+                    JsonValue item = toJson(jsObject.getSlot(i));
+                    arrayBuilder.add(item == null ? JsonValue.NULL : item);
+                }
+                return arrayBuilder.build();
+            }
+            JsonObjectBuilder objectBuilder = Json.createObjectBuilder();
+            //JSON.stringify serialize only the own enumerable properties, while the keySet of the mirrors include the inherited ones
+            Collection<String> keyList = jsObject instanceof ScriptObjectMirror ? Arrays.asList(((ScriptObjectMirror) jsObject).getOwnKeys(false)) : jsObject.keySet();
+            for(String key : keyList) {
+                JsonValue member = toJson(jsObject.getMember(key));
+                if(member != null)
+                    objectBuilder.add(key, member);
+            }
+            return objectBuilder.build();
+        }
+        return Json.createValue(value.toString());
+    }
+
+    /**
+     * Convert a javascript object in a JsonObject<br>
+     * @param value The javascript object
+     * @return JsonObject The converted object
+     * @throws Exception in case the value is not an object
+     */
+    public JsonObject toJsonObject(Object value) throws Exception {
+        JsonValue jsonValue = toJson(value);
+        if(jsonValue == null || jsonValue.getValueType() != JsonValue.ValueType.OBJECT)
+            throw new Exception("A JSON object is required. Obtained: " + jsonValue);
+        return jsonValue.asJsonObject();
+    }
+
+    /**
+     * Convert a javascript value in its JSON string, as <code>JSON.stringify</code> does<br>
+     * @param value The javascript value
+     * @return String The JSON string or null when the value is not representable in JSON
+     */
+    @Override
+    public String stringify(Object value) {
+        JsonValue jsonValue = toJson(value);
+        return jsonValue == null ? null : jsonValue.toString();
+    }
+
+    @Override
+    public String out(Object value) {
+        outValue = toJson(value);
+        outString = outValue == null ? null : outValue.toString();
+        return outString;
+    }
+
+    @Override
+    public JsonValue getOutValue(Object result) {
+        return outString != null && outString.equals(result) ? outValue : null;
+    }
+
+    /**
+     * A JsonObject exposed to the scripts, whose members are converted on access and whose changes are kept aside of the original object<br>
+     */
+    class JsonObjectProxy extends AbstractJSObject {
+        private final JsonObject jsonObject;
+        private final LinkedHashMap<String, Object> memberList = new LinkedHashMap<String, Object>();
+        private final Set<String> removedMemberList = new HashSet<String>();
+        private boolean modified = false;
+
+        private JsonObjectProxy(JsonObject jsonObject) {
+            this.jsonObject = jsonObject;
+        }
+
+        JsonValue toJson() {
+            if(!modified && memberList.isEmpty())
+                return jsonObject;
+            JsonObjectBuilder objectBuilder = Json.createObjectBuilder();
+            for(String key : keySet()) {
+                JsonValue member = memberList.containsKey(key) ? JsonScriptBridge.this.toJson(memberList.get(key)) : jsonObject.get(key);
+                if(member != null)
+                    objectBuilder.add(key, member);
+            }
+            return objectBuilder.build();
+        }
+
+        @Override
+        public Object getMember(String name) {
+            if(memberList.containsKey(name))
+                return memberList.get(name);
+            if(jsonObject.containsKey(name) && !removedMemberList.contains(name)) {
+                Object member = wrap(jsonObject.get(name));
+                //objects and arrays are kept, so the changes made by the script are not lost
+                if(member instanceof JSObject)
+                    memberList.put(name, member);
+                return member;
+            }
+            if("hasOwnProperty".equals(name))
+                return new ProxyFunction() {
+                    @Override
+                    public Object call(Object thiz, Object... args) {
+                        return args.length > 0 && JsonObjectProxy.this.hasMember(String.valueOf(args[0]));
+                    }
+                };
+            if("toString".equals(name))
+                return new ProxyFunction() {
+                    @Override
+                    public Object call(Object thiz, Object... args) {
+                        return "[object Object]";
+                    }
+                };
+            return undefined;
+        }
+
+        @Override
+        public boolean hasMember(String name) {
+            return memberList.containsKey(name) || (jsonObject.containsKey(name) && !removedMemberList.contains(name));
+        }
+
+        @Override
+        public void setMember(String name, Object value) {
+            memberList.put(name, value);
+            removedMemberList.remove(name);
+            modified = true;
+        }
+
+        @Override
+        public void removeMember(String name) {
+            memberList.remove(name);
+            if(jsonObject.containsKey(name))
+                removedMemberList.add(name);
+            modified = true;
+        }
+
+        @Override
+        public Set<String> keySet() {
+            Set<String> keySet = new LinkedHashSet<String>();
+            for(String key : jsonObject.keySet())
+                if(!removedMemberList.contains(key))
+                    keySet.add(key);
+            for(Entry<String, Object> member : memberList.entrySet())
+                keySet.add(member.getKey());
+            return keySet;
+        }
+
+        @Override
+        public Collection<Object> values() {
+            ArrayList<Object> values = new ArrayList<Object>();
+            for(String key : keySet())
+                values.add(getMember(key));
+            return values;
+        }
+
+        @Override
+        public String getClassName() {
+            return "Object";
+        }
+
+        @Override
+        public String toString() {
+            return toJson().toString();
+        }
+    }
+
+    private static abstract class ProxyFunction extends AbstractJSObject {
+        @Override
+        public boolean isFunction() {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package org.adoxx.microservice.utils;
+
+import java.util.List;
+import java.util.Map;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.script.Bindings;
+
+/**
+ * <h1>NashornEngineProvider</h1>
+ * The default {@link ScriptEngineProviderI}, evaluating the scripts with the Nashorn engines of the {@link JavascriptEnginePool}.<br>
+ * Every evaluation run in a new global object of a pooled engine, and the JSON values are exchanged through the {@link JsonScriptBridge}.<br>
+ * The evaluations are cancelled through their {@link ScriptInterrupt}, checked by the scripts at every loop iteration and function call.<br>
+ *
+ * @author Damiano Falcioni
+ */
+public class NashornEngineProvider implements ScriptEngineProviderI {
+
+    @Override
+    public String getName() {
+        return "nashorn";
+    }
+
+    @Override
+    public ScriptEvaluationI prepare(Map<String, Object> parameters, boolean disableCriticalJSFunctions, boolean disableLoadJSFunctions, boolean defaultDenyJavaClasses, List<String> javaClassesExceptionList) throws Exception {
+        //the engines are pooled for every ClassFilter policy, while every evaluation get a new global object
+        JavascriptEnginePool.PooledEngine pooledEngine = JavascriptEnginePool.unique().borrow(defaultDenyJavaClasses, javaClassesExceptionList);
+        ScriptInterrupt scriptInterrupt = new ScriptInterrupt();
+        Bindings global = pooledEngine.newGlobal(parameters, scriptInterrupt, disableCriticalJSFunctions, disableLoadJSFunctions);
+        return new ScriptEvaluationI() {
+            @Override
+            public Object eval(String algorithm) throws Exception {
+                return pooledEngine.compile(algorithm).eval(global);
+            }
+
+            @Override
+            public void cancel() {
+                //the script stops at its next check, also when its thread is not interrupted because it belongs to an enclosing evaluation
+                scriptInterrupt.cancel();
+            }
+
+            @Override
+            public void close(boolean reusable) {
+                if(reusable)
+                    JavascriptEnginePool.unique().release(pooledEngine);
+            }
+        };
+    }
+
+    @Override
+    public JsonBridgeI newJsonBridge() {
+        return new JsonScriptBridge();
+    }
+
+    /**
+     * Return the status of the Nashorn engines<br>
+     * @return JsonObject A JSON object in the format described in {@link JavascriptEnginePool#getStatus()}, with the additional key "engine"
+     */
+    @Override
+    public JsonObject getStatus() {
+        return Json.createObjectBuilder(JavascriptEnginePool.unique().getStatus()).add("engine", getName()).build();
+    }
+
+    @Override
+    public void clear() {
+        JavascriptEnginePool.unique().clear();
+    }
+}
@@ -0,0 +1,138 @@
+package org.adoxx.microservice.utils;
+
+import java.util.List;
+import java.util.Map;
+
+import javax.json.JsonObject;
+import javax.json.JsonValue;
+
+/**
+ * <h1>ScriptEngineProviderI</h1>
+ * The javascript engine used by {@link Utils#javascriptSafeEval(java.util.HashMap, String, boolean, boolean, boolean, boolean, List, int)} and so by the adaptation algorithms and by the connectors executing javascript.<br>
+ * The provider in use is selected through the {@link JavascriptEngineManager}. The security manager, the execution time and the resource limits are enforced by the caller for every provider.<br>
+ *
+ * @author Damiano Falcioni
+ */
+public interface ScriptEngineProviderI {
+
+    /**
+     * Return the name of the engine<br>
+     * @return String The name of the engine
+     */
+    public String getName();
+
+    /**
+     * Prepare a new isolated evaluation: nothing defined by a previous evaluation is visible to it<br>
+     * @param parameters The objects to make available to the scripts as global variables. Can be null
+     * @param disableCriticalJSFunctions When true the functions able to interact with the process (quit, exit, print, ...) are disabled
+     * @param disableLoadJSFunctions When true the load functions are disabled
+     * @param defaultDenyJavaClasses When true the Java classes are not accessible from the scripts, except the ones in javaClassesExceptionList. When false the opposite
+     * @param javaClassesExceptionList The Java classes excluded by the default policy. Can be null
+     * @return ScriptEvaluationI The evaluation, that must always be closed with {@link ScriptEvaluationI#close(boolean)}
+     * @throws Exception in case of error
+     */
+    public ScriptEvaluationI prepare(Map<String, Object> parameters, boolean disableCriticalJSFunctions, boolean disableLoadJSFunctions, boolean defaultDenyJavaClasses, List<String> javaClassesExceptionList) throws Exception;
+
+    /**
+     * Create the object used by the scripts of a single evaluation to exchange JSON values without serializing them<br>
+     * @return JsonBridgeI The bridge, to provide to the evaluation as the parameter _jsonBridge
+     */
+    public JsonBridgeI newJsonBridge();
+
+    /**
+     * Return the status of the engine and of its caches<br>
+     * @return JsonObject A JSON object whose format depends on the engine
+     */
+    public JsonObject getStatus();
+
+    /**
+     * Release all the idle resources kept by the engine<br>
+     */
+    public void clear();
+
+    /**
+     * A single evaluation prepared by {@link ScriptEngineProviderI#prepare(Map, boolean, boolean, boolean, List)}<br>
+     */
+    public interface ScriptEvaluationI {
+
+        /**
+         * Evaluate the script<br>
+         * @param algorithm The javascript code
+         * @return Object The value of the last instruction of the script, converted to Java
+         * @throws Exception in case of error
+         */
+        public Object eval(String algorithm) throws Exception;
+
+        /**
+         * Request the termination of the running evaluation. Called from a thread different from the one evaluating the script<br>
+         */
+        public void cancel();
+
+        /**
+         * Release the resources of the evaluation<br>
+         * @param reusable False when the evaluation has been forced to termination, so its engine can be in an inconsistent state
+         */
+        public void close(boolean reusable);
+    }
+
+    /**
+     * The methods used by the scripts to exchange JSON values with Java (see {@link JsonScriptBridge})<br>
+     */
+    public interface JsonBridgeI {
+
+        /**
+         * Bind the bridge to the global object of the evaluation<br>
+         * @param global The javascript global object (<code>this</code> at the top level of the script)
+         */
+        public void bind(Object global);
+
+        /**
+         * Convert a javax.json value in the corresponding javascript value<br>
+         * @param value The value to convert
+         * @return Object The javascript value
+         */
+        public Object wrap(Object value);
+
+        /**
+         * Return true if the provided value is a JsonObject proxy created by this bridge<br>
+         * @param value The value to check
+         * @return boolean true if the value is a proxy
+         */
+        public boolean isProxy(Object value);
+
+        /**
+         * Choose how {@link #wrap(Object)} expose the JsonObjects: as lazy proxies, the default, or as native javascript objects converted entirely<br>
+         * The proxies are not supported by the Object functions (Object.keys, Object.getOwnPropertyNames, ...), by instanceof and have no constructor, so the scripts using them must receive native objects.<br>
+         * @param nativeObjects true to convert the JsonObjects in native javascript objects
+         */
+        public void setNativeObjects(boolean nativeObjects);
+
+        /**
+         * Convert a javascript value in the corresponding javax.json value, following the rules of <code>JSON.stringify</code><br>
+         * @param value The javascript value
+         * @return JsonValue The converted value or null when the value is not representable in JSON
+         */
+        public JsonValue toJson(Object value);
+
+        /**
+         * Convert a javascript value in its JSON string, as <code>JSON.stringify</code> does<br>
+         * @param value The javascript value
+         * @return String The JSON string or null when the value is not representable in JSON
+         */
+        public String stringify(Object value);
+
+        /**
+         * Convert a javascript value in its JSON string as {@link #stringify(Object)}, remembering the converted value for {@link #getOutValue(Object)}<br>
+         * @param value The javascript value
+         * @return String The JSON string or null when the value is not representable in JSON
+         */
+        public String out(Object value);
+
+        /**
+         * Return the JSON value converted by the last call of {@link #out(Object)} when the result of the evaluation is the string it returned, so the string does not need to be parsed again<br>
+         * @param result The result of the evaluation
+         * @return JsonValue The JSON value of the result, or null when the result is not the string returned by the last call of {@link #out(Object)}
+         */
+        public JsonValue getOutValue(Object result);
+    }
+}
@@ -0,0 +1,167 @@
+package org.adoxx.microservice.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.openjdk.nashorn.api.tree.BlockTree;
+import org.openjdk.nashorn.api.tree.CompilationUnitTree;
+import org.openjdk.nashorn.api.tree.DoWhileLoopTree;
+import org.openjdk.nashorn.api.tree.ExpressionStatementTree;
+import org.openjdk.nashorn.api.tree.ForInLoopTree;
+import org.openjdk.nashorn.api.tree.ForLoopTree;
+import org.openjdk.nashorn.api.tree.FunctionDeclarationTree;
+import org.openjdk.nashorn.api.tree.FunctionExpressionTree;
+import org.openjdk.nashorn.api.tree.LiteralTree;
+import org.openjdk.nashorn.api.tree.Parser;
+import org.openjdk.nashorn.api.tree.SimpleTreeVisitorES5_1;
+import org.openjdk.nashorn.api.tree.StatementTree;
+import org.openjdk.nashorn.api.tree.Tree;
+import org.openjdk.nashorn.api.tree.WhileLoopTree;
+
+/**
+ * <h1>ScriptInterrupt</h1>
+ * Cooperative cancellation of the Nashorn evaluations, that can not be stopped from outside once the script thread is not blocked in a Java call.<br>
+ * The scripts are instrumented with {@link #instrument(String)} before their compilation, so a call to {@link #check()} is executed at the beginning of every loop iteration and of every function.
+ * Every evaluation get its own ScriptInterrupt in the global variable {@link #VARIABLE}: after {@link #cancel()} every check throws a {@link ScriptInterruptedException}, also when the script catch the previous ones.<br>
+ *
+ * @author Damiano Falcioni
+ */
+public class ScriptInterrupt {
+
+    static final String VARIABLE = "__mscInterrupt";
+    //executed once for every global, so the scripts can not replace the check
+    static final String PROTECT_SCRIPT = "Object.defineProperty(this, '" + VARIABLE + "', {value: this." + VARIABLE + ", writable: false, enumerable: false, configurable: false});";
+    private static final String CHECK_STATEMENT = ";" + VARIABLE + ".check();";
+
+    private volatile boolean cancelled = false;
+
+    /**
+     * Raised inside the script by the checks of a cancelled evaluation<br>
+     */
+    public static class ScriptInterruptedException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public ScriptInterruptedException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Called by the instrumented scripts<br>
+     * @throws ScriptInterruptedException if the evaluation has been cancelled
+     */
+    public void check() {
+        if(cancelled)
+            throw new ScriptInterruptedException("Javascript execution cancelled");
+    }
+
+    void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Add a call to {@link #check()} at the beginning of every loop body and function body of the provided script<br>
+     * The line numbers are not changed, so the errors keep pointing to the original code. The scripts that can not be parsed are returned unchanged, so the engine reports their syntax errors.<br>
+     * @param algorithm The javascript code
+     * @return String The instrumented javascript code
+     */
+    static String instrument(String algorithm) {
+        CompilationUnitTree compilationUnit;
+        try {
+            compilationUnit = Parser.create().parse("algorithm", algorithm, null);
+        } catch(Exception ex) {
+            return algorithm;
+        }
+        if(compilationUnit == null)
+            return algorithm;
+        //the insertions refer to the positions of the original script, so they are applied sorted while copying it
+        List<long[]> insertionList = new ArrayList<long[]>();
+        final long OPEN_BLOCK = 0, CHECK = 1, CLOSE_BLOCK = 2;
+        compilationUnit.accept(new SimpleTreeVisitorES5_1<Void, Void>() {
+            private void instrumentLoopBody(StatementTree body) {
+                //the loops declaring their variables are wrapped by the parser in a block without braces
+                if(body instanceof BlockTree && algorithm.charAt((int) body.getStartPosition()) == '{') {
+                    insertionList.add(new long[] {body.getStartPosition() + 1, CHECK});
+                    return;
+                }
+                //a single statement is wrapped in a block, including its semicolon that is not part of the expression statements
+                long end = body.getEndPosition();
+                //the position of a statement ending with a string literal does not include its closing quote
+                if(end < algorithm.length() && (algorithm.charAt((int) end) == '\'' || algorithm.charAt((int) end) == '"'))
+                    end++;
+                int i = (int) end;
+                while(i < algorithm.length() && Character.isWhitespace(algorithm.charAt(i)) && algorithm.charAt(i) != '\n')
+                    i++;
+                if(i < algorithm.length() && algorithm.charAt(i) == ';')
+                    end = i + 1;
+                insertionList.add(new long[] {body.getStartPosition(), OPEN_BLOCK});
+                insertionList.add(new long[] {end, CLOSE_BLOCK});
+            }
+
+            private void instrumentFunctionBody(Tree body) {
+                if(!(body instanceof BlockTree) || algorithm.charAt((int) body.getStartPosition()) != '{')
+                    return;
+                //the check is added after the directives, like "use strict", that must stay at the beginning
+                long position = body.getStartPosition() + 1;
+                for(StatementTree statement : ((BlockTree) body).getStatements()) {
+                    if(!(statement instanceof ExpressionStatementTree) || !(((ExpressionStatementTree) statement).getExpression() instanceof LiteralTree) || !(((LiteralTree) ((ExpressionStatementTree) statement).getExpression()).getValue() instanceof String))
+                        break;
+                    position = statement.getEndPosition();
+                    //the position of a string literal does not include its closing quote
+                    if(position < algorithm.length() && (algorithm.charAt((int) position) == '\'' || algorithm.charAt((int) position) == '"'))
+                        position++;
+                }
+                insertionList.add(new long[] {position, CHECK});
+            }
+
+            @Override
+            public Void visitForLoop(ForLoopTree node, Void r) {
+                instrumentLoopBody(node.getStatement());
+                return super.visitForLoop(node, r);
+            }
+
+            @Override
+            public Void visitForInLoop(ForInLoopTree node, Void r) {
+                instrumentLoopBody(node.getStatement());
+                return super.visitForInLoop(node, r);
+            }
+
+            @Override
+            public Void visitWhileLoop(WhileLoopTree node, Void r) {
+                instrumentLoopBody(node.getStatement());
+                return super.visitWhileLoop(node, r);
+            }
+
+            @Override
+            public Void visitDoWhileLoop(DoWhileLoopTree node, Void r) {
+                instrumentLoopBody(node.getStatement());
+                return super.visitDoWhileLoop(node, r);
+            }
+
+            @Override
+            public Void visitFunctionDeclaration(FunctionDeclarationTree node, Void r) {
+                instrumentFunctionBody(node.getBody());
+                return super.visitFunctionDeclaration(node, r);
+            }
+
+            @Override
+            public Void visitFunctionExpression(FunctionExpressionTree node, Void r) {
+                instrumentFunctionBody(node.getBody());
+                return super.visitFunctionExpression(node, r);
+            }
+        }, null);
+        if(insertionList.isEmpty())
+            return algorithm;
+        //at the same position the closing braces of the inner statements go before the opening of the outer ones
+        insertionList.sort((a, b) -> a[0] != b[0] ? Long.compare(a[0], b[0]) : Long.compare(b[1], a[1]));
+        StringBuilder ret = new StringBuilder(algorithm.length() + insertionList.size() * CHECK_STATEMENT.length());
+        int copied = 0;
+        for(long[] insertion : insertionList) {
+            ret.append(algorithm, copied, (int) insertion[0]);
+            copied = (int) insertion[0];
+            ret.append(insertion[1] == OPEN_BLOCK ? "{" + CHECK_STATEMENT : insertion[1] == CHECK ? CHECK_STATEMENT : "}");
+        }
+        ret.append(algorithm, copied, algorithm.length());
+        return ret.toString();
+    }
+}
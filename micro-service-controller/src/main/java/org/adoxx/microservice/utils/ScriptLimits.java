@@ -0,0 +1,72 @@
+package org.adoxx.microservice.utils;
+
+import java.util.concurrent.Callable;
+
+/**
+ * <h1>ScriptLimits</h1>
+ * The resource limits applied to the javascript evaluations performed for a microservice operation, and the key used to account their resource usage in the {@link ScriptWatchdog}.<br>
+ * The limits are bound to the current thread with {@link #call(Callable)}, so every evaluation started by the call is subject to them, without passing them through all the evaluation methods.<br>
+ * Values lower than 1 mean no limit.<br>
+ *
+ * @author Damiano Falcioni
+ */
+public class ScriptLimits {
+
+    public static long defaultMaxCpuTimeMs = 0;
+    public static long defaultMaxAllocatedBytes = 0;
+
+    private static final ThreadLocal<ScriptLimits> currentLimits = new ThreadLocal<ScriptLimits>();
+
+    final String microserviceId;
+    final String operationId;
+    final long maxCpuTimeMs;
+    final long maxAllocatedBytes;
+
+    /**
+     * @param microserviceId The microservice whose evaluations are accounted
+     * @param operationId The microservice operation whose evaluations are accounted
+     * @param maxCpuTimeMs The maximum CPU time of a single evaluation in milliseconds. Values lower than 1 mean {@link #defaultMaxCpuTimeMs}
+     * @param maxAllocatedBytes The maximum number of bytes allocated by a single evaluation. Values lower than 1 mean {@link #defaultMaxAllocatedBytes}
+     */
+    public ScriptLimits(String microserviceId, String operationId, long maxCpuTimeMs, long maxAllocatedBytes) {
+        this.microserviceId = microserviceId;
+        this.operationId = operationId;
+        this.maxCpuTimeMs = maxCpuTimeMs > 0 ? maxCpuTimeMs : defaultMaxCpuTimeMs;
+        this.maxAllocatedBytes = maxAllocatedBytes > 0 ? maxAllocatedBytes : defaultMaxAllocatedBytes;
+    }
+
+    /**
+     * Return the limits bound to the current thread<br>
+     * @return ScriptLimits The current limits or null if the current thread is not working for a microservice operation
+     */
+    public static ScriptLimits current() {
+        return currentLimits.get();
+    }
+
+    /**
+     * Execute the provided call with these limits bound to the current thread, restoring the previous ones at the end<br>
+     * @param call The call to execute
+     * @return T The value returned by the call
+     * @throws Exception in case of error of the call
+     */
+    public <T> T call(Callable<T> call) throws Exception {
+        ScriptLimits previousLimits = currentLimits.get();
+        currentLimits.set(this);
+        try {
+            return call.call();
+        } finally {
+            if(previousLimits == null)
+                currentLimits.remove();
+            else
+                currentLimits.set(previousLimits);
+        }
+    }
+
+    boolean hasLimits() {
+        return maxCpuTimeMs > 0 || maxAllocatedBytes > 0;
+    }
+
+    String getAccountingKey() {
+        return microserviceId + "_" + operationId;
+    }
+}
@@ -0,0 +1,445 @@
+package org.adoxx.microservice.utils;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.InvocationTargetException;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.json.Json;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonObject;
+
+import org.adoxx.microservice.api.CallContext;
+import org.adoxx.microservice.api.log.LogI.LogLevel;
+import org.adoxx.microservice.api.log.LogManager;
+
+/**
+ * <h1>ScriptWatchdog</h1>
+ * Execute the javascript evaluations on the bounded script executor of the {@link ExecutorManager} and enforce their maximum execution time with a single shared scheduler, instead of a dedicated monitoring thread for every evaluation.<br>
+ * When the time expires the caller is released immediately with a {@link TimeoutException}, the script is cancelled through its engine (the Nashorn scripts check their {@link ScriptInterrupt} at every loop iteration and function call, the GraalJS contexts are closed) and the script thread is interrupted, so also the scripts blocked in Java calls (I/O, nested microservice calls) terminate cooperatively.
+ * If the script is still running after {@link #forcedStopGracePeriodMs}, blocked in a Java call that ignores the interruption, the thread is forcibly stopped. When the JVM can not stop threads (JDK 20+) the worker is left to the script, its engine is discarded and the script executor gets a new worker in its place, up to {@link ExecutorManager#maxAbandonedScriptWorkers}: after that the new evaluations are rejected until the abandoned scripts terminate.<br>
+ * Evaluations started from inside a script (nested calls) run directly on the current script thread, so nested calls can not exhaust the script executor.
+ * The thread of a nested evaluation belongs to the enclosing one, so its termination only cancel it cooperatively through the engine and never interrupt or stop the thread: the enclosing evaluation keeps its own time limit.<br>
+ * The CPU time and the heap allocated by every evaluation bound to {@link ScriptLimits} are measured with the {@link ThreadMXBean} and aggregated for every microservice operation.
+ * The evaluations exceeding their limits are checked every {@link #resourceCheckIntervalMs} milliseconds by the same scheduler and terminated as for the timeout, with a {@link ResourceLimitExceededException}.<br>
+ *
+ * @author Damiano Falcioni
+ */
+public class ScriptWatchdog {
+
+    public static long forcedStopGracePeriodMs = 1000;
+    public static long resourceCheckIntervalMs = 100;
+
+    private static ScriptWatchdog uniqueScriptWatchdog = null;
+
+    static {
+        uniqueScriptWatchdog = new ScriptWatchdog();
+    }
+
+    public static ScriptWatchdog unique() {
+        return uniqueScriptWatchdog;
+    }
+
+    private static final ThreadLocal<Boolean> scriptThread = new ThreadLocal<Boolean>();
+    private static final ThreadLocal<ScriptExecution> currentExecution = new ThreadLocal<ScriptExecution>();
+    private static final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+
+    private Set<ScriptExecution> limitedExecutionList = ConcurrentHashMap.newKeySet();
+    private ConcurrentHashMap<String, ScriptUsage> scriptUsageList = new ConcurrentHashMap<String, ScriptUsage>();
+    private ScheduledFuture<?> resourceCheckTask = null;
+
+    /**
+     * Raised when an evaluation exceed its CPU time or heap allocation limit<br>
+     */
+    public static class ResourceLimitExceededException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        public ResourceLimitExceededException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * A single script evaluation monitored by the watchdog<br>
+     */
+    public static class ScriptExecution {
+        private final Callable<Object> script;
+        private final ScriptLimits scriptLimits;
+        private final Runnable cancelHandler;
+        //only the evaluations running on a worker of the script executor can interrupt or stop their thread
+        private final boolean ownedThread;
+        private final CompletableFuture<Object> result = new CompletableFuture<Object>();
+        private final Object runLock = new Object();
+        private Thread runner = null;
+        private boolean terminated = false;
+        private boolean abandoned = false;
+        private volatile boolean forcedTermination = false;
+        private volatile ScheduledFuture<?> timeoutTask = null;
+        private volatile Runnable cancelRegistration = null;
+        private long startCpuTimeNs = -1;
+        private long startAllocatedBytes = -1;
+
+        private ScriptExecution(Callable<Object> script, ScriptLimits scriptLimits, Runnable cancelHandler, boolean ownedThread) {
+            this.script = script;
+            this.scriptLimits = scriptLimits;
+            this.cancelHandler = cancelHandler;
+            this.ownedThread = ownedThread;
+        }
+
+        private void run() {
+            synchronized (runLock) {
+                if(terminated)
+                    return;
+                runner = Thread.currentThread();
+                startCpuTimeNs = getThreadCpuTime(runner);
+                startAllocatedBytes = getThreadAllocatedBytes(runner);
+            }
+            Boolean previousScriptThread = scriptThread.get();
+            scriptThread.set(Boolean.TRUE);
+            ScriptExecution previousExecution = currentExecution.get();
+            currentExecution.set(this);
+            if(scriptLimits != null && scriptLimits.hasLimits())
+                unique().startResourceCheck(this);
+            try {
+                result.complete(script.call());
+            } catch(Throwable t) {
+                if(t instanceof ThreadDeath)
+                    forcedTermination = true;
+                result.completeExceptionally(t);
+            } finally {
+                if(scriptLimits != null) {
+                    unique().limitedExecutionList.remove(this);
+                    unique().account(this);
+                }
+                boolean wasTerminated;
+                boolean wasAbandoned;
+                synchronized (runLock) {
+                    runner = null;
+                    wasTerminated = terminated;
+                    wasAbandoned = abandoned;
+                }
+                if(timeoutTask != null)
+                    timeoutTask.cancel(false);
+                if(cancelRegistration != null)
+                    cancelRegistration.run();
+                if(previousExecution == null)
+                    currentExecution.remove();
+                else
+                    currentExecution.set(previousExecution);
+                if(previousScriptThread == null) {
+                    scriptThread.remove();
+                    //the interruption of the watchdog must not affect the next tasks of the worker
+                    Thread.interrupted();
+                } else if(wasTerminated && (previousExecution == null || !previousExecution.isTerminated())) {
+                    //a cancelled nested evaluation must not interrupt the evaluation or the call that continue on this thread
+                    Thread.interrupted();
+                }
+                //the runaway script ended by itself, so the worker added in its place is not needed anymore
+                if(wasAbandoned)
+                    ExecutorManager.unique().releaseScriptWorker();
+            }
+        }
+
+        private void terminate(Exception reason) {
+            synchronized (runLock) {
+                if(result.isDone())
+                    return;
+                terminated = true;
+                if(runner != null)
+                    forcedTermination = true;
+                //the reason must be the outcome seen by the caller, not the error raised by the interruption
+                result.completeExceptionally(reason);
+                if(runner != null) {
+                    //the engine cancellation can wait for the script, so it must not hold the lock
+                    if(cancelHandler != null)
+                        ExecutorManager.unique().getCallExecutor().execute(() -> {
+                            try {
+                                cancelHandler.run();
+                            } catch(Exception e) {
+                                LogManager.unique().log(LogLevel.WARN, "Error cancelling a javascript evaluation", e);
+                            }
+                        });
+                    if(ownedThread) {
+                        runner.interrupt();
+                        ExecutorManager.unique().getScheduledExecutor().schedule(this::forceStop, forcedStopGracePeriodMs, TimeUnit.MILLISECONDS);
+                    }
+                }
+            }
+        }
+
+        private boolean isTerminated() {
+            synchronized (runLock) {
+                return terminated;
+            }
+        }
+
+        private void checkResources() {
+            synchronized (runLock) {
+                if(runner == null || result.isDone())
+                    return;
+                if(scriptLimits.maxCpuTimeMs > 0 && startCpuTimeNs >= 0) {
+                    long cpuTimeNs = getThreadCpuTime(runner);
+                    if(cpuTimeNs >= 0 && cpuTimeNs - startCpuTimeNs > scriptLimits.maxCpuTimeMs * 1000000L) {
+                        terminate(new ResourceLimitExceededException("CPU time bigger then " + scriptLimits.maxCpuTimeMs + " ms"));
+                        return;
+                    }
+                }
+                if(scriptLimits.maxAllocatedBytes > 0 && startAllocatedBytes >= 0) {
+                    long allocatedBytes = getThreadAllocatedBytes(runner);
+                    if(allocatedBytes >= 0 && allocatedBytes - startAllocatedBytes > scriptLimits.maxAllocatedBytes)
+                        terminate(new ResourceLimitExceededException("Allocated memory bigger then " + scriptLimits.maxAllocatedBytes + " bytes"));
+                }
+            }
+        }
+
+        private void forceStop() {
+            synchronized (runLock) {
+                if(runner == null || abandoned)
+                    return;
+                if(!stopThread(runner)) {
+                    //the worker stay busy until the script terminates by itself, so another one takes its place
+                    abandoned = true;
+                    ExecutorManager.unique().replaceScriptWorker();
+                }
+            }
+        }
+
+        /**
+         * Wait for the result of the evaluation<br>
+         * @return Object The value returned by the script
+         * @throws TimeoutException if the maximum execution time expired
+         * @throws ResourceLimitExceededException if the evaluation exceeded its CPU time or heap allocation limit
+         * @throws ExecutionException if the script raised an error, available as cause
+         * @throws InterruptedException if the caller is interrupted while waiting
+         */
+        public Object get() throws TimeoutException, ResourceLimitExceededException, ExecutionException, InterruptedException {
+            try {
+                return result.get();
+            } catch(ExecutionException e) {
+                if(e.getCause() instanceof TimeoutException)
+                    throw (TimeoutException) e.getCause();
+                if(e.getCause() instanceof ResourceLimitExceededException)
+                    throw (ResourceLimitExceededException) e.getCause();
+                throw e;
+            } catch(CancellationException e) {
+                throw new TimeoutException("Javascript execution cancelled");
+            }
+        }
+
+        /**
+         * Return true if the script thread has been interrupted or stopped in the middle of the evaluation, so the engine used can be in an inconsistent state<br>
+         * @return boolean true if the evaluation has been forced to termination
+         */
+        public boolean isForcedTermination() {
+            return forcedTermination;
+        }
+    }
+
+    /**
+     * The resources used by the evaluations of a microservice operation<br>
+     */
+    private static class ScriptUsage {
+        final String microserviceId;
+        final String operationId;
+        final LongAdder evaluations = new LongAdder();
+        final LongAdder terminatedEvaluations = new LongAdder();
+        final LongAdder totalCpuTimeNs = new LongAdder();
+        final AtomicLong maxCpuTimeNs = new AtomicLong(0);
+        final LongAdder totalAllocatedBytes = new LongAdder();
+        final AtomicLong maxAllocatedBytes = new AtomicLong(0);
+
+        private ScriptUsage(String microserviceId, String operationId) {
+            this.microserviceId = microserviceId;
+            this.operationId = operationId;
+        }
+    }
+
+    /**
+     * Start the evaluation of a script, monitoring its execution time<br>
+     * @param script The evaluation to perform
+     * @param maxExecTimeMs The maximum execution time in milliseconds. Values lower than 1 mean no limit
+     * @return ScriptExecution The started evaluation, whose result can be obtained with {@link ScriptExecution#get()}
+     */
+    public ScriptExecution execute(Callable<Object> script, long maxExecTimeMs) {
+        return execute(script, maxExecTimeMs, null, null);
+    }
+
+    /**
+     * Start the evaluation of a script, monitoring its execution time and the resources it uses<br>
+     * @param script The evaluation to perform
+     * @param maxExecTimeMs The maximum execution time in milliseconds. Values lower than 1 mean no limit
+     * @param scriptLimits The CPU time and heap allocation limits of the evaluation, whose usage is accounted for its operation. Can be null
+     * @param cancelHandler Called, before the interruption of the script thread, when the evaluation is terminated, in order to cancel the script in the engine. Can be null
+     * @return ScriptExecution The started evaluation, whose result can be obtained with {@link ScriptExecution#get()}
+     */
+    public ScriptExecution execute(Callable<Object> script, long maxExecTimeMs, ScriptLimits scriptLimits, Runnable cancelHandler) {
+        boolean nested = isScriptThread();
+        ScriptExecution scriptExecution = new ScriptExecution(script, scriptLimits, cancelHandler, !nested);
+        if(maxExecTimeMs > 0)
+            scriptExecution.timeoutTask = ExecutorManager.unique().getScheduledExecutor().schedule(() -> scriptExecution.terminate(new TimeoutException("Javascript execution time expired")), maxExecTimeMs, TimeUnit.MILLISECONDS);
+        //the evaluation is terminated also when the call it works for is cancelled
+        scriptExecution.cancelRegistration = CallContext.onCurrentCancel(() -> scriptExecution.terminate(new TimeoutException("Javascript execution cancelled with its call")));
+        if(nested) {
+            scriptExecution.run();
+            return scriptExecution;
+        }
+        try {
+            ExecutorManager.unique().getScriptExecutor().execute(scriptExecution::run);
+        } catch(RejectedExecutionException e) {
+            if(scriptExecution.timeoutTask != null)
+                scriptExecution.timeoutTask.cancel(false);
+            scriptExecution.cancelRegistration.run();
+            throw e;
+        }
+        return scriptExecution;
+    }
+
+    /**
+     * Return the resources used by the javascript evaluations of every microservice operation<br>
+     * @return JsonObject A JSON object of this format:
+     * <pre>
+     * {
+     *     "scriptUsageList" : [{
+     *          "microserviceId" : "id of the microservice",
+     *          "operationId" : "id of the microservice operation",
+     *          "evaluations" : number of evaluations completed,
+     *          "terminatedEvaluations" : number of evaluations terminated for timeout or for exceeding their limits,
+     *          "totalCpuTimeMs" : CPU time used by all the evaluations,
+     *          "maxCpuTimeMs" : CPU time used by the most expensive evaluation,
+     *          "totalAllocatedBytes" : heap allocated by all the evaluations,
+     *          "maxAllocatedBytes" : heap allocated by the most expensive evaluation
+     *     },
+     *     ...
+     *     ]
+     * }
+     * </pre>
+     * The CPU time and the allocated bytes are reported as 0 when not supported by the JVM or for evaluations executed on virtual threads.
+     */
+    public JsonObject getUsageStatus() {
+        JsonArrayBuilder listBuilder = Json.createArrayBuilder();
+        for(ScriptUsage scriptUsage : scriptUsageList.values())
+            listBuilder.add(Json.createObjectBuilder()
+                .add("microserviceId", scriptUsage.microserviceId)
+                .add("operationId", scriptUsage.operationId)
+                .add("evaluations", scriptUsage.evaluations.sum())
+                .add("terminatedEvaluations", scriptUsage.terminatedEvaluations.sum())
+                .add("totalCpuTimeMs", scriptUsage.totalCpuTimeNs.sum() / 1000000L)
+                .add("maxCpuTimeMs", scriptUsage.maxCpuTimeNs.get() / 1000000L)
+                .add("totalAllocatedBytes", scriptUsage.totalAllocatedBytes.sum())
+                .add("maxAllocatedBytes", scriptUsage.maxAllocatedBytes.get())
+            );
+        return Json.createObjectBuilder().add("scriptUsageList", listBuilder).build();
+    }
+
+    /**
+     * Remove the resource usage accounted for the operations of the provided microservice<br>
+     * @param microserviceId The id of the microservice
+     */
+    public void clearUsage(String microserviceId) {
+        scriptUsageList.values().removeIf(scriptUsage -> scriptUsage.microserviceId.equals(microserviceId));
+    }
+
+    private void account(ScriptExecution scriptExecution) {
+        ScriptUsage scriptUsage = scriptUsageList.computeIfAbsent(scriptExecution.scriptLimits.getAccountingKey(), k -> new ScriptUsage(scriptExecution.scriptLimits.microserviceId, scriptExecution.scriptLimits.operationId));
+        Thread currentThread = Thread.currentThread();
+        scriptUsage.evaluations.increment();
+        if(scriptExecution.forcedTermination)
+            scriptUsage.terminatedEvaluations.increment();
+        long cpuTimeNs = getThreadCpuTime(currentThread);
+        if(cpuTimeNs >= 0 && scriptExecution.startCpuTimeNs >= 0) {
+            scriptUsage.totalCpuTimeNs.add(cpuTimeNs - scriptExecution.startCpuTimeNs);
+            scriptUsage.maxCpuTimeNs.accumulateAndGet(cpuTimeNs - scriptExecution.startCpuTimeNs, Math::max);
+        }
+        long allocatedBytes = getThreadAllocatedBytes(currentThread);
+        if(allocatedBytes >= 0 && scriptExecution.startAllocatedBytes >= 0) {
+            scriptUsage.totalAllocatedBytes.add(allocatedBytes - scriptExecution.startAllocatedBytes);
+            scriptUsage.maxAllocatedBytes.accumulateAndGet(allocatedBytes - scriptExecution.startAllocatedBytes, Math::max);
+        }
+    }
+
+    private synchronized void startResourceCheck(ScriptExecution scriptExecution) {
+        limitedExecutionList.add(scriptExecution);
+        //a single periodic task check all the evaluations with limits
+        if(resourceCheckTask == null || resourceCheckTask.isDone())
+            resourceCheckTask = ExecutorManager.unique().getScheduledExecutor().scheduleWithFixedDelay(() -> {
+                for(ScriptExecution limitedExecution : limitedExecutionList)
+                    try {
+                        limitedExecution.checkResources();
+                    } catch(Exception e) {
+                        LogManager.unique().log(LogLevel.ERROR, "Error checking the resources used by a javascript evaluation", e);
+                    }
+            }, resourceCheckIntervalMs, resourceCheckIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    private static long getThreadCpuTime(Thread thread) {
+        try {
+            if(!threadMXBean.isThreadCpuTimeSupported() || !threadMXBean.isThreadCpuTimeEnabled())
+                return -1;
+            return threadMXBean.getThreadCpuTime(thread.getId());
+        } catch(UnsupportedOperationException e) {
+            return -1;
+        }
+    }
+
+    private static long getThreadAllocatedBytes(Thread thread) {
+        try {
+            if(!(threadMXBean instanceof com.sun.management.ThreadMXBean))
+                return -1;
+            com.sun.management.ThreadMXBean sunThreadMXBean = (com.sun.management.ThreadMXBean) threadMXBean;
+            if(!sunThreadMXBean.isThreadAllocatedMemorySupported() || !sunThreadMXBean.isThreadAllocatedMemoryEnabled())
+                return -1;
+            return sunThreadMXBean.getThreadAllocatedBytes(thread.getId());
+        } catch(UnsupportedOperationException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Return true if the current thread is evaluating a script<br>
+     * @return boolean true for the script threads
+     */
+    public static boolean isScriptThread() {
+        return Boolean.TRUE.equals(scriptThread.get());
+    }
+
+    /**
+     * Execute the provided call marking the current thread as a script thread, so the evaluations started by the call run directly on it instead of on the script executor.<br>
+     * Used for the calls started in parallel by a script, whose script thread is blocked waiting for them and can not be released to the evaluations they require.<br>
+     * @param call The call to execute
+     * @return T The value returned by the call
+     * @throws Exception in case of error of the call
+     */
+    public static <T> T callAsScriptThread(Callable<T> call) throws Exception {
+        Boolean previousScriptThread = scriptThread.get();
+        scriptThread.set(Boolean.TRUE);
+        try {
+            return call.call();
+        } finally {
+            if(previousScriptThread == null)
+                scriptThread.remove();
+        }
+    }
+
+    private static boolean stopThread(Thread thread) {
+        try {
+            Thread.class.getMethod("stop").invoke(thread);
+            return true;
+        } catch(InvocationTargetException e) {
+            LogManager.unique().log(LogLevel.WARN, "The javascript thread " + thread.getName() + " can not be stopped on this JVM and will run until the script terminates", e.getCause());
+        } catch(Exception e) {
+            LogManager.unique().log(LogLevel.WARN, "Impossible to stop the javascript thread " + thread.getName() + ": it will run until the script terminates", e);
+        }
+        return false;
+    }
+}
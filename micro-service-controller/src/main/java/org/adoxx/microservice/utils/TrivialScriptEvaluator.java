@@ -0,0 +1,351 @@
+package org.adoxx.microservice.utils;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonString;
+import javax.json.JsonValue;
+
+/**
+ * <h1>TrivialScriptEvaluator</h1>
+ * Evaluate in Java, without a javascript engine and a script thread, the adaptation and status check algorithms that follow one of these trivial patterns:
+ * <pre>
+ * out(output);                 out(output.path);      the JSON object, in the variant of {@link Utils#outputAdaptation(JsonValue, JsonValue, String, boolean, String)}
+ * output.path;                 when the value is a string, a boolean or null
+ * output.path != null;         also with ==, !== and ===, and with null on the left side
+ * </pre>
+ * The path can start from 'output' or 'input' and can contain members (<code>.name</code>, <code>['name']</code>) and array indexes (<code>[0]</code>). The comments, the spaces and the final semicolons are ignored.<br>
+ * When the evaluation in Java could differ from the javascript one (a missing member, a member of a non object value, a result that the engine would convert) the algorithm is evaluated by the engine as usual.<br>
+ *
+ * @author Damiano Falcioni
+ */
+public class TrivialScriptEvaluator {
+
+    public static boolean enabled = true;
+    public static int maxAnalyzedScripts = 1000;
+
+    /**
+     * Returned by the evaluations that require the javascript engine
+     */
+    public static final Object NOT_EVALUATED = new Object();
+
+    private static TrivialScriptEvaluator uniqueTrivialScriptEvaluator = null;
+
+    static {
+        uniqueTrivialScriptEvaluator = new TrivialScriptEvaluator();
+    }
+
+    public static TrivialScriptEvaluator unique() {
+        return uniqueTrivialScriptEvaluator;
+    }
+
+    private static final TrivialScript NOT_TRIVIAL = new TrivialScript(TrivialScriptType.NONE, null, null, false);
+
+    private ConcurrentHashMap<String, TrivialScript> analyzedScriptList = new ConcurrentHashMap<String, TrivialScript>();
+    private LongAdder fastPathEvaluations = new LongAdder();
+    private LongAdder engineEvaluations = new LongAdder();
+
+    private enum TrivialScriptType { NONE, OUT, VALUE, NULL_CHECK }
+
+    private static class TrivialScript {
+        final TrivialScriptType type;
+        final String root;
+        final List<Object> path;
+        final boolean notNull;
+
+        private TrivialScript(TrivialScriptType type, String root, List<Object> path, boolean notNull) {
+            this.type = type;
+            this.root = root;
+            this.path = path;
+            this.notNull = notNull;
+        }
+    }
+
+    /**
+     * Evaluate the algorithm in Java if it is trivial, as in {@link Utils#outputAdaptation(JsonValue, JsonValue, String, boolean, String)}<br>
+     * @param algorithm The adaptation or status check algorithm
+     * @param output The value of the variable 'output', null when not defined
+     * @param input The value of the variable 'input', null when not defined
+     * @return Object The result of the algorithm, or {@link #NOT_EVALUATED} when the algorithm must be evaluated by the engine
+     */
+    public Object evaluate(String algorithm, JsonValue output, JsonValue input) {
+        Object result = evaluate(enabled ? analyze(algorithm) : NOT_TRIVIAL, output, input, true);
+        if(result == NOT_EVALUATED)
+            engineEvaluations.increment();
+        else
+            fastPathEvaluations.increment();
+        return result;
+    }
+
+    /**
+     * Evaluate the algorithm in Java if it is trivial, parsing the JSON strings only in this case<br>
+     * The function out(...) is not supported, because in this variant it stringify the value.<br>
+     * @param algorithm The adaptation or status check algorithm
+     * @param output The JSON string of the variable 'output', null when not defined
+     * @param input The JSON string of the variable 'input', null when not defined
+     * @return Object The result of the algorithm, or {@link #NOT_EVALUATED} when the algorithm must be evaluated by the engine
+     */
+    public Object evaluate(String algorithm, String output, String input) {
+        TrivialScript trivialScript = enabled ? analyze(algorithm) : NOT_TRIVIAL;
+        Object result = NOT_EVALUATED;
+        if(trivialScript.type != TrivialScriptType.NONE && trivialScript.type != TrivialScriptType.OUT) {
+            try {
+                JsonValue outputJson = output == null ? null : Json.createReader(new StringReader(output)).readValue();
+                JsonValue inputJson = input == null ? null : Json.createReader(new StringReader(input)).readValue();
+                result = evaluate(trivialScript, outputJson, inputJson, false);
+            } catch(Exception ex) {
+                //the parsing errors are reported by the engine as usual
+            }
+        }
+        if(result == NOT_EVALUATED)
+            engineEvaluations.increment();
+        else
+            fastPathEvaluations.increment();
+        return result;
+    }
+
+    /**
+     * Return the status of the fast path<br>
+     * @return JsonObject A JSON object of this format:
+     * <pre>
+     * {
+     *     "enabled" : true,
+     *     "fastPathEvaluations" : number of algorithms evaluated in Java,
+     *     "engineEvaluations" : number of adaptation and status check algorithms evaluated by the javascript engine,
+     *     "trivialScripts" : number of distinct trivial algorithms found
+     * }
+     * </pre>
+     */
+    public JsonObject getStatus() {
+        int trivialScripts = 0;
+        for(TrivialScript trivialScript : analyzedScriptList.values())
+            if(trivialScript.type != TrivialScriptType.NONE)
+                trivialScripts++;
+        return Json.createObjectBuilder()
+            .add("enabled", enabled)
+            .add("fastPathEvaluations", fastPathEvaluations.sum())
+            .add("engineEvaluations", engineEvaluations.sum())
+            .add("trivialScripts", trivialScripts)
+            .build();
+    }
+
+    private Object evaluate(TrivialScript trivialScript, JsonValue output, JsonValue input, boolean outSupported) {
+        if(trivialScript.type == TrivialScriptType.NONE || (trivialScript.type == TrivialScriptType.OUT && !outSupported))
+            return NOT_EVALUATED;
+        JsonValue value = trivialScript.root.equals("output") ? output : input;
+        //an undefined variable throw a ReferenceError in javascript
+        if(value == null)
+            return NOT_EVALUATED;
+        for(Object pathItem : trivialScript.path) {
+            value = getMember(value, pathItem);
+            //missing members and members of non JSON containers are left to the engine
+            if(value == null)
+                return NOT_EVALUATED;
+        }
+        switch(trivialScript.type) {
+            case OUT:
+                //out(...) return the JsonObject itself only for JSON objects, the other values are stringified by the engine
+                return value.getValueType() == JsonValue.ValueType.OBJECT ? value : NOT_EVALUATED;
+            case VALUE:
+                switch(value.getValueType()) {
+                    case STRING:
+                        return ((JsonString) value).getString();
+                    case TRUE:
+                        return Boolean.TRUE;
+                    case FALSE:
+                        return Boolean.FALSE;
+                    case NULL:
+                        return null;
+                    default:
+                        return NOT_EVALUATED;
+                }
+            case NULL_CHECK:
+                boolean isNull = value.getValueType() == JsonValue.ValueType.NULL;
+                return trivialScript.notNull ? !isNull : isNull;
+            default:
+                return NOT_EVALUATED;
+        }
+    }
+
+    private static JsonValue getMember(JsonValue container, Object pathItem) {
+        if(container.getValueType() == JsonValue.ValueType.OBJECT && pathItem instanceof String)
+            return container.asJsonObject().get(pathItem);
+        if(container.getValueType() == JsonValue.ValueType.ARRAY && pathItem instanceof Integer) {
+            int index = (Integer) pathItem;
+            return index < container.asJsonArray().size() ? container.asJsonArray().get(index) : null;
+        }
+        return null;
+    }
+
+    private TrivialScript analyze(String algorithm) {
+        TrivialScript trivialScript = analyzedScriptList.get(algorithm);
+        if(trivialScript != null)
+            return trivialScript;
+        try {
+            trivialScript = new Parser(algorithm).parse();
+        } catch(Exception ex) {
+            trivialScript = NOT_TRIVIAL;
+        }
+        if(analyzedScriptList.size() >= maxAnalyzedScripts)
+            analyzedScriptList.clear();
+        analyzedScriptList.put(algorithm, trivialScript);
+        return trivialScript;
+    }
+
+    /**
+     * Recognize the trivial patterns. Any other algorithm throws an Exception
+     */
+    private static class Parser {
+        private final String algorithm;
+        private int position = 0;
+
+        private Parser(String algorithm) {
+            this.algorithm = algorithm;
+        }
+
+        TrivialScript parse() throws Exception {
+            TrivialScript trivialScript;
+            if(peekIdentifier("out")) {
+                readIdentifier();
+                expect("(");
+                TrivialScript path = parsePath();
+                expect(")");
+                trivialScript = new TrivialScript(TrivialScriptType.OUT, path.root, path.path, false);
+            } else if(peekIdentifier("null")) {
+                readIdentifier();
+                boolean notNull = parseEqualityOperator();
+                TrivialScript path = parsePath();
+                trivialScript = new TrivialScript(TrivialScriptType.NULL_CHECK, path.root, path.path, notNull);
+            } else {
+                TrivialScript path = parsePath();
+                skipIgnored();
+                if(position < algorithm.length() && (algorithm.charAt(position) == '!' || algorithm.charAt(position) == '=')) {
+                    boolean notNull = parseEqualityOperator();
+                    if(!readIdentifier().equals("null"))
+                        throw new Exception("not a null check");
+                    trivialScript = new TrivialScript(TrivialScriptType.NULL_CHECK, path.root, path.path, notNull);
+                } else {
+                    trivialScript = new TrivialScript(TrivialScriptType.VALUE, path.root, path.path, false);
+                }
+            }
+            skipIgnored();
+            while(position < algorithm.length() && algorithm.charAt(position) == ';') {
+                position++;
+                skipIgnored();
+            }
+            if(position != algorithm.length())
+                throw new Exception("not a trivial algorithm");
+            return trivialScript;
+        }
+
+        private TrivialScript parsePath() throws Exception {
+            String root = readIdentifier();
+            if(!root.equals("output") && !root.equals("input"))
+                throw new Exception("unknown variable " + root);
+            List<Object> path = new ArrayList<Object>();
+            while(true) {
+                skipIgnored();
+                if(position >= algorithm.length())
+                    break;
+                char c = algorithm.charAt(position);
+                if(c == '.') {
+                    position++;
+                    path.add(readIdentifier());
+                } else if(c == '[') {
+                    position++;
+                    skipIgnored();
+                    char quote = algorithm.charAt(position);
+                    if(quote == '\'' || quote == '"') {
+                        int end = algorithm.indexOf(quote, position + 1);
+                        if(end == -1)
+                            throw new Exception("unterminated string");
+                        String key = algorithm.substring(position + 1, end);
+                        if(key.indexOf('\\') != -1 || key.indexOf('\n') != -1)
+                            throw new Exception("escaped string");
+                        path.add(key);
+                        position = end + 1;
+                    } else {
+                        int start = position;
+                        while(position < algorithm.length() && Character.isDigit(algorithm.charAt(position)))
+                            position++;
+                        if(start == position || position - start > 9 || (algorithm.charAt(start) == '0' && position - start > 1))
+                            throw new Exception("not an index");
+                        path.add(Integer.parseInt(algorithm.substring(start, position)));
+                    }
+                    expect("]");
+                } else {
+                    break;
+                }
+            }
+            return new TrivialScript(TrivialScriptType.NONE, root, path, false);
+        }
+
+        private boolean parseEqualityOperator() throws Exception {
+            skipIgnored();
+            boolean notNull;
+            if(algorithm.startsWith("!=", position))
+                notNull = true;
+            else if(algorithm.startsWith("==", position))
+                notNull = false;
+            else
+                throw new Exception("not an equality operator");
+            position += 2;
+            //undefined is never returned for the null checks, so the strict operators behave as the others
+            if(position < algorithm.length() && algorithm.charAt(position) == '=')
+                position++;
+            return notNull;
+        }
+
+        private boolean peekIdentifier(String identifier) {
+            int savedPosition = position;
+            try {
+                return readIdentifier().equals(identifier);
+            } catch(Exception ex) {
+                return false;
+            } finally {
+                position = savedPosition;
+            }
+        }
+
+        private String readIdentifier() throws Exception {
+            skipIgnored();
+            int start = position;
+            while(position < algorithm.length() && (position == start ? Character.isJavaIdentifierStart(algorithm.charAt(position)) : Character.isJavaIdentifierPart(algorithm.charAt(position))))
+                position++;
+            if(start == position)
+                throw new Exception("identifier expected");
+            return algorithm.substring(start, position);
+        }
+
+        private void expect(String token) throws Exception {
+            skipIgnored();
+            if(!algorithm.startsWith(token, position))
+                throw new Exception(token + " expected");
+            position += token.length();
+        }
+
+        private void skipIgnored() throws Exception {
+            while(position < algorithm.length()) {
+                char c = algorithm.charAt(position);
+                if(Character.isWhitespace(c)) {
+                    position++;
+                } else if(algorithm.startsWith("//", position)) {
+                    int end = algorithm.indexOf('\n', position);
+                    position = end == -1 ? algorithm.length() : end + 1;
+                } else if(algorithm.startsWith("/*", position)) {
+                    int end = algorithm.indexOf("*/", position + 2);
+                    if(end == -1)
+                        throw new Exception("unterminated comment");
+                    position = end + 2;
+                } else {
+                    break;
+                }
+            }
+        }
+    }
+}
@@ -27,20 +27,24 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
 import java.util.function.Function;
+import java.util.regex.Pattern;
 
 import javax.crypto.Mac;
 import javax.crypto.SecretKey;
 import javax.crypto.spec.SecretKeySpec;
 import javax.json.Json;
+import javax.json.JsonArray;
 import javax.json.JsonObject;
+import javax.json.JsonValue;
 import javax.json.bind.JsonbBuilder;
 import javax.net.ssl.HostnameVerifier;
 import javax.net.ssl.HttpsURLConnection;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.TrustManager;
 import javax.net.ssl.X509TrustManager;
-import javax.script.ScriptEngine;
 import javax.xml.XMLConstants;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.transform.OutputKeys;
@@ -49,6 +53,8 @@ import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
 
+import org.adoxx.microservice.api.CallContext;
+import org.adoxx.microservice.api.CallDeadlineExceededException;
 import org.adoxx.microservice.api.MicroserviceController;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -98,11 +104,20 @@ public class Utils {
             });
         }
         
+        //the connection can not last more than the time remaining to the current call deadline
+        int callTimeoutMs = (int) Math.min(CallContext.getCurrentTimeoutMillis(0), Integer.MAX_VALUE);
+        
         HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
         byte[] output = new byte[0];
         Map<String, List<String>> headerMap = new HashMap<String, List<String>>();
+        //closing the connection at the deadline abort also a response that keeps sending data within the read timeout
+        Runnable cancelRegistration = CallContext.onCurrentCancel(connection::disconnect);
         try {
             connection.setRequestMethod(mode.toUpperCase());
+            if(callTimeoutMs > 0) {
+                connection.setConnectTimeout(callTimeoutMs);
+                connection.setReadTimeout(callTimeoutMs);
+            }
             
             if(htmlHeaderList != null)
                 for(String[] htmlHeader:htmlHeaderList)
@@ -130,6 +145,7 @@ public class Utils {
                 else
                     headerMap.put(entry.getKey().toLowerCase(), entry.getValue());
         } finally {
+            cancelRegistration.run();
             connection.disconnect();
         }
         
@@ -399,7 +415,51 @@ public class Utils {
         return outputAdaptation(originalOutput, input, javascriptAdaptationAlgorithm, allowMicroserviceCall, null);
     }
     
+    public static Object outputAdaptation(JsonValue originalOutput, JsonValue input, String javascriptAdaptationAlgorithm, boolean allowMicroserviceCall) throws Exception {
+        return outputAdaptation(originalOutput, input, javascriptAdaptationAlgorithm, allowMicroserviceCall, null);
+    }
+    
+    /**
+     * Execute the adaptation algorithm providing the output and the input directly as JSON, without serializing and parsing them (see {@link ScriptEngineProviderI.JsonBridgeI})<br>
+     * The function out(...) of the algorithm return a JSON string as usual, but when the result of the algorithm is the string returned by out(...) on a JSON object received from Java, the JsonObject it was built from is returned instead of the string.<br>
+     * @param originalOutput The value available to the algorithm as 'output'. Can be null
+     * @param input The value available to the algorithm as 'input'. Can be null
+     * @param javascriptAdaptationAlgorithm The algorithm
+     * @param allowMicroserviceCall When true the algorithm can call other microservices
+     * @param defaultMicroserviceId The microservice to call when the algorithm does not specify one
+     * @return Object The value of the last instruction of the algorithm: usually a JSON string, or a JsonObject in place of the string returned by out(...)
+     * @throws Exception in case of error
+     */
+    public static Object outputAdaptation(JsonValue originalOutput, JsonValue input, String javascriptAdaptationAlgorithm, boolean allowMicroserviceCall, String defaultMicroserviceId) throws Exception {
+        //the trivial algorithms, like out(output) or output!=null, are evaluated in Java without the engine
+        Object trivialOutput = TrivialScriptEvaluator.unique().evaluate(javascriptAdaptationAlgorithm, originalOutput, input);
+        if(trivialOutput != TrivialScriptEvaluator.NOT_EVALUATED)
+            return trivialOutput;
+        
+        String alg = "";
+        HashMap<String, Object> jsEngineParamenters = new HashMap<String, Object>();
+        if(originalOutput!=null) {
+            jsEngineParamenters.put("_output", originalOutput);
+            alg += "output = _jsonBridge.wrap(_output);\n";
+        }
+        if(input!=null) {
+            jsEngineParamenters.put("_input", input);
+            alg += "input = _jsonBridge.wrap(_input);\n";
+        }
+
+        alg += javascriptAdaptationAlgorithm;
+        
+        Object ret = javascriptSafeEval(jsEngineParamenters, alg, allowMicroserviceCall, defaultMicroserviceId);
+        //the string returned by out() is replaced by the JSON value it was built from, so it is not parsed again
+        JsonValue outValue = ((ScriptEngineProviderI.JsonBridgeI) jsEngineParamenters.get("_jsonBridge")).getOutValue(ret);
+        return outValue != null ? outValue : ret;
+    }
+    
     public static Object outputAdaptation(String originalOutput, String input, String javascriptAdaptationAlgorithm, boolean allowMicroserviceCall, String defaultMicroserviceId) throws Exception {
+        Object trivialOutput = TrivialScriptEvaluator.unique().evaluate(javascriptAdaptationAlgorithm, originalOutput, input);
+        if(trivialOutput != TrivialScriptEvaluator.NOT_EVALUATED)
+            return trivialOutput;
+        
         String alg = "";
         HashMap<String, Object> jsEngineParamenters = new HashMap<String, Object>();
         if(originalOutput!=null) {
@@ -416,6 +476,9 @@ public class Utils {
         return javascriptSafeEval(jsEngineParamenters, alg, allowMicroserviceCall, defaultMicroserviceId);
     }
     
+    //the Object functions (Object.keys, Object.prototype.hasOwnProperty.call, ...), instanceof and the constructor property do not support the JsonObject proxies
+    private static final Pattern NATIVE_OBJECTS_REQUIRED_PATTERN = Pattern.compile("\\bObject\\s*\\.|\\binstanceof\\b|\\bconstructor\\b|__proto__");
+    
     public static Object javascriptSafeEval(HashMap<String, Object> parameters, String algorithm, boolean allowMicroserviceCall) throws Exception {
         return javascriptSafeEval(parameters, algorithm, allowMicroserviceCall, null);
     }
@@ -423,37 +486,58 @@ public class Utils {
     public static Object javascriptSafeEval(HashMap<String, Object> parameters, String algorithm, boolean allowMicroserviceCall, String defaultMicroserviceId) throws Exception {
         if(parameters==null)
             parameters = new HashMap<String, Object>();
-        String alg = "out=function(o){return JSON.stringify(o);};\n";
+        //the JSON values are exchanged with the scripts through the bridge, without serializing them
+        ScriptEngineProviderI.JsonBridgeI jsonBridge = JavascriptEngineManager.unique().getProvider().newJsonBridge();
+        //the scripts using features not supported by the proxies receive native objects
+        jsonBridge.setNativeObjects(NATIVE_OBJECTS_REQUIRED_PATTERN.matcher(algorithm).find());
+        parameters.put("_jsonBridge", jsonBridge);
+        String alg = "_jsonBridge.bind(this);out=function(o){return _jsonBridge.isProxy(o)?_jsonBridge.out(o):JSON.stringify(o);};\n";
         if(allowMicroserviceCall) {
 
-            parameters.put("_callMicroservice", (Function<String, Function<String, Function<String, String>>>) (microserviceId) -> (operationId) -> (microserviceInputs) -> {
+            parameters.put("_callMicroservice", (Function<String, Function<String, Function<String, JsonObject>>>) (microserviceId) -> (operationId) -> (microserviceInputs) -> {
                 try {
                     String msId = microserviceId == null || microserviceId.isEmpty() ? defaultMicroserviceId : microserviceId;
-                    return MicroserviceController.unique().callMicroserviceForced(msId, operationId, Json.createReader(new StringReader(microserviceInputs)).readObject()).toString();
+                    return MicroserviceController.unique().callMicroserviceForced(msId, operationId, Json.createReader(new StringReader(microserviceInputs)).readObject());
                 } catch (Exception e) {
                     throw new RuntimeException(e);
                 }
             });
-            alg += "callMicroservice=function(microserviceId, operationId, microserviceInputs){return JSON.parse(_callMicroservice.apply(microserviceId).apply(operationId).apply(JSON.stringify(microserviceInputs)));};\n";
+            alg += "callMicroservice=function(microserviceId, operationId, microserviceInputs){return _jsonBridge.wrap(_callMicroservice.apply(microserviceId).apply(operationId).apply(JSON.stringify(microserviceInputs)));};\n";
             
-            parameters.put("_callMicroserviceNT", (Function<String, Function<String, Function<String, String>>>) (microserviceId) -> (operationId) -> (microserviceInputs) -> {
+            parameters.put("_callMicroserviceNT", (Function<String, Function<String, Function<String, JsonObject>>>) (microserviceId) -> (operationId) -> (microserviceInputs) -> {
                 try {
                     String msId = microserviceId == null || microserviceId.isEmpty() ? defaultMicroserviceId : microserviceId;
-                    return MicroserviceController.unique().callMicroserviceForcedNoThread(msId, operationId, Json.createReader(new StringReader(microserviceInputs)).readObject()).toString();
+                    return MicroserviceController.unique().callMicroserviceForcedNoThread(msId, operationId, Json.createReader(new StringReader(microserviceInputs)).readObject());
                 } catch (Exception e) {
                     throw new RuntimeException(e);
                 }
             });
-            alg += "callMicroserviceNT=function(microserviceId, operationId, microserviceInputs){return JSON.parse(_callMicroserviceNT.apply(microserviceId).apply(operationId).apply(JSON.stringify(microserviceInputs)));};\n";
+            alg += "callMicroserviceNT=function(microserviceId, operationId, microserviceInputs){return _jsonBridge.wrap(_callMicroserviceNT.apply(microserviceId).apply(operationId).apply(JSON.stringify(microserviceInputs)));};\n";
             
-            parameters.put("_callSyncConnectorForced", (Function<String, String>) (connectorConfiguration) -> {
+            parameters.put("_callSyncConnectorForced", (Function<String, JsonObject>) (connectorConfiguration) -> {
                 try {
-                    return MicroserviceController.unique().callSyncConnectorForced(Json.createReader(new StringReader(connectorConfiguration)).readObject()).toString();
+                    return MicroserviceController.unique().callSyncConnectorForced(Json.createReader(new StringReader(connectorConfiguration)).readObject());
                 } catch (Exception e) {
                     throw new RuntimeException(e);
                 }
             });
-            alg += "callSyncConnectorForced=function(connectorConfiguration){return JSON.parse(_callSyncConnectorForced.apply(JSON.stringify(connectorConfiguration)));};\n";
+            alg += "callSyncConnectorForced=function(connectorConfiguration){return _jsonBridge.wrap(_callSyncConnectorForced.apply(JSON.stringify(connectorConfiguration)));};\n";
+            
+            parameters.put("_callMicroservicesParallel", (Function<String, Function<Number, JsonArray>>) (callList) -> (maxParallelism) -> {
+                try {
+                    List<JsonObject> callObjectList = new ArrayList<JsonObject>();
+                    for(JsonValue call : Json.createReader(new StringReader(callList)).readArray()) {
+                        JsonObject callObject = call.asJsonObject();
+                        if(callObject.getString("microserviceId", "").isEmpty() && defaultMicroserviceId != null)
+                            callObject = Json.createObjectBuilder(callObject).add("microserviceId", defaultMicroserviceId).build();
+                        callObjectList.add(callObject);
+                    }
+                    return MicroserviceController.unique().callMicroservicesParallel(callObjectList, maxParallelism == null ? 0 : maxParallelism.intValue());
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            alg += "callMicroservicesParallel=function(callList, maxParallelism){return _jsonBridge.wrap(_callMicroservicesParallel.apply(JSON.stringify(callList)).apply(maxParallelism||0));};\n";
         }
         
         alg += algorithm;
@@ -469,7 +553,7 @@ public class Utils {
         //return javascriptSafeEval(parameters, algorithm, true, false, false, false, null, 20);
     }
     public static Object javascriptSafeEval(HashMap<String, Object> parameters, String algorithm, boolean enableSecurityManager, boolean disableCriticalJSFunctions, boolean disableLoadJSFunctions, boolean defaultDenyJavaClasses, List<String> javaClassesExceptionList, int maxAllowedExecTimeInSeconds) throws Exception {
-        // integrate separate monitor for memory consumption: https://github.com/javadelight/delight-nashorn-sandbox/blob/master/src/main/java/delight/nashornsandbox/internal/ThreadMonitor.java 
+        //the CPU time and the memory allocated are monitored by the ScriptWatchdog when the call is bound to ScriptLimits
         //Think on executing the js not in a separate thread but in a separate process
         System.setProperty("java.net.useSystemProxies", "true");
         
@@ -528,96 +612,32 @@ public class Utils {
                 */
                 
                 
-                //JDK 11+ ready
-                final ScriptEngine engine = new org.openjdk.nashorn.api.scripting.NashornScriptEngineFactory().getScriptEngine(new org.openjdk.nashorn.api.scripting.ClassFilter() {
-
-                    @Override
-                    public boolean exposeToScripts(String className) {
-                        if(javaClassesExceptionList != null && javaClassesExceptionList.contains(className))
-                            return defaultDenyJavaClasses;
-                        return !defaultDenyJavaClasses;
-                    }
-                });
-                
-                /*
-                //JDK 8-11
-                engine = new jdk.nashorn.api.scripting.NashornScriptEngineFactory().getScriptEngine(new jdk.nashorn.api.scripting.ClassFilter() {
-                    @Override
-                    public boolean exposeToScripts(String className) {
-                        if(javaClassesExceptionList != null && javaClassesExceptionList.contains(className))
-                            return defaultDenyJavaClasses;
-                        return !defaultDenyJavaClasses;
-                    }
-                });
-                */
-                
-                if(parameters != null)
-                    for(Entry<String, Object> entry : parameters.entrySet())
-                        engine.put(entry.getKey(), entry.getValue());
-                
-                if(disableCriticalJSFunctions)
-                    engine.eval("quit=function(){throw 'quit() not allowed';};exit=function(){throw 'exit() not allowed';};print=function(){throw 'print() not allowed';};echo=function(){throw 'echo() not allowed';};readFully=function(){throw 'readFully() not allowed';};readLine=function(){throw 'readLine() not allowed';};$ARG=null;$ENV=null;$EXEC=null;$OPTIONS=null;$OUT=null;$ERR=null;$EXIT=null;");
-                    //engine.eval("quit=function(){throw 'quit() not allowed';};exit=function(){throw 'exit() not allowed';};readFully=function(){throw 'readFully() not allowed';};readLine=function(){throw 'readLine() not allowed';};$ARG=null;$ENV=null;$EXEC=null;$OPTIONS=null;$OUT=null;$ERR=null;$EXIT=null;");
+                //every evaluation is isolated from the others by the engine provider
+                final ScriptEngineProviderI.ScriptEvaluationI scriptEvaluation = JavascriptEngineManager.unique().getProvider().prepare(parameters, disableCriticalJSFunctions, disableLoadJSFunctions, defaultDenyJavaClasses, javaClassesExceptionList);
                 
-                if(disableLoadJSFunctions)
-                    engine.eval("load=function(){throw 'load() not allowed';};loadWithNewGlobal=function(){throw 'loadWithNewGlobal() not allowed';};");
+                //the script is stopped also when the deadline of the current call is reached
+                long maxExecTimeMs = maxAllowedExecTimeInSeconds<1 ? 0 : 1000L*maxAllowedExecTimeInSeconds;
+                long timeoutMs = CallContext.getCurrentTimeoutMillis(maxExecTimeMs);
+                final CallContext callContext = CallContext.current();
+                //the resources used are limited and accounted for the microservice operation in execution
+                final ScriptLimits scriptLimits = ScriptLimits.current();
                 
-                //nashorn-polyfill.js
-                engine.eval("var global=this;var window=this;var process={env:{}};var console={};console.debug=print;console.log=print;console.warn=print;console.error=print;");
-                
-                class ScriptMonitor{
-                    public Object scriptResult = null;
-                    public Throwable  lastException = null;
-                    private boolean stop = false;
-                    Object lock = new Object();
-                    @SuppressWarnings("deprecation")
-                    public void startAndWait(Thread threadToMonitor, int secondsToWait) throws Exception {
-                        threadToMonitor.start();
-                        synchronized (lock) {
-                            if(!stop) {
-                                try {
-                                    if(secondsToWait<1)
-                                        lock.wait();
-                                    else
-                                        lock.wait(1000*secondsToWait);
-                                } catch (InterruptedException e) {
-                                    throw new RuntimeException(e);
-                                }
-                            }
-                        }
-                        if(!stop) {
-                            threadToMonitor.interrupt();
-                            threadToMonitor.stop();
-                            throw new Exception("Javascript forced to termination: Execution time bigger then " + secondsToWait + " seconds");
-                        }
-                        if(lastException != null)
-                            throw new Exception("Error occurred in the Javascript execution: " + lastException.toString());
-                    }
-                    public void stop() {
-                        synchronized (lock) {
-                            stop = true;
-                            lock.notifyAll();
-                        }
-                    }
+                ScriptWatchdog.ScriptExecution scriptExecution = null;
+                try {
+                    scriptExecution = ScriptWatchdog.unique().execute(() -> callContext == null ? scriptEvaluation.eval(algorithm) : callContext.call(() -> scriptEvaluation.eval(algorithm)), timeoutMs, scriptLimits, scriptEvaluation::cancel);
+                    return scriptExecution.get();
+                } catch (TimeoutException e) {
+                    if(maxExecTimeMs<1 || timeoutMs<maxExecTimeMs)
+                        throw new CallDeadlineExceededException("Javascript forced to termination: the call deadline has been exceeded");
+                    throw new Exception("Javascript forced to termination: Execution time bigger then " + maxAllowedExecTimeInSeconds + " seconds");
+                } catch (ScriptWatchdog.ResourceLimitExceededException e) {
+                    throw new Exception("Javascript forced to termination: " + e.getMessage());
+                } catch (ExecutionException e) {
+                    throw new Exception("Error occurred in the Javascript execution: " + e.getCause().toString());
+                } finally {
+                    //an engine interrupted in the middle of an evaluation can be in an inconsistent state
+                    scriptEvaluation.close(scriptExecution != null && !scriptExecution.isForcedTermination());
                 }
-                final ScriptMonitor scriptMonitor = new ScriptMonitor();
-                
-                scriptMonitor.startAndWait(new Thread(new Runnable() {
-                    @Override
-                    public void run() {
-                        try {
-                            scriptMonitor.scriptResult = engine.eval(algorithm);
-                        } catch (Throwable e) {
-                            scriptMonitor.lastException = e;
-                            //throw new RuntimeException(e);
-                        } finally {
-                            scriptMonitor.stop();
-                        }
-                    }
-                }), maxAllowedExecTimeInSeconds);
-                
-                Object ret = scriptMonitor.scriptResult;
-                return ret;
             } finally {
                 if(enableSecurityManager)
                     System.setSecurityManager(originalSecurityManager);
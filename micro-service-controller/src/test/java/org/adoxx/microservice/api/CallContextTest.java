@@ -0,0 +1,166 @@
+package org.adoxx.microservice.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * The {@link CallContext} must carry the deadline of a call to its nested calls and to the threads working for it, and cancel the registered steps at the deadline<br>
+ */
+public class CallContextTest {
+
+    private ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testBinding() throws Exception {
+        assertNull(CallContext.current());
+        CallContext callContext = CallContext.withTimeout(10000);
+        CallContext bound = callContext.call(() -> CallContext.current());
+        assertSame(callContext, bound);
+        assertNull(CallContext.current());
+    }
+
+    @Test
+    public void testNoDeadline() throws Exception {
+        CallContext callContext = CallContext.withTimeout(0);
+        assertFalse(callContext.hasDeadline());
+        assertEquals(Long.MAX_VALUE, callContext.getRemainingMillis());
+        callContext.call(() -> {
+            assertEquals(0, CallContext.getCurrentTimeoutMillis(0));
+            assertEquals(500, CallContext.getCurrentTimeoutMillis(500));
+            CallContext.checkCurrentDeadline();
+            return null;
+        });
+    }
+
+    @Test
+    public void testNestedContextKeepEarlierDeadline() throws Exception {
+        CallContext parent = CallContext.withTimeout(1000);
+        parent.call(() -> {
+            //a longer nested timeout can not extend the deadline
+            assertSame(parent, CallContext.withTimeout(60000));
+            //a nested call without timeout keep the parent deadline
+            assertSame(parent, CallContext.withTimeout(0));
+            CallContext nested = CallContext.withTimeout(100);
+            assertTrue(nested != parent);
+            assertTrue(nested.getRemainingMillis() <= 100);
+            return null;
+        });
+    }
+
+    @Test
+    public void testTimeoutLimitedByDeadline() throws Exception {
+        CallContext.withTimeout(1000).call(() -> {
+            long timeoutMs = CallContext.getCurrentTimeoutMillis(60000);
+            assertTrue(timeoutMs > 0 && timeoutMs <= 1000);
+            assertEquals(10, CallContext.getCurrentTimeoutMillis(10));
+            //no timeout become the remaining time
+            long remainingMs = CallContext.getCurrentTimeoutMillis(0);
+            assertTrue(remainingMs > 0 && remainingMs <= 1000);
+            return null;
+        });
+    }
+
+    @Test
+    public void testDeadlineExceeded() throws Exception {
+        CallContext.withTimeout(50).call(() -> {
+            Thread.sleep(100);
+            try {
+                CallContext.checkCurrentDeadline();
+                fail("the deadline is passed");
+            } catch(CallDeadlineExceededException ex) {
+                assertTrue(ex.getMessage().contains("50 ms"));
+            }
+            try {
+                CallContext.getCurrentTimeoutMillis(1000);
+                fail("the deadline is passed");
+            } catch(CallDeadlineExceededException ex) {}
+            return null;
+        });
+    }
+
+    @Test
+    public void testPropagate() throws Exception {
+        CallContext callContext = CallContext.withTimeout(10000);
+        AtomicReference<CallContext> propagated = new AtomicReference<CallContext>();
+        AtomicReference<CallContext> afterTask = new AtomicReference<CallContext>();
+        Runnable task = callContext.call(() -> CallContext.propagate(() -> propagated.set(CallContext.current())));
+        executor.submit(task).get(10, TimeUnit.SECONDS);
+        executor.submit(() -> afterTask.set(CallContext.current())).get(10, TimeUnit.SECONDS);
+        assertSame(callContext, propagated.get());
+        //the worker thread is released from the context at the end of the task
+        assertNull(afterTask.get());
+        //without a context the task is not wrapped
+        Runnable plainTask = () -> {};
+        assertSame(plainTask, CallContext.propagate(plainTask));
+    }
+
+    @Test
+    public void testCancelHookAtDeadline() throws Exception {
+        CountDownLatch cancelled = new CountDownLatch(1);
+        CallContext callContext = CallContext.withTimeout(100);
+        callContext.call(() -> CallContext.onCurrentCancel(cancelled::countDown));
+        assertTrue(cancelled.await(10, TimeUnit.SECONDS));
+        assertTrue(callContext.isCancelled());
+        try {
+            callContext.checkDeadline();
+            fail("the context is cancelled");
+        } catch(CallDeadlineExceededException ex) {}
+    }
+
+    @Test
+    public void testDeregisteredCancelHook() throws Exception {
+        AtomicInteger cancelled = new AtomicInteger(0);
+        CallContext callContext = CallContext.withTimeout(100);
+        Runnable deregistration = callContext.onCancel(cancelled::incrementAndGet);
+        deregistration.run();
+        Thread.sleep(300);
+        assertEquals(0, cancelled.get());
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        AtomicInteger cancelled = new AtomicInteger(0);
+        CallContext callContext = CallContext.withTimeout(60000);
+        callContext.onCancel(cancelled::incrementAndGet);
+        callContext.onCancel(() -> { throw new RuntimeException("failing hook"); });
+        callContext.onCancel(cancelled::incrementAndGet);
+        callContext.cancel();
+        callContext.cancel();
+        //all the hooks are executed once, also after a failing one
+        assertEquals(2, cancelled.get());
+        //a hook registered after the cancellation is executed immediately
+        callContext.onCancel(cancelled::incrementAndGet);
+        assertEquals(3, cancelled.get());
+    }
+
+    @Test
+    public void testNoHookWithoutDeadline() throws Exception {
+        AtomicInteger cancelled = new AtomicInteger(0);
+        CallContext callContext = CallContext.withTimeout(0);
+        callContext.onCancel(cancelled::incrementAndGet);
+        callContext.cancel();
+        assertEquals(0, cancelled.get());
+        //without a context there is nothing to deregister
+        CallContext.onCurrentCancel(cancelled::incrementAndGet).run();
+        assertEquals(0, cancelled.get());
+    }
+}
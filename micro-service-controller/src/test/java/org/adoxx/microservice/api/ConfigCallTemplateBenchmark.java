@@ -0,0 +1,89 @@
+package org.adoxx.microservice.api;
+
+import java.io.File;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonValue;
+
+import org.adoxx.microservice.utils.Utils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compare the rendering of the configCall of the operations in the SERVICES folder through the {@link ConfigCallTemplate} with the text substitution used before it (serialize, replace every matchingName, parse).<br>
+ * Run from the micro-service-controller folder after the test compilation with the main method, for example:
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.adoxx.microservice.api.ConfigCallTemplateBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConfigCallTemplateBenchmark {
+
+    //the biggest configCall of the bundled services (8.6 KB, 2 inputs) and a small one (1 input)
+    @Param({"92d44336-4d0f-42cd-a944-8611b3cc4aa6/orchestrated", "92d44336-4d0f-42cd-a944-8611b3cc4aa6/testSchemaGeneration", "2daf6c38-4579-4929-8d72-4d869c9bcc4e/getService"})
+    public String operation;
+
+    private JsonObject configCall;
+    private String[] matchingNames;
+    private String[] values;
+    private ConfigCallTemplate configCallTemplate;
+
+    @Setup
+    public void setUp() throws Exception {
+        String[] microserviceOperation = operation.split("/");
+        JsonObject microserviceConfiguration = Json.createReader(new StringReader(new String(Utils.readFile(new File("../SERVICES/" + microserviceOperation[0] + ".json")), "UTF-8"))).readObject();
+        JsonObject configuration = microserviceConfiguration.getJsonObject("operations").getJsonObject(microserviceOperation[1]).getJsonObject("configuration");
+        configCall = configuration.getJsonObject("configCall");
+        JsonObject inputs = configuration.getJsonObject("inputs");
+        matchingNames = new String[inputs.size()];
+        values = new String[inputs.size()];
+        int i = 0;
+        for(JsonValue input : inputs.values()) {
+            matchingNames[i] = input.asJsonObject().getString("matchingName");
+            //a value with characters to escape
+            values[i] = "value \"" + i + "\" of the input\n" + input.asJsonObject().getString("workingExample", "");
+            i++;
+        }
+        configCallTemplate = new ConfigCallTemplate(configCall, matchingNames);
+        if(!configCallTemplate.isCompiled())
+            throw new Exception("The configCall of " + operation + " is not compiled");
+        if(!configCallTemplate.render(values).equals(textSubstitution()))
+            throw new Exception("The template of " + operation + " render a different configuration");
+    }
+
+    @Benchmark
+    public JsonObject textSubstitution() {
+        String configCallString = configCall.toString();
+        for(int i = 0; i < matchingNames.length; i++)
+            configCallString = configCallString.replace(matchingNames[i], Utils.escapeJson(values[i]));
+        return Json.createReader(new StringReader(configCallString)).readObject();
+    }
+
+    @Benchmark
+    public JsonObject template() throws Exception {
+        return configCallTemplate.render(values);
+    }
+
+    public static void main(String[] argv) throws Exception {
+        new Runner(new OptionsBuilder().include(ConfigCallTemplateBenchmark.class.getSimpleName()).build()).run();
+    }
+}
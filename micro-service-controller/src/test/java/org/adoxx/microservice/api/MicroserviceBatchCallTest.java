@@ -0,0 +1,175 @@
+package org.adoxx.microservice.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * The {@link MicroserviceBatchCall} must return one result for every item in completion order, limiting the items in execution at the same time<br>
+ */
+public class MicroserviceBatchCallTest {
+
+    private ExecutorService executor = Executors.newCachedThreadPool();
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testCompletionOrder() throws Exception {
+        //the items with an higher index complete first
+        MicroserviceBatchCall batchCall = new MicroserviceBatchCall(5, index -> {
+            Thread.sleep((5 - index) * 100);
+            return data(index);
+        }, executor, () -> {});
+        batchCall.start(5);
+        List<Integer> indexList = new ArrayList<Integer>();
+        while(batchCall.hasNext()) {
+            JsonObject result = batchCall.next();
+            assertEquals(0, result.getInt("status"));
+            assertEquals(data(result.getInt("index")), result.getJsonObject("data"));
+            indexList.add(result.getInt("index"));
+        }
+        assertEquals(java.util.Arrays.asList(4, 3, 2, 1, 0), indexList);
+        try {
+            batchCall.next();
+            fail("all the results have been returned");
+        } catch(NoSuchElementException ex) {}
+    }
+
+    @Test
+    public void testParallelism() throws Exception {
+        AtomicInteger running = new AtomicInteger(0);
+        AtomicInteger maxRunning = new AtomicInteger(0);
+        CountDownLatch completed = new CountDownLatch(1);
+        MicroserviceBatchCall batchCall = new MicroserviceBatchCall(40, index -> {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            Thread.sleep(5);
+            running.decrementAndGet();
+            return data(index);
+        }, executor, completed::countDown);
+        batchCall.start(3);
+        Set<Integer> indexList = new HashSet<Integer>();
+        while(batchCall.hasNext())
+            indexList.add(batchCall.next().getInt("index"));
+        assertEquals(40, indexList.size());
+        assertTrue(maxRunning.get() <= 3);
+        assertTrue(completed.await(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testItemErrors() throws Exception {
+        MicroserviceBatchCall batchCall = new MicroserviceBatchCall(3, index -> {
+            if(index == 1)
+                throw new OperationOverloadedException("overloaded");
+            if(index == 2)
+                throw new Exception("failed");
+            return data(index);
+        }, executor, () -> {});
+        batchCall.start(1);
+        JsonObject[] resultList = new JsonObject[3];
+        while(batchCall.hasNext()) {
+            JsonObject result = batchCall.next();
+            resultList[result.getInt("index")] = result;
+        }
+        assertEquals(0, resultList[0].getInt("status"));
+        //the overloaded items can be retried
+        assertEquals(-2, resultList[1].getInt("status"));
+        assertEquals("overloaded", resultList[1].getString("error"));
+        assertEquals(-1, resultList[2].getInt("status"));
+        assertEquals("failed", resultList[2].getString("error"));
+    }
+
+    @Test
+    public void testClose() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger executed = new AtomicInteger(0);
+        CountDownLatch completed = new CountDownLatch(1);
+        MicroserviceBatchCall batchCall = new MicroserviceBatchCall(10, index -> {
+            executed.incrementAndGet();
+            started.countDown();
+            release.await();
+            return data(index);
+        }, executor, completed::countDown);
+        batchCall.start(1);
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        batchCall.close();
+        release.countDown();
+        int failed = 0;
+        while(batchCall.hasNext())
+            if(batchCall.next().getInt("status") == -1)
+                failed++;
+        //the item in execution is completed, the others are not started
+        assertEquals(1, executed.get());
+        assertEquals(9, failed);
+        assertTrue(completed.await(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testExecutorNotAvailable() throws Exception {
+        AtomicInteger completed = new AtomicInteger(0);
+        MicroserviceBatchCall batchCall = new MicroserviceBatchCall(3, index -> data(index), task -> { throw new RejectedExecutionException("shut down"); }, completed::incrementAndGet);
+        batchCall.start(2);
+        for(int i = 0; i < 3; i++)
+            assertEquals(-1, batchCall.next().getInt("status"));
+        assertFalse(batchCall.hasNext());
+        assertEquals(1, completed.get());
+    }
+
+    @Test
+    public void testEmptyBatch() throws Exception {
+        AtomicInteger completed = new AtomicInteger(0);
+        MicroserviceBatchCall batchCall = new MicroserviceBatchCall(0, index -> data(index), executor, completed::incrementAndGet);
+        batchCall.start(8);
+        assertEquals(0, batchCall.size());
+        assertFalse(batchCall.hasNext());
+        assertEquals(1, completed.get());
+    }
+
+    @Test
+    public void testCallContextPropagation() throws Exception {
+        CallContext callContext = CallContext.withTimeout(60000);
+        List<CallContext> itemContextList = new ArrayList<CallContext>();
+        MicroserviceBatchCall batchCall = callContext.call(() -> {
+            MicroserviceBatchCall newBatchCall = new MicroserviceBatchCall(4, index -> {
+                synchronized (itemContextList) {
+                    itemContextList.add(CallContext.current());
+                }
+                return data(index);
+            }, executor, () -> {});
+            newBatchCall.start(2);
+            return newBatchCall;
+        });
+        while(batchCall.hasNext())
+            batchCall.next();
+        assertEquals(4, itemContextList.size());
+        for(CallContext itemContext : itemContextList)
+            assertSame(callContext, itemContext);
+    }
+
+    private static JsonObject data(int index) {
+        return Json.createObjectBuilder().add("value", "item " + index).build();
+    }
+}
@@ -0,0 +1,163 @@
+package org.adoxx.microservice.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * The {@link OperationBulkhead} must run at most maxConcurrentCalls calls, queue at most maxQueuedCalls calls and reject the others<br>
+ */
+public class OperationBulkheadTest {
+
+    private ExecutorService executor = Executors.newCachedThreadPool();
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testConcurrentCalls() throws Exception {
+        OperationBulkhead bulkhead = new OperationBulkhead("service", "operation", 2, 0, 100);
+        bulkhead.acquire();
+        bulkhead.acquire();
+        assertEquals(2, bulkhead.getStatus().getInt("activeCalls"));
+        bulkhead.release();
+        bulkhead.acquire();
+        bulkhead.release();
+        bulkhead.release();
+        assertEquals(0, bulkhead.getStatus().getInt("activeCalls"));
+    }
+
+    @Test
+    public void testRejectWhenQueueFull() throws Exception {
+        OperationBulkhead bulkhead = new OperationBulkhead("service", "operation", 1, 1, 10000);
+        bulkhead.acquire();
+        Future<?> queued = executor.submit(() -> {
+            bulkhead.acquire();
+            bulkhead.release();
+            return null;
+        });
+        waitQueued(bulkhead, 1);
+        try {
+            bulkhead.acquire();
+            fail("the queue is full");
+        } catch(OperationOverloadedException ex) {
+            assertTrue(ex.getMessage().contains("1 calls in execution and 1 in queue"));
+        }
+        assertEquals(1, bulkhead.getStatus().getInt("rejectedCalls"));
+        //the queued call get the permit when released
+        bulkhead.release();
+        queued.get(10, TimeUnit.SECONDS);
+        assertEquals(0, bulkhead.getStatus().getInt("queuedCalls"));
+        assertEquals(0, bulkhead.getStatus().getInt("activeCalls"));
+    }
+
+    @Test
+    public void testNoQueue() throws Exception {
+        OperationBulkhead bulkhead = new OperationBulkhead("service", "operation", 1, 0, 10000);
+        bulkhead.acquire();
+        long start = System.nanoTime();
+        try {
+            bulkhead.acquire();
+            fail("the calls over the limit are rejected without a queue");
+        } catch(OperationOverloadedException ex) {}
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+    }
+
+    @Test
+    public void testQueueTimeout() throws Exception {
+        OperationBulkhead bulkhead = new OperationBulkhead("service", "operation", 1, 1, 100);
+        bulkhead.acquire();
+        long start = System.nanoTime();
+        try {
+            bulkhead.acquire();
+            fail("no permit is released");
+        } catch(OperationOverloadedException ex) {
+            assertTrue(ex.getMessage().contains("after 100 ms"));
+        }
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(100));
+        assertEquals(1, bulkhead.getStatus().getInt("timedOutCalls"));
+        assertEquals(0, bulkhead.getStatus().getInt("queuedCalls"));
+    }
+
+    @Test
+    public void testQueueTimeoutLimitedByDeadline() throws Exception {
+        OperationBulkhead bulkhead = new OperationBulkhead("service", "operation", 1, 1, 10000);
+        bulkhead.acquire();
+        long start = System.nanoTime();
+        try {
+            CallContext.withTimeout(100).call(() -> {
+                bulkhead.acquire();
+                return null;
+            });
+            fail("no permit is released");
+        } catch(CallDeadlineExceededException ex) {}
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+    }
+
+    @Test
+    public void testZeroQueueTimeoutWaitUntilDeadline() throws Exception {
+        OperationBulkhead bulkhead = new OperationBulkhead("service", "operation", 1, 1, 0);
+        bulkhead.acquire();
+        long start = System.nanoTime();
+        try {
+            CallContext.withTimeout(200).call(() -> {
+                bulkhead.acquire();
+                return null;
+            });
+            fail("no permit is released");
+        } catch(CallDeadlineExceededException ex) {}
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue(elapsedMs >= 150 && elapsedMs < 5000);
+    }
+
+    @Test
+    public void testZeroQueueTimeoutWithoutDeadline() throws Exception {
+        OperationBulkhead bulkhead = new OperationBulkhead("service", "operation", 1, 1, 0);
+        bulkhead.acquire();
+        CountDownLatch acquired = new CountDownLatch(1);
+        Future<?> queued = executor.submit(() -> {
+            bulkhead.acquire();
+            acquired.countDown();
+            bulkhead.release();
+            return null;
+        });
+        waitQueued(bulkhead, 1);
+        //without deadline the queued call wait for the permit without timeout
+        assertTrue(!acquired.await(300, TimeUnit.MILLISECONDS));
+        try {
+            queued.get(1, TimeUnit.MILLISECONDS);
+            fail("the queued call must still wait");
+        } catch(TimeoutException ex) {}
+        bulkhead.release();
+        queued.get(10, TimeUnit.SECONDS);
+        assertEquals(0, bulkhead.getStatus().getInt("timedOutCalls"));
+    }
+
+    @Test
+    public void testHasLimits() {
+        OperationBulkhead bulkhead = new OperationBulkhead("service", "operation", 1, 2, 3);
+        assertTrue(bulkhead.hasLimits(1, 2, 3));
+        assertTrue(!bulkhead.hasLimits(1, 2, 0));
+    }
+
+    private static void waitQueued(OperationBulkhead bulkhead, int queuedCalls) throws Exception {
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while(bulkhead.getStatus().getInt("queuedCalls") != queuedCalls) {
+            if(System.nanoTime() > end)
+                fail("the call is not queued");
+            Thread.sleep(5);
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package org.adoxx.microservice.api.connectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+
+import org.adoxx.microservice.api.connectors.AsyncResponseDispatcher.OverflowPolicy;
+import org.adoxx.microservice.utils.ExecutorManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * The lanes of the {@link AsyncResponseDispatcher} must keep the order of their responses and never block all the workers when they are full<br>
+ */
+public class AsyncResponseDispatcherTest {
+
+    private int maxQueueDepth;
+    private OverflowPolicy overflowPolicy;
+    private List<String> laneKeyList = new ArrayList<String>();
+
+    @Before
+    public void saveConfiguration() {
+        maxQueueDepth = AsyncResponseDispatcher.maxQueueDepth;
+        overflowPolicy = AsyncResponseDispatcher.overflowPolicy;
+    }
+
+    @After
+    public void restoreConfiguration() {
+        for(String laneKey : laneKeyList)
+            AsyncResponseDispatcher.unique().closeLane(laneKey);
+        AsyncResponseDispatcher.maxQueueDepth = maxQueueDepth;
+        AsyncResponseDispatcher.overflowPolicy = overflowPolicy;
+    }
+
+    @Test
+    public void testDefaultPolicy() {
+        assertEquals(OverflowPolicy.CALLER_RUNS, overflowPolicy);
+    }
+
+    @Test
+    public void testCallerRunsKeepOrder() throws Exception {
+        assertOrderKept(OverflowPolicy.CALLER_RUNS);
+    }
+
+    @Test
+    public void testBlockKeepOrder() throws Exception {
+        assertOrderKept(OverflowPolicy.BLOCK);
+    }
+
+    @Test
+    public void testCallerRunsHandlersDispatchingToFullLanes() throws Exception {
+        assertNoDeadlock(OverflowPolicy.CALLER_RUNS);
+    }
+
+    @Test
+    public void testBlockHandlersDispatchingToFullLanes() throws Exception {
+        assertNoDeadlock(OverflowPolicy.BLOCK);
+    }
+
+    @Test
+    public void testDrop() throws Exception {
+        AsyncResponseDispatcher.maxQueueDepth = 1;
+        AsyncResponseDispatcher.overflowPolicy = OverflowPolicy.DROP;
+        String laneKey = newLaneKey();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AsyncResponseHandlerI handler = asyncResponse -> {
+            started.countDown();
+            release.await();
+        };
+        AsyncResponseDispatcher.unique().dispatch(laneKey, handler, response(0));
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        //the first is handled, the second queued and the others discarded without blocking the producer
+        for(int i = 1; i < 10; i++)
+            AsyncResponseDispatcher.unique().dispatch(laneKey, handler, response(i));
+        assertEquals(8, AsyncResponseDispatcher.unique().getLaneMetrics(laneKey).getJsonNumber("dropped").longValue());
+        release.countDown();
+    }
+
+    private void assertOrderKept(OverflowPolicy policy) throws Exception {
+        AsyncResponseDispatcher.maxQueueDepth = 2;
+        AsyncResponseDispatcher.overflowPolicy = policy;
+        String laneKey = newLaneKey();
+        int total = 500;
+        List<Integer> handledList = Collections.synchronizedList(new ArrayList<Integer>());
+        CountDownLatch done = new CountDownLatch(total);
+        AsyncResponseHandlerI handler = asyncResponse -> {
+            handledList.add(asyncResponse.getInt("index"));
+            done.countDown();
+        };
+        Thread producer = new Thread(() -> {
+            try {
+                for(int i = 0; i < total; i++)
+                    AsyncResponseDispatcher.unique().dispatch(laneKey, handler, response(i));
+            } catch(Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        producer.start();
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+        producer.join();
+        for(int i = 0; i < total; i++)
+            assertEquals(i, handledList.get(i).intValue());
+    }
+
+    //every lane handler dispatch a burst of responses to the next full lane, using more lanes than workers
+    private void assertNoDeadlock(OverflowPolicy policy) throws Exception {
+        AsyncResponseDispatcher.maxQueueDepth = 1;
+        AsyncResponseDispatcher.overflowPolicy = policy;
+        int laneCount = 2 * ExecutorManager.asyncDispatcherWorkers + 1;
+        int burst = 20;
+        List<String> laneList = new ArrayList<String>();
+        for(int i = 0; i < laneCount; i++)
+            laneList.add(newLaneKey());
+        CountDownLatch done = new CountDownLatch(laneCount * burst);
+        List<AsyncResponseHandlerI> handlerList = new ArrayList<AsyncResponseHandlerI>();
+        for(int i = 0; i < laneCount; i++) {
+            String nextLaneKey = laneList.get((i + 1) % laneCount);
+            handlerList.add(asyncResponse -> {
+                if(asyncResponse.getBoolean("seed", false)) {
+                    for(int j = 0; j < burst; j++)
+                        AsyncResponseDispatcher.unique().dispatch(nextLaneKey, handlerList.get(laneList.indexOf(nextLaneKey)), response(j));
+                } else {
+                    Thread.sleep(1);
+                    done.countDown();
+                }
+            });
+        }
+        for(int i = 0; i < laneCount; i++)
+            AsyncResponseDispatcher.unique().dispatch(laneList.get(i), handlerList.get(i), Json.createObjectBuilder().add("seed", true).build());
+        assertTrue("the dispatcher workers are blocked", done.await(30, TimeUnit.SECONDS));
+    }
+
+    private String newLaneKey() {
+        String laneKey = UUID.randomUUID().toString();
+        laneKeyList.add(laneKey);
+        return laneKey;
+    }
+
+    private static JsonObject response(int index) {
+        return Json.createObjectBuilder().add("index", index).build();
+    }
+}
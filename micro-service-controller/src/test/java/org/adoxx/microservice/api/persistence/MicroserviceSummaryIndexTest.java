@@ -0,0 +1,282 @@
+package org.adoxx.microservice.api.persistence;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonObject;
+
+import org.adoxx.microservice.utils.Utils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * The {@link MicroserviceSummaryIndex} must return the same pages of a listing of all the configurations, reading again only the configurations changed since the index was saved<br>
+ */
+public class MicroserviceSummaryIndexTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private long saveDelayMs;
+    private MemoryStore store;
+    private String indexFile;
+
+    //a store counting the configurations read, with a stamp incremented at every write
+    private static class MemoryStore implements PersistenceI {
+        final TreeMap<String, JsonObject> configurationList = new TreeMap<String, JsonObject>();
+        final Map<String, Long> stampList = new HashMap<String, Long>();
+        int retrieved = 0;
+
+        @Override
+        public String saveMicroserviceConfiguration(JsonObject microserviceConfiguration) throws Exception {
+            String microserviceId = "id-" + configurationList.size();
+            updateMicroserviceConfiguration(microserviceId, microserviceConfiguration);
+            return microserviceId;
+        }
+
+        @Override
+        public void updateMicroserviceConfiguration(String microserviceId, JsonObject microserviceConfiguration) throws Exception {
+            configurationList.put(microserviceId, microserviceConfiguration);
+            stampList.merge(microserviceId, 1L, Long::sum);
+        }
+
+        @Override
+        public void deleteMicroserviceConfiguration(String microserviceId) throws Exception {
+            configurationList.remove(microserviceId);
+            stampList.remove(microserviceId);
+        }
+
+        @Override
+        public List<String> retrieveAllMicroservicesId() throws Exception {
+            return new ArrayList<String>(configurationList.keySet());
+        }
+
+        @Override
+        public JsonObject retrieveMicroserviceConfiguration(String microserviceId) throws Exception {
+            retrieved++;
+            JsonObject microserviceConfiguration = configurationList.get(microserviceId);
+            if(microserviceConfiguration == null)
+                throw new Exception("missing " + microserviceId);
+            return microserviceConfiguration;
+        }
+
+        @Override
+        public boolean existMicroserviceConfiguration(String microserviceId) throws Exception {
+            return configurationList.containsKey(microserviceId);
+        }
+
+        @Override
+        public long getMicroserviceConfigurationStamp(String microserviceId) throws Exception {
+            return stampList.getOrDefault(microserviceId, -1L);
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        saveDelayMs = MicroserviceSummaryIndex.saveDelayMs;
+        store = new MemoryStore();
+        //names and descriptions in a different order of the ids, with duplicated names
+        for(int i = 0; i < 25; i++)
+            store.updateMicroserviceConfiguration(String.format("id-%02d", i), configuration("Name " + ((i * 7) % 10), "description " + (char) ('z' - i), i % 3 == 0));
+        indexFile = new File(temporaryFolder.getRoot(), "index/summary.json").getAbsolutePath();
+    }
+
+    @After
+    public void tearDown() {
+        MicroserviceSummaryIndex.saveDelayMs = saveDelayMs;
+    }
+
+    @Test
+    public void testPages() throws Exception {
+        MicroserviceSummaryIndex summaryIndex = new MicroserviceSummaryIndex(store, null);
+        for(Boolean publicFilter : new Boolean[] {null, true, false})
+            for(String sortBy : new String[] {"id", "name", "description"})
+                for(boolean descending : new boolean[] {false, true}) {
+                    List<JsonObject> expectedList = expectedList(publicFilter, sortBy, descending);
+                    for(int[] offsetLimit : new int[][] {{0, 0}, {0, 10}, {5, 10}, {20, 10}, {30, 10}, {3, 1}}) {
+                        JsonObject page = summaryIndex.getSummaryPage(publicFilter, sortBy, descending, offsetLimit[0], offsetLimit[1]);
+                        int end = offsetLimit[1] <= 0 ? expectedList.size() : Math.min(offsetLimit[0] + offsetLimit[1], expectedList.size());
+                        List<JsonObject> expectedPage = offsetLimit[0] >= end ? new ArrayList<JsonObject>() : expectedList.subList(offsetLimit[0], end);
+                        String message = publicFilter + " " + sortBy + " " + descending + " " + offsetLimit[0] + " " + offsetLimit[1];
+                        assertEquals(message, expectedList.size(), page.getInt("total"));
+                        assertEquals(message, expectedPage, page.getJsonArray("microserviceList"));
+                    }
+                }
+    }
+
+    @Test
+    public void testInvalidPage() throws Exception {
+        MicroserviceSummaryIndex summaryIndex = new MicroserviceSummaryIndex(store, null);
+        try {
+            summaryIndex.getSummaryPage(null, "moreInfos", false, 0, 10);
+            fail("unsupported sorting key");
+        } catch(Exception ex) {
+            assertTrue(ex.getMessage().contains("moreInfos"));
+        }
+        try {
+            summaryIndex.getSummaryPage(null, "id", false, -1, 10);
+            fail("negative offset");
+        } catch(Exception ex) {}
+        //the default sorting is by id
+        assertEquals(summaryIndex.getSummaryPage(null, "id", false, 0, 0), summaryIndex.getSummaryPage(null, null, false, 0, 0));
+    }
+
+    @Test
+    public void testSummaryList() throws Exception {
+        MicroserviceSummaryIndex summaryIndex = new MicroserviceSummaryIndex(store, null);
+        assertEquals(expectedList(null, "id", false), summaryIndex.getSummaryList());
+        assertEquals(25, store.retrieved);
+        //the index is loaded once
+        summaryIndex.getSummaryList();
+        summaryIndex.getSummaryPage(null, "name", false, 0, 10);
+        assertEquals(25, store.retrieved);
+    }
+
+    @Test
+    public void testWrites() throws Exception {
+        MicroserviceSummaryIndex summaryIndex = new MicroserviceSummaryIndex(store, null);
+        summaryIndex.getSummaryList();
+        store.updateMicroserviceConfiguration("id-00", configuration("Changed", "changed", false));
+        summaryIndex.put("id-00", store.configurationList.get("id-00"));
+        store.deleteMicroserviceConfiguration("id-01");
+        summaryIndex.remove("id-01");
+        assertEquals(expectedList(null, "id", false), summaryIndex.getSummaryList());
+        assertEquals(expectedList(false, "name", true), summaryIndex.getSummaryPage(false, "name", true, 0, 0).getJsonArray("microserviceList"));
+    }
+
+    @Test
+    public void testRefresh() throws Exception {
+        MicroserviceSummaryIndex summaryIndex = new MicroserviceSummaryIndex(store, null);
+        summaryIndex.getSummaryList();
+        //changes made outside of the persistence manager
+        store.updateMicroserviceConfiguration("id-02", configuration("External", "external", true));
+        store.deleteMicroserviceConfiguration("id-03");
+        summaryIndex.refresh("id-02");
+        summaryIndex.refresh("id-03");
+        assertEquals(expectedList(null, "id", false), summaryIndex.getSummaryList());
+        store.updateMicroserviceConfiguration("id-04", configuration("Other", "other", true));
+        //a full refresh read again the index
+        summaryIndex.refresh(null);
+        assertEquals(expectedList(null, "id", false), summaryIndex.getSummaryList());
+    }
+
+    @Test
+    public void testStampReuse() throws Exception {
+        new MicroserviceSummaryIndex(store, indexFile).getSummaryList();
+        assertEquals(25, store.retrieved);
+        assertTrue(new File(indexFile).exists());
+
+        //a new index read only the configurations with a different stamp than the saved one
+        store.retrieved = 0;
+        store.updateMicroserviceConfiguration("id-05", configuration("Changed", "changed", true));
+        store.deleteMicroserviceConfiguration("id-06");
+        store.updateMicroserviceConfiguration("id-99", configuration("Added", "added", false));
+        MicroserviceSummaryIndex summaryIndex = new MicroserviceSummaryIndex(store, indexFile);
+        assertEquals(expectedList(null, "id", false), summaryIndex.getSummaryList());
+        assertEquals(2, store.retrieved);
+
+        //nothing changed
+        store.retrieved = 0;
+        assertEquals(expectedList(null, "id", false), new MicroserviceSummaryIndex(store, indexFile).getSummaryList());
+        assertEquals(0, store.retrieved);
+    }
+
+    @Test
+    public void testNoStampReadAll() throws Exception {
+        new MicroserviceSummaryIndex(store, indexFile).getSummaryList();
+        store.stampList.clear();
+        store.retrieved = 0;
+        new MicroserviceSummaryIndex(store, indexFile).getSummaryList();
+        assertEquals(25, store.retrieved);
+    }
+
+    @Test
+    public void testCorruptedIndexFile() throws Exception {
+        new File(indexFile).getParentFile().mkdirs();
+        Utils.writeFile("{not json".getBytes("UTF-8"), new File(indexFile), false);
+        MicroserviceSummaryIndex summaryIndex = new MicroserviceSummaryIndex(store, indexFile);
+        assertEquals(expectedList(null, "id", false), summaryIndex.getSummaryList());
+        assertEquals(25, readIndexFile().size());
+    }
+
+    @Test
+    public void testDebouncedSave() throws Exception {
+        MicroserviceSummaryIndex.saveDelayMs = 300;
+        MicroserviceSummaryIndex summaryIndex = new MicroserviceSummaryIndex(store, indexFile);
+        summaryIndex.getSummaryList();
+        for(int i = 0; i < 5; i++) {
+            store.updateMicroserviceConfiguration("new-" + i, configuration("New", "new", true));
+            summaryIndex.put("new-" + i, store.configurationList.get("new-" + i));
+        }
+        //the changes are saved together after the delay
+        assertEquals(25, readIndexFile().size());
+        long end = System.currentTimeMillis() + 10000;
+        while(readIndexFile().size() != 30 && System.currentTimeMillis() < end)
+            Thread.sleep(20);
+        assertEquals(30, readIndexFile().size());
+    }
+
+    @Test
+    public void testFlush() throws Exception {
+        MicroserviceSummaryIndex.saveDelayMs = 60000;
+        MicroserviceSummaryIndex summaryIndex = new MicroserviceSummaryIndex(store, indexFile);
+        summaryIndex.getSummaryList();
+        store.deleteMicroserviceConfiguration("id-00");
+        summaryIndex.remove("id-00");
+        assertEquals(25, readIndexFile().size());
+        summaryIndex.flush();
+        assertEquals(24, readIndexFile().size());
+        assertFalse(new File(indexFile + ".tmp").exists());
+    }
+
+    private JsonArray readIndexFile() throws Exception {
+        return Json.createReader(new java.io.StringReader(new String(Utils.readFile(indexFile), "UTF-8"))).readObject().getJsonArray("summaryList");
+    }
+
+    private List<JsonObject> expectedList(Boolean publicFilter, String sortBy, boolean descending) {
+        List<JsonObject> ret = new ArrayList<JsonObject>();
+        for(Map.Entry<String, JsonObject> entry : store.configurationList.entrySet()) {
+            JsonObject configuration = entry.getValue();
+            if(publicFilter != null && configuration.getBoolean("public") != publicFilter)
+                continue;
+            ret.add(Json.createObjectBuilder()
+                .add("id", entry.getKey())
+                .add("name", configuration.getString("name"))
+                .add("description", configuration.getString("description"))
+                .add("public", configuration.getBoolean("public"))
+                .add("moreInfos", configuration.getJsonObject("moreInfos"))
+                .build());
+        }
+        ret.sort((a, b) -> {
+            int compare = sortBy.equals("id") ? 0 : String.CASE_INSENSITIVE_ORDER.compare(a.getString(sortBy), b.getString(sortBy));
+            return compare != 0 ? compare : a.getString("id").compareTo(b.getString("id"));
+        });
+        if(descending)
+            java.util.Collections.reverse(ret);
+        return ret;
+    }
+
+    private static JsonObject configuration(String name, String description, boolean isPublic) {
+        return Json.createObjectBuilder()
+            .add("name", name)
+            .add("description", description)
+            .add("public", isPublic)
+            .add("moreInfos", Json.createObjectBuilder().add("owner", name))
+            .add("operations", Json.createObjectBuilder())
+            .build();
+    }
+}
@@ -0,0 +1,175 @@
+package org.adoxx.microservice.api.persistence.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+
+import org.adoxx.microservice.api.persistence.MicroserviceSummaryIndex;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * The {@link H2Store} must keep the stamps consistent under concurrent writes, migrate the tables without the summary columns and list the microservices as the {@link MicroserviceSummaryIndex}<br>
+ */
+public class H2StoreTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private String jdbcUrl;
+    private H2Store store;
+
+    @Before
+    public void setUp() throws Exception {
+        jdbcUrl = "jdbc:h2:" + new File(temporaryFolder.getRoot(), "microservices-db").getAbsolutePath();
+    }
+
+    @After
+    public void tearDown() {
+        if(store != null)
+            store.close();
+    }
+
+    @Test
+    public void testCrud() throws Exception {
+        store = new H2Store(jdbcUrl, "", "", 2);
+        String id = store.saveMicroserviceConfiguration(configuration("first", "description", false));
+        assertTrue(store.existMicroserviceConfiguration(id));
+        assertEquals(1, store.getMicroserviceConfigurationStamp(id));
+        store.updateMicroserviceConfiguration(id, configuration("changed", "description", true));
+        assertEquals(2, store.getMicroserviceConfigurationStamp(id));
+        assertEquals(configuration("changed", "description", true), store.retrieveMicroserviceConfiguration(id));
+        assertEquals(Arrays.asList(id), store.retrieveAllMicroservicesId());
+        assertEquals(1, store.countMicroserviceConfigurations());
+        store.deleteMicroserviceConfiguration(id);
+        assertFalse(store.existMicroserviceConfiguration(id));
+        assertEquals(-1, store.getMicroserviceConfigurationStamp(id));
+        try {
+            store.deleteMicroserviceConfiguration(id);
+            fail("a deleted configuration can not be deleted again");
+        } catch(Exception ex) {}
+        try {
+            store.retrieveMicroserviceConfiguration(id);
+            fail("a deleted configuration can not be retrieved");
+        } catch(Exception ex) {}
+    }
+
+    @Test
+    public void testConcurrentStamps() throws Exception {
+        store = new H2Store(jdbcUrl, "", "", 10);
+        ExecutorService executor = Executors.newFixedThreadPool(16);
+        try {
+            List<Future<?>> futureList = new ArrayList<Future<?>>();
+            //the first writes race on the insert of the new id
+            for(int i = 0; i < 200; i++) {
+                int revision = i;
+                futureList.add(executor.submit(() -> {
+                    store.updateMicroserviceConfiguration("concurrent", configuration("revision " + revision, "description", revision % 2 == 0));
+                    return null;
+                }));
+            }
+            for(Future<?> future : futureList)
+                future.get();
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(200, store.getMicroserviceConfigurationStamp("concurrent"));
+    }
+
+    @Test
+    public void testMigration() throws Exception {
+        //a table created before the summary columns
+        try (Connection connection = DriverManager.getConnection(jdbcUrl, "", ""); Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE MICROSERVICE (ID VARCHAR(255) PRIMARY KEY, STAMP BIGINT NOT NULL, CONFIGURATION CLOB NOT NULL)");
+            statement.execute("INSERT INTO MICROSERVICE VALUES ('legacy', 3, '" + configuration("Legacy", "legacy", true) + "')");
+        }
+        store = new H2Store(jdbcUrl, "", "", 2);
+        assertEquals(3, store.getMicroserviceConfigurationStamp("legacy"));
+        JsonObject page = store.retrieveMicroserviceSummaryPage(true, "name", false, 0, 0);
+        assertEquals(1, page.getInt("total"));
+        assertEquals("Legacy", page.getJsonArray("microserviceList").getJsonObject(0).getString("name"));
+        assertEquals(Json.createObjectBuilder().add("owner", "Legacy").build(), page.getJsonArray("microserviceList").getJsonObject(0).getJsonObject("moreInfos"));
+        store.updateMicroserviceConfiguration("legacy", configuration("Legacy", "legacy", true));
+        assertEquals(4, store.getMicroserviceConfigurationStamp("legacy"));
+    }
+
+    @Test
+    public void testSummaryPageParity() throws Exception {
+        store = new H2Store(jdbcUrl, "", "", 2);
+        InMemoryStore memoryStore = new InMemoryStore();
+        Random random = new Random(1);
+        //names differing only in the case, sorted by the id
+        String[] nameList = {"alpha", "Alpha", "beta", "BETA", "gamma", "delta", "Zeta", "eta"};
+        for(int i = 0; i < 60; i++) {
+            JsonObject configuration = configuration(nameList[random.nextInt(nameList.length)], nameList[random.nextInt(nameList.length)] + i % 3, random.nextBoolean());
+            String id = String.format("id-%03d", random.nextInt(1000)) + "-" + i;
+            store.updateMicroserviceConfiguration(id, configuration);
+            memoryStore.updateMicroserviceConfiguration(id, configuration);
+        }
+        MicroserviceSummaryIndex summaryIndex = new MicroserviceSummaryIndex(memoryStore, null);
+        for(Boolean publicFilter : new Boolean[] {null, true, false})
+            for(String sortBy : new String[] {"id", "name", "description"})
+                for(boolean descending : new boolean[] {false, true})
+                    for(int[] offsetLimit : new int[][] {{0, 0}, {0, 7}, {5, 10}, {55, 10}, {100, 5}})
+                        assertEquals(publicFilter + " " + sortBy + " " + descending + " " + Arrays.toString(offsetLimit), summaryIndex.getSummaryPage(publicFilter, sortBy, descending, offsetLimit[0], offsetLimit[1]), store.retrieveMicroserviceSummaryPage(publicFilter, sortBy, descending, offsetLimit[0], offsetLimit[1]));
+        try {
+            store.retrieveMicroserviceSummaryPage(null, "moreInfos", false, 0, 0);
+            fail("unsupported sorting key");
+        } catch(Exception ex) {}
+    }
+
+    @Test
+    public void testSummaryPageUseIndex() throws Exception {
+        store = new H2Store(jdbcUrl, "", "", 2);
+        try (Connection connection = DriverManager.getConnection(jdbcUrl, "", ""); Statement statement = connection.createStatement(); ResultSet resultSet = statement.executeQuery("EXPLAIN SELECT ID, NAME, DESCRIPTION, IS_PUBLIC, MORE_INFOS FROM MICROSERVICE WHERE IS_PUBLIC = TRUE ORDER BY IS_PUBLIC, NAME, ID OFFSET 0 ROWS FETCH NEXT 10 ROWS ONLY")) {
+            assertTrue(resultSet.next());
+            assertTrue(resultSet.getString(1), resultSet.getString(1).contains("MICROSERVICE_PUBLIC_IDX"));
+            //the page is read in the order of the index, without sorting all the public microservices
+            assertTrue(resultSet.getString(1), resultSet.getString(1).contains("index sorted"));
+        }
+    }
+
+    @Test
+    public void testImportFolder() throws Exception {
+        File folder = temporaryFolder.newFolder("import");
+        Files.write(new File(folder, "imported.json").toPath(), configuration("Imported", "imported", true).toString().getBytes("UTF-8"));
+        Files.write(new File(folder, "ignored.txt").toPath(), "ignored".getBytes("UTF-8"));
+        store = new H2Store(jdbcUrl, "", "", 2);
+        assertEquals(1, store.importFolder(folder.getAbsolutePath()));
+        assertEquals(configuration("Imported", "imported", true), store.retrieveMicroserviceConfiguration("imported"));
+        //a second import update the configurations
+        assertEquals(1, store.importFolder(folder.getAbsolutePath()));
+        assertEquals(2, store.getMicroserviceConfigurationStamp("imported"));
+    }
+
+    private static JsonObject configuration(String name, String description, boolean isPublic) {
+        return Json.createObjectBuilder()
+            .add("name", name)
+            .add("description", description)
+            .add("public", isPublic)
+            .add("moreInfos", Json.createObjectBuilder().add("owner", name))
+            .add("operations", Json.createObjectBuilder())
+            .build();
+    }
+}
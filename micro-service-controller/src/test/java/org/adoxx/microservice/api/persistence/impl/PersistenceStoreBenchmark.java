@@ -0,0 +1,114 @@
+package org.adoxx.microservice.api.persistence.impl;
+
+import java.io.File;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+
+import org.adoxx.microservice.api.persistence.MicroserviceSummaryIndex;
+import org.adoxx.microservice.api.persistence.PersistenceI;
+import org.adoxx.microservice.utils.Utils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compare the {@link FileBasedStore} with the {@link H2Store} on the operations of the {@link org.adoxx.microservice.api.persistence.PersistenceManager}: retrieve and update of a configuration and listing of a page of microservices.<br>
+ * The stores are filled with copies of a configuration of the SERVICES folder (3 KB) in a temporary folder. As in the PersistenceManager the FileBasedStore list the microservices through the {@link MicroserviceSummaryIndex}, updated after every write, while the H2Store query its summary columns.<br>
+ * Run from the micro-service-controller folder after the test compilation with the main method, for example:
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.adoxx.microservice.api.persistence.impl.PersistenceStoreBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PersistenceStoreBenchmark {
+
+    @Param({"file", "h2"})
+    public String storeType;
+
+    @Param({"100", "1000", "10000"})
+    public int services;
+
+    private File folder;
+    private PersistenceI store;
+    private MicroserviceSummaryIndex summaryIndex;
+    private JsonObject[] configurationList;
+    private int next = 0;
+
+    @Setup
+    public void setUp() throws Exception {
+        folder = Files.createTempDirectory("persistence-benchmark").toFile();
+        if(storeType.equals("h2"))
+            store = new H2Store("jdbc:h2:" + new File(folder, "microservices-db").getAbsolutePath(), "", "", 4);
+        else
+            store = new FileBasedStore(folder.getAbsolutePath());
+        summaryIndex = new MicroserviceSummaryIndex(store, null);
+        JsonObject configuration = Json.createReader(new StringReader(new String(Utils.readFile(new File("../SERVICES/2daf6c38-4579-4929-8d72-4d869c9bcc4e.json")), "UTF-8"))).readObject();
+        configurationList = new JsonObject[services];
+        for(int i = 0; i < services; i++) {
+            configurationList[i] = Json.createObjectBuilder(configuration).add("name", "Service " + (i * 7919 % services)).add("public", i % 2 == 0).build();
+            store.updateMicroserviceConfiguration(id(i), configurationList[i]);
+        }
+        if(listPage().getInt("total") != services / 2)
+            throw new Exception("The " + storeType + " store list " + listPage().getInt("total") + " public microservices instead of " + services / 2);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        if(store instanceof H2Store)
+            ((H2Store) store).close();
+        try (Stream<Path> pathStream = Files.walk(folder.toPath())) {
+            pathStream.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    @Benchmark
+    public JsonObject retrieve() throws Exception {
+        next = (next + 1) % services;
+        return store.retrieveMicroserviceConfiguration(id(next));
+    }
+
+    @Benchmark
+    public void update() throws Exception {
+        next = (next + 1) % services;
+        store.updateMicroserviceConfiguration(id(next), configurationList[next]);
+        summaryIndex.put(id(next), configurationList[next]);
+    }
+
+    @Benchmark
+    public JsonObject listPage() throws Exception {
+        //the first page of the public microservices sorted by name, as shown by the catalogue
+        JsonObject page = store.retrieveMicroserviceSummaryPage(true, "name", false, 0, 50);
+        return page != null ? page : summaryIndex.getSummaryPage(true, "name", false, 0, 50);
+    }
+
+    private static String id(int index) {
+        return String.format("microservice-%05d", index);
+    }
+
+    public static void main(String[] argv) throws Exception {
+        new Runner(new OptionsBuilder().include(PersistenceStoreBenchmark.class.getSimpleName()).build()).run();
+    }
+}
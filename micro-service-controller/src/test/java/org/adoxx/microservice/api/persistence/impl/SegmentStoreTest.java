@@ -0,0 +1,321 @@
+package org.adoxx.microservice.api.persistence.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonObject;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * The {@link SegmentStore} must recover its state after an interrupted write or compaction and keep the configured history<br>
+ */
+public class SegmentStoreTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private SegmentStore.SyncMode syncMode;
+    private int maxSegmentSizeInMB;
+    private int maxHistoryVersions;
+    private int compactionIntervalInSeconds;
+    private double compactionMinGarbageRatio;
+    private String folder;
+    private List<SegmentStore> storeList = new ArrayList<SegmentStore>();
+
+    @Before
+    public void setUp() throws Exception {
+        syncMode = SegmentStore.syncMode;
+        maxSegmentSizeInMB = SegmentStore.maxSegmentSizeInMB;
+        maxHistoryVersions = SegmentStore.maxHistoryVersions;
+        compactionIntervalInSeconds = SegmentStore.compactionIntervalInSeconds;
+        compactionMinGarbageRatio = SegmentStore.compactionMinGarbageRatio;
+        SegmentStore.syncMode = SegmentStore.SyncMode.ALWAYS;
+        SegmentStore.compactionIntervalInSeconds = 0;
+        folder = temporaryFolder.newFolder("segments").getAbsolutePath();
+    }
+
+    @After
+    public void tearDown() {
+        for(SegmentStore store : storeList)
+            store.close();
+        SegmentStore.syncMode = syncMode;
+        SegmentStore.maxSegmentSizeInMB = maxSegmentSizeInMB;
+        SegmentStore.maxHistoryVersions = maxHistoryVersions;
+        SegmentStore.compactionIntervalInSeconds = compactionIntervalInSeconds;
+        SegmentStore.compactionMinGarbageRatio = compactionMinGarbageRatio;
+    }
+
+    @Test
+    public void testCrud() throws Exception {
+        SegmentStore store = open();
+        String id = store.saveMicroserviceConfiguration(configuration("first", 1));
+        assertTrue(store.existMicroserviceConfiguration(id));
+        long stamp = store.getMicroserviceConfigurationStamp(id);
+        store.updateMicroserviceConfiguration(id, configuration("first", 2));
+        assertTrue(store.getMicroserviceConfigurationStamp(id) > stamp);
+        assertEquals(configuration("first", 2), store.retrieveMicroserviceConfiguration(id));
+        assertEquals(Arrays.asList(id), store.retrieveAllMicroservicesId());
+        store.deleteMicroserviceConfiguration(id);
+        assertFalse(store.existMicroserviceConfiguration(id));
+        assertEquals(-1, store.getMicroserviceConfigurationStamp(id));
+        assertEquals(0, store.countMicroserviceConfigurations());
+        try {
+            store.deleteMicroserviceConfiguration(id);
+            fail("a deleted configuration can not be deleted again");
+        } catch(Exception ex) {}
+        try {
+            store.retrieveMicroserviceConfiguration(id);
+            fail("a deleted configuration can not be retrieved");
+        } catch(Exception ex) {}
+    }
+
+    @Test
+    public void testReopen() throws Exception {
+        SegmentStore store = open();
+        String id = store.saveMicroserviceConfiguration(configuration("kept", 1));
+        String deletedId = store.saveMicroserviceConfiguration(configuration("deleted", 1));
+        store.updateMicroserviceConfiguration(id, configuration("kept", 2));
+        store.deleteMicroserviceConfiguration(deletedId);
+        long stamp = store.getMicroserviceConfigurationStamp(id);
+        reopen(store);
+
+        store = open();
+        assertEquals(Arrays.asList(id), store.retrieveAllMicroservicesId());
+        assertEquals(configuration("kept", 2), store.retrieveMicroserviceConfiguration(id));
+        assertEquals(stamp, store.getMicroserviceConfigurationStamp(id));
+        //the versions continue after the ones of the segments
+        store.updateMicroserviceConfiguration(id, configuration("kept", 3));
+        assertTrue(store.getMicroserviceConfigurationStamp(id) > stamp);
+    }
+
+    @Test
+    public void testIncompleteLastRecordIsRemoved() throws Exception {
+        SegmentStore store = open();
+        String id = store.saveMicroserviceConfiguration(configuration("kept", 1));
+        String lostId = store.saveMicroserviceConfiguration(configuration("lost", 1));
+        reopen(store);
+        File segment = lastSegment();
+        long size = segment.length();
+        //a write interrupted in the middle of the last record
+        truncate(segment, size - 10);
+
+        store = open();
+        assertEquals(Arrays.asList(id), store.retrieveAllMicroservicesId());
+        assertFalse(store.existMicroserviceConfiguration(lostId));
+        assertTrue(segment.length() < size - 10);
+        //the store keep writing after the last valid record
+        String newId = store.saveMicroserviceConfiguration(configuration("new", 1));
+        reopen(store);
+
+        store = open();
+        assertEquals(configuration("kept", 1), store.retrieveMicroserviceConfiguration(id));
+        assertEquals(configuration("new", 1), store.retrieveMicroserviceConfiguration(newId));
+    }
+
+    @Test
+    public void testCorruptedLastRecordIsRemoved() throws Exception {
+        SegmentStore store = open();
+        String id = store.saveMicroserviceConfiguration(configuration("kept", 1));
+        String corruptedId = store.saveMicroserviceConfiguration(configuration("corrupted", 1));
+        reopen(store);
+        File segment = lastSegment();
+        corrupt(segment, segment.length() - 5);
+
+        store = open();
+        assertEquals(Arrays.asList(id), store.retrieveAllMicroservicesId());
+        assertFalse(store.existMicroserviceConfiguration(corruptedId));
+    }
+
+    @Test
+    public void testCorruptedClosedSegment() throws Exception {
+        //every record is written in a new segment
+        SegmentStore.maxSegmentSizeInMB = 0;
+        SegmentStore store = open();
+        store.saveMicroserviceConfiguration(configuration("first", 1));
+        store.saveMicroserviceConfiguration(configuration("second", 1));
+        reopen(store);
+        File[] segmentList = segments();
+        assertTrue(segmentList.length > 1);
+        corrupt(segmentList[segmentList.length - 2], 20);
+        try {
+            open();
+            fail("the committed records after a corruption must not be removed");
+        } catch(Exception ex) {
+            assertTrue(ex.getMessage().contains("corrupted"));
+        }
+    }
+
+    @Test
+    public void testHistory() throws Exception {
+        SegmentStore store = open();
+        String id = store.saveMicroserviceConfiguration(configuration("service", 1));
+        store.updateMicroserviceConfiguration(id, configuration("service", 2));
+        store.deleteMicroserviceConfiguration(id);
+        JsonArray history = store.retrieveMicroserviceConfigurationHistory(id);
+        assertEquals(3, history.size());
+        assertEquals(configuration("service", 1), history.getJsonObject(0).getJsonObject("configuration"));
+        assertEquals(configuration("service", 2), history.getJsonObject(1).getJsonObject("configuration"));
+        assertTrue(history.getJsonObject(2).getBoolean("deleted"));
+        assertFalse(history.getJsonObject(2).containsKey("configuration"));
+        assertTrue(history.getJsonObject(0).getJsonNumber("version").longValue() < history.getJsonObject(1).getJsonNumber("version").longValue());
+        assertEquals(0, store.retrieveMicroserviceConfigurationHistory("missing").size());
+    }
+
+    @Test
+    public void testCompaction() throws Exception {
+        SegmentStore.maxSegmentSizeInMB = 0;
+        SegmentStore.maxHistoryVersions = 2;
+        SegmentStore.compactionMinGarbageRatio = 0.1;
+        SegmentStore store = open();
+        String id = store.saveMicroserviceConfiguration(configuration("updated", 0));
+        for(int i = 1; i < 6; i++)
+            store.updateMicroserviceConfiguration(id, configuration("updated", i));
+        String deletedId = store.saveMicroserviceConfiguration(configuration("deleted", 0));
+        store.deleteMicroserviceConfiguration(deletedId);
+        String lastId = store.saveMicroserviceConfiguration(configuration("last", 0));
+        int segmentCount = segments().length;
+
+        assertTrue(store.compact());
+        //the closed segments are replaced by a single compacted segment
+        assertEquals(2, segments().length);
+        assertTrue(segmentCount > segments().length);
+        assertCompacted(store, id, deletedId, lastId);
+        //nothing left to compact
+        assertFalse(store.compact());
+        reopen(store);
+
+        store = open();
+        assertCompacted(store, id, deletedId, lastId);
+        store.updateMicroserviceConfiguration(id, configuration("updated", 6));
+        assertEquals(configuration("updated", 6), store.retrieveMicroserviceConfiguration(id));
+    }
+
+    @Test
+    public void testCompactionNotRequired() throws Exception {
+        SegmentStore.maxSegmentSizeInMB = 0;
+        SegmentStore.compactionMinGarbageRatio = 0.5;
+        SegmentStore store = open();
+        for(int i = 0; i < 5; i++)
+            store.saveMicroserviceConfiguration(configuration("service", i));
+        int segmentCount = segments().length;
+        assertFalse(store.compact());
+        assertEquals(segmentCount, segments().length);
+    }
+
+    @Test
+    public void testInterruptedCompaction() throws Exception {
+        SegmentStore.maxSegmentSizeInMB = 0;
+        SegmentStore.maxHistoryVersions = 1;
+        SegmentStore.compactionMinGarbageRatio = 0.1;
+        SegmentStore store = open();
+        String id = store.saveMicroserviceConfiguration(configuration("service", 0));
+        for(int i = 1; i < 4; i++)
+            store.updateMicroserviceConfiguration(id, configuration("service", i));
+        File[] replacedList = segments();
+        byte[][] replacedContentList = new byte[replacedList.length][];
+        for(int i = 0; i < replacedList.length; i++)
+            replacedContentList[i] = java.nio.file.Files.readAllBytes(replacedList[i].toPath());
+        assertTrue(store.compact());
+        reopen(store);
+        //the compaction was interrupted before deleting the replaced segments, and a new one was being written
+        for(int i = 0; i < replacedList.length - 1; i++)
+            java.nio.file.Files.write(replacedList[i].toPath(), replacedContentList[i]);
+        java.nio.file.Files.write(new File(folder, "compacted-999.tmp").toPath(), new byte[] {1, 2, 3});
+
+        store = open();
+        assertEquals(configuration("service", 3), store.retrieveMicroserviceConfiguration(id));
+        assertEquals(1, store.retrieveMicroserviceConfigurationHistory(id).size());
+        assertFalse(new File(folder, "compacted-999.tmp").exists());
+        for(int i = 0; i < replacedList.length - 1; i++)
+            assertFalse(replacedList[i].exists());
+    }
+
+    @Test
+    public void testImportFolder() throws Exception {
+        File importFolder = temporaryFolder.newFolder("import");
+        java.nio.file.Files.write(new File(importFolder, "imported-id.json").toPath(), configuration("imported", 1).toString().getBytes("UTF-8"));
+        java.nio.file.Files.write(new File(importFolder, "ignored.txt").toPath(), "ignored".getBytes("UTF-8"));
+        SegmentStore store = open();
+        assertEquals(1, store.importFolder(importFolder.getAbsolutePath()));
+        assertEquals(configuration("imported", 1), store.retrieveMicroserviceConfiguration("imported-id"));
+    }
+
+    private static void assertCompacted(SegmentStore store, String id, String deletedId, String lastId) throws Exception {
+        assertEquals(configuration("updated", 5), store.retrieveMicroserviceConfiguration(id));
+        JsonArray history = store.retrieveMicroserviceConfigurationHistory(id);
+        assertEquals(2, history.size());
+        assertEquals(configuration("updated", 4), history.getJsonObject(0).getJsonObject("configuration"));
+        //the deleted microservice is removed with its history
+        assertEquals(0, store.retrieveMicroserviceConfigurationHistory(deletedId).size());
+        assertFalse(store.existMicroserviceConfiguration(deletedId));
+        assertEquals(configuration("last", 0), store.retrieveMicroserviceConfiguration(lastId));
+        assertEquals(2, store.countMicroserviceConfigurations());
+    }
+
+    private SegmentStore open() throws Exception {
+        SegmentStore store = new SegmentStore(folder);
+        storeList.add(store);
+        return store;
+    }
+
+    private void reopen(SegmentStore store) {
+        store.close();
+        storeList.remove(store);
+    }
+
+    private File[] segments() {
+        File[] segmentList = new File(folder).listFiles((dir, name) -> name.endsWith(".log"));
+        //the compacted segment comes before the segments written after it
+        Arrays.sort(segmentList, (a, b) -> a.getName().startsWith("compacted") != b.getName().startsWith("compacted") ? (a.getName().startsWith("compacted") ? -1 : 1) : Long.compare(segmentNumber(a), segmentNumber(b)));
+        return segmentList;
+    }
+
+    private File lastSegment() {
+        File[] segmentList = segments();
+        return segmentList[segmentList.length - 1];
+    }
+
+    private static long segmentNumber(File segment) {
+        String name = segment.getName();
+        return Long.parseLong(name.substring(name.indexOf('-') + 1, name.length() - 4));
+    }
+
+    private static void truncate(File file, long size) throws Exception {
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+            randomAccessFile.setLength(size);
+        }
+    }
+
+    private static void corrupt(File file, long position) throws Exception {
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+            randomAccessFile.seek(position);
+            int value = randomAccessFile.read();
+            randomAccessFile.seek(position);
+            randomAccessFile.write(value ^ 0xFF);
+        }
+    }
+
+    private static JsonObject configuration(String name, int revision) {
+        return Json.createObjectBuilder()
+            .add("name", name)
+            .add("description", "revision " + revision)
+            .add("public", true)
+            .add("operations", Json.createObjectBuilder())
+            .build();
+    }
+}
@@ -0,0 +1,91 @@
+package org.adoxx.microservice.utils;
+
+import java.util.HashMap;
+import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
+
+import javax.script.ScriptEngine;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compare the evaluation of an adaptation algorithm through the {@link JavascriptEnginePool} with the evaluation used before it (a new Nashorn engine and a new thread for every evaluation).<br>
+ * Both the paths receive the output as a JSON string parsed by the script, so only the handling of the engine is compared.<br>
+ * Run from the micro-service-controller folder after the test compilation with the main method, for example:
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.adoxx.microservice.utils.JavascriptEnginePoolBenchmark
+ * </pre>
+ * The memory allocated for every evaluation is measured running the JMH runner (org.openjdk.jmh.Main) with the arguments JavascriptEnginePoolBenchmark -prof gc.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JavascriptEnginePoolBenchmark {
+
+    //the algorithm of the uploadService operation in the SERVICES folder and a loop over an array
+    @Param({"out({id: output.fileId.substr(17, output.fileId.length-30)});", "var s=0;for(var i=0;i<output.items.length;i++){s+=output.items[i].value;}out({sum:s});"})
+    public String algorithm;
+
+    private String output;
+    private String script;
+
+    @Setup
+    public void setUp() throws Exception {
+        StringBuilder items = new StringBuilder();
+        for(int i = 0; i < 100; i++)
+            items.append(i == 0 ? "" : ",").append("{\"name\":\"item ").append(i).append("\",\"value\":").append(i).append("}");
+        output = "{\"fileId\":\"/uploadedFiles/id_0f3c2a1e-7d5b-4c1a-9e8f-2b6d4a0c9e7f.json\",\"items\":[" + items + "]}";
+        script = "output = JSON.parse(_output);\n" + algorithm;
+        if(!pooledEngine().equals(newEngine()))
+            throw new Exception("The pooled engine return a different result for " + algorithm);
+    }
+
+    @Benchmark
+    public Object newEngine() throws Exception {
+        HashMap<String, Object> parameters = new HashMap<String, Object>();
+        parameters.put("_output", output);
+        ScriptEngine engine = new org.openjdk.nashorn.api.scripting.NashornScriptEngineFactory().getScriptEngine(className -> false);
+        for(Entry<String, Object> entry : parameters.entrySet())
+            engine.put(entry.getKey(), entry.getValue());
+        engine.eval(JavascriptEnginePool.POLYFILL_SCRIPT);
+        Object[] result = new Object[2];
+        Thread thread = new Thread(() -> {
+            try {
+                result[0] = engine.eval("out=function(o){return JSON.stringify(o);};\n" + script);
+            } catch (Throwable e) {
+                result[1] = e;
+            }
+        });
+        thread.start();
+        thread.join();
+        if(result[1] != null)
+            throw new Exception("Error occurred in the Javascript execution: " + result[1].toString());
+        return result[0];
+    }
+
+    @Benchmark
+    public Object pooledEngine() throws Exception {
+        HashMap<String, Object> parameters = new HashMap<String, Object>();
+        parameters.put("_output", output);
+        return Utils.javascriptSafeEval(parameters, script, false);
+    }
+
+    public static void main(String[] argv) throws Exception {
+        new Runner(new OptionsBuilder().include(JavascriptEnginePoolBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,169 @@
+package org.adoxx.microservice.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonValue;
+import javax.script.ScriptEngine;
+
+import org.adoxx.microservice.api.MicroserviceController;
+import org.junit.Test;
+import org.openjdk.nashorn.api.scripting.JSObject;
+import org.openjdk.nashorn.api.scripting.NashornScriptEngineFactory;
+
+/**
+ * The adaptation algorithms must give the same result when the JSON values are exchanged through the {@link JsonScriptBridge} and when they are parsed from strings<br>
+ */
+public class JsonScriptBridgeTest {
+
+    private static final JsonObject OUTPUT = Json.createObjectBuilder()
+        .add("dataText", "text")
+        .add("number", 1.5)
+        .add("nested", Json.createObjectBuilder().add("key", "value").add("list", Json.createArrayBuilder().add(1).add(Json.createObjectBuilder().add("inner", true))))
+        .add("empty", JsonValue.NULL)
+        //used by the algorithms of the bundled microservices
+        .add("fileId", "published_schemas/0123456789abcdef-schema.bpmn")
+        .add("dataJson", Json.createObjectBuilder().add("key", "value"))
+        .build();
+    private static final JsonObject INPUT = Json.createObjectBuilder().add("Your Name", Json.createObjectBuilder().add("value", "name")).build();
+
+    //the idioms used by the adaptation algorithms, including the ones not supported by the proxies
+    private static final String[] ALGORITHM_LIST = {
+        "out(output);",
+        "output.newField='newField';\nout(output);",
+        "delete output.nested; out(output);",
+        "output.nested.key = 'changed'; output.nested.list.push(2); out(output);",
+        "var s=''; for(var k in output) s+=k+','; s;",
+        "output.hasOwnProperty('dataText') + ',' + ('empty' in output) + ',' + output.hasOwnProperty('missing');",
+        "JSON.stringify(output);",
+        "JSON.stringify(output, null, 2);",
+        "JSON.stringify(output, ['dataText', 'nested', 'key']);",
+        "JSON.stringify(output, function(k, v){ return typeof v === 'number' ? v * 2 : v; });",
+        "JSON.stringify({wrapped: output, input: input});",
+        "out({name: input['Your Name'].value, list: output.nested.list.map(function(i){ return typeof i; })});",
+        "Object.keys(output).join(',');",
+        "Object.keys(output.nested).length;",
+        "Object.getOwnPropertyNames(output).join(',');",
+        "Object.prototype.hasOwnProperty.call(output, 'dataText');",
+        "output instanceof Object;",
+        "output.nested.constructor === Object;",
+        "var copy = {}; Object.keys(output).forEach(function(k){ copy[k] = output[k]; }); out(copy);",
+        "output != null;",
+        "String(output.number) + typeof output.empty;"
+    };
+
+    //the values converted by the bridge, including the ones that JSON.stringify omit, replace or convert
+    private static final String[] VALUE_LIST = {
+        "1", "-1", "1.5", "-0", "0.1 + 0.2", "1 / 3", "-1.5e-7", "1e21", "Math.pow(2, 53)", "Math.pow(2, 53) + 2", "12345678901234567890", "2147483648",
+        "NaN", "Infinity", "-Infinity",
+        "'text'", "'quote \\\" backslash \\\\ unicode \\u00e9 control \\u0001 newline \\n'", "''",
+        "true", "false", "null",
+        "({})", "[]", "[[], [[]], {}]",
+        "({a: 1, b: 'x', c: [1, 2, {d: null}], e: {}})",
+        "({'key with space': 1, 2: 'numeric key', '': 'empty key'})",
+        "(function(){ var o = {}; o.b = 1; o.a = 2; o[1] = 3; return o; })()",
+        "({u: undefined, f: function(){}, n: NaN, i: -Infinity})",
+        "[undefined, function(){}, NaN, 2]",
+        "[1, , 3]",
+        "({toJSON: function(){ return {replaced: true}; }})",
+        "({nested: {toJSON: function(){ return 'replaced'; }}})",
+        "({list: [{toJSON: function(){ return undefined; }}]})",
+        "({key: {toJSON: function(){ return undefined; }}})",
+        "new Date(0)",
+        "({date: new Date(86400000)})",
+        "Object.create({inherited: 1}, {own: {value: 2, enumerable: true}})",
+        "Object.defineProperty({visible: 1}, 'hidden', {value: 1, enumerable: false})",
+        "(function(){ var a = [1, 2]; a.extra = 'ignored'; return a; })()"
+    };
+
+    @Test
+    public void testToJsonParity() throws Exception {
+        ScriptEngine engine = new NashornScriptEngineFactory().getScriptEngine();
+        JsonScriptBridge bridge = new JsonScriptBridge();
+        bridge.bind(engine.eval("this"));
+        JSObject stringify = (JSObject) engine.eval("JSON.stringify");
+        //the numbers are compared as javascript numbers, because the two serializations can use a different notation
+        JSObject normalize = (JSObject) engine.eval("(function(s){ return s == null ? s : JSON.stringify(JSON.parse(s)); })");
+        for(String value : VALUE_LIST) {
+            Object scriptValue = engine.eval("(" + value + ")");
+            Object expected = stringify.call(null, scriptValue);
+            String bridgeResult = bridge.stringify(scriptValue);
+            assertEquals(value, expected instanceof String ? expected : null, normalize.call(null, bridgeResult));
+        }
+    }
+
+    @Test
+    public void testToJsonOfJsonValues() throws Exception {
+        JsonScriptBridge bridge = new JsonScriptBridge();
+        assertTrue(bridge.toJson(OUTPUT) == OUTPUT);
+        assertEquals(JsonValue.NULL, bridge.toJson(null));
+        assertEquals(OUTPUT, bridge.toJsonObject(bridge.wrap(OUTPUT)));
+        try {
+            bridge.toJsonObject("text");
+            assertTrue("only the objects are accepted", false);
+        } catch(Exception ex) {}
+    }
+
+    @Test
+    public void testAlgorithmsCompatibility() throws Exception {
+        for(String algorithm : ALGORITHM_LIST)
+            assertSameResult(algorithm);
+    }
+
+    @Test
+    public void testBundledAlgorithmsCompatibility() throws Exception {
+        List<String> algorithmList = new ArrayList<String>();
+        collectAlgorithms(MicroserviceController.unique().createEmptyMicroserviceConfiguration(), algorithmList);
+        collectAlgorithms(MicroserviceController.unique().createDemoMicroserviceConfiguration(), algorithmList);
+        File[] serviceFileList = new File("../SERVICES").listFiles();
+        if(serviceFileList != null)
+            for(File serviceFile : serviceFileList)
+                if(serviceFile.getName().endsWith(".json"))
+                    collectAlgorithms(Json.createReader(new StringReader(new String(Utils.readFile(serviceFile), "UTF-8"))).readObject(), algorithmList);
+        assertFalse(algorithmList.isEmpty());
+        for(String algorithm : algorithmList)
+            assertSameResult(algorithm);
+    }
+
+    @Test
+    public void testOutReturnString() throws Exception {
+        assertEquals("string", Utils.outputAdaptation(OUTPUT, null, "typeof out(output);", false));
+        assertEquals("LOG " + OUTPUT.toString(), Utils.outputAdaptation(OUTPUT, null, "'LOG ' + out(output);", false));
+        //the string returned by out() is given back as the JsonObject it was built from
+        assertTrue(Utils.outputAdaptation(OUTPUT, null, "var o = out(output); o;", false) == OUTPUT);
+    }
+
+    private static void collectAlgorithms(JsonObject microserviceConfiguration, List<String> algorithmList) {
+        for(JsonValue operation : microserviceConfiguration.getJsonObject("operations").values()) {
+            JsonObject configuration = operation.asJsonObject().getJsonObject("configuration");
+            for(String algorithmKey : new String[] {"outputAdaptationAlgorithm", "statusCheckAlgorithm"}) {
+                String algorithm = configuration.getString(algorithmKey, "");
+                //the algorithms calling other microservices or loading remote scripts can not run here
+                if(!algorithm.trim().isEmpty() && !algorithm.contains("callMicroservice") && !algorithm.contains("load("))
+                    algorithmList.add(algorithm);
+            }
+        }
+    }
+
+    private static void assertSameResult(String algorithm) throws Exception {
+        Object bridgeResult = Utils.outputAdaptation(OUTPUT, INPUT, algorithm, false);
+        Object stringResult = Utils.outputAdaptation(OUTPUT.toString(), INPUT.toString(), algorithm, false);
+        assertEquals(algorithm, normalize(stringResult), normalize(bridgeResult));
+    }
+
+    private static Object normalize(Object result) {
+        if(result instanceof JsonValue)
+            return result.toString();
+        if(result instanceof Number)
+            return ((Number) result).doubleValue();
+        return result;
+    }
+}
@@ -0,0 +1,100 @@
+package org.adoxx.microservice.utils;
+
+import java.io.File;
+import java.io.StringReader;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonValue;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compare the {@link ScriptEngineProviderI} implementations (Nashorn and GraalJS) on the scripts of the operations in the SERVICES folder.<br>
+ * The adaptation algorithms of uploadService and getService receive the output through the JSON bridge as in {@link Utils#outputAdaptation(JsonValue, JsonValue, String, boolean)}, but are always evaluated by the engine, also when trivial.
+ * The algorithm of testSchemaGeneration (an XML parser and a Base64 encoder written in javascript) is evaluated on a generated BPMN of 200 tasks in place of the one retrieved from the other operation.<br>
+ * The GraalJS provider require the optional org.graalvm.js:js dependency in the classpath and should be measured on GraalVM or with the Graal compiler enabled, otherwise it run in interpreted mode.<br>
+ * Run from the micro-service-controller folder after the test compilation with the main method, for example:
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.adoxx.microservice.utils.ScriptEngineProviderBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ScriptEngineProviderBenchmark {
+
+    private static final String BPMN_RETRIEVE_CALL = "callMicroserviceNT('92d44336-4d0f-42cd-a944-8611b3cc4aa6', 'retrieveSchema', {id:{value: fileId }}).dataText";
+
+    @Param({"nashorn", "graaljs"})
+    public String engine;
+
+    @Param({"2daf6c38-4579-4929-8d72-4d869c9bcc4e/uploadService", "2daf6c38-4579-4929-8d72-4d869c9bcc4e/getService", "92d44336-4d0f-42cd-a944-8611b3cc4aa6/testSchemaGeneration"})
+    public String operation;
+
+    private String algorithm;
+    private JsonValue output;
+    private String bpmn;
+
+    @Setup
+    public void setUp() throws Exception {
+        JavascriptEngineManager.unique().setProvider(engine);
+        String[] microserviceOperation = operation.split("/");
+        JsonObject microserviceConfiguration = Json.createReader(new StringReader(new String(Utils.readFile(new File("../SERVICES/" + microserviceOperation[0] + ".json")), "UTF-8"))).readObject();
+        JsonObject configuration = microserviceConfiguration.getJsonObject("operations").getJsonObject(microserviceOperation[1]).getJsonObject("configuration");
+        if(microserviceOperation[1].equals("testSchemaGeneration")) {
+            algorithm = configuration.getJsonObject("configCall").getJsonObject("algorithm").getString("value");
+            if(!algorithm.contains(BPMN_RETRIEVE_CALL))
+                throw new Exception("The algorithm of " + operation + " does not retrieve the BPMN as expected");
+            algorithm = algorithm.replace(BPMN_RETRIEVE_CALL, "_bpmn");
+            StringBuilder bpmnBuilder = new StringBuilder("<?xml version=\"1.0\"?><definitions xmlns=\"http://www.omg.org/spec/BPMN/20100524/MODEL\" id=\"benchmark\"><process id=\"process\" isExecutable=\"false\"><startEvent id=\"start\"/>");
+            for(int i = 0; i < 200; i++)
+                bpmnBuilder.append("<task id=\"task").append(i).append("\" name=\"Task &amp; step ").append(i).append("\"><documentation>step ").append(i).append(" of the process</documentation></task><sequenceFlow id=\"flow").append(i).append("\" sourceRef=\"task").append(i).append("\" targetRef=\"task").append(i + 1).append("\"/>");
+            bpmn = bpmnBuilder.append("<endEvent id=\"end\"/></process></definitions>").toString();
+        } else {
+            algorithm = "output = _jsonBridge.wrap(_output);\n" + configuration.getString("outputAdaptationAlgorithm");
+            //the output of the ContentReceiverConnector and of the ContentProviderConnector
+            JsonObject service = Json.createObjectBuilder().add("name", "Service").add("description_short", "A service of the catalogue").add("keywords", Json.createArrayBuilder().add("json").add("catalogue")).add("type", "REST").build();
+            output = Json.createObjectBuilder().add("fileId", "SERVICE_CATALOG/_0f3c2a1e-7d5b-4c1a/service.json").add("dataJson", service).build();
+        }
+        if(evaluate() == null)
+            throw new Exception("The algorithm of " + operation + " return no result with " + engine);
+    }
+
+    @TearDown
+    public void tearDown() {
+        JavascriptEngineManager.unique().setNashornProvider();
+    }
+
+    @Benchmark
+    public Object evaluate() throws Exception {
+        HashMap<String, Object> parameters = new HashMap<String, Object>();
+        if(output != null)
+            parameters.put("_output", output);
+        if(bpmn != null)
+            parameters.put("_bpmn", bpmn);
+        return Utils.javascriptSafeEval(parameters, algorithm, false);
+    }
+
+    public static void main(String[] argv) throws Exception {
+        new Runner(new OptionsBuilder().include(ScriptEngineProviderBenchmark.class.getSimpleName()).build()).run();
+    }
+}
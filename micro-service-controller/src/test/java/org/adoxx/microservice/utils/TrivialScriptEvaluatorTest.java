@@ -0,0 +1,152 @@
+package org.adoxx.microservice.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonValue;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * The algorithms evaluated by the {@link TrivialScriptEvaluator} must give the same result of the javascript engine, the others must be left to the engine<br>
+ */
+public class TrivialScriptEvaluatorTest {
+
+    private static final JsonObject OUTPUT = Json.createObjectBuilder()
+        .add("dataText", "text")
+        .add("flag", true)
+        .add("off", false)
+        .add("empty", JsonValue.NULL)
+        .add("number", 3)
+        .add("nested", Json.createObjectBuilder().add("key", "value").add("inner", Json.createObjectBuilder().add("deep", "x")))
+        .add("list", Json.createArrayBuilder().add("first").add(Json.createObjectBuilder().add("name", "second")).add(JsonValue.NULL))
+        .add("with space", "spaced")
+        .build();
+    private static final JsonObject INPUT = Json.createObjectBuilder().add("Your Name", Json.createObjectBuilder().add("value", "name")).build();
+
+    private static final String[] TRIVIAL_ALGORITHM_LIST = {
+        "out(output);",
+        "out(output.nested)",
+        "out( output [ 'nested' ] . inner ) ; ;",
+        "output.dataText;",
+        "output.flag",
+        "output.off;",
+        "output.empty;",
+        "output.nested.inner.deep;",
+        "output['with space'];",
+        "output[\"nested\"]['key'];",
+        "output.list[0];",
+        "output.list[1].name;",
+        "output.list[2];",
+        "input['Your Name'].value;",
+        "output.dataText != null;",
+        "output.empty != null;",
+        "output.empty == null;",
+        "output.dataText === null;",
+        "output.empty !== null;",
+        "null != output.dataText;",
+        "null == output.list[2];",
+        "//comment\noutput.dataText; /* other comment */",
+        "/* only\n comments */ out(output);"
+    };
+
+    //the algorithms that the engine must evaluate, because they are not trivial or the result in Java could differ
+    private static final String[] ENGINE_ALGORITHM_LIST = {
+        "output.number;",
+        "output.nested;",
+        "output.missing;",
+        "output.missing != null;",
+        "output.dataText.length;",
+        "output.list[3];",
+        "output.list[01];",
+        "output.list['0'];",
+        "out(output.dataText);",
+        "out(output.list);",
+        "output['a\\'b'];",
+        "output.dataText; output.flag;",
+        "output.dataText + '';",
+        "output.dataText != undefined;",
+        "other.dataText;",
+        "JSON.stringify(output);",
+        "/* unterminated comment output.dataText;",
+        "output.dataText = 'x';"
+    };
+
+    @After
+    public void enable() {
+        TrivialScriptEvaluator.enabled = true;
+    }
+
+    @Test
+    public void testTrivialAlgorithms() throws Exception {
+        for(String algorithm : TRIVIAL_ALGORITHM_LIST) {
+            Object result = TrivialScriptEvaluator.unique().evaluate(algorithm, OUTPUT, INPUT);
+            assertNotSame(algorithm, TrivialScriptEvaluator.NOT_EVALUATED, result);
+            assertEquals(algorithm, evaluateWithEngine(algorithm), normalize(result));
+        }
+    }
+
+    @Test
+    public void testEngineFallback() throws Exception {
+        for(String algorithm : ENGINE_ALGORITHM_LIST)
+            assertSame(algorithm, TrivialScriptEvaluator.NOT_EVALUATED, TrivialScriptEvaluator.unique().evaluate(algorithm, OUTPUT, INPUT));
+    }
+
+    @Test
+    public void testUndefinedVariable() {
+        //the engine report the ReferenceError
+        assertSame(TrivialScriptEvaluator.NOT_EVALUATED, TrivialScriptEvaluator.unique().evaluate("input.value;", OUTPUT, null));
+    }
+
+    @Test
+    public void testOutReturnTheSameObject() {
+        assertSame(OUTPUT, TrivialScriptEvaluator.unique().evaluate("out(output);", OUTPUT, INPUT));
+        assertSame(OUTPUT.get("nested"), TrivialScriptEvaluator.unique().evaluate("out(output.nested);", OUTPUT, INPUT));
+    }
+
+    @Test
+    public void testStringVariant() {
+        assertEquals("text", TrivialScriptEvaluator.unique().evaluate("output.dataText;", OUTPUT.toString(), INPUT.toString()));
+        assertEquals(Boolean.TRUE, TrivialScriptEvaluator.unique().evaluate("output.empty == null;", OUTPUT.toString(), null));
+        //out() stringify the value in this variant
+        assertSame(TrivialScriptEvaluator.NOT_EVALUATED, TrivialScriptEvaluator.unique().evaluate("out(output);", OUTPUT.toString(), INPUT.toString()));
+        //the parsing errors are reported by the engine
+        assertSame(TrivialScriptEvaluator.NOT_EVALUATED, TrivialScriptEvaluator.unique().evaluate("output.dataText;", "{not json", null));
+    }
+
+    @Test
+    public void testDisabled() {
+        TrivialScriptEvaluator.enabled = false;
+        assertSame(TrivialScriptEvaluator.NOT_EVALUATED, TrivialScriptEvaluator.unique().evaluate("output.dataText;", OUTPUT, INPUT));
+    }
+
+    @Test
+    public void testStatus() {
+        long fastPathEvaluations = TrivialScriptEvaluator.unique().getStatus().getJsonNumber("fastPathEvaluations").longValue();
+        long engineEvaluations = TrivialScriptEvaluator.unique().getStatus().getJsonNumber("engineEvaluations").longValue();
+        TrivialScriptEvaluator.unique().evaluate("output.dataText;", OUTPUT, INPUT);
+        TrivialScriptEvaluator.unique().evaluate("output.number;", OUTPUT, INPUT);
+        JsonObject status = TrivialScriptEvaluator.unique().getStatus();
+        assertEquals(fastPathEvaluations + 1, status.getJsonNumber("fastPathEvaluations").longValue());
+        assertEquals(engineEvaluations + 1, status.getJsonNumber("engineEvaluations").longValue());
+        assertTrue(status.getInt("trivialScripts") > 0);
+    }
+
+    private static Object evaluateWithEngine(String algorithm) throws Exception {
+        TrivialScriptEvaluator.enabled = false;
+        try {
+            return normalize(Utils.outputAdaptation(OUTPUT, INPUT, algorithm, false));
+        } finally {
+            TrivialScriptEvaluator.enabled = true;
+        }
+    }
+
+    private static Object normalize(Object result) {
+        return result instanceof JsonValue ? result.toString() : result;
+    }
+}